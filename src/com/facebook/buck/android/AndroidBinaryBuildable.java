@@ -319,11 +319,12 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
               buildTarget,
               false,
               modulesInfo.build()));
-    }
 
-    // The `ApkBuilderStep` delegates to android tools to build a ZIP with timestamps in it, making
-    // the output non-deterministic.  So use an additional scrubbing step to zero these out.
-    steps.add(ZipScrubberStep.of(getProjectFilesystem().resolve(signedApkPath)));
+      // The `AabBuilderStep` delegates to android tools to build a ZIP with timestamps in it,
+      // making the output non-deterministic.  So use an additional scrubbing step to zero these
+      // out.
+      steps.add(ZipScrubberStep.of(getProjectFilesystem().resolve(signedApkPath)));
+    }
 
     Path apkToRedexAndAlign;
     // Optionally, compress the resources file in the .apk.
@@ -353,17 +354,22 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
     }
 
     if (isApk) {
-      Path zipalignedApkPath = getZipalignedApkPath();
-      steps.add(
-          new ZipalignStep(
-              getProjectFilesystem().getRootPath(),
-              androidPlatformTarget,
-              apkToAlign,
-              zipalignedApkPath));
+      // `ApkBuilderStep` aligns the apk as it writes it, so only apks that were rewritten since
+      // need to be zipaligned.
+      Path apkToSign = apkToAlign;
+      if (!apkToAlign.equals(signedApkPath)) {
+        apkToSign = getZipalignedApkPath();
+        steps.add(
+            new ZipalignStep(
+                getProjectFilesystem().getRootPath(),
+                androidPlatformTarget,
+                apkToAlign,
+                apkToSign));
+      }
       steps.add(
           new ApkSignerStep(
               getProjectFilesystem(),
-              zipalignedApkPath,
+              apkToSign,
               v2SignedApkPath,
               keystoreProperties,
               applyRedex));
@@ -789,7 +795,7 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
         getProjectFilesystem(), getBuildTarget(), "__native_libs_as_assets_%s__");
   }
 
-  /** The APK at this path will be jar signed, but not zipaligned. */
+  /** The APK at this path will be zipaligned, but not signed. */
   private Path getSignedApkPath() {
     return Paths.get(
         getUnsignedApkPath()
@@ -16,37 +16,52 @@
 
 package com.facebook.buck.android;
 
+import com.android.common.SdkConstants;
 import com.android.common.sdklib.build.ApkBuilder;
 import com.android.sdklib.build.ApkCreationException;
 import com.android.sdklib.build.DuplicateFileException;
-import com.android.sdklib.build.SealedApkException;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.ExecutorPool;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
  * Merges resources into a final APK. This code is based off of the now deprecated apkbuilder tool:
  * https://android.googlesource.com/platform/sdk/+/fd30096196e3747986bdf8a95cc7713dd6e0b239%5E/sdkmanager/libs/sdklib/src/main/java/com/android/sdklib/build/ApkBuilderMain.java
+ *
+ * <p>The apk is written with {@link ApkZipWriter}, so it's already aligned, but it isn't signed.
  */
 public class ApkBuilderStep implements Step {
 
+  private static final Pattern NATIVE_LIBRARY_PATTERN =
+      Pattern.compile("^.+\\.(so|bc)$", Pattern.CASE_INSENSITIVE);
+
   private final ProjectFilesystem filesystem;
   private final Path resourceApk;
   private final Path dexFile;
@@ -103,41 +118,43 @@ public class ApkBuilderStep implements Step {
     }
 
     try {
-      AppBuilderBase.PrivateKeyAndCertificate privateKeyAndCertificate =
-          appBuilderBase.createKeystoreProperties();
-      ApkBuilder builder =
-          new ApkBuilder(
-              filesystem.getPathForRelativePath(pathToOutputApkFile).toFile(),
-              filesystem.getPathForRelativePath(resourceApk).toFile(),
-              filesystem.getPathForRelativePath(dexFile).toFile(),
-              privateKeyAndCertificate.privateKey,
-              privateKeyAndCertificate.certificate,
-              output);
-      builder.setDebugMode(debugMode);
+      // The apk is signed by ApkSignerStep once it's final, but load the key now so that a bad
+      // keystore fails the build with a clear message before anything is packaged.
+      appBuilderBase.createKeystoreProperties();
+
+      Path outputApk = filesystem.getPathForRelativePath(pathToOutputApkFile);
+      if (output != null) {
+        output.println(String.format("Packaging %s", outputApk.getFileName()));
+      }
+      ApkContents contents = new ApkContents(output, debugMode);
+      contents.addZipFile(filesystem.getPathForRelativePath(resourceApk));
+      contents.addFile(filesystem.getPathForRelativePath(dexFile), SdkConstants.FN_APK_CLASSES_DEX);
       for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
-        builder.addNativeLibraries(
-            filesystem.getPathForRelativePath(nativeLibraryDirectory).toFile());
+        contents.addNativeLibraries(filesystem.getPathForRelativePath(nativeLibraryDirectory));
       }
       for (Path assetDirectory : assetDirectories) {
-        builder.addSourceFolder(filesystem.getPathForRelativePath(assetDirectory).toFile());
+        contents.addSourceFolder(filesystem.getPathForRelativePath(assetDirectory));
       }
       for (Path zipFile : zipFiles) {
         // TODO(natthu): Skipping silently is bad. These should really be assertions.
         if (filesystem.exists(zipFile) && filesystem.isFile(zipFile)) {
-          builder.addZipFile(filesystem.getPathForRelativePath(zipFile).toFile());
+          contents.addZipFile(filesystem.getPathForRelativePath(zipFile));
         }
       }
       for (Path jarFileThatMayContainResources : jarFilesThatMayContainResources) {
-        Path jarFile = filesystem.getPathForRelativePath(jarFileThatMayContainResources);
-        builder.addResourcesFromJar(jarFile.toFile());
+        contents.addResourcesFromJar(
+            filesystem.getPathForRelativePath(jarFileThatMayContainResources));
       }
 
       // Build the APK
-      builder.sealApk();
+      ApkZipWriter.write(
+          outputApk,
+          contents.entries,
+          context.getExecutors().get(ExecutorPool.CPU),
+          context.getConcurrencyLimit().threadLimit);
     } catch (ApkCreationException
         | KeyStoreException
         | NoSuchAlgorithmException
-        | SealedApkException
         | UnrecoverableKeyException e) {
       context.logError(e, "Error when creating APK at: %s.", pathToOutputApkFile);
       return StepExecutionResults.ERROR;
@@ -194,4 +211,137 @@ public class ApkBuilderStep implements Step {
 
     return Joiner.on(' ').join(args.build());
   }
+
+  /**
+   * Collects the entries of the apk, picking the same files and zip entries as the sdk's {@code
+   * ApkBuilder}. Directories are listed in sorted order so the apk doesn't depend on the order in
+   * which the filesystem lists them.
+   */
+  private static class ApkContents {
+    @Nullable private final PrintStream verboseStream;
+    private final boolean debugMode;
+    private final List<ApkZipWriter.Entry> entries = new ArrayList<>();
+    private final Map<String, File> addedFiles = new HashMap<>();
+
+    private ApkContents(@Nullable PrintStream verboseStream, boolean debugMode) {
+      this.verboseStream = verboseStream;
+      this.debugMode = debugMode;
+    }
+
+    private void addFile(Path file, String archivePath) throws DuplicateFileException {
+      verbosePrintln("%1$s => %2$s", file, archivePath);
+      add(ApkZipWriter.ofFile(archivePath, file), file);
+    }
+
+    /** Adds all files of {@code zipFile}, except for signature files. */
+    private void addZipFile(Path zipFile) throws DuplicateFileException, IOException {
+      verbosePrintln("%s:", zipFile);
+      for (ApkZipWriter.Entry entry : ApkZipWriter.readZipEntries(zipFile)) {
+        if (isPackagedZipEntry(entry.getName())) {
+          verbosePrintln("=> %s", entry.getName());
+          add(entry, zipFile);
+        }
+      }
+    }
+
+    /** Adds the java resources in {@code jarFile}, skipping classes and other source files. */
+    private void addResourcesFromJar(Path jarFile) throws DuplicateFileException, IOException {
+      verbosePrintln("%s:", jarFile);
+      for (ApkZipWriter.Entry entry : ApkZipWriter.readZipEntries(jarFile)) {
+        String archivePath = entry.getName();
+        if (!isPackagedZipEntry(archivePath)) {
+          continue;
+        }
+        String[] segments = archivePath.split("/");
+        boolean packaged = segments.length > 0;
+        for (int i = 0; packaged && i < segments.length - 1; i++) {
+          packaged = ApkBuilder.checkFolderForPackaging(segments[i]);
+        }
+        if (packaged && ApkBuilder.checkFileForPackaging(segments[segments.length - 1])) {
+          verbosePrintln("=> %s", archivePath);
+          add(entry, jarFile);
+        }
+      }
+    }
+
+    private void addSourceFolder(Path sourceFolder)
+        throws ApkCreationException, DuplicateFileException, IOException {
+      checkIsDirectory(sourceFolder);
+      for (Path file : listSorted(sourceFolder)) {
+        addResource(file, null);
+      }
+    }
+
+    private void addResource(Path file, @Nullable String parentPath)
+        throws DuplicateFileException, IOException {
+      String fileName = file.getFileName().toString();
+      String path = parentPath == null ? fileName : parentPath + "/" + fileName;
+      if (Files.isDirectory(file)) {
+        if (ApkBuilder.checkFolderForPackaging(fileName)) {
+          for (Path child : listSorted(file)) {
+            addResource(child, path);
+          }
+        }
+      } else if (ApkBuilder.checkFileForPackaging(fileName)) {
+        addFile(file, path);
+      }
+    }
+
+    /**
+     * Adds the libraries in the abi directories of {@code nativeFolder}, and gdbserver in debug
+     * mode.
+     */
+    private void addNativeLibraries(Path nativeFolder)
+        throws ApkCreationException, DuplicateFileException, IOException {
+      checkIsDirectory(nativeFolder);
+      verbosePrintln("Native folder: %s", nativeFolder);
+      for (Path abi : listSorted(nativeFolder)) {
+        if (!Files.isDirectory(abi)) {
+          continue;
+        }
+        for (Path lib : listSorted(abi)) {
+          String libName = lib.getFileName().toString();
+          if (Files.isRegularFile(lib)
+              && (NATIVE_LIBRARY_PATTERN.matcher(libName).matches()
+                  || (debugMode && SdkConstants.FN_GDBSERVER.equals(libName)))) {
+            addFile(lib, SdkConstants.FD_APK_NATIVE_LIBS + "/" + abi.getFileName() + "/" + libName);
+          }
+        }
+      }
+    }
+
+    private void add(ApkZipWriter.Entry entry, Path source) throws DuplicateFileException {
+      File duplicate = addedFiles.putIfAbsent(entry.getName(), source.toFile());
+      if (duplicate != null) {
+        throw new DuplicateFileException(entry.getName(), duplicate, source.toFile());
+      }
+      entries.add(entry);
+    }
+
+    private void verbosePrintln(String format, Object... args) {
+      if (verboseStream != null) {
+        verboseStream.println(String.format(format, args));
+      }
+    }
+
+    private static boolean isPackagedZipEntry(String name) {
+      return !name.endsWith("/") && !name.startsWith("META-INF/");
+    }
+
+    private static void checkIsDirectory(Path folder) throws ApkCreationException {
+      if (!Files.isDirectory(folder)) {
+        if (Files.exists(folder)) {
+          throw new ApkCreationException("%s is not a folder", folder);
+        } else {
+          throw new ApkCreationException("%s does not exist", folder);
+        }
+      }
+    }
+
+    private static List<Path> listSorted(Path directory) throws IOException {
+      try (Stream<Path> children = Files.list(directory)) {
+        return children.sorted().collect(Collectors.toList());
+      }
+    }
+  }
 }
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.util.concurrent.ParallelLoops;
+import com.facebook.buck.util.zip.ZipConstants;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+
+/**
+ * Writes an apk in a single pass from files and from entries of other zips.
+ *
+ * <p>Files are deflated on several threads. Entries of other zips are copied as they are, without
+ * inflating and compressing them again. The data of uncompressed entries is aligned to 4 bytes, as
+ * {@code zipalign 4} would, using the extra field that apksigner reads and keeps alignment with, so
+ * the apk can be signed without being zipaligned first. Every entry gets the same fixed timestamp,
+ * so the apk only depends on the contents and order of its entries.
+ */
+class ApkZipWriter {
+
+  private static final int ALIGNMENT = 4;
+
+  /** The extra field apksigner uses to pad the data of an entry to its alignment. */
+  private static final short ALIGNMENT_EXTRA_FIELD_ID = (short) 0xd935;
+
+  /** Header id, size and alignment multiple. */
+  private static final int ALIGNMENT_EXTRA_FIELD_MIN_SIZE = 6;
+
+  private static final short ZIP64_EXTRA_FIELD_ID = 0x0001;
+  private static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_LOCATOR_SIZE = 20;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final long MAX_UNSIGNED_INT = 0xffffffffL;
+
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int UTF8_NAMES_FLAG = 1 << 11;
+  private static final short VERSION_STORED = 10;
+  private static final short VERSION_DEFLATED = 20;
+
+  /** The level the jar builder that used to write apks compressed files with. */
+  private static final int COMPRESSION_LEVEL = 4;
+
+  /** Bounds how much file data is read and compressed ahead of writing it. */
+  private static final long MAX_BATCH_BYTES = 64 * 1024 * 1024;
+
+  private ApkZipWriter() {}
+
+  /** An entry of an apk, and where to take its contents from. */
+  abstract static class Entry {
+    private final String name;
+
+    private Entry(String name) {
+      this.name = name;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** The file or zip the contents of the entry come from. */
+    abstract Path getSource();
+  }
+
+  /** Returns an entry with the deflated contents of {@code file}. */
+  static Entry ofFile(String name, Path file) {
+    return new FileEntry(name, file);
+  }
+
+  /**
+   * Lists the entries of {@code zip} in the order of its central directory, including directories.
+   * Writing them copies their data as is.
+   */
+  static ImmutableList<Entry> readZipEntries(Path zip) throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      ByteBuffer centralDirectory = readCentralDirectory(zip, channel);
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      while (centralDirectory.hasRemaining()) {
+        entries.add(readCentralDirectoryRecord(zip, centralDirectory));
+      }
+      return entries.build();
+    }
+  }
+
+  /**
+   * Writes {@code entries} to {@code apk} in order, compressing files on up to {@code parallelism}
+   * threads.
+   */
+  static void write(Path apk, List<Entry> entries, @Nullable Executor executor, int parallelism)
+      throws IOException {
+    List<CentralDirectoryRecord> records = new ArrayList<>(entries.size());
+    Map<Path, FileChannel> openZips = new HashMap<>();
+    try (CountingOutputStream out =
+        new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(apk)))) {
+      int batchStart = 0;
+      while (batchStart < entries.size()) {
+        int batchEnd = batchStart;
+        int batchFiles = 0;
+        long batchBytes = 0;
+        while (batchEnd < entries.size()
+            && (batchEnd == batchStart || batchBytes < MAX_BATCH_BYTES)) {
+          Entry entry = entries.get(batchEnd++);
+          if (entry instanceof FileEntry) {
+            batchFiles++;
+            batchBytes += Files.size(entry.getSource());
+          }
+        }
+        List<Entry> batch = entries.subList(batchStart, batchEnd);
+        CompressedFile[] compressedFiles =
+            batchFiles == 0
+                ? new CompressedFile[batch.size()]
+                : compressConcurrently(batch, executor, Math.min(parallelism, batchFiles));
+        for (int i = 0; i < batch.size(); i++) {
+          Entry entry = batch.get(i);
+          if (entry instanceof FileEntry) {
+            records.add(writeEntry(out, entry.getName(), compressedFiles[i]));
+          } else {
+            ZipEntryCopy copy = (ZipEntryCopy) entry;
+            FileChannel zip = openZips.get(copy.zip);
+            if (zip == null) {
+              zip = FileChannel.open(copy.zip, StandardOpenOption.READ);
+              openZips.put(copy.zip, zip);
+            }
+            records.add(writeEntry(out, copy, zip));
+          }
+        }
+        batchStart = batchEnd;
+      }
+      writeCentralDirectory(apk, out, records);
+    } finally {
+      for (FileChannel zip : openZips.values()) {
+        zip.close();
+      }
+    }
+  }
+
+  /** Compresses the files among {@code entries} on up to {@code threads} threads. */
+  private static CompressedFile[] compressConcurrently(
+      List<Entry> entries, @Nullable Executor executor, int threads) throws IOException {
+    CompressedFile[] compressedFiles = new CompressedFile[entries.size()];
+    ParallelLoops.forEachIndex(
+        executor,
+        threads,
+        entries.size(),
+        index -> {
+          Entry entry = entries.get(index);
+          if (entry instanceof FileEntry) {
+            compressedFiles[index] = compress(entry.getSource());
+          }
+        });
+    return compressedFiles;
+  }
+
+  private static CompressedFile compress(Path file) throws IOException {
+    byte[] contents = Files.readAllBytes(file);
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+
+    Deflater deflater = new Deflater(COMPRESSION_LEVEL, /* nowrap */ true);
+    try {
+      deflater.setInput(contents);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        compressed.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return new CompressedFile(compressed.toByteArray(), crc.getValue(), contents.length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static CentralDirectoryRecord writeEntry(
+      CountingOutputStream out, String name, CompressedFile file) throws IOException {
+    CentralDirectoryRecord record =
+        new CentralDirectoryRecord(
+            name,
+            ZipEntry.DEFLATED,
+            file.crc,
+            file.data.length,
+            file.uncompressedSize,
+            out.getCount());
+    writeLocalFileHeader(out, record);
+    out.write(file.data);
+    return record;
+  }
+
+  private static CentralDirectoryRecord writeEntry(
+      CountingOutputStream out, ZipEntryCopy copy, FileChannel zip) throws IOException {
+    ByteBuffer localHeader = readFully(zip, copy.localHeaderOffset, ZipEntry.LOCHDR);
+    if (localHeader.getInt(0) != ZipEntry.LOCSIG) {
+      throw new IOException(
+          String.format("%s: bad local header for %s", copy.zip, copy.getName()));
+    }
+    long dataOffset =
+        copy.localHeaderOffset
+            + ZipEntry.LOCHDR
+            + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+            + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT));
+
+    CentralDirectoryRecord record =
+        new CentralDirectoryRecord(
+            copy.getName(),
+            copy.method,
+            copy.crc,
+            copy.compressedSize,
+            copy.uncompressedSize,
+            out.getCount());
+    writeLocalFileHeader(out, record);
+
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    long position = dataOffset;
+    long end = dataOffset + copy.compressedSize;
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      int read = zip.read(buffer, position);
+      if (read < 0) {
+        throw new IOException(
+            String.format("%s: unexpected end of data for %s", copy.zip, copy.getName()));
+      }
+      out.write(buffer.array(), 0, read);
+      position += read;
+    }
+    return record;
+  }
+
+  private static void writeLocalFileHeader(CountingOutputStream out, CentralDirectoryRecord record)
+      throws IOException {
+    int extraSize = 0;
+    int padding = 0;
+    if (record.method == ZipEntry.STORED) {
+      long dataOffset =
+          record.localHeaderOffset
+              + ZipEntry.LOCHDR
+              + record.name.length
+              + ALIGNMENT_EXTRA_FIELD_MIN_SIZE;
+      padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+      extraSize = ALIGNMENT_EXTRA_FIELD_MIN_SIZE + padding;
+    }
+
+    ByteBuffer header = newBuffer(ZipEntry.LOCHDR + record.name.length + extraSize);
+    header.putInt((int) ZipEntry.LOCSIG);
+    header.putShort(record.getVersion());
+    header.putShort((short) UTF8_NAMES_FLAG);
+    header.putShort((short) record.method);
+    header.putInt(ZipConstants.DOS_FAKE_TIME);
+    header.putInt((int) record.crc);
+    header.putInt((int) record.compressedSize);
+    header.putInt((int) record.uncompressedSize);
+    header.putShort((short) record.name.length);
+    header.putShort((short) extraSize);
+    header.put(record.name);
+    if (extraSize > 0) {
+      header.putShort(ALIGNMENT_EXTRA_FIELD_ID);
+      header.putShort((short) (extraSize - 4));
+      header.putShort((short) ALIGNMENT);
+      header.put(new byte[padding]);
+    }
+    out.write(header.array());
+  }
+
+  private static void writeCentralDirectory(
+      Path apk, CountingOutputStream out, List<CentralDirectoryRecord> records)
+      throws IOException {
+    long centralDirectoryOffset = out.getCount();
+    for (CentralDirectoryRecord record : records) {
+      ByteBuffer header = newBuffer(ZipEntry.CENHDR + record.name.length);
+      header.putInt((int) ZipEntry.CENSIG);
+      header.putShort(VERSION_DEFLATED);
+      header.putShort(record.getVersion());
+      header.putShort((short) UTF8_NAMES_FLAG);
+      header.putShort((short) record.method);
+      header.putInt(ZipConstants.DOS_FAKE_TIME);
+      header.putInt((int) record.crc);
+      header.putInt((int) record.compressedSize);
+      header.putInt((int) record.uncompressedSize);
+      header.putShort((short) record.name.length);
+      // Extra field, comment, disk number, internal and external attributes.
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putInt(0);
+      header.putInt((int) record.localHeaderOffset);
+      header.put(record.name);
+      out.write(header.array());
+    }
+    long centralDirectorySize = out.getCount() - centralDirectoryOffset;
+
+    // Android can't install zip64 apks, so fail instead of writing one.
+    if (records.size() > 0xffff || out.getCount() > MAX_UNSIGNED_INT) {
+      throw new IOException(
+          String.format(
+              "%s would have %d entries and take %d bytes, which needs zip64.",
+              apk, records.size(), out.getCount()));
+    }
+    ByteBuffer end = newBuffer(ZipEntry.ENDHDR);
+    end.putInt((int) ZipEntry.ENDSIG);
+    end.putShort((short) 0);
+    end.putShort((short) 0);
+    end.putShort((short) records.size());
+    end.putShort((short) records.size());
+    end.putInt((int) centralDirectorySize);
+    end.putInt((int) centralDirectoryOffset);
+    end.putShort((short) 0);
+    out.write(end.array());
+  }
+
+  private static ByteBuffer readCentralDirectory(Path zip, FileChannel channel)
+      throws IOException {
+    long size = channel.size();
+    int tailSize = (int) Math.min(size, ZipEntry.ENDHDR + MAX_COMMENT_SIZE);
+    ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+    int endOffset = tailSize - ZipEntry.ENDHDR;
+    while (endOffset >= 0 && tail.getInt(endOffset) != (int) ZipEntry.ENDSIG) {
+      endOffset--;
+    }
+    if (endOffset < 0) {
+      throw new IOException(String.format("%s is not a zip file", zip));
+    }
+
+    long entryCount = Short.toUnsignedLong(tail.getShort(endOffset + ZipEntry.ENDTOT));
+    long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(endOffset + ZipEntry.ENDSIZ));
+    long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(endOffset + ZipEntry.ENDOFF));
+    if (entryCount == 0xffff
+        || centralDirectorySize == MAX_UNSIGNED_INT
+        || centralDirectoryOffset == MAX_UNSIGNED_INT) {
+      int locatorOffset = endOffset - ZIP64_END_LOCATOR_SIZE;
+      if (locatorOffset >= 0 && tail.getInt(locatorOffset) == ZIP64_END_LOCATOR_SIGNATURE) {
+        ByteBuffer zip64End = readFully(channel, tail.getLong(locatorOffset + 8), 56);
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+          throw new IOException(String.format("%s: bad zip64 end of central directory", zip));
+        }
+        centralDirectorySize = zip64End.getLong(40);
+        centralDirectoryOffset = zip64End.getLong(48);
+      }
+    }
+    if (centralDirectorySize > Integer.MAX_VALUE) {
+      throw new IOException(String.format("%s: central directory is too large", zip));
+    }
+    return readFully(channel, centralDirectoryOffset, (int) centralDirectorySize);
+  }
+
+  private static ZipEntryCopy readCentralDirectoryRecord(Path zip, ByteBuffer centralDirectory)
+      throws IOException {
+    ByteBuffer record = centralDirectory.slice().order(ByteOrder.LITTLE_ENDIAN);
+    if (record.remaining() < ZipEntry.CENHDR || record.getInt(0) != ZipEntry.CENSIG) {
+      throw new IOException(String.format("%s: bad central directory", zip));
+    }
+    int flags = Short.toUnsignedInt(record.getShort(ZipEntry.CENFLG));
+    int method = Short.toUnsignedInt(record.getShort(ZipEntry.CENHOW));
+    long crc = Integer.toUnsignedLong(record.getInt(ZipEntry.CENCRC));
+    long compressedSize = Integer.toUnsignedLong(record.getInt(ZipEntry.CENSIZ));
+    long uncompressedSize = Integer.toUnsignedLong(record.getInt(ZipEntry.CENLEN));
+    int nameSize = Short.toUnsignedInt(record.getShort(ZipEntry.CENNAM));
+    int extraSize = Short.toUnsignedInt(record.getShort(ZipEntry.CENEXT));
+    int commentSize = Short.toUnsignedInt(record.getShort(ZipEntry.CENCOM));
+    long localHeaderOffset = Integer.toUnsignedLong(record.getInt(ZipEntry.CENOFF));
+
+    byte[] nameBytes = new byte[nameSize];
+    record.position(ZipEntry.CENHDR);
+    record.get(nameBytes);
+    String name = new String(nameBytes, Charsets.UTF_8);
+
+    // Sizes and offsets that don't fit in 32 bits are in the zip64 extra field, in this order.
+    ByteBuffer extra = record.slice().order(ByteOrder.LITTLE_ENDIAN);
+    extra.limit(extraSize);
+    while (extra.remaining() >= 4) {
+      short id = extra.getShort();
+      int size = Short.toUnsignedInt(extra.getShort());
+      int fieldEnd = extra.position() + size;
+      if (id == ZIP64_EXTRA_FIELD_ID) {
+        if (uncompressedSize == MAX_UNSIGNED_INT) {
+          uncompressedSize = extra.getLong();
+        }
+        if (compressedSize == MAX_UNSIGNED_INT) {
+          compressedSize = extra.getLong();
+        }
+        if (localHeaderOffset == MAX_UNSIGNED_INT) {
+          localHeaderOffset = extra.getLong();
+        }
+      }
+      extra.position(Math.min(fieldEnd, extra.limit()));
+    }
+
+    if ((flags & ENCRYPTED_FLAG) != 0) {
+      throw new IOException(String.format("%s: %s is encrypted", zip, name));
+    }
+    if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+      throw new IOException(
+          String.format("%s: %s uses unsupported compression method %d", zip, name, method));
+    }
+
+    centralDirectory.position(
+        centralDirectory.position() + ZipEntry.CENHDR + nameSize + extraSize + commentSize);
+    return new ZipEntryCopy(
+        name, zip, method, crc, compressedSize, uncompressedSize, localHeaderOffset);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int size)
+      throws IOException {
+    ByteBuffer buffer = newBuffer(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer newBuffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static class FileEntry extends Entry {
+    private final Path file;
+
+    private FileEntry(String name, Path file) {
+      super(name);
+      this.file = file;
+    }
+
+    @Override
+    Path getSource() {
+      return file;
+    }
+  }
+
+  private static class ZipEntryCopy extends Entry {
+    private final Path zip;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long uncompressedSize;
+    private final long localHeaderOffset;
+
+    private ZipEntryCopy(
+        String name,
+        Path zip,
+        int method,
+        long crc,
+        long compressedSize,
+        long uncompressedSize,
+        long localHeaderOffset) {
+      super(name);
+      this.zip = zip;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.uncompressedSize = uncompressedSize;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    @Override
+    Path getSource() {
+      return zip;
+    }
+  }
+
+  private static class CompressedFile {
+    private final byte[] data;
+    private final long crc;
+    private final long uncompressedSize;
+
+    private CompressedFile(byte[] data, long crc, long uncompressedSize) {
+      this.data = data;
+      this.crc = crc;
+      this.uncompressedSize = uncompressedSize;
+    }
+  }
+
+  private static class CentralDirectoryRecord {
+    private final byte[] name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long uncompressedSize;
+    private final long localHeaderOffset;
+
+    private CentralDirectoryRecord(
+        String name,
+        int method,
+        long crc,
+        long compressedSize,
+        long uncompressedSize,
+        long localHeaderOffset) {
+      this.name = name.getBytes(Charsets.UTF_8);
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.uncompressedSize = uncompressedSize;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    private short getVersion() {
+      return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+  }
+}
@@ -35,6 +35,8 @@ import com.facebook.buck.core.rules.impl.AbstractBuildRule;
 import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
@@ -46,13 +48,17 @@ import com.facebook.buck.step.fs.CopyStep;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.util.MoreSuppliers;
+import com.facebook.buck.util.concurrent.ExecutorPool;
+import com.facebook.buck.util.concurrent.ParallelLoops;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
@@ -63,6 +69,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
@@ -262,16 +269,51 @@ public class CopyNativeLibraries extends AbstractBuildRule implements SupportsIn
     return steps.build();
   }
 
+  /**
+   * Creates a step that writes the hash of every library under {@code pathToAllLibsDir} to {@code
+   * pathToMetadataTxt}. The libraries of each ABI are hashed concurrently with the other ABIs, and
+   * the time spent on each ABI is reported in a {@code hash_native_libs_abi} perf event.
+   */
   static Step createMetadataStep(
       ProjectFilesystem filesystem, Path pathToMetadataTxt, Path pathToAllLibsDir) {
     return new AbstractExecutionStep("hash_native_libs") {
       @Override
       public StepExecutionResult execute(ExecutionContext context) throws IOException {
+        ImmutableList<Path> nativeLibs =
+            ImmutableList.copyOf(filesystem.getFilesUnderPath(pathToAllLibsDir));
+        // Libraries are grouped by their ABI directory, e.g. "libs/armeabi-v7a".
+        ImmutableListMultimap<Path, Integer> libsByAbi =
+            Multimaps.index(
+                IntStream.range(0, nativeLibs.size()).iterator(),
+                index -> nativeLibs.get(index).getParent());
+        ImmutableList<Path> abis = libsByAbi.keySet().asList();
+
+        Sha1HashCode[] hashes = new Sha1HashCode[nativeLibs.size()];
+        ParallelLoops.forEachIndex(
+            context.getExecutors().get(ExecutorPool.CPU),
+            context.getConcurrencyLimit().threadLimit,
+            abis.size(),
+            abiIndex -> {
+              Path abi = abis.get(abiIndex);
+              ImmutableList<Integer> libs = libsByAbi.get(abi);
+              try (SimplePerfEvent.Scope scope =
+                  SimplePerfEvent.scope(
+                      context.getBuckEventBus(),
+                      PerfEventId.of("hash_native_libs_abi"),
+                      "abi",
+                      pathToAllLibsDir.relativize(abi).toString(),
+                      "libs",
+                      libs.size())) {
+                for (int index : libs) {
+                  hashes[index] = filesystem.computeSha1(nativeLibs.get(index));
+                }
+              }
+            });
+
         ImmutableList.Builder<String> metadataLines = ImmutableList.builder();
-        for (Path nativeLib : filesystem.getFilesUnderPath(pathToAllLibsDir)) {
-          Sha1HashCode filesha1 = filesystem.computeSha1(nativeLib);
-          Path relativePath = pathToAllLibsDir.relativize(nativeLib);
-          metadataLines.add(String.format("%s %s", relativePath, filesha1));
+        for (int index = 0; index < nativeLibs.size(); index++) {
+          Path relativePath = pathToAllLibsDir.relativize(nativeLibs.get(index));
+          metadataLines.add(String.format("%s %s", relativePath, hashes[index]));
         }
         filesystem.writeLinesToPath(metadataLines.build(), pathToMetadataTxt);
         return StepExecutionResults.SUCCESS;
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dex files keyed by everything that determines their contents: the hashes of the classes that
+ * went into them and the dexer configuration. The cache lives in buck-out, so a shard whose inputs
+ * did not change is reused even when split-zip assigns it a different output path, and apps that
+ * share libraries in the same repo share the dex output for them.
+ *
+ * <p>Each entry holds the dex output and, for dex jars, its {@code .meta} file.
+ */
+class DexOutputCache {
+  /** Bump whenever the layout of entries or the way keys are computed changes. */
+  private static final String CACHE_VERSION = "v2";
+
+  private static final String CACHE_DIR_NAME = "dex_cache";
+  private static final String DEX_FILE_NAME = "dex";
+  private static final String META_FILE_NAME = "meta";
+
+  /** Least recently used entries are evicted once the cache grows past this size. */
+  @VisibleForTesting static final long MAX_SIZE_BYTES = 2L * 1024 * 1024 * 1024;
+
+  /**
+   * Content hashes of dexer and android.jar files, which are the same for every shard of every
+   * build. Keyed by path, size and modification time, so that an updated SDK is hashed again.
+   */
+  private static final ConcurrentMap<ImmutableList<Object>, HashCode> TOOL_FILE_HASHES =
+      new ConcurrentHashMap<>();
+
+  private final LocalOutputCache cache;
+
+  @VisibleForTesting
+  DexOutputCache(ProjectFilesystem filesystem, long maxSizeBytes) {
+    this.cache =
+        new LocalOutputCache(
+            filesystem, Paths.get(CACHE_DIR_NAME, CACHE_VERSION), "dex cache", maxSizeBytes);
+  }
+
+  /** Returns the cache for the given filesystem, or nothing if it has no buck-out to keep it in. */
+  static Optional<DexOutputCache> of(ProjectFilesystem filesystem) {
+    if (!LocalOutputCache.isSupported(filesystem)) {
+      return Optional.empty();
+    }
+    return Optional.of(new DexOutputCache(filesystem, MAX_SIZE_BYTES));
+  }
+
+  /**
+   * Copies the entry for {@code key} to {@code outputPath} (and its {@code .meta} file to {@code
+   * metaPath}, if given).
+   *
+   * @return whether there was an entry to copy.
+   */
+  boolean restore(String key, Path outputPath, Optional<Path> metaPath) throws IOException {
+    return cache.restore(key, getOutputs(outputPath, metaPath));
+  }
+
+  /** Stores {@code outputPath} (and its {@code .meta} file, if given) under {@code key}. */
+  void store(String key, Path outputPath, Optional<Path> metaPath) throws IOException {
+    cache.store(key, getOutputs(outputPath, metaPath));
+  }
+
+  /** Evicts least recently used entries until the cache is no larger than its maximum size. */
+  void trim() throws IOException {
+    cache.trim();
+  }
+
+  /** Hashes a file the dexer reads but that isn't an input, such as android.jar. */
+  static void hashToolFile(Hasher hasher, Path path) throws IOException {
+    hasher.putString(path.toString(), StandardCharsets.UTF_8).putByte((byte) 0);
+    if (!Files.isRegularFile(path)) {
+      return;
+    }
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    ImmutableList<Object> key =
+        ImmutableList.of(path, attributes.size(), attributes.lastModifiedTime());
+    HashCode hash = TOOL_FILE_HASHES.get(key);
+    if (hash == null) {
+      hash = MoreFiles.asByteSource(path).hash(Hashing.sha1());
+      TOOL_FILE_HASHES.put(key, hash);
+    }
+    hasher.putBytes(hash.asBytes());
+  }
+
+  private static ImmutableMap<String, Path> getOutputs(Path outputPath, Optional<Path> metaPath) {
+    ImmutableMap.Builder<String, Path> outputs = ImmutableMap.builder();
+    outputs.put(DEX_FILE_NAME, outputPath);
+    metaPath.ifPresent(path -> outputs.put(META_FILE_NAME, path));
+    return outputs.build();
+  }
+}
@@ -169,11 +169,6 @@ public class DummyRDotJava extends AbstractBuildRule
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
     Path rDotJavaSrcFolder = getRDotJavaSrcFolder(getBuildTarget(), getProjectFilesystem());
 
-    steps.addAll(
-        MakeCleanDirectoryStep.of(
-            BuildCellRelativePath.fromCellRelativePath(
-                context.getBuildCellRootPath(), getProjectFilesystem(), rDotJavaSrcFolder)));
-
     // Generate the .java files and record where they will be written in javaSourceFilePaths.
     ImmutableSortedSet<Path> javaSourceFilePaths;
     if (androidResourceDeps.isEmpty()) {
@@ -187,6 +182,10 @@ public class DummyRDotJava extends AbstractBuildRule
 
       steps.addAll(
           MakeCleanDirectoryStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), rDotJavaSrcFolder)));
+      steps.add(
+          MkdirStep.of(
               BuildCellRelativePath.fromCellRelativePath(
                   context.getBuildCellRootPath(),
                   getProjectFilesystem(),
@@ -199,6 +198,12 @@ public class DummyRDotJava extends AbstractBuildRule
               /* executable */ false));
       javaSourceFilePaths = ImmutableSortedSet.of(emptyRDotJava);
     } else {
+      // The merge steps only rewrite the R.java files whose contents changed and remove the ones
+      // they no longer generate, so don't clean the directory.
+      steps.add(
+          MkdirStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), rDotJavaSrcFolder)));
       MergeAndroidResourcesStep mergeStep =
           MergeAndroidResourcesStep.createStepForDummyRDotJava(
               getProjectFilesystem(),
@@ -235,16 +235,13 @@ public class DxStep extends ShellStep {
     CharsCountingStringList commandArgs = new CharsCountingStringList(10 + filesToDex.size());
 
     // TODO: Support D8 for out of process dexing by respecting dexTool here
-    String dx = androidPlatformTarget.getDxExecutable().toString();
+    String dx = getDxExecutable(androidPlatformTarget, options);
 
     if (dexTool.equals(D8)) {
       context.postEvent(
-          ConsoleEvent.fine("Using %s instead of D8. D8 can only be used in-process.", dx));
-    }
-
-    if (options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE)) {
-      String customDx = Strings.emptyToNull(System.getProperty("buck.dx"));
-      dx = customDx != null ? customDx : dx;
+          ConsoleEvent.fine(
+              "Using %s instead of D8. D8 can only be used in-process.",
+              androidPlatformTarget.getDxExecutable()));
     }
 
     commandArgs.add(dx);
@@ -467,10 +464,25 @@ public class DxStep extends ShellStep {
   }
 
   private boolean isRunningInProc() {
+    return isRunningInProc(options, dexTool);
+  }
+
+  static boolean isRunningInProc(Set<Option> options, String dexTool) {
     // D8 runs in process only
     return options.contains(Option.RUN_IN_PROCESS) || D8.equals(dexTool);
   }
 
+  /** @return the dx executable used when dexing out of process. */
+  static String getDxExecutable(AndroidPlatformTarget androidPlatformTarget, Set<Option> options) {
+    if (options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE)) {
+      String customDx = Strings.emptyToNull(System.getProperty("buck.dx"));
+      if (customDx != null) {
+        return customDx;
+      }
+    }
+    return androidPlatformTarget.getDxExecutable().toString();
+  }
+
   private String writeFileToDexArgsToFile(List<String> items) throws IOException {
     Path path = filesystem.createTempFile("dx_input_list", "");
     try (BufferedWriter writer =
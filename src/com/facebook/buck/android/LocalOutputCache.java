@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outputs of expensive steps kept in buck-out, keyed by everything that determines their contents,
+ * so they can be reused when the step runs again on the same inputs.
+ *
+ * <p>Each entry is a directory holding a set of named files, and a marker for each optional file
+ * that the step didn't write. Entries are published with an atomic
+ * move, so concurrent builds never observe a partial entry, and the least recently used entries are
+ * evicted once the cache grows past its maximum size.
+ */
+class LocalOutputCache {
+  private static final Logger LOG = Logger.get(LocalOutputCache.class);
+
+  private static final String TMP_DIR_NAME = "tmp";
+
+  /** Suffix of the marker recording that an optional output wasn't written. */
+  private static final String ABSENT_SUFFIX = ".absent";
+
+  private final ProjectFilesystem filesystem;
+  private final String description;
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+
+  /**
+   * @param cacheDir the directory of the cache, relative to buck-out.
+   * @param description what the cache holds, for log messages.
+   */
+  LocalOutputCache(
+      ProjectFilesystem filesystem, Path cacheDir, String description, long maxSizeBytes) {
+    this.filesystem = filesystem;
+    this.description = description;
+    this.cacheDir = filesystem.resolve(filesystem.getBuckPaths().getBuckOut()).resolve(cacheDir);
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /** Returns whether the filesystem has a buck-out to keep caches in. */
+  static boolean isSupported(ProjectFilesystem filesystem) {
+    return filesystem.isDirectory(filesystem.getBuckPaths().getBuckOut());
+  }
+
+  /**
+   * Copies the files of the entry for {@code key} to the paths they are mapped to in {@code
+   * outputs}. Optional outputs that weren't written when the entry was stored are deleted instead.
+   *
+   * @return whether there was an entry with all of the files to copy.
+   */
+  boolean restore(String key, ImmutableMap<String, Path> outputs) throws IOException {
+    Path entryDir = getEntryDir(key);
+    for (String name : outputs.keySet()) {
+      if (!Files.isRegularFile(entryDir.resolve(name))
+          && !Files.isRegularFile(entryDir.resolve(name + ABSENT_SUFFIX))) {
+        return false;
+      }
+    }
+    for (Map.Entry<String, Path> output : outputs.entrySet()) {
+      Path outputPath = filesystem.resolve(output.getValue());
+      Path cachedPath = entryDir.resolve(output.getKey());
+      if (!Files.isRegularFile(cachedPath)) {
+        Files.deleteIfExists(outputPath);
+        continue;
+      }
+      Files.createDirectories(outputPath.getParent());
+      Files.copy(cachedPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+    touch(entryDir);
+    return true;
+  }
+
+  /** Stores the files in {@code outputs} under {@code key}, with the names they are mapped from. */
+  void store(String key, ImmutableMap<String, Path> outputs) throws IOException {
+    store(key, outputs, ImmutableSet.of());
+  }
+
+  /**
+   * Stores the files in {@code outputs} under {@code key}, with the names they are mapped from.
+   *
+   * @param optionalOutputs the names of the outputs that may not have been written, which are
+   *     recorded as absent rather than stored if so.
+   */
+  void store(String key, ImmutableMap<String, Path> outputs, ImmutableSet<String> optionalOutputs)
+      throws IOException {
+    Path entryDir = getEntryDir(key);
+    if (Files.isDirectory(entryDir)) {
+      touch(entryDir);
+      return;
+    }
+    Path tmpRoot = cacheDir.resolve(TMP_DIR_NAME);
+    Files.createDirectories(tmpRoot);
+    Files.createDirectories(entryDir.getParent());
+    Path tmpDir = Files.createTempDirectory(tmpRoot, key);
+    try {
+      for (Map.Entry<String, Path> output : outputs.entrySet()) {
+        Path outputPath = filesystem.resolve(output.getValue());
+        if (optionalOutputs.contains(output.getKey()) && !Files.exists(outputPath)) {
+          Files.createFile(tmpDir.resolve(output.getKey() + ABSENT_SUFFIX));
+        } else {
+          Files.copy(outputPath, tmpDir.resolve(output.getKey()));
+        }
+      }
+      try {
+        Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // Fine if another build stored the same outputs first.
+        if (!Files.isDirectory(entryDir)) {
+          throw e;
+        }
+      }
+    } finally {
+      MostFiles.deleteRecursivelyIfExists(tmpDir);
+    }
+  }
+
+  /** Evicts least recently used entries until the cache is no larger than its maximum size. */
+  void trim() throws IOException {
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    List<Entry> entries = new ArrayList<>();
+    long totalSize = 0;
+    try (DirectoryStream<Path> prefixDirs = Files.newDirectoryStream(cacheDir)) {
+      for (Path prefixDir : prefixDirs) {
+        if (prefixDir.getFileName().toString().equals(TMP_DIR_NAME)
+            || !Files.isDirectory(prefixDir)) {
+          continue;
+        }
+        try (DirectoryStream<Path> entryDirs = Files.newDirectoryStream(prefixDir)) {
+          for (Path entryDir : entryDirs) {
+            Entry entry;
+            try {
+              entry = new Entry(entryDir);
+            } catch (NoSuchFileException e) {
+              // Evicted by a concurrent build.
+              continue;
+            }
+            entries.add(entry);
+            totalSize += entry.size;
+          }
+        }
+      }
+    }
+    if (totalSize <= maxSizeBytes) {
+      return;
+    }
+    entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+    for (Entry entry : entries) {
+      if (totalSize <= maxSizeBytes) {
+        break;
+      }
+      LOG.debug("Evicting %s from the %s", entry.dir, description);
+      MostFiles.deleteRecursivelyIfExists(entry.dir);
+      totalSize -= entry.size;
+    }
+  }
+
+  private Path getEntryDir(String key) {
+    return cacheDir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private static void touch(Path entryDir) throws IOException {
+    Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+  }
+
+  private static class Entry {
+    private final Path dir;
+    private final FileTime lastUsed;
+    private final long size;
+
+    private Entry(Path dir) throws IOException {
+      this.dir = dir;
+      this.lastUsed = Files.getLastModifiedTime(dir);
+      long size = 0;
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path file : files) {
+          size += Files.size(file);
+        }
+      }
+      this.size = size;
+    }
+  }
+}
@@ -26,11 +26,11 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.ProjectFilesystemView;
 import com.facebook.buck.step.ImmutableStepExecutionResult;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
-import com.facebook.buck.util.ThrowingPrintWriter;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.annotations.VisibleForTesting;
@@ -48,6 +48,8 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -56,6 +58,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -283,13 +286,14 @@ public class MergeAndroidResourcesStep implements Step {
         }
       }
 
-      writePerPackageRDotJava(rDotJavaPackageToResources, filesystem);
+      Set<Path> rDotJavaFiles = writePerPackageRDotJava(rDotJavaPackageToResources, filesystem);
       Set<String> emptyPackages =
           Sets.difference(requiredPackages.build(), rDotJavaPackageToResources.keySet());
 
       if (!emptyPackages.isEmpty()) {
-        writeEmptyRDotJavaForPackages(emptyPackages, filesystem);
+        rDotJavaFiles.addAll(writeEmptyRDotJavaForPackages(emptyPackages, filesystem));
       }
+      deleteStaleRDotJavaFiles(rDotJavaFiles, filesystem);
       return StepExecutionResults.SUCCESS;
     } catch (DuplicateResourceException e) {
       return ImmutableStepExecutionResult.builder()
@@ -320,83 +324,148 @@ public class MergeAndroidResourcesStep implements Step {
     return Optional.of(symbolsBuilder.build());
   }
 
-  private void writeEmptyRDotJavaForPackages(
+  private Set<Path> writeEmptyRDotJavaForPackages(
       Set<String> rDotJavaPackages, ProjectFilesystem filesystem) throws IOException {
+    Set<Path> rDotJavaFiles = new HashSet<>();
     for (String rDotJavaPackage : rDotJavaPackages) {
       Path outputFile = getPathToRDotJava(rDotJavaPackage);
-      filesystem.mkdirs(outputFile.getParent());
-      filesystem.writeContentsToPath(
-          String.format("package %s;\n\npublic class %s {}\n", rDotJavaPackage, rName), outputFile);
+      writeIfChanged(
+          filesystem,
+          outputFile,
+          String.format("package %s;\n\npublic class %s {}\n", rDotJavaPackage, rName));
+      rDotJavaFiles.add(outputFile);
     }
+    return rDotJavaFiles;
   }
 
+  /**
+   * Writes an R.java file per package and returns the paths written. Files whose contents did not
+   * change since the last build are left alone, so that they keep their timestamps.
+   */
   @VisibleForTesting
-  void writePerPackageRDotJava(
+  Set<Path> writePerPackageRDotJava(
       SortedSetMultimap<String, RDotTxtEntry> packageToResources, ProjectFilesystem filesystem)
       throws IOException {
+    Set<Path> rDotJavaFiles = new HashSet<>();
     for (String rDotJavaPackage : packageToResources.keySet()) {
       Path outputFile = getPathToRDotJava(rDotJavaPackage);
-      filesystem.mkdirs(outputFile.getParent());
-      try (ThrowingPrintWriter writer =
-          new ThrowingPrintWriter(filesystem.newFileOutputStream(outputFile))) {
-        writer.format("package %s;\n\n", rDotJavaPackage);
-        writer.format("public class %s {\n", rName);
-
-        ImmutableList.Builder<String> customDrawablesBuilder = ImmutableList.builder();
-        ImmutableList.Builder<String> grayscaleImagesBuilder = ImmutableList.builder();
-        RType lastType = null;
-
-        for (RDotTxtEntry res : packageToResources.get(rDotJavaPackage)) {
-          RType type = res.type;
-          if (!type.equals(lastType)) {
-            // If the previous type needs to be closed, close it.
-            if (lastType != null) {
-              writer.println("  }\n");
-            }
+      writeIfChanged(
+          filesystem,
+          outputFile,
+          renderRDotJava(rDotJavaPackage, packageToResources.get(rDotJavaPackage)));
+      rDotJavaFiles.add(outputFile);
+    }
+    return rDotJavaFiles;
+  }
 
-            // Now start the block for the new type.
-            writer.format("  public static class %s {\n", type);
-            lastType = type;
-          }
+  private String renderRDotJava(String rDotJavaPackage, Collection<RDotTxtEntry> resources) {
+    StringBuilder java = new StringBuilder();
+    java.append("package ").append(rDotJavaPackage).append(";\n\n");
+    java.append("public class ").append(rName).append(" {\n");
 
-          // Write out the resource.
-          // Write as an int.
-          writer.format(
-              "    public static%s%s %s=%s;\n",
-              forceFinalResourceIds ? " final " : " ", res.idType, res.name, res.idValue);
-
-          if (type == RType.DRAWABLE && res.customType == RDotTxtEntry.CustomDrawableType.CUSTOM) {
-            customDrawablesBuilder.add(res.idValue);
-          } else if (type == RType.DRAWABLE
-              && res.customType == RDotTxtEntry.CustomDrawableType.GRAYSCALE_IMAGE) {
-            grayscaleImagesBuilder.add(res.idValue);
-          }
-        }
+    ImmutableList.Builder<String> customDrawablesBuilder = ImmutableList.builder();
+    ImmutableList.Builder<String> grayscaleImagesBuilder = ImmutableList.builder();
+    RType lastType = null;
+    String modifiers = forceFinalResourceIds ? "    public static final " : "    public static ";
 
-        // If some type was written (e.g., the for loop was entered), then the last type needs to be
-        // closed.
+    for (RDotTxtEntry res : resources) {
+      RType type = res.type;
+      if (!type.equals(lastType)) {
+        // If the previous type needs to be closed, close it.
         if (lastType != null) {
-          writer.println("  }\n");
+          java.append("  }\n\n");
         }
 
-        ImmutableList<String> customDrawables = customDrawablesBuilder.build();
-        if (customDrawables.size() > 0) {
-          // Add a new field for the custom drawables.
-          writer.format("  public static final int[] custom_drawables = ");
-          writer.format("{ %s };\n", Joiner.on(",").join(customDrawables));
-          writer.format("\n");
-        }
+        // Now start the block for the new type.
+        java.append("  public static class ").append(type).append(" {\n");
+        lastType = type;
+      }
 
-        ImmutableList<String> grayscaleImages = grayscaleImagesBuilder.build();
-        if (grayscaleImages.size() > 0) {
-          // Add a new field for the custom drawables.
-          writer.format("  public static final int[] grayscale_images = ");
-          writer.format("{ %s };\n", Joiner.on(",").join(grayscaleImages));
-          writer.format("\n");
-        }
+      // Write out the resource.
+      // Write as an int.
+      java.append(modifiers)
+          .append(res.idType)
+          .append(' ')
+          .append(res.name)
+          .append('=')
+          .append(res.idValue)
+          .append(";\n");
+
+      if (type == RType.DRAWABLE && res.customType == RDotTxtEntry.CustomDrawableType.CUSTOM) {
+        customDrawablesBuilder.add(res.idValue);
+      } else if (type == RType.DRAWABLE
+          && res.customType == RDotTxtEntry.CustomDrawableType.GRAYSCALE_IMAGE) {
+        grayscaleImagesBuilder.add(res.idValue);
+      }
+    }
+
+    // If some type was written (e.g., the for loop was entered), then the last type needs to be
+    // closed.
+    if (lastType != null) {
+      java.append("  }\n\n");
+    }
 
-        // Close the class definition.
-        writer.println("}");
+    ImmutableList<String> customDrawables = customDrawablesBuilder.build();
+    if (customDrawables.size() > 0) {
+      // Add a new field for the custom drawables.
+      java.append("  public static final int[] custom_drawables = ");
+      java.append("{ ").append(Joiner.on(",").join(customDrawables)).append(" };\n");
+      java.append("\n");
+    }
+
+    ImmutableList<String> grayscaleImages = grayscaleImagesBuilder.build();
+    if (grayscaleImages.size() > 0) {
+      // Add a new field for the custom drawables.
+      java.append("  public static final int[] grayscale_images = ");
+      java.append("{ ").append(Joiner.on(",").join(grayscaleImages)).append(" };\n");
+      java.append("\n");
+    }
+
+    // Close the class definition.
+    java.append("}\n");
+    return java.toString();
+  }
+
+  /** Writes {@code contents} unless the file already has them, so that it keeps its timestamp. */
+  private static void writeIfChanged(
+      ProjectFilesystem filesystem, Path outputFile, String contents) throws IOException {
+    byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    if (filesystem.isFile(outputFile)
+        && filesystem.getFileSize(outputFile) == bytes.length
+        && filesystem.readFileIfItExists(outputFile).equals(Optional.of(contents))) {
+      return;
+    }
+    filesystem.mkdirs(outputFile.getParent());
+    filesystem.writeBytesToPath(bytes, outputFile);
+  }
+
+  /**
+   * The rules don't clean the output directory before merging, so that unchanged R.java files keep
+   * their timestamps. Instead, this deletes the files named after {@link #rName} that an earlier
+   * build generated but this one didn't, along with any directories that leaves empty. Files with
+   * other names belong to other merge steps sharing the directory.
+   */
+  private void deleteStaleRDotJavaFiles(Set<Path> rDotJavaFiles, ProjectFilesystem filesystem)
+      throws IOException {
+    if (!filesystem.isDirectory(outputDir)) {
+      return;
+    }
+    ProjectFilesystemView filesystemView = filesystem.asView();
+    String fileName = String.format("%s.java", rName);
+    for (Path path :
+        filesystemView.getFilesUnderPath(
+            outputDir,
+            candidate -> candidate.getFileName().toString().equals(fileName),
+            EnumSet.noneOf(FileVisitOption.class))) {
+      if (rDotJavaFiles.contains(path)) {
+        continue;
+      }
+      LOG.debug("Deleting stale %s", path);
+      filesystem.deleteFileAtPath(path);
+      for (Path dir = path.getParent();
+          !dir.equals(outputDir) && filesystemView.getDirectoryContents(dir).isEmpty();
+          dir = dir.getParent()) {
+        filesystem.deleteFileAtPath(dir);
       }
     }
   }
@@ -20,6 +20,9 @@ import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
@@ -49,6 +52,8 @@ import java.util.Set;
 import java.util.zip.ZipEntry;
 
 public final class ProGuardObfuscateStep extends ShellStep {
+  private static final Logger LOG = Logger.get(ProGuardObfuscateStep.class);
+
   public static final int DEFAULT_OPTIMIZATION_PASSES = 1;
 
   enum SdkProguardType {
@@ -62,6 +67,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
   private final ProjectFilesystem filesystem;
   private final Map<Path, Path> inputAndOutputEntries;
   private final Path pathToProGuardCommandLineArgsFile;
+  private final ImmutableList<Path> metaOutputs;
   private final boolean skipProguard;
   private final Optional<Path> proguardJarOverride;
   private final String proguardMaxHeapSize;
@@ -124,6 +130,11 @@ public final class ProGuardObfuscateStep extends ShellStep {
               filesystem,
               inputAndOutputEntries,
               pathToProGuardCommandLineArgsFile,
+              ImmutableList.of(
+                  commandLineHelperStep.getConfigurationTxt(),
+                  commandLineHelperStep.getMappingTxt(),
+                  commandLineHelperStep.getSeedsTxt(),
+                  commandLineHelperStep.getUsageTxt()),
               skipProguard,
               proguardJarOverride,
               proguardMaxHeapSize,
@@ -150,6 +161,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
    * @param inputAndOutputEntries Map of input/output pairs to proguard. The key represents an input
    *     jar (-injars); the value an output jar (-outjars).
    * @param pathToProGuardCommandLineArgsFile Path to file containing arguments to ProGuard.
+   * @param metaOutputs The mapping, configuration, seeds and usage files that ProGuard writes.
    */
   private ProGuardObfuscateStep(
       AndroidPlatformTarget androidPlatformTarget,
@@ -157,6 +169,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
       ProjectFilesystem filesystem,
       Map<Path, Path> inputAndOutputEntries,
       Path pathToProGuardCommandLineArgsFile,
+      ImmutableList<Path> metaOutputs,
       boolean skipProguard,
       Optional<Path> proguardJarOverride,
       String proguardMaxHeapSize,
@@ -168,6 +181,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
     this.filesystem = filesystem;
     this.inputAndOutputEntries = ImmutableMap.copyOf(inputAndOutputEntries);
     this.pathToProGuardCommandLineArgsFile = pathToProGuardCommandLineArgsFile;
+    this.metaOutputs = metaOutputs;
     this.skipProguard = skipProguard;
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
@@ -183,12 +197,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     // Run ProGuard as a standalone executable JAR file.
-    Path proguardJar;
-    if (proguardJarOverride.isPresent()) {
-      proguardJar = filesystem.getPathForRelativePath(proguardJarOverride.get());
-    } else {
-      proguardJar = androidPlatformTarget.getProguardJar();
-    }
+    Path proguardJar = getProguardJar();
 
     ImmutableList.Builder<String> args = ImmutableList.builder();
     args.addAll(javaRuntimeLauncher);
@@ -205,9 +214,72 @@ public final class ProGuardObfuscateStep extends ShellStep {
     return args.build();
   }
 
+  private Path getProguardJar() {
+    if (proguardJarOverride.isPresent()) {
+      return filesystem.getPathForRelativePath(proguardJarOverride.get());
+    }
+    return androidPlatformTarget.getProguardJar();
+  }
+
+  /**
+   * Runs ProGuard, unless the {@link ProGuardOutputCache} has the outputs of a run on the same
+   * inputs, and reports whether it did in a {@code proguard} perf event.
+   */
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws IOException, InterruptedException {
+    if (skipProguard) {
+      return super.execute(context);
+    }
+
+    Optional<ProGuardOutputCache> cache = ProGuardOutputCache.of(filesystem);
+    ImmutableList<Path> outputJars = ImmutableList.copyOf(inputAndOutputEntries.values());
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(
+            context.getBuckEventBus(),
+            PerfEventId.of("proguard"),
+            "input_jars",
+            inputAndOutputEntries.size())) {
+      Optional<String> cacheKey = Optional.empty();
+      boolean cacheHit = false;
+      if (cache.isPresent()) {
+        try {
+          cacheKey =
+              cache
+                  .get()
+                  .computeKey(
+                      getShellCommandInternal(context),
+                      getProguardJar(),
+                      pathToProGuardCommandLineArgsFile);
+          if (cacheKey.isPresent()) {
+            cacheHit = cache.get().restore(cacheKey.get(), outputJars, metaOutputs);
+          } else {
+            LOG.debug("Not caching ProGuard outputs: some of its inputs can't be found");
+          }
+        } catch (IOException e) {
+          LOG.warn(e, "Unable to restore ProGuard outputs from the ProGuard cache");
+        }
+      }
+      scope.appendFinishedInfo("cache_hit", cacheHit);
+      if (cacheHit) {
+        return StepExecutionResults.SUCCESS;
+      }
+
+      StepExecutionResult executionResult = runProguard(context);
+      if (executionResult.isSuccess() && cacheKey.isPresent()) {
+        try {
+          cache.get().store(cacheKey.get(), outputJars, metaOutputs);
+          cache.get().trim();
+        } catch (IOException e) {
+          LOG.warn(e, "Unable to store ProGuard outputs in the ProGuard cache");
+        }
+      }
+      return executionResult;
+    }
+  }
+
+  private StepExecutionResult runProguard(ExecutionContext context)
+      throws IOException, InterruptedException {
     StepExecutionResult executionResult = super.execute(context);
 
     // proguard has a peculiar behaviour when multiple -injars/outjars pairs are specified in which
@@ -215,7 +287,7 @@ public final class ProGuardObfuscateStep extends ShellStep {
     // as requested (so the file won't exist).  Our build steps are not sophisticated enough to
     // account for this and remove those entries from the classes to dex so we hack things here to
     // ensure that the files exist but are empty.
-    if (executionResult.isSuccess() && !this.skipProguard) {
+    if (executionResult.isSuccess()) {
       return StepExecutionResult.of(ensureAllOutputsExist(context));
     }
 
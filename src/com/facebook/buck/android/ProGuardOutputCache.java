@@ -0,0 +1,340 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Outputs of a whole ProGuard run keyed by the contents of everything that went into it: the
+ * command line, the configuration files (including the ones they include), the program and library
+ * jars and the ProGuard jar itself. {@link NonPreDexedDexBuildable} is not cacheable, so without
+ * this every build of an app reruns ProGuard, even when only its resources or assets changed.
+ *
+ * <p>Each entry holds the output jars, in the order of their {@code -injars}, and those of the
+ * mapping, configuration, seeds and usage files that ProGuard wrote. Not every configuration makes
+ * it write all of them, e.g. {@code -dontobfuscate} disables the mapping, so the others are
+ * recorded as absent.
+ */
+class ProGuardOutputCache {
+  /** Bump whenever the layout of entries or the way keys are computed changes. */
+  private static final String CACHE_VERSION = "v2";
+
+  private static final String CACHE_DIR_NAME = "proguard_cache";
+
+  /** Least recently used entries are evicted once the cache grows past this size. */
+  @VisibleForTesting static final long MAX_SIZE_BYTES = 2L * 1024 * 1024 * 1024;
+
+  /** Options whose argument is a path, or a list of paths, that ProGuard reads. */
+  private static final ImmutableSet<String> PATH_OPTIONS =
+      ImmutableSet.of(
+          "-include",
+          "-injars",
+          "-libraryjars",
+          "-applymapping",
+          "-obfuscationdictionary",
+          "-classobfuscationdictionary",
+          "-packageobfuscationdictionary");
+
+  /** Options whose argument is a configuration file. */
+  private static final ImmutableSet<String> INCLUDE_OPTIONS = ImmutableSet.of("-include", "@");
+
+  /** Sets the directory that relative file names in the rest of the file are resolved against. */
+  private static final String BASE_DIRECTORY_OPTION = "-basedirectory";
+
+  /** System properties that have the same value in ProGuard's JVM as in ours. */
+  private static final ImmutableSet<String> SHARED_SYSTEM_PROPERTIES =
+      ImmutableSet.of("user.home", "user.name", "file.separator", "path.separator");
+
+  private final ProjectFilesystem filesystem;
+  private final LocalOutputCache cache;
+
+  @VisibleForTesting
+  ProGuardOutputCache(ProjectFilesystem filesystem, long maxSizeBytes) {
+    this.filesystem = filesystem;
+    this.cache =
+        new LocalOutputCache(
+            filesystem,
+            Paths.get(CACHE_DIR_NAME, CACHE_VERSION),
+            "ProGuard cache",
+            maxSizeBytes);
+  }
+
+  /** Returns the cache for the given filesystem, or nothing if it has no buck-out to keep it in. */
+  static Optional<ProGuardOutputCache> of(ProjectFilesystem filesystem) {
+    if (!LocalOutputCache.isSupported(filesystem)) {
+      return Optional.empty();
+    }
+    return Optional.of(new ProGuardOutputCache(filesystem, MAX_SIZE_BYTES));
+  }
+
+  /**
+   * Computes the key of a ProGuard run.
+   *
+   * @param command the command that runs ProGuard, in the project root.
+   * @param proguardJar the jar that the command runs.
+   * @param commandLineArgsFile the file with ProGuard's arguments.
+   * @return the key, or empty if some file ProGuard reads can't be found, in which case the run
+   *     isn't cached.
+   */
+  Optional<String> computeKey(List<String> command, Path proguardJar, Path commandLineArgsFile)
+      throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(CACHE_VERSION, StandardCharsets.UTF_8);
+    for (String arg : command) {
+      hasher.putString(arg, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    if (!hashPath(hasher, proguardJar)
+        || !hashConfiguration(
+            hasher,
+            getSystemProperties(command),
+            filesystem.resolve(commandLineArgsFile),
+            new HashSet<>())) {
+      return Optional.empty();
+    }
+    return Optional.of(hasher.hash().toString());
+  }
+
+  /**
+   * Copies the entry for {@code key} to {@code outputJars} and {@code metaOutputs}.
+   *
+   * @return whether there was an entry to copy.
+   */
+  boolean restore(String key, List<Path> outputJars, List<Path> metaOutputs) throws IOException {
+    return cache.restore(key, getOutputs(outputJars, metaOutputs));
+  }
+
+  /**
+   * Stores {@code outputJars} and {@code metaOutputs} under {@code key}. The meta outputs that
+   * ProGuard didn't write are recorded as absent, and are deleted when the entry is restored.
+   */
+  void store(String key, List<Path> outputJars, List<Path> metaOutputs) throws IOException {
+    cache.store(
+        key,
+        getOutputs(outputJars, metaOutputs),
+        metaOutputs.stream()
+            .map(metaOutput -> metaOutput.getFileName().toString())
+            .collect(ImmutableSet.toImmutableSet()));
+  }
+
+  /** Evicts least recently used entries until the cache is no larger than its maximum size. */
+  void trim() throws IOException {
+    cache.trim();
+  }
+
+  private static ImmutableMap<String, Path> getOutputs(
+      List<Path> outputJars, List<Path> metaOutputs) {
+    ImmutableMap.Builder<String, Path> outputs = ImmutableMap.builder();
+    for (int i = 0; i < outputJars.size(); i++) {
+      outputs.put(String.format("out-%d.jar", i), outputJars.get(i));
+    }
+    for (Path metaOutput : metaOutputs) {
+      outputs.put(metaOutput.getFileName().toString(), metaOutput);
+    }
+    return outputs.build();
+  }
+
+  /**
+   * Returns the system properties ProGuard expands in file names, e.g. {@code <user.home>}, that
+   * are known to have the same value in its JVM. Others, like {@code java.home}, depend on the JVM
+   * that the command runs.
+   */
+  private ImmutableMap<String, String> getSystemProperties(List<String> command) {
+    Map<String, String> properties = new HashMap<>();
+    for (String name : SHARED_SYSTEM_PROPERTIES) {
+      String value = System.getProperty(name);
+      if (value != null) {
+        properties.put(name, value);
+      }
+    }
+    properties.put("user.dir", filesystem.getRootPath().toString());
+    for (String arg : command) {
+      if (arg.startsWith("-D") && arg.indexOf('=') > 2) {
+        properties.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+      }
+    }
+    return ImmutableMap.copyOf(properties);
+  }
+
+  /**
+   * Hashes a configuration file and every file it makes ProGuard read.
+   *
+   * @return false if one of those files can't be found.
+   */
+  private boolean hashConfiguration(
+      Hasher hasher, Map<String, String> properties, Path configuration, Set<Path> visited)
+      throws IOException {
+    if (!hashPath(hasher, configuration)) {
+      return false;
+    }
+    if (!visited.add(configuration) || !Files.isRegularFile(configuration)) {
+      return true;
+    }
+    // Like ProGuard, resolve relative names against the directory of the file they're in, until
+    // it sets another one.
+    Path baseDirectory = configuration.getParent();
+    ImmutableList<String> tokens =
+        tokenize(new String(Files.readAllBytes(configuration), StandardCharsets.UTF_8));
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      String option;
+      String argument;
+      if (token.startsWith("@") && token.length() > 1) {
+        option = "@";
+        argument = token.substring(1);
+      } else if ((PATH_OPTIONS.contains(token) || token.equals("@")) && i + 1 < tokens.size()) {
+        option = token;
+        argument = tokens.get(++i);
+      } else if (token.equals(BASE_DIRECTORY_OPTION) && i + 1 < tokens.size()) {
+        Optional<Path> resolved = resolve(properties, baseDirectory, tokens.get(++i));
+        if (!resolved.isPresent()) {
+          return false;
+        }
+        baseDirectory = resolved.get();
+        continue;
+      } else {
+        continue;
+      }
+      for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(argument)) {
+        // Drop filters such as "classes.jar(!META-INF/**)".
+        int filterStart = entry.indexOf('(');
+        Optional<Path> referenced =
+            resolve(
+                properties,
+                baseDirectory,
+                filterStart < 0 ? entry : entry.substring(0, filterStart));
+        if (!referenced.isPresent()) {
+          return false;
+        }
+        boolean found =
+            INCLUDE_OPTIONS.contains(option)
+                ? hashConfiguration(hasher, properties, referenced.get(), visited)
+                : hashPath(hasher, referenced.get());
+        if (!found) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resolves a file name in a configuration the way ProGuard does.
+   *
+   * @return the absolute path, or empty if the name uses a system property we don't know.
+   */
+  private static Optional<Path> resolve(
+      Map<String, String> properties, Path baseDirectory, String name) {
+    StringBuilder expanded = new StringBuilder();
+    int index = 0;
+    int start;
+    int end;
+    while ((start = name.indexOf('<', index)) >= 0 && (end = name.indexOf('>', start + 1)) >= 0) {
+      String value = properties.get(name.substring(start + 1, end));
+      if (value == null) {
+        return Optional.empty();
+      }
+      expanded.append(name, index, start).append(value);
+      index = end + 1;
+    }
+    expanded.append(name.substring(index));
+    return Optional.of(baseDirectory.resolve(expanded.toString()).normalize());
+  }
+
+  /** Splits a configuration into whitespace separated tokens, honoring quotes and comments. */
+  @VisibleForTesting
+  static ImmutableList<String> tokenize(String configuration) {
+    ImmutableList.Builder<String> tokens = ImmutableList.builder();
+    StringBuilder token = new StringBuilder();
+    boolean inToken = false;
+    char quote = 0;
+    for (int i = 0; i < configuration.length(); i++) {
+      char c = configuration.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        } else {
+          token.append(c);
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+        inToken = true;
+      } else if (c == '#') {
+        while (i + 1 < configuration.length() && configuration.charAt(i + 1) != '\n') {
+          i++;
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (inToken) {
+          tokens.add(token.toString());
+          token.setLength(0);
+          inToken = false;
+        }
+      } else {
+        token.append(c);
+        inToken = true;
+      }
+    }
+    if (inToken) {
+      tokens.add(token.toString());
+    }
+    return tokens.build();
+  }
+
+  /**
+   * Hashes the contents of a file, or of every file in a directory.
+   *
+   * @return false if there's nothing at {@code path}.
+   */
+  private static boolean hashPath(Hasher hasher, Path path) throws IOException {
+    hasher.putString(path.toString(), StandardCharsets.UTF_8).putByte((byte) 0);
+    if (Files.isRegularFile(path)) {
+      hasher.putBytes(MoreFiles.asByteSource(path).hash(Hashing.sha1()).asBytes());
+    } else if (Files.isDirectory(path)) {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(path)) {
+        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+      }
+      for (Path file : files) {
+        hashPath(hasher, file);
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+}
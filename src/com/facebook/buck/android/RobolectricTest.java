@@ -69,6 +69,7 @@ public class RobolectricTest extends JavaTest {
       ImmutableMap<String, Arg> env,
       boolean runTestSeparately,
       ForkMode forkMode,
+      int testShards,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
       Optional<SourcePath> unbundledResourcesRoot,
@@ -101,6 +102,7 @@ public class RobolectricTest extends JavaTest {
         env,
         runTestSeparately,
         forkMode,
+        testShards,
         stdOutLogLevel,
         stdErrLogLevel,
         unbundledResourcesRoot);
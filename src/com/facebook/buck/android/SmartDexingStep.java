@@ -20,8 +20,12 @@ import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
@@ -46,6 +50,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableMultimap.Builder;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -54,9 +59,11 @@ import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Objects;
@@ -64,6 +71,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -79,6 +87,8 @@ import javax.annotation.Nullable;
  */
 public class SmartDexingStep implements Step {
 
+  private static final Logger LOG = Logger.get(SmartDexingStep.class);
+
   public static final String SHORT_NAME = "smart_dex";
   private static final String SECONDARY_SOLID_DEX_EXTENSION = ".dex.jar.xzs";
 
@@ -239,19 +249,20 @@ public class SmartDexingStep implements Step {
 
   private void runDxCommands(ExecutionContext context, Multimap<Path, Path> outputToInputs)
       throws StepFailedException, InterruptedException {
+    Optional<DexOutputCache> dexOutputCache = DexOutputCache.of(filesystem);
+
     // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
     // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-    Stream<ImmutableList<Step>> dxSteps = generateDxCommands(filesystem, outputToInputs);
-
+    // Start the largest shards first, so that a big shard doesn't start last and hold up the
+    // whole step while the other threads sit idle.
     ImmutableList<Callable<Unit>> callables =
-        dxSteps
+        generateDxCommands(filesystem, outputToInputs)
+            .sorted(Comparator.comparingLong(DxPseudoRule::getInputSize).reversed())
             .map(
-                steps ->
+                dxPseudoRule ->
                     (Callable<Unit>)
                         () -> {
-                          for (Step step : steps) {
-                            StepRunner.runStep(context, step, Optional.of(buildTarget));
-                          }
+                          dxPseudoRule.run(context, dexOutputCache, buildTarget);
                           return Unit.UNIT;
                         })
             .collect(ImmutableList.toImmutableList());
@@ -265,6 +276,14 @@ public class SmartDexingStep implements Step {
       // Programmer error.  Boo-urns.
       throw new RuntimeException(cause);
     }
+
+    if (dexOutputCache.isPresent() && !callables.isEmpty()) {
+      try {
+        dexOutputCache.get().trim();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to trim the dex cache");
+      }
+    }
   }
 
   /**
@@ -312,7 +331,7 @@ public class SmartDexingStep implements Step {
    * Once the {@code .class} files have been split into separate zip files, each must be converted
    * to a {@code .dex} file.
    */
-  private Stream<ImmutableList<Step>> generateDxCommands(
+  private Stream<DxPseudoRule> generateDxCommands(
       ProjectFilesystem filesystem, Multimap<Path, Path> outputToInputs) {
 
     ImmutableMap<Path, Sha1HashCode> dexInputHashes = dexInputHashesProvider.getDexInputHashes();
@@ -341,13 +360,7 @@ public class SmartDexingStep implements Step {
                         : null,
                     useDexBuckedId,
                     minSdkVersion))
-        .filter(dxPseudoRule -> !dxPseudoRule.checkIsCached())
-        .map(
-            dxPseudoRule -> {
-              ImmutableList.Builder<Step> steps = ImmutableList.builder();
-              dxPseudoRule.buildInternal(steps);
-              return steps.build();
-            });
+        .filter(dxPseudoRule -> !dxPseudoRule.checkIsCached());
   }
 
   /**
@@ -358,6 +371,10 @@ public class SmartDexingStep implements Step {
    * inputs. This is because the input zip files are guaranteed to have changed on the filesystem
    * (ZipSplitter will always write them out even if the same), but the contents contained in the
    * zip may not have changed.
+   *
+   * <p>When the outputs are out of date, the pseudo rule first looks for them in the {@link
+   * DexOutputCache}, which is keyed by the same input hashes plus the dexer configuration, and only
+   * runs the dexer when they aren't there either.
    */
   @VisibleForTesting
   static class DxPseudoRule {
@@ -371,6 +388,7 @@ public class SmartDexingStep implements Step {
     private final Path outputHashPath;
     private final EnumSet<Option> dxOptions;
     @Nullable private String newInputsHash;
+    private long inputSize = -1;
     private final int xzCompressionLevel;
     private final Optional<String> dxMaxHeapSize;
     private final String dexTool;
@@ -432,6 +450,66 @@ public class SmartDexingStep implements Step {
       return hasher.hash().toString();
     }
 
+    /** Returns the total size of the inputs, used to schedule the largest shards first. */
+    long getInputSize() {
+      if (inputSize == -1) {
+        long size = 0;
+        for (Path src : srcs) {
+          try {
+            if (filesystem.isFile(src)) {
+              size += filesystem.getFileSize(src);
+            }
+          } catch (IOException e) {
+            // Only used as an estimate.
+          }
+        }
+        inputSize = size;
+      }
+      return inputSize;
+    }
+
+    /**
+     * Hashes everything that determines the dexer's output: the inputs, the dexer, its version and
+     * options, the android.jar it dexes against, the kind of output, and, when desugaring, the
+     * classpath the inputs were desugared against.
+     */
+    @VisibleForTesting
+    String hashCacheKey() throws IOException {
+      Hasher hasher = Hashing.sha1().newHasher();
+      hasher.putString(hashInputs(), StandardCharsets.UTF_8);
+      hasher.putString(dexTool, StandardCharsets.UTF_8);
+      for (Option option : dxOptions) {
+        hasher.putString(option.name(), StandardCharsets.UTF_8);
+      }
+      // In process, Buck runs the d8 or dx it was built with.
+      hasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+      if (DxStep.D8.equals(dexTool)) {
+        hasher.putString(com.android.tools.r8.Version.getVersionString(), StandardCharsets.UTF_8);
+      } else if (DxStep.isRunningInProc(dxOptions, dexTool)) {
+        hasher.putString(com.android.dx.Version.VERSION, StandardCharsets.UTF_8);
+      } else {
+        DexOutputCache.hashToolFile(
+            hasher, Paths.get(DxStep.getDxExecutable(androidPlatformTarget, dxOptions)));
+      }
+      hasher.putInt(minSdkVersion.orElse(0));
+      hasher.putInt(xzCompressionLevel);
+      DexOutputCache.hashToolFile(hasher, androidPlatformTarget.getAndroidJar());
+      // The output's extensions pick the DexStore, and with bucked ids its name picks the id.
+      String fileName = outputPath.getFileName().toString();
+      hasher.putString(
+          fileName.substring(Math.max(fileName.indexOf('.'), 0)), StandardCharsets.UTF_8);
+      hasher.putString(getBuckedId(outputPath, useDexBuckedId).orElse(""), StandardCharsets.UTF_8);
+      if (classpathFiles != null) {
+        hasher.putBoolean(true);
+        for (Path classpathFile : ImmutableSortedSet.copyOf(classpathFiles)) {
+          Sha1HashCode hash = dexInputHashes.get(classpathFile);
+          hasher.putString(
+              hash != null ? hash.getHash() : classpathFile.toString(), StandardCharsets.UTF_8);
+        }
+      }
+      return hasher.hash().toString();
+    }
+
     public boolean checkIsCached() {
       newInputsHash = hashInputs();
 
@@ -444,9 +522,75 @@ public class SmartDexingStep implements Step {
       return newInputsHash.equals(currentInputsHash);
     }
 
-    private void buildInternal(ImmutableList.Builder<Step> steps) {
+    /**
+     * Brings the outputs up to date, from the {@link DexOutputCache} if possible and by running the
+     * dexer otherwise, and reports how long it took in a {@code dex_shard} perf event.
+     */
+    private void run(
+        ExecutionContext context,
+        Optional<DexOutputCache> dexOutputCache,
+        BuildTarget buildTarget)
+        throws IOException, InterruptedException, StepFailedException {
       Preconditions.checkState(newInputsHash != null, "Must call checkIsCached first!");
 
+      try (SimplePerfEvent.Scope scope =
+          SimplePerfEvent.scope(
+              context.getBuckEventBus(),
+              PerfEventId.of("dex_shard"),
+              "output",
+              outputPath.getFileName().toString(),
+              "input_bytes",
+              getInputSize())) {
+        long startNanos = System.nanoTime();
+        Optional<String> cacheKey = Optional.empty();
+        if (dexOutputCache.isPresent()) {
+          try {
+            cacheKey = Optional.of(hashCacheKey());
+          } catch (IOException e) {
+            LOG.warn(e, "Unable to compute the dex cache key of %s", outputPath);
+          }
+        }
+        Optional<Path> metaPath = getDexMetaPath(outputPath);
+        boolean cacheHit = false;
+        if (cacheKey.isPresent()) {
+          try {
+            cacheHit = dexOutputCache.get().restore(cacheKey.get(), outputPath, metaPath);
+          } catch (IOException e) {
+            LOG.warn(e, "Unable to restore %s from the dex cache", outputPath);
+          }
+        }
+        scope.appendFinishedInfo("cache_hit", cacheHit);
+
+        ImmutableList.Builder<Step> steps = ImmutableList.builder();
+        if (!cacheHit) {
+          buildInternal(steps);
+        }
+        steps.add(
+            new WriteFileStep(filesystem, newInputsHash, outputHashPath, /* executable */ false));
+        for (Step step : steps.build()) {
+          StepRunner.runStep(context, step, Optional.of(buildTarget));
+        }
+
+        if (!cacheHit && cacheKey.isPresent()) {
+          try {
+            dexOutputCache.get().store(cacheKey.get(), outputPath, metaPath);
+          } catch (IOException e) {
+            LOG.warn(e, "Unable to store %s in the dex cache", outputPath);
+          }
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        LOG.debug(
+            "%s %s: %d input bytes in %d ms (%d KB/s)",
+            cacheHit ? "Restored" : "Dexed",
+            outputPath,
+            getInputSize(),
+            elapsedMillis,
+            getInputSize() / Math.max(elapsedMillis, 1));
+      }
+    }
+
+    private void buildInternal(ImmutableList.Builder<Step> steps) {
       createDxStepForDxPseudoRule(
           androidPlatformTarget,
           steps,
@@ -461,11 +605,34 @@ public class SmartDexingStep implements Step {
           classpathFiles,
           useDexBuckedId,
           minSdkVersion);
-      steps.add(
-          new WriteFileStep(filesystem, newInputsHash, outputHashPath, /* executable */ false));
     }
   }
 
+  private static Optional<String> getBuckedId(Path outputPath, boolean useDexBuckedId) {
+    String fileName = Files.getNameWithoutExtension(outputPath.toString());
+    if (useDexBuckedId && fileName.startsWith("classes")) {
+      // We know what the output file name is ("classes.dex" or "classesN.dex") as these
+      // are generated in SplitZipStep and passed around as part of a multi-map - it is
+      // simply easier and cleaner to extract the dex file number to be used as unique
+      // identifier rather than creating another map and pass it around
+      String[] tokens = fileName.split("classes");
+      String id = tokens.length == 0 ? "" /* primary */ : tokens[1] /* secondary */;
+      return Optional.of(id);
+    }
+    return Optional.empty();
+  }
+
+  /** Returns the path of the ".meta" file written next to dex jars, if the output is one. */
+  private static Optional<Path> getDexMetaPath(Path outputPath) {
+    if (DexStore.XZ.matchesPath(outputPath)) {
+      Path repackedJar = Paths.get(outputPath.toString().replaceAll("\\.xz$", ""));
+      return Optional.of(repackedJar.resolveSibling(repackedJar.getFileName() + ".meta"));
+    } else if (DexStore.XZS.matchesPath(outputPath) || DexStore.JAR.matchesPath(outputPath)) {
+      return Optional.of(outputPath.resolveSibling(outputPath.getFileName() + ".meta"));
+    }
+    return Optional.empty();
+  }
+
   /**
    * The step to produce the .dex file will be determined by the file extension of outputPath, much
    * as {@code dx} itself chooses whether to embed the dex inside a jar/zip based on the destination
@@ -488,18 +655,8 @@ public class SmartDexingStep implements Step {
       boolean useDexBuckedId,
       Optional<Integer> minSdkVersion) {
 
-    Optional<String> buckedId = Optional.empty();
+    Optional<String> buckedId = getBuckedId(outputPath, useDexBuckedId);
     String output = outputPath.toString();
-    String fileName = Files.getNameWithoutExtension(output);
-    if (useDexBuckedId && fileName.startsWith("classes")) {
-      // We know what the output file name is ("classes.dex" or "classesN.dex") as these
-      // are generated in SplitZipStep and passed around as part of a multi-map - it is
-      // simply easier and cleaner to extract the dex file number to be used as unique
-      // identifier rather than creating another map and pass it around
-      String[] tokens = fileName.split("classes");
-      String id = tokens.length == 0 ? "" /* primary */ : tokens[1] /* secondary */;
-      buckedId = Optional.of(id);
-    }
 
     if (DexStore.XZ.matchesPath(outputPath)) {
       Path tempDexJarOutput = Paths.get(output.replaceAll("\\.jar\\.xz$", ".tmp.jar"));
@@ -531,10 +688,7 @@ public class SmartDexingStep implements Step {
               BuildCellRelativePath.fromCellRelativePath(
                   context.getBuildCellRootPath(), filesystem, tempDexJarOutput)));
       steps.add(
-          new DexJarAnalysisStep(
-              filesystem,
-              repackedJar,
-              repackedJar.resolveSibling(repackedJar.getFileName() + ".meta")));
+          new DexJarAnalysisStep(filesystem, repackedJar, getDexMetaPath(outputPath).get()));
 
       steps.add(new XzStep(filesystem, repackedJar, xzCompressionLevel));
     } else if (DexStore.XZS.matchesPath(outputPath)) {
@@ -570,10 +724,7 @@ public class SmartDexingStep implements Step {
 
       // Write a .meta file.
       steps.add(
-          new DexJarAnalysisStep(
-              filesystem,
-              outputPath,
-              outputPath.resolveSibling(outputPath.getFileName() + ".meta")));
+          new DexJarAnalysisStep(filesystem, outputPath, getDexMetaPath(outputPath).get()));
     } else if (DexStore.JAR.matchesPath(outputPath)
         || DexStore.RAW.matchesPath(outputPath)
         || output.endsWith("classes.dex")) {
@@ -592,10 +743,7 @@ public class SmartDexingStep implements Step {
               minSdkVersion));
       if (DexStore.JAR.matchesPath(outputPath)) {
         steps.add(
-            new DexJarAnalysisStep(
-                filesystem,
-                outputPath,
-                outputPath.resolveSibling(outputPath.getFileName() + ".meta")));
+            new DexJarAnalysisStep(filesystem, outputPath, getDexMetaPath(outputPath).get()));
         steps.add(ZipScrubberStep.of(filesystem.resolve(outputPath)));
       }
     } else {
@@ -27,6 +27,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.ExecutorPool;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
@@ -188,7 +189,10 @@ public class SplitZipStep implements Step {
     ZipSplitterFactory zipSplitterFactory;
     zipSplitterFactory =
         new DalvikAwareZipSplitterFactory(
-            dexSplitMode.getLinearAllocHardLimit(), wantedInPrimaryZip);
+            dexSplitMode.getLinearAllocHardLimit(),
+            wantedInPrimaryZip,
+            context.getExecutors().get(ExecutorPool.CPU),
+            context.getConcurrencyLimit().threadLimit);
 
     outputFiles =
         zipSplitterFactory
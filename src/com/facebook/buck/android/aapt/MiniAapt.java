@@ -31,6 +31,8 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.ThrowingPrintWriter;
+import com.facebook.buck.util.concurrent.ExecutorPool;
+import com.facebook.buck.util.concurrent.ParallelLoops;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.xml.DocumentLocation;
 import com.facebook.buck.util.xml.PositionalXmlHandler;
@@ -48,21 +50,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import org.w3c.dom.Attr;
+import javax.annotation.Nullable;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -82,15 +82,8 @@ public class MiniAapt implements Step {
   private static final String PUBLIC_FILENAME = "public.xml";
   private static final String CUSTOM_DRAWABLE_PREFIX = "app-";
 
-  private static final XPathExpression ANDROID_ID_USAGE =
-      createExpression(
-          "//@*[starts-with(., '@') and "
-              + "not(starts-with(., '@+')) and "
-              + "not(starts-with(., '@android:')) and "
-              + "not(starts-with(., '@null'))]");
-
-  private static final XPathExpression ANDROID_ID_DEFINITION =
-      createExpression("//@*[starts-with(., '@+') and " + "not(starts-with(., '@+android:id'))]");
+  /** Resource directories with fewer xml files per available thread are scanned sequentially. */
+  private static final int MIN_XML_FILES_PER_THREAD = 16;
 
   private static final ImmutableMap<String, RType> RESOURCE_TYPES = getResourceTypes();
 
@@ -164,14 +157,6 @@ public class MiniAapt implements Step {
     }
   }
 
-  private static XPathExpression createExpression(String expressionStr) {
-    try {
-      return XPathFactory.newInstance().newXPath().compile(expressionStr);
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private static ImmutableMap<String, RType> getResourceTypes() {
     ImmutableMap.Builder<String, RType> types = ImmutableMap.builder();
     for (RType rType : RType.values()) {
@@ -195,8 +180,12 @@ public class MiniAapt implements Step {
     ProjectFilesystemView filesystemViewWithoutIgnores = filesystem.asView();
     try {
       collectResources(filesystemViewWithoutIgnores, context.getBuckEventBus());
-      processXmlFilesForIds(filesystemViewWithoutIgnores, references);
-    } catch (XPathExpressionException | ResourceParseException e) {
+      processXmlFilesForIds(
+          filesystemViewWithoutIgnores,
+          references,
+          context.getExecutors().get(ExecutorPool.CPU),
+          context.getConcurrencyLimit().threadLimit);
+    } catch (ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return StepExecutionResults.ERROR;
     }
@@ -332,9 +321,10 @@ public class MiniAapt implements Step {
     boolean isCustomDrawable = false;
     if (filename.endsWith(".xml")) {
       try (InputStream stream = filesystem.newFileInputStream(resourceFile)) {
-        Document dom = parseXml(resourceFile, stream);
-        Element root = dom.getDocumentElement();
-        isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
+        isCustomDrawable =
+            ResourceXmlScanner.readRootElementName(resourceFile, stream)
+                .map(name -> name.startsWith(CUSTOM_DRAWABLE_PREFIX))
+                .orElse(false);
       }
     } else if (isGrayscaleImageProcessingEnabled) {
       isGrayscaleImage = filename.endsWith(".g.png");
@@ -503,11 +493,23 @@ public class MiniAapt implements Step {
     }
   }
 
+  /**
+   * Collects the ids defined and the resources referenced by every xml file outside of the {@code
+   * values*} directories.
+   *
+   * <p>Files are scanned on up to {@code parallelism} threads, borrowing helper threads from {@code
+   * executor}, but their results are always added in the same order as a sequential scan would, so
+   * resource ids and error reporting don't depend on scheduling.
+   */
   void processXmlFilesForIds(
-      ProjectFilesystemView filesystemView, ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
+      ProjectFilesystemView filesystemView,
+      ImmutableSet.Builder<RDotTxtEntry> references,
+      @Nullable Executor executor,
+      int parallelism)
+      throws IOException, ResourceParseException {
     Path absoluteResDir = resolver.getAbsolutePath(resDirectory);
     Path relativeResDir = resolver.getRelativePath(resDirectory);
+    List<Path> xmlFiles = new ArrayList<>();
     for (Path path :
         filesystemView.getFilesUnderPath(
             absoluteResDir,
@@ -518,53 +520,92 @@ public class MiniAapt implements Step {
         // Ignore files under values* directories.
         continue;
       }
-      processXmlFile(this.filesystem, path, references);
+      xmlFiles.add(path);
     }
+
+    int threads = Math.min(parallelism, xmlFiles.size() / MIN_XML_FILES_PER_THREAD);
+    if (executor == null || threads <= 1) {
+      for (Path xmlFile : xmlFiles) {
+        processXmlFile(this.filesystem, xmlFile, references);
+      }
+      return;
+    }
+
+    ResourceXmlScanner.ScanResult[] results = scanConcurrently(xmlFiles, executor, threads);
+    for (int i = 0; i < results.length; i++) {
+      addIdsAndReferences(xmlFiles.get(i), results[i], references);
+    }
+  }
+
+  /**
+   * Scans {@code xmlFiles} on {@code threads} threads. If any files fail to parse, the failure of
+   * the first of them is thrown, as in a sequential scan.
+   */
+  private ResourceXmlScanner.ScanResult[] scanConcurrently(
+      List<Path> xmlFiles, Executor executor, int threads)
+      throws IOException, ResourceParseException {
+    ResourceXmlScanner.ScanResult[] results = new ResourceXmlScanner.ScanResult[xmlFiles.size()];
+    ParallelLoops.<IOException, ResourceParseException>forEachIndex(
+        executor,
+        threads,
+        results.length,
+        index -> {
+          Path xmlFile = xmlFiles.get(index);
+          try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
+            results[index] = ResourceXmlScanner.scan(xmlFile, stream);
+          }
+        });
+    return results;
   }
 
   @VisibleForTesting
   void processXmlFile(
       ProjectFilesystem filesystem, Path xmlFile, ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
+      throws IOException, ResourceParseException {
     try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
-      Document dom = parseXml(xmlFile, stream);
-      NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesWithIds.getLength(); i++) {
-        String resourceName = nodesWithIds.item(i).getNodeValue();
-        if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
-        Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
+      addIdsAndReferences(xmlFile, ResourceXmlScanner.scan(xmlFile, stream), references);
+    }
+  }
 
-        Element ownerElement = ((Attr) nodesWithIds.item(i)).getOwnerElement();
-        DocumentLocation location = extractDocumentLocation(ownerElement);
-        resourceCollector.addIntResourceIfNotPresent(
-            RType.ID, resourceName.substring(ID_DEFINITION_PREFIX.length()), xmlFile, location);
+  private void addIdsAndReferences(
+      Path xmlFile,
+      ResourceXmlScanner.ScanResult scanResult,
+      ImmutableSet.Builder<RDotTxtEntry> references)
+      throws ResourceParseException {
+    for (ResourceXmlScanner.Attribute definition : scanResult.definitions) {
+      String resourceName = definition.value;
+      if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
       }
+      Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
 
-      NodeList nodesUsingIds = (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesUsingIds.getLength(); i++) {
-        String resourceName = nodesUsingIds.item(i).getNodeValue();
-        int slashPosition = resourceName.indexOf('/');
-        if (resourceName.charAt(0) != '@' || slashPosition == -1) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
+      resourceCollector.addIntResourceIfNotPresent(
+          RType.ID,
+          resourceName.substring(ID_DEFINITION_PREFIX.length()),
+          xmlFile,
+          definition.location);
+    }
 
-        String rawRType = resourceName.substring(1, slashPosition);
-        String name = resourceName.substring(slashPosition + 1);
+    for (ResourceXmlScanner.Attribute reference : scanResult.references) {
+      String resourceName = reference.value;
+      int slashPosition = resourceName.indexOf('/');
+      if (resourceName.charAt(0) != '@' || slashPosition == -1) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      }
 
-        String nodeName = nodesUsingIds.item(i).getNodeName();
-        if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
-          continue;
-        }
-        if (!RESOURCE_TYPES.containsKey(rawRType)) {
-          throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
-        }
-        RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
+      String rawRType = resourceName.substring(1, slashPosition);
+      String name = resourceName.substring(slashPosition + 1);
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+      String nodeName = reference.name;
+      if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
+        continue;
       }
+      if (!RESOURCE_TYPES.containsKey(rawRType)) {
+        throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      }
+      RType rType = Objects.requireNonNull(RESOURCE_TYPES.get(rawRType));
+
+      references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
     }
   }
 
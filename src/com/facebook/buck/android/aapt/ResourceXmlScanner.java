@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.aapt;
+
+import com.facebook.buck.android.aapt.MiniAapt.ResourceParseException;
+import com.facebook.buck.util.xml.DocumentLocation;
+import com.google.common.collect.ImmutableList;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams through a resource xml file, such as a layout, and collects the ids it defines and the
+ * resources it references without building a DOM.
+ *
+ * <p>Attributes are reported in the order the DOM and XPath based scanner used to visit them:
+ * elements in document order, and the attributes of each element sorted by name. Resource ids are
+ * assigned in the order they are first seen, so this keeps R.txt identical.
+ */
+class ResourceXmlScanner {
+
+  // Factories are not guaranteed to be thread-safe, and some implementations reuse readers.
+  private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY =
+      ThreadLocal.withInitial(
+          () -> {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            // Match the SAX parser behind XmlDomParserWithLineNumbers, which accepts undeclared
+            // prefixes such as "tools:".
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            return factory;
+          });
+
+  private static final Comparator<Attribute> BY_NAME =
+      Comparator.comparing(attribute -> attribute.name);
+
+  private ResourceXmlScanner() {}
+
+  /** Scans {@code xmlFile} for {@code @+} id definitions and {@code @type/name} references. */
+  static ScanResult scan(Path xmlFile, InputStream stream) throws ResourceParseException {
+    ImmutableList.Builder<Attribute> definitions = ImmutableList.builder();
+    ImmutableList.Builder<Attribute> references = ImmutableList.builder();
+    List<Attribute> attributes = new ArrayList<>();
+    XMLStreamReader reader = createReader(xmlFile, stream);
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamReader.START_ELEMENT) {
+          continue;
+        }
+        attributes.clear();
+        @Nullable DocumentLocation location = null;
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          String value = reader.getAttributeValue(i);
+          if (value.isEmpty() || value.charAt(0) != '@') {
+            continue;
+          }
+          if (location == null) {
+            location = getDocumentLocation(reader.getLocation());
+          }
+          attributes.add(new Attribute(getAttributeName(reader, i), value, location));
+        }
+        attributes.sort(BY_NAME);
+        for (Attribute attribute : attributes) {
+          if (attribute.value.startsWith("@+")) {
+            if (!attribute.value.startsWith("@+android:id")) {
+              definitions.add(attribute);
+            }
+          } else if (!attribute.value.startsWith("@android:")
+              && !attribute.value.startsWith("@null")) {
+            references.add(attribute);
+          }
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw newParseException(xmlFile, e);
+    } finally {
+      close(reader);
+    }
+    return new ScanResult(definitions.build(), references.build());
+  }
+
+  /** Returns the name of the root element of {@code xmlFile}, reading no further than that. */
+  static Optional<String> readRootElementName(Path xmlFile, InputStream stream)
+      throws ResourceParseException {
+    XMLStreamReader reader = createReader(xmlFile, stream);
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamReader.START_ELEMENT) {
+          return Optional.of(reader.getLocalName());
+        }
+      }
+      return Optional.empty();
+    } catch (XMLStreamException e) {
+      throw newParseException(xmlFile, e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private static XMLStreamReader createReader(Path xmlFile, InputStream stream)
+      throws ResourceParseException {
+    try {
+      return INPUT_FACTORY.get().createXMLStreamReader(stream);
+    } catch (XMLStreamException e) {
+      throw newParseException(xmlFile, e);
+    }
+  }
+
+  private static void close(XMLStreamReader reader) {
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      // Closing a reader does not close the underlying stream, so there's nothing to clean up.
+    }
+  }
+
+  private static String getAttributeName(XMLStreamReader reader, int index) {
+    String prefix = reader.getAttributePrefix(index);
+    String localName = reader.getAttributeLocalName(index);
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+  }
+
+  /** Converts to the zero-based location that {@code PositionalXmlHandler} records. */
+  private static DocumentLocation getDocumentLocation(Location location) {
+    return DocumentLocation.of(location.getLineNumber() - 1, location.getColumnNumber() - 1);
+  }
+
+  private static ResourceParseException newParseException(Path xmlFile, XMLStreamException e) {
+    String message = e.getNestedException() != null ? e.getNestedException().getMessage() : null;
+    return new ResourceParseException(
+        "Error parsing xml file '%s': %s.", xmlFile, message != null ? message : e.getMessage());
+  }
+
+  /** An attribute whose value starts with {@code @}. */
+  static class Attribute {
+    final String name;
+    final String value;
+    /** The location of the element the attribute belongs to. */
+    final DocumentLocation location;
+
+    private Attribute(String name, String value, DocumentLocation location) {
+      this.name = name;
+      this.value = value;
+      this.location = location;
+    }
+  }
+
+  /** The ids defined and resources referenced by a single xml file. */
+  static class ScanResult {
+    final ImmutableList<Attribute> definitions;
+    final ImmutableList<Attribute> references;
+
+    private ScanResult(ImmutableList<Attribute> definitions, ImmutableList<Attribute> references) {
+      this.definitions = definitions;
+      this.references = references;
+    }
+  }
+}
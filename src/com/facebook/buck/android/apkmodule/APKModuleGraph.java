@@ -22,6 +22,8 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
+import com.facebook.buck.core.util.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.core.util.graph.CycleException;
 import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -40,16 +42,16 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Ordering;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -125,6 +127,17 @@ public class APKModuleGraph implements AddsToRuleKey {
   private final Supplier<Optional<Map<String, List<BuildTarget>>>> configMapSupplier =
       MoreSuppliers.memoize(this::generateSeedConfigMap);
 
+  private final Supplier<ImmutableSet<BuildTarget>> seedTargetsSupplier =
+      MoreSuppliers.memoize(
+          () ->
+              getSeedConfigMap()
+                  .map(
+                      seedConfigMap ->
+                          seedConfigMap.values().stream()
+                              .flatMap(List::stream)
+                              .collect(ImmutableSet.toImmutableSet()))
+                  .orElse(ImmutableSet.of()));
+
   /**
    * Constructor for the {@code APKModule} graph generator object that produces a graph with only a
    * root module.
@@ -349,9 +362,11 @@ public class APKModuleGraph implements AddsToRuleKey {
     apkModuleGraph.addNode(rootAPKModuleSupplier.get());
 
     if (getSeedConfigMap().isPresent()) {
-      Multimap<BuildTarget, String> targetToContainingApkModulesMap =
-          mapTargetsToContainingModules();
-      generateSharedModules(apkModuleGraph, targetToContainingApkModulesMap);
+      ImmutableList<String> moduleNames =
+          ImmutableSortedSet.copyOf(getSeedConfigMap().get().keySet()).asList();
+      Map<BuildTarget, BitSet> targetToContainingApkModulesMap =
+          mapTargetsToContainingModules(moduleNames);
+      generateSharedModules(apkModuleGraph, moduleNames, targetToContainingApkModulesMap);
       // add declared dependencies as well.
       Map<String, APKModule> nameToAPKModules = new HashMap<>();
       for (APKModule node : apkModuleGraph.getNodes()) {
@@ -439,59 +454,91 @@ public class APKModuleGraph implements AddsToRuleKey {
   }
 
   /**
-   * For each seed target, find its reachable targets and mark them in a multimap as being reachable
-   * by that module for later sorting into exclusive and shared targets
+   * For each target reachable from a seed, find the seed modules it is reachable from, reduced to
+   * their minimal cover under the declared module dependencies.
    *
-   * @return the Multimap containing targets and the seed modules that contain them
+   * <p>Seed modules get dense ids in name order, and sets of modules are {@link BitSet}s of those
+   * ids. Targets are visited once, dependents before their dependencies, merging each target's set
+   * into the sets of its dependencies, so the work grows with the size of the target graph rather
+   * than with its size times the number of modules.
+   *
+   * @param moduleNames the names of the seed modules, in order of their ids
+   * @return the targets mapped to the minimal cover of the seed modules that contain them
    */
-  private Multimap<BuildTarget, String> mapTargetsToContainingModules() {
-    Multimap<BuildTarget, String> targetToContainingApkModuleNameMap =
-        MultimapBuilder.treeKeys().treeSetValues().build();
-    for (Map.Entry<String, List<BuildTarget>> seedConfig : getSeedConfigMap().get().entrySet()) {
-      String seedModuleName = seedConfig.getKey();
-      for (BuildTarget seedTarget : seedConfig.getValue()) {
-        targetToContainingApkModuleNameMap.put(seedTarget, seedModuleName);
-        new AbstractBreadthFirstTraversal<TargetNode<?>>(targetGraph.get(seedTarget)) {
-          @Override
-          public ImmutableSet<TargetNode<?>> visit(TargetNode<?> node) {
-
-            ImmutableSet.Builder<TargetNode<?>> depsBuilder = ImmutableSet.builder();
-            for (BuildTarget depTarget : node.getBuildDeps()) {
-              if (!isInRootModule(depTarget) && !isSeedTarget(depTarget)) {
-                depsBuilder.add(targetGraph.get(depTarget));
-                targetToContainingApkModuleNameMap.put(depTarget, seedModuleName);
-              }
-            }
-            return depsBuilder.build();
-          }
-        }.start();
+  private Map<BuildTarget, BitSet> mapTargetsToContainingModules(
+      ImmutableList<String> moduleNames) {
+    Map<BuildTarget, BitSet> targetToContainingModules = new HashMap<>();
+    List<TargetNode<?>> seedNodes = new ArrayList<>();
+    for (int id = 0; id < moduleNames.size(); id++) {
+      for (BuildTarget seedTarget : getSeedConfigMap().get().get(moduleNames.get(id))) {
+        targetToContainingModules.computeIfAbsent(seedTarget, target -> new BitSet()).set(id);
+        seedNodes.add(targetGraph.get(seedTarget));
+      }
+    }
+
+    Iterable<TargetNode<?>> dependenciesFirst;
+    try {
+      dependenciesFirst =
+          new AcyclicDepthFirstPostOrderTraversal<TargetNode<?>>(
+                  node -> getDepsInSeedModules(node).iterator())
+              .traverse(seedNodes);
+    } catch (CycleException e) {
+      // The target graph has already been checked for cycles.
+      throw new RuntimeException(e);
+    }
+    for (TargetNode<?> node : ImmutableList.copyOf(dependenciesFirst).reverse()) {
+      BitSet containingModules = targetToContainingModules.get(node.getBuildTarget());
+      for (TargetNode<?> dep : getDepsInSeedModules(node)) {
+        targetToContainingModules
+            .computeIfAbsent(dep.getBuildTarget(), target -> new BitSet())
+            .or(containingModules);
       }
     }
+
     // Now to generate the minimal covers of APKModules for each set of APKModules that contain
-    // a buildTarget
+    // a buildTarget: drop every module that depends, directly or not, on another one in the set.
     DirectedAcyclicGraph<String> declaredDependencies = getDeclaredDependencyGraph();
-    Multimap<BuildTarget, String> targetModuleEntriesToRemove =
-        MultimapBuilder.treeKeys().treeSetValues().build();
-    for (BuildTarget key : targetToContainingApkModuleNameMap.keySet()) {
-      Collection<String> modulesForTarget = targetToContainingApkModuleNameMap.get(key);
-      new AbstractBreadthFirstTraversal<String>(modulesForTarget) {
+    BitSet[] transitiveDependents = new BitSet[moduleNames.size()];
+    for (int id = 0; id < moduleNames.size(); id++) {
+      BitSet dependents = new BitSet();
+      new AbstractBreadthFirstTraversal<String>(moduleNames.get(id)) {
         @Override
         public Iterable<String> visit(String moduleName) throws RuntimeException {
           Collection<String> dependentModules =
               declaredDependencies.getIncomingNodesFor(moduleName);
           for (String dependent : dependentModules) {
-            if (modulesForTarget.contains(dependent)) {
-              targetModuleEntriesToRemove.put(key, dependent);
-            }
+            dependents.set(Collections.binarySearch(moduleNames, dependent));
           }
           return dependentModules;
         }
       }.start();
+      transitiveDependents[id] = dependents;
+    }
+    // Most targets share their set of modules with many others, so reduce each set only once.
+    Map<BitSet, BitSet> minimalCovers = new HashMap<>();
+    for (Map.Entry<BuildTarget, BitSet> entry : targetToContainingModules.entrySet()) {
+      entry.setValue(
+          minimalCovers.computeIfAbsent(
+              entry.getValue(),
+              modules -> {
+                BitSet cover = (BitSet) modules.clone();
+                for (int id = modules.nextSetBit(0); id >= 0; id = modules.nextSetBit(id + 1)) {
+                  cover.andNot(transitiveDependents[id]);
+                }
+                return cover;
+              }));
     }
-    for (Map.Entry<BuildTarget, String> entryToRemove : targetModuleEntriesToRemove.entries()) {
-      targetToContainingApkModuleNameMap.remove(entryToRemove.getKey(), entryToRemove.getValue());
+    return targetToContainingModules;
+  }
+
+  private ImmutableList<TargetNode<?>> getDepsInSeedModules(TargetNode<?> node) {
+    ImmutableList.Builder<TargetNode<?>> depsBuilder = ImmutableList.builder();
+    for (BuildTarget depTarget : node.getBuildDeps()) {
+      if (!isInRootModule(depTarget) && !isSeedTarget(depTarget)) {
+        depsBuilder.add(targetGraph.get(depTarget));
+      }
     }
-    return targetToContainingApkModuleNameMap;
+    return depsBuilder.build();
   }
 
   /**
@@ -500,86 +547,69 @@ public class APKModuleGraph implements AddsToRuleKey {
    * create an appropriate shared module and fill out its dependencies
    *
    * @param apkModuleGraph the current graph we're building
-   * @param targetToContainingApkModulesMap the targets mapped to the seed targets they are
+   * @param moduleNames the names of the seed modules, in order of their ids
+   * @param targetToContainingApkModulesMap the targets mapped to the seed modules they are
    *     reachable from
    */
   private void generateSharedModules(
       MutableDirectedGraph<APKModule> apkModuleGraph,
-      Multimap<BuildTarget, String> targetToContainingApkModulesMap) {
+      ImmutableList<String> moduleNames,
+      Map<BuildTarget, BitSet> targetToContainingApkModulesMap) {
 
-    // Sort the module-covers of all targets to determine shared module names.
-    TreeSet<TreeSet<String>> sortedContainingModuleSets =
+    // Sort the module-covers of all targets to determine shared module names. Ids are assigned in
+    // name order, so comparing ids compares names.
+    TreeSet<BitSet> sortedContainingModuleSets =
         new TreeSet<>(
-            new Comparator<TreeSet<String>>() {
-              @Override
-              public int compare(TreeSet<String> left, TreeSet<String> right) {
-                int sizeDiff = left.size() - right.size();
-                if (sizeDiff != 0) {
-                  return sizeDiff;
-                }
-                Iterator<String> leftIter = left.iterator();
-                Iterator<String> rightIter = right.iterator();
-                while (leftIter.hasNext()) {
-                  String leftElement = leftIter.next();
-                  String rightElement = rightIter.next();
-                  int stringComparison = leftElement.compareTo(rightElement);
-                  if (stringComparison != 0) {
-                    return stringComparison;
-                  }
-                }
-                return 0;
-              }
-            });
-    for (Map.Entry<BuildTarget, Collection<String>> entry :
-        targetToContainingApkModulesMap.asMap().entrySet()) {
-      TreeSet<String> containingModuleSet = new TreeSet<>(entry.getValue());
-      sortedContainingModuleSets.add(containingModuleSet);
-    }
+            Comparator.comparingInt(BitSet::cardinality)
+                .thenComparing(
+                    (left, right) -> {
+                      int leftId = left.nextSetBit(0);
+                      int rightId = right.nextSetBit(0);
+                      while (leftId >= 0 && leftId == rightId) {
+                        leftId = left.nextSetBit(leftId + 1);
+                        rightId = right.nextSetBit(rightId + 1);
+                      }
+                      return Integer.compare(leftId, rightId);
+                    }));
+    sortedContainingModuleSets.addAll(targetToContainingApkModulesMap.values());
 
     // build modules based on all entries.
-    Map<ImmutableSet<String>, APKModule> combinedModuleHashToModuleMap = new HashMap<>();
+    Map<BitSet, APKModule> combinedModuleHashToModuleMap = new HashMap<>();
     int currentId = 0;
-    for (TreeSet<String> moduleCover : sortedContainingModuleSets) {
+    for (BitSet moduleCover : sortedContainingModuleSets) {
       String moduleName =
-          moduleCover.size() == 1 ? moduleCover.iterator().next() : "shared" + currentId++;
+          moduleCover.cardinality() == 1
+              ? moduleNames.get(moduleCover.nextSetBit(0))
+              : "shared" + currentId++;
       APKModule module = APKModule.of(moduleName, modulesWithResources.contains(moduleName));
-      combinedModuleHashToModuleMap.put(ImmutableSet.copyOf(moduleCover), module);
+      combinedModuleHashToModuleMap.put(moduleCover, module);
     }
 
     // add Targets per module;
-    for (Map.Entry<BuildTarget, Collection<String>> entry :
-        targetToContainingApkModulesMap.asMap().entrySet()) {
-      ImmutableSet<String> containingModuleSet = ImmutableSet.copyOf(entry.getValue());
-      for (Map.Entry<ImmutableSet<String>, APKModule> existingEntry :
-          combinedModuleHashToModuleMap.entrySet()) {
-        if (existingEntry.getKey().equals(containingModuleSet)) {
-          getBuildTargets(existingEntry.getValue()).add(entry.getKey());
-          break;
-        }
-      }
+    for (Map.Entry<BuildTarget, BitSet> entry : targetToContainingApkModulesMap.entrySet()) {
+      getBuildTargets(combinedModuleHashToModuleMap.get(entry.getValue())).add(entry.getKey());
     }
 
     // Find the seed modules and add them to the graph
-    Map<String, APKModule> seedModules = new HashMap<>();
-    for (Map.Entry<ImmutableSet<String>, APKModule> entry :
-        combinedModuleHashToModuleMap.entrySet()) {
-      if (entry.getKey().size() == 1) {
+    Map<Integer, APKModule> seedModules = new HashMap<>();
+    for (Map.Entry<BitSet, APKModule> entry : combinedModuleHashToModuleMap.entrySet()) {
+      if (entry.getKey().cardinality() == 1) {
         APKModule seed = entry.getValue();
         apkModuleGraph.addNode(seed);
-        seedModules.put(entry.getKey().iterator().next(), seed);
+        seedModules.put(entry.getKey().nextSetBit(0), seed);
         apkModuleGraph.addEdge(seed, rootAPKModuleSupplier.get());
       }
     }
 
     // Find the shared modules and add them to the graph
-    for (Map.Entry<ImmutableSet<String>, APKModule> entry :
-        combinedModuleHashToModuleMap.entrySet()) {
-      if (entry.getKey().size() > 1) {
+    for (Map.Entry<BitSet, APKModule> entry : combinedModuleHashToModuleMap.entrySet()) {
+      if (entry.getKey().cardinality() > 1) {
         APKModule shared = entry.getValue();
         apkModuleGraph.addNode(shared);
         apkModuleGraph.addEdge(shared, rootAPKModuleSupplier.get());
-        for (String seedName : entry.getKey()) {
-          apkModuleGraph.addEdge(seedModules.get(seedName), shared);
+        BitSet seedIds = entry.getKey();
+        for (int id = seedIds.nextSetBit(0); id >= 0; id = seedIds.nextSetBit(id + 1)) {
+          apkModuleGraph.addEdge(seedModules.get(id), shared);
         }
       }
     }
@@ -590,15 +620,7 @@ public class APKModuleGraph implements AddsToRuleKey {
   }
 
   private boolean isSeedTarget(BuildTarget depTarget) {
-    if (!getSeedConfigMap().isPresent()) {
-      return false;
-    }
-    for (List<BuildTarget> targetsPerConfig : getSeedConfigMap().get().values()) {
-      if (targetsPerConfig.contains(depTarget)) {
-        return true;
-      }
-    }
-    return false;
+    return seedTargetsSupplier.get().contains(depTarget);
   }
 
   private static String generateNameFromTarget(BuildTarget androidModuleTarget) {
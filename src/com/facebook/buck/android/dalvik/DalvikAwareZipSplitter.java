@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
@@ -72,6 +73,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final Path reportDir;
   private final long linearAllocLimit;
   private final DalvikStatsCache dalvikStatsCache;
+  @Nullable private final Executor executor;
+  private final int parallelism;
   private final DexSplitStrategy dexSplitStrategy;
   private final ImmutableSet<String> secondaryHeadSet;
   private final ImmutableSet<String> secondaryTailSet;
@@ -98,7 +101,9 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      @Nullable Executor executor,
+      int parallelism) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
     }
@@ -128,6 +133,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
     this.dalvikStatsCache = new DalvikStatsCache();
+    this.executor = executor;
+    this.parallelism = parallelism;
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -145,7 +152,9 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      @Nullable Executor executor,
+      int parallelism) {
     return new DalvikAwareZipSplitter(
         filesystem,
         inFiles,
@@ -161,11 +170,17 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        executor,
+        parallelism);
   }
 
   @Override
   public ImmutableMultimap<APKModule, Path> execute() throws IOException {
+    // Both passes below look up the stats of most classes, so compute those that haven't been seen
+    // by an earlier split in parallel before starting.
+    dalvikStatsCache.precompute(filesystem, inFiles, executor, parallelism);
+
     ClasspathTraverser classpathTraverser = new DefaultClasspathTraverser();
     Set<String> secondaryTail = new HashSet<String>();
 
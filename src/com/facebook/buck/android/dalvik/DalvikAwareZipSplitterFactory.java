@@ -22,16 +22,31 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  @Nullable private final Executor executor;
+  private final int parallelism;
 
-  public DalvikAwareZipSplitterFactory(long linearAllocLimit, Set<String> wantedInPrimaryZip) {
+  /**
+   * @param executor used to compute the stats of classes that have not been seen before in
+   *     parallel
+   * @param parallelism the maximum number of threads to compute stats on, including the caller's
+   */
+  public DalvikAwareZipSplitterFactory(
+      long linearAllocLimit,
+      Set<String> wantedInPrimaryZip,
+      @Nullable Executor executor,
+      int parallelism) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.executor = executor;
+    this.parallelism = parallelism;
   }
 
   @Override
@@ -64,6 +79,8 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        executor,
+        parallelism);
   }
 }
@@ -16,19 +16,85 @@
 
 package com.facebook.buck.android.dalvik;
 
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
+import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.util.concurrent.ParallelLoops;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 
-/** Cache to memoize results from DalvikStatsTool. */
+/**
+ * Cache to memoize results from DalvikStatsTool.
+ *
+ * <p>Stats are shared by every cache in the process and keyed by a hash of the class bytes, so a
+ * class that is split for several apps, or again in a later build, is only visited by the ASM
+ * visitor once. Looking a class up costs reading and hashing its bytes, unless it was already
+ * looked up by {@link #precompute}.
+ */
 class DalvikStatsCache {
 
+  private static final HashFunction CLASS_HASH_FUNCTION = Hashing.murmur3_128();
+
+  /**
+   * Bounds the shared cache by the number of member references it holds, which is what dominates
+   * its memory use. References are interned, so those shared by many classes are only stored once.
+   */
+  private static final long MAX_SHARED_REFERENCES = 8L * 1024 * 1024;
+
+  /** Classes whose bytes are read ahead of time are computed in batches of this size. */
+  private static final int PRECOMPUTE_BATCH_SIZE = 4096;
+
+  private static final Cache<HashCode, DalvikStatsTool.Stats> SHARED_STATS =
+      newSharedStats(MAX_SHARED_REFERENCES);
+
+  private static final Interner<DalvikMemberReference> REFERENCES = Interners.newWeakInterner();
+
+  private final Cache<HashCode, DalvikStatsTool.Stats> sharedStats;
   private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
 
+  /** The stats of the classes visited by {@link #precompute}, by {@link #getLocation}. */
+  private final ConcurrentMap<Path, DalvikStatsTool.Stats> precomputed;
+
   DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+    this(SHARED_STATS);
+  }
+
+  @VisibleForTesting
+  DalvikStatsCache(Cache<HashCode, DalvikStatsTool.Stats> sharedStats) {
+    this.sharedStats = sharedStats;
+    this.cache = new MapMaker().weakKeys().makeMap();
+    this.precomputed = new ConcurrentHashMap<>();
+  }
+
+  @VisibleForTesting
+  static Cache<HashCode, DalvikStatsTool.Stats> newSharedStats(long maxReferences) {
+    return CacheBuilder.newBuilder()
+        .maximumWeight(maxReferences)
+        .weigher(
+            (HashCode hash, DalvikStatsTool.Stats stats) ->
+                1 + stats.methodReferences.size() + stats.fieldReferences.size())
+        .build();
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -44,14 +110,121 @@ class DalvikStatsCache {
       return stats;
     }
 
-    try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
+    // Entries are visited again as new objects after precompute(), so look them up by name.
+    stats = precomputed.get(getLocation(entry.getContainer(), name));
+    if (stats != null) {
       cache.put(entry, stats);
       return stats;
+    }
+
+    byte[] bytes;
+    try (InputStream is = entry.getInput()) {
+      bytes = ByteStreams.toByteArray(is);
     } catch (IOException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
-    } catch (RuntimeException e) {
+    }
+    HashCode hash = CLASS_HASH_FUNCTION.hashBytes(bytes);
+    stats = sharedStats.getIfPresent(hash);
+    if (stats == null) {
+      stats = computeStats(name, bytes);
+      sharedStats.put(hash, stats);
+    }
+    cache.put(entry, stats);
+    return stats;
+  }
+
+  /**
+   * Computes the stats of every class under {@code inFiles} that no cache in the process has seen
+   * yet, on up to {@code parallelism} threads, borrowing helper threads from {@code executor}.
+   * Later calls to {@link #getStats(FileLike)} for any class under {@code inFiles} then neither
+   * read nor hash it again.
+   */
+  void precompute(
+      ProjectFilesystem filesystem,
+      Set<Path> inFiles,
+      @Nullable Executor executor,
+      int parallelism)
+      throws IOException {
+    List<UnseenClass> batch = new ArrayList<>();
+    new DefaultClasspathTraverser()
+        .traverse(
+            new ClasspathTraversal(inFiles, filesystem) {
+              @Override
+              public void visit(FileLike entry) throws IOException {
+                String name = entry.getRelativePath();
+                if (!name.endsWith(".class")) {
+                  return;
+                }
+                byte[] bytes;
+                try (InputStream is = entry.getInput()) {
+                  bytes = ByteStreams.toByteArray(is);
+                }
+                HashCode hash = CLASS_HASH_FUNCTION.hashBytes(bytes);
+                DalvikStatsTool.Stats stats = sharedStats.getIfPresent(hash);
+                if (stats == null) {
+                  batch.add(
+                      new UnseenClass(getLocation(entry.getContainer(), name), name, bytes, hash));
+                } else {
+                  precomputed.putIfAbsent(getLocation(entry.getContainer(), name), stats);
+                }
+                if (batch.size() == PRECOMPUTE_BATCH_SIZE) {
+                  computeConcurrently(batch, executor, parallelism);
+                  batch.clear();
+                }
+              }
+            });
+    computeConcurrently(batch, executor, parallelism);
+  }
+
+  /** Computes the stats of {@code classes} on up to {@code threads} threads. */
+  private void computeConcurrently(
+      List<UnseenClass> classes, @Nullable Executor executor, int threads) {
+    ParallelLoops.forEachIndex(
+        executor,
+        threads,
+        classes.size(),
+        index -> {
+          UnseenClass unseenClass = classes.get(index);
+          DalvikStatsTool.Stats stats = computeStats(unseenClass.name, unseenClass.bytes);
+          sharedStats.put(unseenClass.hash, stats);
+          precomputed.putIfAbsent(unseenClass.location, stats);
+        });
+  }
+
+  /** @return a path which identifies the entry {@code name} of {@code container}. */
+  private static Path getLocation(Path container, String name) {
+    return container.resolve(name);
+  }
+
+  private static DalvikStatsTool.Stats computeStats(String name, byte[] bytes) {
+    DalvikStatsTool.Stats stats;
+    try {
+      stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(bytes));
+    } catch (IOException | RuntimeException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
+    return new DalvikStatsTool.Stats(
+        stats.estimatedLinearAllocSize,
+        intern(stats.methodReferences),
+        intern(stats.fieldReferences));
+  }
+
+  private static ImmutableSet<DalvikMemberReference> intern(
+      ImmutableSet<DalvikMemberReference> references) {
+    return references.stream().map(REFERENCES::intern).collect(ImmutableSet.toImmutableSet());
+  }
+
+  private static class UnseenClass {
+    private final Path location;
+    private final String name;
+    private final byte[] bytes;
+    private final HashCode hash;
+
+    private UnseenClass(Path location, String name, byte[] bytes, HashCode hash) {
+      this.location = location;
+      this.name = name;
+      this.bytes = bytes;
+      this.hash = hash;
+    }
   }
 }
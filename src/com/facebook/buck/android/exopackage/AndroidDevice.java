@@ -20,6 +20,7 @@ import com.android.ddmlib.InstallException;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -50,6 +51,13 @@ public interface AndroidDevice {
 
   void mkDirP(String dirpath) throws Exception;
 
+  /** Like {@link #mkDirP(String)} for several directories, which devices may do in one go. */
+  default void mkDirsP(Collection<String> dirpaths) throws Exception {
+    for (String dirpath : dirpaths) {
+      mkDirP(dirpath);
+    }
+  }
+
   String getProperty(String name) throws Exception;
 
   List<String> getDeviceAbis() throws Exception;
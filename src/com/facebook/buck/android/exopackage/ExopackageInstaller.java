@@ -33,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
@@ -57,8 +58,7 @@ public class ExopackageInstaller {
   private static final Logger LOG = Logger.get(ExopackageInstaller.class);
 
   public static final Path EXOPACKAGE_INSTALL_ROOT = Paths.get("/data/local/tmp/exopackage/");
-  public static final String SECONDARY_DEX_TYPE = "secondary_dex";
-  public static final String NATIVE_LIBRARY_TYPE = "native_library";
+  public static final String EXOPACKAGE_FILES_TYPE = "exopackage_files";
   public static final String RESOURCES_TYPE = "resources";
 
   private final ProjectFilesystem projectFilesystem;
@@ -88,8 +88,12 @@ public class ExopackageInstaller {
   // TODO(cjhopman): This return value is silly. Change it to be void.
   public boolean doInstall(ApkInfo apkInfo, @Nullable String processName) throws Exception {
     if (exopackageEnabled(apkInfo)) {
-      device.mkDirP(dataRoot.toString());
-      ImmutableSortedSet<Path> presentFiles = device.listDirRecursive(dataRoot);
+      ImmutableSortedSet<Path> presentFiles;
+      try (SimplePerfEvent.Scope ignored =
+          SimplePerfEvent.scope(eventBus, "list_exo_device_files")) {
+        device.mkDirP(dataRoot.toString());
+        presentFiles = device.listDirRecursive(dataRoot);
+      }
       ExopackageInfo exoInfo = apkInfo.getExopackageInfo().get();
       installMissingExopackageFiles(presentFiles, exoInfo);
       finishExoFileInstallation(presentFiles, exoInfo);
@@ -174,12 +178,19 @@ public class ExopackageInstaller {
     installMetadata(metadata.build());
   }
 
+  /**
+   * Installs the exopackage files that aren't on the device yet. Files are named by their hashes,
+   * so this only sends what changed. Files of every type are sent in a single transfer, so the
+   * agent is only started and the port only forwarded once.
+   */
   public void installMissingExopackageFiles(
       ImmutableSortedSet<Path> presentFiles, ExopackageInfo exoInfo) throws Exception {
+    ImmutableSortedMap.Builder<Path, Path> wantedFiles = ImmutableSortedMap.naturalOrder();
+
     if (exoInfo.getDexInfo().isPresent()) {
       DexExoHelper dexExoHelper =
           new DexExoHelper(pathResolver, projectFilesystem, exoInfo.getDexInfo().get());
-      installMissingFiles(presentFiles, dexExoHelper.getFilesToInstall(), SECONDARY_DEX_TYPE);
+      wantedFiles.putAll(dexExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getNativeLibsInfo().isPresent()) {
@@ -195,20 +206,22 @@ public class ExopackageInstaller {
               pathResolver,
               projectFilesystem,
               exoInfo.getNativeLibsInfo().get());
-      installMissingFiles(presentFiles, nativeExoHelper.getFilesToInstall(), NATIVE_LIBRARY_TYPE);
+      wantedFiles.putAll(nativeExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getResourcesInfo().isPresent()) {
       ResourcesExoHelper resourcesExoHelper =
           new ResourcesExoHelper(pathResolver, projectFilesystem, exoInfo.getResourcesInfo().get());
-      installMissingFiles(presentFiles, resourcesExoHelper.getFilesToInstall(), RESOURCES_TYPE);
+      wantedFiles.putAll(resourcesExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getModuleInfo().isPresent()) {
       ModuleExoHelper moduleExoHelper =
           new ModuleExoHelper(pathResolver, projectFilesystem, exoInfo.getModuleInfo().get());
-      installMissingFiles(presentFiles, moduleExoHelper.getFilesToInstall(), "modular_dex");
+      wantedFiles.putAll(moduleExoHelper.getFilesToInstall());
     }
+
+    installMissingFiles(presentFiles, wantedFiles.build(), EXOPACKAGE_FILES_TYPE);
   }
 
   /**
@@ -296,34 +309,46 @@ public class ExopackageInstaller {
   }
 
   private void deleteFiles(ImmutableSortedSet<Path> filesToDelete) {
-    filesToDelete.stream()
-        .collect(
-            ImmutableListMultimap.toImmutableListMultimap(
-                path -> dataRoot.resolve(path).getParent(), path -> path.getFileName().toString()))
-        .asMap()
-        .forEach(
-            (dir, files) -> {
-              device.rmFiles(dir.toString(), files);
-            });
+    if (filesToDelete.isEmpty()) {
+      return;
+    }
+    try (SimplePerfEvent.Scope ignored =
+        SimplePerfEvent.scope(
+            eventBus,
+            PerfEventId.of("delete_exo_device_files"),
+            "files",
+            filesToDelete.size())) {
+      filesToDelete.stream()
+          .collect(
+              ImmutableListMultimap.toImmutableListMultimap(
+                  path -> dataRoot.resolve(path).getParent(),
+                  path -> path.getFileName().toString()))
+          .asMap()
+          .forEach(
+              (dir, files) -> {
+                device.rmFiles(dir.toString(), files);
+              });
+    }
   }
 
   private void installFiles(String filesType, ImmutableMap<Path, Path> filesToInstall)
       throws Exception {
+    if (filesToInstall.isEmpty()) {
+      return;
+    }
     try (SimplePerfEvent.Scope ignored =
-            SimplePerfEvent.scope(eventBus, "multi_install_" + filesType);
+            SimplePerfEvent.scope(
+                eventBus,
+                PerfEventId.of("multi_install_" + filesType),
+                "files",
+                filesToInstall.size());
         AutoCloseable ignored1 = device.createForward()) {
       // Make sure all the directories exist.
-      filesToInstall.keySet().stream()
-          .map(p -> dataRoot.resolve(p).getParent())
-          .distinct()
-          .forEach(
-              p -> {
-                try {
-                  device.mkDirP(p.toString());
-                } catch (Exception e) {
-                  throw new RuntimeException(e);
-                }
-              });
+      device.mkDirsP(
+          filesToInstall.keySet().stream()
+              .map(p -> dataRoot.resolve(p).getParent().toString())
+              .distinct()
+              .collect(ImmutableList.toImmutableList()));
       // Plan the installation.
       Map<Path, Path> installPaths =
           filesToInstall.entrySet().stream()
@@ -41,6 +41,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
@@ -60,6 +61,7 @@ import java.nio.charset.UnsupportedCharsetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -668,11 +670,20 @@ public class RealAndroidDevice implements AndroidDevice {
   private void rmFilesWithFlags(String dirPath, Iterable<String> filesToDelete, String flags)
       throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
           IOException {
-    String commandPrefix = String.format("cd %s && rm %s ", dirPath, flags);
+    executeChunkedCommand(String.format("cd %s && rm %s ", dirPath, flags), filesToDelete);
+  }
+
+  /**
+   * Runs {@code commandPrefix} followed by space separated {@code args}, in as few commands as the
+   * adb command size limit allows.
+   */
+  private void executeChunkedCommand(String commandPrefix, Iterable<String> args)
+      throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+          IOException {
     // Add a fudge factor for separators and error checking.
     int overhead = commandPrefix.length() + 100;
-    for (List<String> rmArgs : chunkArgs(filesToDelete, MAX_ADB_COMMAND_SIZE - overhead)) {
-      String command = commandPrefix + Joiner.on(' ').join(rmArgs);
+    for (List<String> chunk : chunkArgs(args, MAX_ADB_COMMAND_SIZE - overhead)) {
+      String command = commandPrefix + Joiner.on(' ').join(chunk);
       LOG.debug("Executing %s", command);
       executeCommandWithErrorChecking(command);
     }
@@ -939,9 +950,7 @@ public class RealAndroidDevice implements AndroidDevice {
       throw shellException;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
   private class BuckInitiatedInstallReceiver extends CollectingOutputReceiver {
@@ -1073,12 +1082,10 @@ public class RealAndroidDevice implements AndroidDevice {
       throw failure;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(installPaths.keySet());
   }
 
-  private void chmod644(Path targetDevicePath)
+  private void chmod644(Collection<Path> targetDevicePaths)
       throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
           IOException {
     // The standard Java libraries on Android always create new files un-readable by other users.
@@ -1086,7 +1093,17 @@ public class RealAndroidDevice implements AndroidDevice {
     // to allow the app to read them.  Ideally, the agent would do this automatically, but
     // there's no easy way to do this in Java.  We can drop this if we drop support for the
     // Java agent.
-    executeCommandWithErrorChecking("chmod 644 " + targetDevicePath);
+    // Files are grouped by directory so that each command can name them relative to it, which
+    // fits many more of them under the command size limit than full paths would.
+    ImmutableListMultimap<Path, String> filesByDirectory =
+        targetDevicePaths.stream()
+            .collect(
+                ImmutableListMultimap.toImmutableListMultimap(
+                    Path::getParent, path -> path.getFileName().toString()));
+    for (Map.Entry<Path, Collection<String>> entry : filesByDirectory.asMap().entrySet()) {
+      executeChunkedCommand(
+          String.format("cd %s && chmod 644 ", entry.getKey()), entry.getValue());
+    }
   }
 
   @Override
@@ -1096,6 +1113,18 @@ public class RealAndroidDevice implements AndroidDevice {
     executeCommandWithErrorChecking("umask 022 && " + mkdirCommand + " " + dirpath);
   }
 
+  @Override
+  public void mkDirsP(Collection<String> dirpaths) throws Exception {
+    String mkdirCommand = agent.get().getMkDirCommand();
+
+    // The native agent's mkdir-p only takes a single path, so chain one invocation per directory.
+    executeChunkedCommand(
+        "umask 022 ",
+        dirpaths.stream()
+            .map(dirpath -> "&& " + mkdirCommand + " " + dirpath)
+            .collect(ImmutableList.toImmutableList()));
+  }
+
   @Override
   public String getProperty(String name) throws Exception {
     return executeCommandWithErrorChecking("getprop " + name).trim();
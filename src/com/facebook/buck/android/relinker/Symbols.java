@@ -17,22 +17,43 @@ package com.facebook.buck.android.relinker;
 
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.elf.ElfSection;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionLookupResult;
+import com.facebook.buck.cxx.toolchain.elf.ElfSymbolTable;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.CharStreams;
 import com.google.common.io.LineProcessor;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 public class Symbols {
+  private static final int SHN_UNDEF = 0;
+
+  private static final Cache<HashCode, Symbols> DYNAMIC_SYMBOLS_CACHE =
+      CacheBuilder.newBuilder().maximumSize(4096).build();
+
   public ImmutableSet<String> undefined;
   public ImmutableSet<String> global;
   public ImmutableSet<String> all;
@@ -87,10 +108,79 @@ public class Symbols {
         m.group("name"), "*UND*".equals(m.group("section")), "gu!".contains(m.group("global")));
   }
 
+  /**
+   * Returns the dynamic symbols of {@code lib}. They are read straight from its {@code .dynsym}
+   * section, falling back to objdump for files we can't parse, and cached by the hash of the
+   * library, since relinking reads the same unchanged libraries over and over.
+   */
   public static Symbols getDynamicSymbols(
       ProcessExecutor executor, Tool objdump, SourcePathResolver resolver, Path lib)
       throws IOException, InterruptedException {
-    return getSymbols(executor, objdump, resolver, lib, "-T");
+    HashCode hash;
+    Optional<Symbols> symbols;
+    try (FileChannel channel = FileChannel.open(lib, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      hash = Hashing.sha1().newHasher().putBytes(buffer.duplicate()).hash();
+      Symbols cached = DYNAMIC_SYMBOLS_CACHE.getIfPresent(hash);
+      if (cached != null) {
+        return cached;
+      }
+      symbols = readDynamicSymbols(buffer);
+    }
+    if (!symbols.isPresent()) {
+      symbols = Optional.of(getSymbols(executor, objdump, resolver, lib, "-T"));
+    }
+    DYNAMIC_SYMBOLS_CACHE.put(hash, symbols.get());
+    return symbols.get();
+  }
+
+  /**
+   * Reads the symbols in the {@code .dynsym} section of an ELF file, classifying them the same way
+   * {@link #extractSymbolInfo} classifies the output of {@code objdump -T}.
+   *
+   * @return the symbols, or nothing if the file can't be parsed.
+   */
+  @VisibleForTesting
+  static Optional<Symbols> readDynamicSymbols(ByteBuffer buffer) {
+    if (!Elf.isElf(buffer)) {
+      return Optional.empty();
+    }
+    try {
+      Elf elf = new Elf(buffer);
+      Optional<ElfSectionLookupResult> dynsym = elf.getSectionByName(".dynsym");
+      Optional<ElfSectionLookupResult> dynstr = elf.getSectionByName(".dynstr");
+      if (!dynsym.isPresent() || !dynstr.isPresent()) {
+        return Optional.empty();
+      }
+      ElfSection strings = dynstr.get().getSection();
+      ImmutableList<ElfSymbolTable.Entry> entries =
+          ElfSymbolTable.parse(elf.header.ei_class, dynsym.get().getSection().body).entries;
+
+      ImmutableSet.Builder<String> undefined = ImmutableSet.builder();
+      ImmutableSet.Builder<String> global = ImmutableSet.builder();
+      ImmutableSet.Builder<String> all = ImmutableSet.builder();
+      // objdump skips the null symbol at index 0.
+      for (ElfSymbolTable.Entry entry : Iterables.skip(entries, 1)) {
+        String name = strings.lookupString(entry.st_name);
+        if (name.isEmpty() && entry.st_info.st_type == ElfSymbolTable.Entry.Info.Type.STT_SECTION) {
+          // objdump names section symbols after their section.
+          name = elf.getSectionName(elf.getSectionByIndex(entry.st_shndx).header);
+        }
+        if (name.isEmpty()) {
+          continue;
+        }
+        if (entry.st_shndx == SHN_UNDEF) {
+          undefined.add(name);
+        } else if (entry.st_info.st_bind == ElfSymbolTable.Entry.Info.Bind.STB_GLOBAL) {
+          global.add(name);
+        }
+        all.add(name);
+      }
+      return Optional.of(new Symbols(undefined.build(), global.build(), all.build()));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+      // Bindings and types we don't model (e.g. STB_GNU_UNIQUE), or a malformed file.
+      return Optional.empty();
+    }
   }
 
   public static Symbols getNormalSymbols(
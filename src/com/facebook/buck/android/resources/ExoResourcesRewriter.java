@@ -29,6 +29,7 @@ import com.google.common.io.ByteStreams;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -136,12 +137,7 @@ public class ExoResourcesRewriter {
       // Write the full (rearranged) resources to the exo resources.
       try (ResourcesZipBuilder zipBuilder = new ResourcesZipBuilder(exoResources)) {
         for (ZipEntry entry : apkZip.getEntries()) {
-          addEntry(
-              zipBuilder,
-              entry.getName(),
-              apkZip.getContent(entry.getName()),
-              entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
-              false);
+          copyEntry(zipBuilder, apkZip, entry);
         }
       }
       // Then, slice out the resources needed for the primary apk.
@@ -159,13 +155,7 @@ public class ExoResourcesRewriter {
                 : Deflater.BEST_COMPRESSION,
             false);
         for (String path : RichStream.from(closure.files).sorted().toOnceIterable()) {
-          ZipEntry entry = apkZip.getEntry(path);
-          addEntry(
-              zipBuilder,
-              entry.getName(),
-              apkZip.getContent(entry.getName()),
-              entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION,
-              false);
+          copyEntry(zipBuilder, apkZip, apkZip.getEntry(path));
         }
       }
       return resMapping;
@@ -238,6 +228,24 @@ public class ExoResourcesRewriter {
     }
   }
 
+  /**
+   * Adds {@code entry} of the input apk to {@code zipBuilder}. Only the resource table and xml
+   * files are ever read into memory and rewritten. Everything else, which is most of the apk's
+   * size, is streamed straight from the input with the size and checksum the input recorded.
+   */
+  private static void copyEntry(ResourcesZipBuilder zipBuilder, ApkZip apkZip, ZipEntry entry)
+      throws IOException {
+    String name = entry.getName();
+    int compressionLevel = entry.getMethod() == ZipEntry.STORED ? 0 : Deflater.BEST_COMPRESSION;
+    if (apkZip.isLoaded(name) || entry.getSize() == -1 || entry.getCrc() == -1) {
+      addEntry(zipBuilder, name, apkZip.getContent(name), compressionLevel, false);
+      return;
+    }
+    try (InputStream stream = apkZip.getInputStream(entry)) {
+      zipBuilder.addEntry(stream, entry.getSize(), entry.getCrc(), name, compressionLevel, false);
+    }
+  }
+
   private static void addEntry(
       ResourcesZipBuilder zipBuilder,
       String name,
@@ -323,9 +331,26 @@ public class ExoResourcesRewriter {
       return entryContents.computeIfAbsent(path, this::extractContent);
     }
 
+    /** Whether {@code path} was read into memory, in which case it may have been rewritten. */
+    boolean isLoaded(String path) {
+      return entryContents.containsKey(path);
+    }
+
+    InputStream getInputStream(ZipEntry entry) throws IOException {
+      return zipFile.getInputStream(entry);
+    }
+
     private byte[] extractContent(String path) {
-      try {
-        return ByteStreams.toByteArray(zipFile.getInputStream(entries.get(path)));
+      ZipEntry entry = entries.get(path);
+      try (InputStream stream = zipFile.getInputStream(entry)) {
+        if (entry.getSize() == -1) {
+          return ByteStreams.toByteArray(stream);
+        }
+        // Read straight into an array of the right size, rather than growing one for the resource
+        // table, which can be tens of megabytes.
+        byte[] content = new byte[Math.toIntExact(entry.getSize())];
+        ByteStreams.readFully(stream, content);
+        return content;
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -20,7 +20,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.primitives.Shorts;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
 
 /**
  * ResChunk is the base of most structures in Android's .arsc and compiled .xml files. It consists
@@ -130,10 +129,13 @@ public abstract class ResChunk {
     }
   }
 
-  // These are some utilities used widely by subclasses for dealing with ByteBuffers.
+  // These are some utilities used widely by subclasses for dealing with ByteBuffers. They only use
+  // relative bulk operations, so chunks can be read from mapped buffers as well as from arrays.
   static ByteBuffer copy(ByteBuffer buf) {
-    return wrap(
-        Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.limit()));
+    ByteBuffer result = wrap(new byte[buf.limit()]);
+    result.put(slice(buf, 0));
+    result.position(0);
+    return result;
   }
 
   public static ByteBuffer wrap(byte[] data) {
@@ -26,8 +26,10 @@ import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
@@ -78,17 +80,20 @@ public class ResTablePackage extends ResChunk {
             .collect(ImmutableList.toImmutableList());
 
     StringPool keys = resPackage.keys;
+    // Decode each retained key once, rather than twice for every comparison while sorting.
+    Map<Integer, String> decodedKeys = new HashMap<>();
+    Function<Integer, String> getKey = i -> decodedKeys.computeIfAbsent(i, keys::getString);
 
     // Figure out what keys are used by the retained references.
     ImmutableSortedSet.Builder<Integer> keyRefs =
-        ImmutableSortedSet.orderedBy(Comparator.comparing(keys::getString));
+        ImmutableSortedSet.orderedBy(Comparator.comparing(getKey));
     newSpecs.forEach(spec -> spec.visitKeyReferences(keyRefs::add));
     ImmutableList<Integer> keysToExtract = keyRefs.build().asList();
     Map<Integer, Integer> keyMapping =
         Maps.uniqueIndex(IntStream.range(0, keysToExtract.size())::iterator, keysToExtract::get);
 
     // Extract a StringPool that contains just the keys used by the new specs.
-    StringPool newKeys = StringPool.create(keysToExtract.stream().map(keys::getString)::iterator);
+    StringPool newKeys = StringPool.create(keysToExtract.stream().map(getKey)::iterator);
 
     // Adjust the key references.
     for (ResTableTypeSpec spec : newSpecs) {
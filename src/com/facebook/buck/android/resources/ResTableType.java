@@ -17,7 +17,6 @@
 package com.facebook.buck.android.resources;
 
 import com.google.common.base.Preconditions;
-import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
@@ -58,30 +57,37 @@ public class ResTableType extends ResChunk {
 
   @Nullable
   public static ResTableType slice(ResTableType type, int count) {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    int currentOffset = 0;
+    // Lay out the retained entries first, so that each one is copied exactly once, straight into
+    // a buffer of the right size.
+    int[] entrySizes = new int[count];
+    int dataSize = 0;
     ByteBuffer entryOffsets = wrap(new byte[count * 4]);
     for (int i = 0; i < count; i++) {
       int offset = type.getEntryValueOffset(i);
       if (offset == -1) {
         entryOffsets.putInt(i * 4, -1);
       } else {
-        entryOffsets.putInt(i * 4, currentOffset);
-        int dataSize = type.getEntrySizeAtOffset(offset);
-        currentOffset += dataSize;
-        output.write(type.entryData.array(), type.entryData.arrayOffset() + offset, dataSize);
+        entryOffsets.putInt(i * 4, dataSize);
+        entrySizes[i] = type.getEntrySizeAtOffset(offset);
+        dataSize += entrySizes[i];
       }
     }
 
-    byte[] entryData = output.toByteArray();
-    if (entryData.length == 0) {
+    if (dataSize == 0) {
       return null;
     }
+    ByteBuffer entryData = wrap(new byte[dataSize]);
+    for (int i = 0; i < count; i++) {
+      if (entrySizes[i] != 0) {
+        entryData.put(slice(type.entryData, type.getEntryValueOffset(i), entrySizes[i]));
+      }
+    }
+    entryData.position(0);
     int headerSize = type.getHeaderSize();
-    int chunkSize = headerSize + count * 4 + entryData.length;
+    int chunkSize = headerSize + count * 4 + dataSize;
 
     return new ResTableType(
-        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, wrap(entryData));
+        headerSize, chunkSize, type.id, count, copy(type.config), entryOffsets, entryData);
   }
 
   private int getEntrySizeAtOffset(int offset) {
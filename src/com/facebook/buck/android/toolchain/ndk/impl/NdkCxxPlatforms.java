@@ -622,7 +622,8 @@ public class NdkCxxPlatforms {
                 : Optional.empty())
         .setPublicHeadersSymlinksEnabled(config.getPublicHeadersSymlinksEnabled())
         .setPrivateHeadersSymlinksEnabled(config.getPrivateHeadersSymlinksEnabled())
-        .setFilepathLengthLimited(config.getFilepathLengthLimited());
+        .setFilepathLengthLimited(config.getFilepathLengthLimited())
+        .setInProcessArchivingEnabled(config.getInProcessArchivingEnabled());
 
     // Add the NDK root path to the white-list so that headers from the NDK won't trigger the
     // verification warnings.  Ideally, long-term, we'd model NDK libs/headers via automatically
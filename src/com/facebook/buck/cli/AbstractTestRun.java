@@ -34,6 +34,10 @@ interface AbstractTestRun {
   @Value.Parameter
   List<Step> getSteps();
 
+  /** Steps that run concurrently with each other once {@link #getSteps()} have completed. */
+  @Value.Parameter
+  List<Step> getShardSteps();
+
   @Value.Parameter
   Callable<TestResults> getTestResultsCallable();
 
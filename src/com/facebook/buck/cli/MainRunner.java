@@ -70,6 +70,8 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.counters.CounterBuckConfig;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.cxx.CxxObjectCache;
+import com.facebook.buck.cxx.PreInclude;
 import com.facebook.buck.doctor.DefaultDefectReporter;
 import com.facebook.buck.doctor.config.ImmutableDoctorConfig;
 import com.facebook.buck.event.BuckEventBus;
@@ -1432,6 +1434,11 @@ public final class MainRunner {
                 new CacheStatsEvent(
                     "versioned_target_graph_cache",
                     parserAndCaches.getVersionedTargetGraphCache().getCacheStats()));
+            buildEventBus.post(
+                new CacheStatsEvent("cxx_object_cache", CxxObjectCache.takeStats()));
+            buildEventBus.post(
+                new CacheStatsEvent(
+                    "cxx_precompiled_headers", PreInclude.takePrecompiledHeaderStats()));
           }
         } catch (Exception e) {
           exceptionForFix = Optional.of(e);
@@ -283,6 +283,7 @@ public class TestCommand extends BuildCommand {
 
     coverageIncludes.ifPresent(strings -> builder.setCoverageIncludes(String.join(",", strings)));
     coverageExcludes.ifPresent(strings -> builder.setCoverageExcludes(String.join(",", strings)));
+    builder.setJavaTestJvmPoolMaxUses(testBuckConfig.getJavaTestJvmPoolMaxUses());
 
     return builder.build();
   }
@@ -33,6 +33,7 @@ import com.facebook.buck.core.test.event.IndividualTestEvent;
 import com.facebook.buck.core.test.event.TestRunEvent;
 import com.facebook.buck.core.test.event.TestStatusMessageEvent;
 import com.facebook.buck.core.test.event.TestSummaryEvent;
+import com.facebook.buck.core.test.rule.ShardedTestRule;
 import com.facebook.buck.core.test.rule.TestRule;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.toolchain.toolprovider.ToolProvider;
@@ -287,7 +288,13 @@ public class TestRunning {
       }
       steps = stepsBuilder.build();
 
-      TestRun testRun = TestRun.of(test, steps, resultsInterpreter, testReportingCallback);
+      List<Step> shardSteps =
+          test instanceof ShardedTestRule
+              ? ((ShardedTestRule) test).getTestShardSteps()
+              : ImmutableList.of();
+
+      TestRun testRun =
+          TestRun.of(test, steps, shardSteps, resultsInterpreter, testReportingCallback);
 
       // Always run the commands, even if the list of commands as empty. There may be zero
       // commands because the rule is cached, but its results must still be processed.
@@ -305,6 +312,7 @@ public class TestRunning {
           runStepsAndYieldResult(
               executionContext,
               testRun.getSteps(),
+              testRun.getShardSteps(),
               testRun.getTestResultsCallable(),
               testRun.getTest().getBuildTarget(),
               params.getBuckEventBus(),
@@ -341,6 +349,7 @@ public class TestRunning {
                           runStepsAndYieldResult(
                               executionContext,
                               testRun.getSteps(),
+                              testRun.getShardSteps(),
                               testRun.getTestResultsCallable(),
                               testRun.getTest().getBuildTarget(),
                               params.getBuckEventBus(),
@@ -833,27 +842,76 @@ public class TestRunning {
     return ImmutableSet.copyOf(srcFolders);
   }
 
+  /**
+   * Runs the steps of a test rule on {@code listeningExecutorService}, followed by its shard steps
+   * (if any), and then interprets the results.
+   *
+   * <p>Each shard is submitted to the executor as a separate job, so shards are subject to the same
+   * scheduling and resource accounting as whole tests. Jobs are chained rather than waiting on each
+   * other, so a rule never holds on to a test thread while its shards are queued.
+   */
   private static ListenableFuture<TestResults> runStepsAndYieldResult(
       ExecutionContext context,
       List<Step> steps,
+      List<Step> shardSteps,
       Callable<TestResults> interpretResults,
       BuildTarget buildTarget,
       BuckEventBus eventBus,
       ListeningExecutorService listeningExecutorService) {
     Preconditions.checkState(!listeningExecutorService.isShutdown());
-    Callable<TestResults> callable =
-        () -> {
-          LOG.debug("Test steps will run for %s", buildTarget);
-          eventBus.post(TestRuleEvent.started(buildTarget));
-          for (Step step : steps) {
-            StepRunner.runStep(context, step, Optional.of(buildTarget));
-          }
-          LOG.debug("Test steps did run for %s", buildTarget);
-          eventBus.post(TestRuleEvent.finished(buildTarget));
+    if (shardSteps.isEmpty()) {
+      Callable<TestResults> callable =
+          () -> {
+            LOG.debug("Test steps will run for %s", buildTarget);
+            eventBus.post(TestRuleEvent.started(buildTarget));
+            for (Step step : steps) {
+              StepRunner.runStep(context, step, Optional.of(buildTarget));
+            }
+            LOG.debug("Test steps did run for %s", buildTarget);
+            eventBus.post(TestRuleEvent.finished(buildTarget));
 
-          return interpretResults.call();
-        };
+            return interpretResults.call();
+          };
+
+      return listeningExecutorService.submit(callable);
+    }
 
-    return listeningExecutorService.submit(callable);
+    ListenableFuture<Unit> setup =
+        listeningExecutorService.submit(
+            () -> {
+              LOG.debug("Test steps will run for %s", buildTarget);
+              eventBus.post(TestRuleEvent.started(buildTarget));
+              for (Step step : steps) {
+                StepRunner.runStep(context, step, Optional.of(buildTarget));
+              }
+              return Unit.UNIT;
+            });
+    ListenableFuture<List<Unit>> shards =
+        Futures.transformAsync(
+            setup,
+            ignored -> {
+              LOG.debug("Running %d test shards for %s", shardSteps.size(), buildTarget);
+              List<ListenableFuture<Unit>> shardResults = new ArrayList<>(shardSteps.size());
+              for (Step shardStep : shardSteps) {
+                shardResults.add(
+                    listeningExecutorService.submit(
+                        () -> {
+                          StepRunner.runStep(context, shardStep, Optional.of(buildTarget));
+                          return Unit.UNIT;
+                        }));
+              }
+              return Futures.allAsList(shardResults);
+            },
+            MoreExecutors.directExecutor());
+    return Futures.transformAsync(
+        shards,
+        ignored ->
+            listeningExecutorService.submit(
+                () -> {
+                  LOG.debug("Test steps did run for %s", buildTarget);
+                  eventBus.post(TestRuleEvent.finished(buildTarget));
+                  return interpretResults.call();
+                }),
+        MoreExecutors.directExecutor());
   }
 }
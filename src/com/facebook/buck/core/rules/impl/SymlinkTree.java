@@ -30,14 +30,12 @@ import com.facebook.buck.core.sourcepath.NonHashableSourcePathContainer;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.event.ConsoleEvent;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkTreeStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -169,16 +167,15 @@ public class SymlinkTree extends AbstractBuildRule
       BuildContext context, BuildableContext buildableContext) {
     return new ImmutableList.Builder<Step>()
         .add(getVerifyStep())
-        .addAll(
-            MakeCleanDirectoryStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(), getProjectFilesystem(), root)))
+        // The tree left by the last build is brought up to date in place, since recreating large
+        // trees from scratch is expensive.
         .add(
             new SymlinkTreeStep(
                 category,
                 getProjectFilesystem(),
                 root,
-                context.getSourcePathResolver().getMappedPaths(links)))
+                context.getSourcePathResolver().getMappedPaths(links),
+                true))
         .build();
   }
 
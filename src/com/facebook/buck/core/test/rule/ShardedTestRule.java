@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.test.rule;
+
+import com.facebook.buck.step.Step;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link TestRule} that can split its tests into shards, each of which is scheduled by the test
+ * runner as its own unit of work so that shards of one rule run concurrently with each other and
+ * with other tests.
+ */
+public interface ShardedTestRule extends TestRule {
+
+  /**
+   * @return one step per shard for the tests set up by the most recent call to {@link
+   *     #runTests}, or an empty list if that call returned all the steps needed to run the tests.
+   *     Shard steps run after the steps returned by {@link #runTests} have completed, and {@link
+   *     #interpretTestResults} is called once every shard has finished.
+   */
+  ImmutableList<Step> getTestShardSteps();
+}
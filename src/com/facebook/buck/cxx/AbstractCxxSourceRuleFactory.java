@@ -66,6 +66,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -354,10 +355,14 @@ abstract class AbstractCxxSourceRuleFactory {
   /**
    * @return a {@link CxxThinLTOOpt} rule that handles the opt phase of ThinLTO with the given
    *     {@link CxxSource}. thinIndicesRoot points to the root of the thin index artifacts generated
-   *     in the ThinLTO indexing step. See {@link CxxThinLTOIndex}.
+   *     in the ThinLTO indexing step. See {@link CxxThinLTOIndex}. importableModules are the
+   *     bitcode modules the index may make this one import from.
    */
   private CxxThinLTOOpt createThinOptBuildRule(
-      String name, CxxSource source, SourcePath thinIndicesRoot) {
+      String name,
+      CxxSource source,
+      SourcePath thinIndicesRoot,
+      ImmutableSortedSet<SourcePath> importableModules) {
 
     Preconditions.checkArgument(CxxSourceTypes.isOptimizableType(source.getType()));
 
@@ -367,6 +372,9 @@ abstract class AbstractCxxSourceRuleFactory {
         CxxSourceTypes.getCompiler(getCxxPlatform(), source.getType())
             .resolve(getActionGraphBuilder(), getBaseBuildTarget().getTargetConfiguration());
 
+    SourcePath moduleIndex =
+        CxxThinLTOIndex.getModuleIndex(getPathResolver(), thinIndicesRoot, source.getPath());
+
     CxxToolFlags flags =
         CxxToolFlags.explicitBuilder()
             // If we're using pic, add in the appropriate flag.
@@ -377,7 +385,7 @@ abstract class AbstractCxxSourceRuleFactory {
             .addAllRuleFlags(getRuleCompileFlags(source.getType()))
             // Add custom per-file flags.
             .addAllRuleFlags(sanitizedArgs(source.getFlags()))
-            .addRuleFlags(new CxxThinLTOIndexArg(thinIndicesRoot, source.getPath()))
+            .addRuleFlags(new CxxThinLTOIndexArg(moduleIndex))
             .build();
 
     CompilerDelegate compilerDelegate =
@@ -394,7 +402,8 @@ abstract class AbstractCxxSourceRuleFactory {
         compilerDelegate,
         getCompileOutputName(name),
         source.getPath(),
-        thinIndicesRoot,
+        moduleIndex,
+        importableModules,
         source.getType(),
         getSanitizer());
   }
@@ -546,6 +555,13 @@ abstract class AbstractCxxSourceRuleFactory {
     ImmutableMap.Builder<BuildTarget, Function<BuildTarget, BuildRule>> mappings =
         ImmutableMap.builder();
 
+    // Which modules a module imports from is only known once the index is built, so each opt rule
+    // depends on all of them.
+    ImmutableSortedSet<SourcePath> modules =
+        sources.values().stream()
+            .map(CxxSource::getPath)
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder()));
+
     sources.forEach(
         (name, source) -> {
           BuildTarget target = createOptimizeBuildTarget(name);
@@ -553,7 +569,8 @@ abstract class AbstractCxxSourceRuleFactory {
               target,
               ignored -> {
                 Preconditions.checkState(CxxSourceTypes.isOptimizableType(source.getType()));
-                CxxThinLTOOpt rule = createThinOptBuildRule(name, source, thinIndicesRoot);
+                CxxThinLTOOpt rule =
+                    createThinOptBuildRule(name, source, thinIndicesRoot, modules);
                 Preconditions.checkState(
                     rule.getInput().equals(source.getPath()),
                     "Hash collision for %s; a build rule would have been ignored.",
@@ -618,7 +635,8 @@ abstract class AbstractCxxSourceRuleFactory {
         source.getPath(),
         source.getType(),
         precompiledHeaderRule,
-        getSanitizer());
+        getSanitizer(),
+        getCxxBuckConfig().getObjectCacheMaxSize());
   }
 
   Optional<CxxPrecompiledHeader> getOptionalPrecompiledHeader(
@@ -793,6 +811,7 @@ abstract class AbstractCxxSourceRuleFactory {
   private class PreprocessorDelegateCacheValue {
     private final Function<AddsToRuleKey, String> commandHashCache = memoize(this::computeHash);
     private final PreprocessorDelegate preprocessorDelegate;
+    private final Supplier<String> preprocessorToolHash;
     private final Supplier<String> preprocessorHash;
     private final Supplier<String> preprocessorFullHash;
 
@@ -805,6 +824,14 @@ abstract class AbstractCxxSourceRuleFactory {
     PreprocessorDelegateCacheValue(
         PreprocessorDelegate preprocessorDelegate, DebugPathSanitizer sanitizer) {
       this.preprocessorDelegate = preprocessorDelegate;
+      this.preprocessorToolHash =
+          MoreSuppliers.memoize(
+              () ->
+                  computeHash(
+                      new AddsToRuleKey() {
+                        @AddToRuleKey
+                        Preprocessor preprocessor = preprocessorDelegate.getPreprocessor();
+                      }));
       this.preprocessorHash =
           MoreSuppliers.memoize(
               () ->
@@ -842,8 +869,13 @@ abstract class AbstractCxxSourceRuleFactory {
           + commandHashCache.apply(compilerFlags);
     }
 
+    /**
+     * Like {@link #getHash}, but leaving out the preprocessor flags of the rule as well as its
+     * include paths. The flags of PCH templates already hold the preprocessor flags that matter to
+     * them.
+     */
     public String getBaseHash(CxxToolFlags compilerFlags) {
-      return preprocessorHash.get() + "-" + commandHashCache.apply(compilerFlags);
+      return preprocessorToolHash.get() + "-" + commandHashCache.apply(compilerFlags);
     }
   }
 
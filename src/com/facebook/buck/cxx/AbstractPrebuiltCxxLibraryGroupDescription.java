@@ -49,6 +49,7 @@ import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.rules.coercer.PatternMatchedCollection;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.collect.NestedSet;
 import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.versions.VersionPropagator;
 import com.google.common.collect.FluentIterable;
@@ -58,6 +59,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Multimaps;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import org.immutables.value.Value;
@@ -260,6 +262,13 @@ abstract class AbstractPrebuiltCxxLibraryGroupDescription
       return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
     }
 
+    @Override
+    public NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+        getTransitiveCxxPreprocessorInputSet(
+            CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return transitiveCxxPreprocessorInputCache.getNestedSetUnchecked(cxxPlatform, graphBuilder);
+    }
+
     @Override
     public Iterable<? extends NativeLinkableGroup> getNativeLinkableDeps(
         BuildRuleResolver ruleResolver) {
@@ -29,6 +29,7 @@ import com.facebook.buck.cxx.toolchain.ArchiveContents;
 import com.facebook.buck.cxx.toolchain.Archiver;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.LinkerMapMode;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.SourcePathArg;
@@ -64,6 +65,7 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
       Optional<Tool> ranlib,
       ImmutableList<String> ranlibFlags,
       ArchiveContents contents,
+      boolean inProcess,
       String outputFileName,
       ImmutableList<SourcePath> inputs,
       boolean cacheable) {
@@ -71,7 +73,15 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
         buildTarget,
         projectFilesystem,
         ruleFinder,
-        new Impl(archiver, archiverFlags, ranlib, ranlibFlags, contents, outputFileName, inputs));
+        new Impl(
+            archiver,
+            archiverFlags,
+            ranlib,
+            ranlibFlags,
+            contents,
+            inProcess,
+            outputFileName,
+            inputs));
     Preconditions.checkState(
         contents == ArchiveContents.NORMAL || archiver.supportsThinArchives(),
         "%s: archive tool for this platform does not support thin archives",
@@ -103,6 +113,7 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
         platform.getRanlib().map(r -> r.resolve(resolver, target.getTargetConfiguration())),
         platform.getRanlibflags(),
         platform.getArchiveContents(),
+        platform.getInProcessArchivingEnabled(),
         outputFileName,
         inputs,
         cacheable);
@@ -116,6 +127,7 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
     @AddToRuleKey private final Optional<Tool> ranlib;
     @AddToRuleKey private final ImmutableList<String> ranlibFlags;
     @AddToRuleKey private final ArchiveContents contents;
+    @AddToRuleKey private final boolean inProcess;
     @AddToRuleKey private final OutputPath output;
     @AddToRuleKey private final ImmutableList<SourcePath> inputs;
 
@@ -125,6 +137,7 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
         Optional<Tool> ranlib,
         ImmutableList<String> ranlibFlags,
         ArchiveContents contents,
+        boolean inProcess,
         String outputFileName,
         ImmutableList<SourcePath> inputs) {
       this.archiver = archiver;
@@ -132,6 +145,7 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
       this.ranlib = ranlib;
       this.ranlibFlags = ranlibFlags;
       this.contents = contents;
+      this.inProcess = inProcess;
       this.output = new OutputPath(outputFileName);
       this.inputs = inputs;
     }
@@ -156,21 +170,19 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
 
       ImmutableList.Builder<Step> builder = ImmutableList.builder();
       Path outputPath = outputPathResolver.resolvePath(output);
-      builder
-          .add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())))
-          .add(
-              new ArchiveStep(
-                  filesystem,
-                  archiver.getEnvironment(resolver),
-                  archiver.getCommandPrefix(resolver),
-                  archiverFlags,
-                  archiver.getArchiveOptions(contents == ArchiveContents.THIN),
-                  outputPath,
-                  inputs.stream()
-                      .map(resolver::getRelativePath)
-                      .collect(ImmutableList.toImmutableList()),
-                  archiver,
-                  outputPathResolver.getTempPath()));
+      ImmutableList<Path> inputPaths =
+          inputs.stream().map(resolver::getRelativePath).collect(ImmutableList.toImmutableList());
+      builder.add(
+          new ArchiveStep(
+              filesystem,
+              archiver.getEnvironment(resolver),
+              archiver.getCommandPrefix(resolver),
+              archiverFlags,
+              archiver.getArchiveOptions(contents == ArchiveContents.THIN),
+              outputPath,
+              inputPaths,
+              archiver,
+              outputPathResolver.getTempPath()));
 
       if (archiver.isRanLibStepRequired()) {
         Tool tool = ranlib.get();
@@ -187,7 +199,29 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
         builder.add(new FileScrubberStep(filesystem, outputPath, archiver.getScrubbers()));
       }
 
-      return builder.build();
+      // Archives written in-process come with their symbol table and are already scrubbed, so
+      // the steps above are only needed for members buck can't read the symbols of. They leave out
+      // Mach-O common symbols, which only ranlib can index when it's asked to with -c.
+      ImmutableList<Step> archiveSteps = builder.build();
+      Optional<ArchiveWriter.Format> format = archiver.getInProcessFormat();
+      if (inProcess
+          && format.isPresent()
+          && !(archiver.isRanLibStepRequired() && ranlibFlags.contains("-c"))) {
+        archiveSteps =
+            ImmutableList.of(
+                new ArchiveWriterStep(
+                    filesystem,
+                    outputPath,
+                    inputPaths,
+                    format.get(),
+                    contents == ArchiveContents.THIN,
+                    archiveSteps));
+      }
+
+      return ImmutableList.<Step>builder()
+          .add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())))
+          .addAll(archiveSteps)
+          .build();
     }
 
     @VisibleForTesting
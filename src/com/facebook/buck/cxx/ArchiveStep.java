@@ -38,8 +38,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.logging.Level;
 
 /** Create an object archive with ar. */
@@ -82,8 +81,13 @@ class ArchiveStep implements Step {
     this.scratchDir = scratchDir;
   }
 
-  private ImmutableList<String> getAllInputs() throws IOException {
-    ImmutableList.Builder<String> allInputs = ImmutableList.builder();
+  /**
+   * @return the files to archive, where inputs that are directories are replaced by all the files
+   *     found under them, in a deterministic order.
+   */
+  static ImmutableList<Path> getAllInputs(ProjectFilesystem filesystem, ImmutableList<Path> inputs)
+      throws IOException {
+    ImmutableList.Builder<Path> allInputs = ImmutableList.builder();
 
     // Inputs can either be files or directories.  In the case of the latter, we add all files
     // found from a recursive search.
@@ -91,19 +95,19 @@ class ArchiveStep implements Step {
       if (filesystem.isDirectory(input)) {
         // We make sure to sort the files we find under the directories so that we get
         // deterministic output.
-        Set<String> dirFiles = new TreeSet<>();
+        Map<String, Path> dirFiles = new TreeMap<>();
         filesystem.walkFileTree(
             filesystem.resolve(input),
             new SimpleFileVisitor<Path>() {
               @Override
               public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                dirFiles.add(file.toString());
+                dirFiles.put(file.toString(), file);
                 return FileVisitResult.CONTINUE;
               }
             });
-        allInputs.addAll(dirFiles);
+        allInputs.addAll(dirFiles.values());
       } else {
-        allInputs.add(input.toString());
+        allInputs.add(input);
       }
     }
 
@@ -135,7 +139,10 @@ class ArchiveStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws IOException, InterruptedException {
-    ImmutableList<String> allInputs = getAllInputs();
+    ImmutableList<String> allInputs =
+        getAllInputs(filesystem, inputs).stream()
+            .map(Object::toString)
+            .collect(ImmutableList.toImmutableList());
     if (allInputs.isEmpty()) {
       filesystem.writeContentsToPath("!<arch>\n", output);
       return StepExecutionResults.SUCCESS;
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileSymbols;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.ExecutorPool;
+import com.facebook.buck.util.concurrent.ParallelLoops;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Writes an archive with {@link ArchiveWriter}, reading the symbols of its members in parallel.
+ *
+ * <p>If the symbols of some member can't be read in-process, e.g. because it's LLVM bitcode, the
+ * archive is created by the given fallback steps instead, which run ar and ranlib.
+ */
+class ArchiveWriterStep implements Step {
+
+  private static final Logger LOG = Logger.get(ArchiveWriterStep.class);
+
+  private final ProjectFilesystem filesystem;
+  private final Path output;
+  private final ImmutableList<Path> inputs;
+  private final ArchiveWriter.Format format;
+  private final boolean thin;
+  private final ImmutableList<Step> fallbackSteps;
+
+  public ArchiveWriterStep(
+      ProjectFilesystem filesystem,
+      Path output,
+      ImmutableList<Path> inputs,
+      ArchiveWriter.Format format,
+      boolean thin,
+      ImmutableList<Step> fallbackSteps) {
+    Preconditions.checkArgument(!output.isAbsolute());
+    this.filesystem = filesystem;
+    this.output = output;
+    this.inputs = inputs;
+    this.format = format;
+    this.thin = thin;
+    this.fallbackSteps = fallbackSteps;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    ImmutableList<Path> allInputs = ArchiveStep.getAllInputs(filesystem, inputs);
+    Optional<ImmutableList<ArchiveWriter.Member>> members = readMembers(context, allInputs);
+    if (!members.isPresent()) {
+      for (Step step : fallbackSteps) {
+        StepExecutionResult result = step.execute(context);
+        if (!result.isSuccess()) {
+          return result;
+        }
+      }
+      return StepExecutionResults.SUCCESS;
+    }
+    new ArchiveWriter(format, thin).write(filesystem.resolve(output), members.get());
+    return StepExecutionResults.SUCCESS;
+  }
+
+  /**
+   * Reads the size and symbols of every input on the CPU pool.
+   *
+   * @return the members of the archive, or empty if some input's symbols can't be read.
+   */
+  private Optional<ImmutableList<ArchiveWriter.Member>> readMembers(
+      ExecutionContext context, ImmutableList<Path> allInputs) throws IOException {
+    Path outputDir = filesystem.resolve(output).getParent();
+    ArchiveWriter.Member[] members = new ArchiveWriter.Member[allInputs.size()];
+    ParallelLoops.forEachIndex(
+        context.getExecutors().get(ExecutorPool.CPU),
+        context.getConcurrencyLimit().threadLimit,
+        allInputs.size(),
+        index -> members[index] = readMember(outputDir, filesystem.resolve(allInputs.get(index))));
+
+    for (int index = 0; index < members.length; index++) {
+      if (members[index] == null) {
+        LOG.debug(
+            "Can't read the symbols of %s, running the archiver for %s",
+            allInputs.get(index), output);
+        return Optional.empty();
+      }
+    }
+    return Optional.of(ImmutableList.copyOf(members));
+  }
+
+  /** @return the member for {@code input}, or null if its symbols can't be read. */
+  @Nullable
+  private ArchiveWriter.Member readMember(Path outputDir, Path input) throws IOException {
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+      Optional<ImmutableList<String>> symbols =
+          ObjectFileSymbols.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      if (!symbols.isPresent()) {
+        return null;
+      }
+      // Like ar, thin archives refer to members relative to the archive and others store their
+      // file names.
+      String name =
+          thin ? outputDir.relativize(input).toString() : input.getFileName().toString();
+      return new ArchiveWriter.Member(name, input, size, symbols.get());
+    }
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("write archive %s", output);
+  }
+
+  @Override
+  public String getShortName() {
+    return "archive";
+  }
+}
@@ -54,10 +54,10 @@ import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -331,23 +331,15 @@ public class CxxLibraryDescription
                     .build());
         BuildRule rawRule = graphBuilder.requireRule(rawTarget);
         CxxLibraryGroup rule = (CxxLibraryGroup) rawRule;
-        ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
-            rule.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder);
-
         ImmutableList<CxxPreprocessorDep> privateDepsForPlatform =
             RichStream.from(privateDeps.get(graphBuilder, cxxPlatform))
                 .filter(CxxPreprocessorDep.class)
                 .toImmutableList();
-        if (privateDepsForPlatform.isEmpty()) {
-          // Nothing to add.
-          return inputs.values().stream();
-        } else {
-          Map<BuildTarget, CxxPreprocessorInput> result = new LinkedHashMap<>(inputs);
-          for (CxxPreprocessorDep dep : privateDepsForPlatform) {
-            result.putAll(dep.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
-          }
-          return result.values().stream();
-        }
+        return CxxPreprocessables.getTransitiveCxxPreprocessorInput(
+                cxxPlatform,
+                graphBuilder,
+                Iterables.concat(ImmutableList.of(rule), privateDepsForPlatform))
+            .stream();
       };
     }
 
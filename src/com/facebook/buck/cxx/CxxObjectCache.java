@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local cache of object files, keyed by a hash of the preprocessed translation unit they were
+ * compiled from, the compiler and its code generation flags.
+ *
+ * <p>Unlike the artifact cache, which is keyed by rule keys, this cache hits for compilations
+ * whose rule keys differ in ways that don't change what's compiled, e.g. preprocessor flags that
+ * end up not mattering, or edits to headers that don't change the preprocessed output.
+ */
+public class CxxObjectCache {
+
+  private static final String CACHE_DIR_NAME = "cxx_object_cache";
+
+  /** The metadata entry holding what the compiler wrote to stderr, e.g. warnings. */
+  private static final String STDERR_METADATA_KEY = "stderr";
+
+  private static final ConcurrentMap<Path, CxxObjectCache> CACHES = new ConcurrentHashMap<>();
+
+  private static final AtomicLong hitCount = new AtomicLong();
+  private static final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Content hashes of compiler binaries, keyed by path, size and modification time so that a
+   * compiler is hashed once rather than on every compilation.
+   */
+  private static final ConcurrentMap<ImmutableList<Object>, HashCode> COMPILER_HASHES =
+      new ConcurrentHashMap<>();
+
+  private final ProjectFilesystem filesystem;
+  private final ArtifactCache cache;
+
+  private CxxObjectCache(ProjectFilesystem filesystem, ArtifactCache cache) {
+    this.filesystem = filesystem;
+    this.cache = cache;
+  }
+
+  /** @return the cache kept in the buck-out of {@code filesystem}. */
+  static CxxObjectCache of(ProjectFilesystem filesystem, long maxSizeBytes) {
+    Path cacheDir =
+        filesystem.resolve(filesystem.getBuckPaths().getBuckOut()).resolve(CACHE_DIR_NAME);
+    return CACHES.computeIfAbsent(
+        cacheDir,
+        dir -> {
+          try {
+            return new CxxObjectCache(
+                filesystem,
+                new DirArtifactCache(
+                    CACHE_DIR_NAME,
+                    filesystem,
+                    dir,
+                    CacheReadMode.READWRITE,
+                    Optional.of(maxSizeBytes),
+                    // Stores are already running on a build thread.
+                    MoreExecutors.newDirectExecutorService()));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Copies the object stored for {@code key} to {@code output}.
+   *
+   * @return what the compiler wrote to stderr when it compiled the object, or empty if there is no
+   *     object for {@code key}.
+   */
+  Optional<String> fetch(HashCode key, Path output) {
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null, new RuleKey(key), LazyPath.ofInstance(filesystem.resolve(output))));
+    if (result.getType().isSuccess()) {
+      hitCount.incrementAndGet();
+      return Optional.of(result.getMetadata().getOrDefault(STDERR_METADATA_KEY, ""));
+    }
+    missCount.incrementAndGet();
+    return Optional.empty();
+  }
+
+  /**
+   * Stores a copy of the object at {@code output} for {@code key}, along with what the compiler
+   * wrote to stderr when it compiled it.
+   */
+  void store(HashCode key, Path output, String stderr) {
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder()
+                .addRuleKeys(new RuleKey(key))
+                .putMetadata(STDERR_METADATA_KEY, stderr)
+                .build(),
+            BorrowablePath.notBorrowablePath(filesystem.resolve(output))));
+  }
+
+  /** @return the hash of the contents of the compiler binary at {@code path}. */
+  static HashCode hashCompiler(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    ImmutableList<Object> key =
+        ImmutableList.of(path, attributes.size(), attributes.lastModifiedTime());
+    HashCode hash = COMPILER_HASHES.get(key);
+    if (hash == null) {
+      hash = MoreFiles.asByteSource(path).hash(Hashing.sha1());
+      COMPILER_HASHES.put(key, hash);
+    }
+    return hash;
+  }
+
+  /** @return the hits and misses of all caches since the last call. */
+  public static CacheStats takeStats() {
+    return CacheStats.builder()
+        .setHitCount(hitCount.getAndSet(0))
+        .setMissCount(missCount.getAndSet(0))
+        .build();
+  }
+}
@@ -316,6 +316,7 @@ class CxxPrecompiledHeader extends AbstractBuildRule
         /* useArgFile*/ true,
         /* nonArgfileArgs */ ImmutableList.of(),
         compilerDelegate.getCompiler(),
+        Optional.empty(),
         Optional.empty());
   }
 
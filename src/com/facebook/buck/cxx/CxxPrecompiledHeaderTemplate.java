@@ -80,11 +80,13 @@ public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidP
 
     // Build compiler flags, taking from the source rule, but leaving out its deps.
     // We just need the flags pertaining to PCH compatibility: language, PIC, macros, etc.
-    // and nothing related to the deps of this particular rule (hence 'getNonIncludePathFlags').
+    // and nothing related to the deps of this particular rule (hence 'getNonIncludePathFlags'),
+    // or to the diagnostics reported, so rules only differing in those share the PCH.
     CxxToolFlags compilerFlags =
-        CxxToolFlags.concat(
-            preprocessorDelegateForCxxRule.getNonIncludePathFlags(pathResolver),
-            computedCompilerFlags);
+        getPchCompatibilityFlags(
+            CxxToolFlags.concat(
+                preprocessorDelegateForCxxRule.getNonIncludePathFlags(pathResolver),
+                computedCompilerFlags));
 
     // Now build a new pp-delegate specially for this PCH rule.
     PreprocessorDelegate preprocessorDelegate =
@@ -69,14 +69,16 @@ public class CxxPrefixHeader extends PreInclude {
     // (Replace `c++` with `cxx`; avoid default scrubbing which would make it the cryptic `c__`.)
     String langCode = sourceType.getLanguage().replaceAll("c\\+\\+", "cxx");
 
-    String pchFullID = String.format("pch-%s-%s", langCode, getHash.apply(computedCompilerFlags));
+    // Sources only differing in the diagnostics reported share the PCH.
+    CxxToolFlags compilerFlags = getPchCompatibilityFlags(computedCompilerFlags);
+    String pchFullID = String.format("pch-%s-%s", langCode, getHash.apply(compilerFlags));
 
     return requirePrecompiledHeader(
         canPrecompile,
         preprocessorDelegateForCxxRule,
         cxxPlatform,
         sourceType,
-        computedCompilerFlags,
+        compilerFlags,
         depsBuilder,
         getBuildTarget()
             .withFlavors(
@@ -23,6 +23,9 @@ import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.DefaultFieldSerialization;
+import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
+import com.facebook.buck.core.rulekey.IgnoredFieldInputs;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
@@ -75,7 +78,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
       SourcePath input,
       Type inputType,
       Optional<CxxPrecompiledHeader> precompiledHeaderRule,
-      DebugPathSanitizer sanitizer) {
+      DebugPathSanitizer sanitizer,
+      Optional<Long> objectCacheMaxSize) {
     super(
         buildTarget,
         projectFilesystem,
@@ -88,7 +92,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
             input,
             precompiledHeaderRule,
             inputType,
-            sanitizer));
+            sanitizer,
+            objectCacheMaxSize));
     this.output =
         BuildTargetPaths.getGenPath(getProjectFilesystem(), getBuildTarget(), "%s/" + outputName);
     if (precompiledHeaderRule.isPresent()) {
@@ -128,11 +133,14 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
         input,
         inputType,
         Optional.empty(),
-        sanitizer);
+        sanitizer,
+        Optional.empty());
   }
 
   /**
    * @return a {@link CxxPreprocessAndCompile} step that preprocesses and compiles the given source.
+   * @param objectCacheMaxSize if present, the maximum size of the local cache of objects keyed by
+   *     their preprocessed source, which is used when compiling.
    */
   public static CxxPreprocessAndCompile preprocessAndCompile(
       BuildTarget buildTarget,
@@ -144,7 +152,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
       SourcePath input,
       Type inputType,
       Optional<CxxPrecompiledHeader> precompiledHeaderRule,
-      DebugPathSanitizer sanitizer) {
+      DebugPathSanitizer sanitizer,
+      Optional<Long> objectCacheMaxSize) {
     return new CxxPreprocessAndCompile(
         buildTarget,
         projectFilesystem,
@@ -155,7 +164,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
         input,
         inputType,
         precompiledHeaderRule,
-        sanitizer);
+        sanitizer,
+        objectCacheMaxSize);
   }
 
   private Path getDepFilePath() {
@@ -291,6 +301,12 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
 
     @AddToRuleKey private final Optional<PrecompiledHeaderData> precompiledHeaderData;
 
+    @ExcludeFromRuleKey(
+        reason = "The object cache only stores outputs the rule would have produced anyway.",
+        serialization = DefaultFieldSerialization.class,
+        inputs = IgnoredFieldInputs.class)
+    private final Optional<Long> objectCacheMaxSize;
+
     public Impl(
         BuildTarget targetName,
         Optional<PreprocessorDelegate> preprocessDelegate,
@@ -299,7 +315,8 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
         SourcePath input,
         Optional<CxxPrecompiledHeader> precompiledHeaderRule,
         Type inputType,
-        DebugPathSanitizer sanitizer) {
+        DebugPathSanitizer sanitizer,
+        Optional<Long> objectCacheMaxSize) {
       this.targetName = targetName;
       this.preprocessDelegate = preprocessDelegate;
       this.compilerDelegate = compilerDelegate;
@@ -308,6 +325,7 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
       this.input = input;
       this.inputType = inputType;
       this.precompiledHeaderData = precompiledHeaderRule.map(CxxPrecompiledHeader::getData);
+      this.objectCacheMaxSize = objectCacheMaxSize;
     }
 
     CxxPreprocessAndCompileStep makeMainStep(
@@ -362,7 +380,11 @@ public class CxxPreprocessAndCompile extends ModernBuildRule<CxxPreprocessAndCom
                   .setTarget(targetName)
                   .setSourcePath(relativeInputPath)
                   .setOutputPath(resolvedOutput)
-                  .build()));
+                  .build()),
+          // Precompiled headers aren't part of the preprocessed source, so can't be keyed by it.
+          precompiledHeaderData.map(PrecompiledHeaderData::isPrecompiled).orElse(false)
+              ? Optional.empty()
+              : objectCacheMaxSize.map(maxSize -> CxxObjectCache.of(filesystem, maxSize)));
     }
 
     static Path getDepFilePath(Path outputPath) {
@@ -23,6 +23,7 @@ import com.facebook.buck.cxx.toolchain.Compiler;
 import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
 import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
 import com.facebook.buck.step.Step;
@@ -37,10 +38,18 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -75,6 +84,11 @@ class CxxPreprocessAndCompileStep implements Step {
   private final boolean useArgfile;
   private final ImmutableList<String> preArgfileArgs;
 
+  /**
+   * If present, objects are looked up in this cache by their preprocessed source before compiling.
+   */
+  private final Optional<CxxObjectCache> objectCache;
+
   private static final FileLastModifiedDateContentsScrubber FILE_LAST_MODIFIED_DATE_SCRUBBER =
       new FileLastModifiedDateContentsScrubber();
 
@@ -83,6 +97,20 @@ class CxxPreprocessAndCompileStep implements Step {
       "Multiple include guards may be useful for:";
   private static final Pattern showHeadersLinePattern = Pattern.compile("\\.+ .+");
 
+  /**
+   * Options which only affect the preprocessed source, and so are left out of object cache keys.
+   * All of them may be joined with their value, and those listed here may also take it as the next
+   * argument.
+   */
+  private static final ImmutableList<String> PREPROCESSOR_OPTION_PREFIXES =
+      ImmutableList.of(
+          "-D", "-U", "-I", "-isystem", "-iquote", "-idirafter", "-include", "-imacros", "-M");
+
+  private static final ImmutableSet<String> PREPROCESSOR_OPTIONS_WITH_SEPARATE_VALUES =
+      ImmutableSet.of(
+          "-D", "-U", "-I", "-isystem", "-iquote", "-idirafter", "-include", "-imacros", "-MF",
+          "-MT", "-MQ");
+
   public CxxPreprocessAndCompileStep(
       ProjectFilesystem filesystem,
       Operation operation,
@@ -98,7 +126,8 @@ class CxxPreprocessAndCompileStep implements Step {
       boolean useArgfile,
       ImmutableList<String> preArgfileArgs,
       Compiler compiler,
-      Optional<CxxLogInfo> cxxLogInfo) {
+      Optional<CxxLogInfo> cxxLogInfo,
+      Optional<CxxObjectCache> objectCache) {
     this.filesystem = filesystem;
     this.operation = operation;
     this.output = output;
@@ -114,6 +143,7 @@ class CxxPreprocessAndCompileStep implements Step {
     this.preArgfileArgs = preArgfileArgs;
     this.compiler = compiler;
     this.cxxLogInfo = cxxLogInfo;
+    this.objectCache = objectCache;
   }
 
   @Override
@@ -192,37 +222,72 @@ class CxxPreprocessAndCompileStep implements Step {
         .build();
   }
 
-  private ProcessExecutor.Result executeCompilation(ExecutionContext context)
+  /** @return the arguments to only preprocess the input, writing the result to {@code output}. */
+  private ImmutableList<String> getPreprocessArguments(Path preprocessedOutput) {
+    boolean useUnixPathSeparator = compiler.getUseUnixPathSeparator();
+    return ImmutableList.<String>builder()
+        .addAll(compiler.languageArgs(inputType.getLanguage()))
+        .addAll(command.getArguments())
+        .addAll(
+            sanitizer.getCompilationFlags(
+                compiler, filesystem.getRootPath(), headerPathNormalizer.getPrefixMap()))
+        .addAll(
+            compiler.outputArgs(
+                useUnixPathSeparator
+                    ? PathFormatter.pathWithUnixSeparators(preprocessedOutput.toString())
+                    : preprocessedOutput.toString()))
+        .add("-E")
+        .addAll(
+            depFile
+                .map(depFile -> compiler.outputDependenciesArgs(depFile.toString()))
+                .orElseGet(ImmutableList::of))
+        .add(
+            useUnixPathSeparator
+                ? PathFormatter.pathWithUnixSeparators(input.toString())
+                : input.toString())
+        .build();
+  }
+
+  private ProcessExecutor.Result launch(
+      ExecutionContext context, ImmutableList<String> arguments, Path argfile)
       throws IOException, InterruptedException {
     ProcessExecutorParams.Builder builder = makeSubprocessBuilder(context);
 
     if (useArgfile) {
       filesystem.writeLinesToPath(
-          Iterables.transform(
-              getArguments(context.getAnsi().isAnsiTerminal()), Escaper.ARGFILE_ESCAPER::apply),
-          getArgfile());
+          Iterables.transform(arguments, Escaper.ARGFILE_ESCAPER::apply), argfile);
       builder.setCommand(
           ImmutableList.<String>builder()
               .addAll(command.getCommandPrefix())
               .addAll(preArgfileArgs)
-              .add("@" + getArgfile())
+              .add("@" + argfile)
               .build());
     } else {
       builder.setCommand(
           ImmutableList.<String>builder()
               .addAll(command.getCommandPrefix())
-              .addAll(getArguments(context.getAnsi().isAnsiTerminal()))
+              .addAll(arguments)
               .build());
     }
 
     ProcessExecutorParams params = builder.build();
 
     if (LOG.isVerboseEnabled()) {
-      LOG.verbose("Running command (pwd=%s): %s", params.getDirectory(), getDescription(context));
+      LOG.verbose(
+          "Running command (pwd=%s): %s",
+          params.getDirectory(),
+          Stream.concat(command.getCommandPrefix().stream(), arguments.stream())
+              .map(Escaper.SHELL_ESCAPER)
+              .collect(Collectors.joining(" ")));
     }
 
+    return new DefaultProcessExecutor(Console.createNullConsole()).launchAndExecute(params);
+  }
+
+  private ProcessExecutor.Result executeCompilation(ExecutionContext context)
+      throws IOException, InterruptedException {
     ProcessExecutor.Result result =
-        new DefaultProcessExecutor(Console.createNullConsole()).launchAndExecute(params);
+        launch(context, getArguments(context.getAnsi().isAnsiTerminal()), getArgfile());
 
     String err = getSanitizedStderr(result, context);
     result =
@@ -363,6 +428,24 @@ class CxxPreprocessAndCompileStep implements Step {
       LOG.debug("%s %s -> %s", operation.toString().toLowerCase(), input, output);
     }
 
+    Optional<HashCode> objectKey = Optional.empty();
+    if (objectCache.isPresent() && canUseObjectCache()) {
+      objectKey = computeObjectKey(context);
+      Optional<String> cachedStderr =
+          objectKey.isPresent()
+              ? objectCache.get().fetch(objectKey.get(), output)
+              : Optional.empty();
+      if (cachedStderr.isPresent()) {
+        LOG.debug("object cache hit for %s", input);
+        // Warnings still have to show up when the compiler isn't run.
+        ProcessExecutor.Result result =
+            new ProcessExecutor.Result(
+                0, /* timedOut */ false, Optional.of(""), cachedStderr, getCommand());
+        processResult(result, context);
+        return StepExecutionResult.of(result);
+      }
+    }
+
     ProcessExecutor.Result result = executeCompilation(context);
     int exitCode = result.getExitCode();
 
@@ -382,6 +465,10 @@ class CxxPreprocessAndCompileStep implements Step {
         sanitizer.restoreCompilationDirectory(path, filesystem.getRootPath().toAbsolutePath());
         FILE_LAST_MODIFIED_DATE_SCRUBBER.scrubFileWithPath(path);
       }
+
+      if (objectKey.isPresent()) {
+        objectCache.get().store(objectKey.get(), output, result.getStderr().orElse(""));
+      }
     }
 
     if (exitCode != 0) {
@@ -393,6 +480,85 @@ class CxxPreprocessAndCompileStep implements Step {
     return StepExecutionResult.of(result);
   }
 
+  private boolean canUseObjectCache() {
+    // The dep file has to come out of the preprocessor alone, since the compiler isn't run on hits.
+    return operation == Operation.PREPROCESS_AND_COMPILE
+        && (!depFile.isPresent()
+            || compiler.getDependencyTrackingMode() == DependencyTrackingMode.MAKEFILE);
+  }
+
+  /**
+   * Preprocesses the input, also writing the dep file, and hashes the result together with
+   * everything else that determines the object compiled from it.
+   *
+   * @return the key of the object in the object cache, or empty if preprocessing failed, in which
+   *     case compiling reports why.
+   */
+  private Optional<HashCode> computeObjectKey(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Path preprocessedOutput = scratchDir.resolve("preprocessed.i");
+    try {
+      ProcessExecutor.Result result =
+          launch(
+              context,
+              getPreprocessArguments(preprocessedOutput),
+              filesystem.resolve(scratchDir).resolve("preprocess.argsfile"));
+      if (result.getExitCode() != 0) {
+        return Optional.empty();
+      }
+
+      Optional<Path> compilerBinary =
+          new ExecutableFinder()
+              .getOptionalExecutable(
+                  Paths.get(command.getCommandPrefix().get(0)), context.getEnvironment());
+      if (!compilerBinary.isPresent()) {
+        return Optional.empty();
+      }
+
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (String part : command.getCommandPrefix()) {
+        hasher.putUnencodedChars(part).putByte((byte) 0);
+      }
+      hasher.putBytes(CxxObjectCache.hashCompiler(compilerBinary.get().toRealPath()).asBytes());
+      // Hits replay the stored diagnostics, which must be colored only if they'd be colored now.
+      hasher.putBoolean(
+          context.getAnsi().isAnsiTerminal() && compiler.getFlagsForColorDiagnostics().isPresent());
+      for (String argument :
+          Iterables.concat(
+              compiler.languageArgs(inputType.getLanguage()),
+              getCodeGenerationArguments(command.getArguments()),
+              sanitizer.getCompilationFlags(
+                  compiler, filesystem.getRootPath(), headerPathNormalizer.getPrefixMap()))) {
+        hasher.putUnencodedChars(argument).putByte((byte) 0);
+      }
+      try (InputStream preprocessed = filesystem.newFileInputStream(preprocessedOutput)) {
+        ByteStreams.copy(preprocessed, Funnels.asOutputStream(hasher));
+      }
+      return Optional.of(hasher.hash());
+    } finally {
+      filesystem.deleteFileAtPathIfExists(preprocessedOutput);
+    }
+  }
+
+  /**
+   * @return {@code arguments} without the options that only affect preprocessing, whose effects
+   *     are already in the preprocessed source. Everything else, including codegen options that
+   *     came in with the preprocessor flags (e.g. -fPIC in cppflags), may change the object.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> getCodeGenerationArguments(List<String> arguments) {
+    ImmutableList.Builder<String> codeGenerationArguments = ImmutableList.builder();
+    for (int i = 0; i < arguments.size(); i++) {
+      String argument = arguments.get(i);
+      if (PREPROCESSOR_OPTIONS_WITH_SEPARATE_VALUES.contains(argument)) {
+        i++;
+      } else if (PREPROCESSOR_OPTION_PREFIXES.stream().noneMatch(argument::startsWith)) {
+        codeGenerationArguments.add(argument);
+      }
+    }
+    return codeGenerationArguments.build();
+  }
+
   ImmutableList<String> getCommand() {
     // We set allowColorsInDiagnostics to false here because this function is only used by the
     // compilation database (its contents should not depend on how Buck was invoked) and in the
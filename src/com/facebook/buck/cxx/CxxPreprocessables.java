@@ -31,6 +31,7 @@ import com.facebook.buck.cxx.toolchain.Preprocessor;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.rules.coercer.FrameworkPath;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
@@ -39,9 +40,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class CxxPreprocessables {
 
@@ -106,11 +110,31 @@ public class CxxPreprocessables {
       Iterable<? extends CxxPreprocessorDep> inputs) {
     // We don't really care about the order we get back here, since headers shouldn't
     // conflict.  However, we want something that's deterministic, so maintain the insertion order.
-    Map<BuildTarget, CxxPreprocessorInput> deps = new LinkedHashMap<>();
-    for (CxxPreprocessorDep input : inputs) {
-      deps.putAll(input.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+    return mergeTransitiveCxxPreprocessorInputs(
+        FluentIterable.from(inputs)
+            .transform(
+                input -> input.getTransitiveCxxPreprocessorInputSet(cxxPlatform, graphBuilder)));
+  }
+
+  /**
+   * Merges the transitive inputs of several rules in the order that putting each of their maps in
+   * turn into a {@link java.util.LinkedHashMap} would: by rule, then in the order of the rule's own
+   * map. Inputs shared between the rules are only walked once, rather than once per rule.
+   */
+  static ImmutableList<CxxPreprocessorInput> mergeTransitiveCxxPreprocessorInputs(
+      Iterable<NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>> transitiveInputs) {
+    NestedSet.Flattener<Map.Entry<BuildTarget, CxxPreprocessorInput>> flattener =
+        new NestedSet.Flattener<>();
+    Set<BuildTarget> seen = new HashSet<>();
+    ImmutableList.Builder<CxxPreprocessorInput> merged = ImmutableList.builder();
+    for (NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>> inputs : transitiveInputs) {
+      List<Map.Entry<BuildTarget, CxxPreprocessorInput>> added =
+          new ArrayList<>(flattener.flatten(inputs));
+      added.removeIf(entry -> !seen.add(entry.getKey()));
+      inputs.getOrder().ifPresent(added::sort);
+      added.forEach(entry -> merged.add(entry.getValue()));
     }
-    return deps.values();
+    return merged.build();
   }
 
   /**
@@ -21,7 +21,9 @@ import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.ImmutableMap;
+import java.util.Map;
 
 /**
  * An interface that represents a {@link BuildRule} which can contribute components (e.g. header
@@ -48,4 +50,17 @@ public interface CxxPreprocessorDep {
    */
   ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder);
+
+  /**
+   * Returns the same inputs as {@link #getTransitiveCxxPreprocessorInput}, as a set that dependents
+   * can nest in their own without copying it. Rules that cache their transitive inputs in a {@link
+   * TransitiveCxxPreprocessorInputCache} should return its set.
+   */
+  default NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+      getTransitiveCxxPreprocessorInputSet(
+          CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return NestedSet.<Map.Entry<BuildTarget, CxxPreprocessorInput>>builder()
+        .addAll(getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder).entrySet())
+        .build();
+  }
 }
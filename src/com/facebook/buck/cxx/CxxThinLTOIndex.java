@@ -24,8 +24,10 @@ import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
 import com.facebook.buck.core.rules.schedule.OverrideScheduleRule;
 import com.facebook.buck.core.rules.schedule.RuleScheduleInfo;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.cxx.toolchain.LinkerMapMode;
 import com.facebook.buck.cxx.toolchain.StripStyle;
 import com.facebook.buck.cxx.toolchain.linker.HasImportLibrary;
@@ -196,6 +198,21 @@ public class CxxThinLTOIndex extends ModernBuildRule<CxxThinLTOIndex.Impl>
     }
   }
 
+  /**
+   * @return the index written under {@code thinIndicesRoot} for the given bitcode {@code module},
+   *     which holds the summaries, and module hashes, of the module and of every module it imports
+   *     from.
+   */
+  static SourcePath getModuleIndex(
+      SourcePathResolver resolver, SourcePath thinIndicesRoot, SourcePath module) {
+    Preconditions.checkArgument(thinIndicesRoot instanceof BuildTargetSourcePath);
+    return ExplicitBuildTargetSourcePath.of(
+        ((BuildTargetSourcePath) thinIndicesRoot).getTarget(),
+        resolver
+            .getRelativePath(thinIndicesRoot)
+            .resolve(resolver.getRelativePath(module) + ".thinlto.bc"));
+  }
+
   public Linker getLinker() {
     return getBuildable().linker;
   }
@@ -23,21 +23,17 @@ import java.util.function.Consumer;
 
 /** Holds an argument specifying the location of a thinLTO index file for optimization */
 public class CxxThinLTOIndexArg implements Arg {
-  @AddToRuleKey private final SourcePath thinIndicesRoot;
-  private final SourcePath cxxSourcePath;
+  // Only the index of the module being optimized, rather than the whole indices directory, so
+  // that input-based rule keys of the opt rules only change with what the module imports.
+  @AddToRuleKey private final SourcePath moduleIndex;
 
-  public CxxThinLTOIndexArg(SourcePath thinIndicesRoot, SourcePath cxxSourcePath) {
-    this.thinIndicesRoot = thinIndicesRoot;
-    this.cxxSourcePath = cxxSourcePath;
+  public CxxThinLTOIndexArg(SourcePath moduleIndex) {
+    this.moduleIndex = moduleIndex;
   }
 
   @Override
   public void appendToCommandLine(Consumer<String> consumer, SourcePathResolver pathResolver) {
     consumer.accept(
-        String.format(
-            "-fthinlto-index=%s.thinlto.bc",
-            pathResolver
-                .getRelativePath(thinIndicesRoot)
-                .resolve(pathResolver.getRelativePath(cxxSourcePath))));
+        String.format("-fthinlto-index=%s", pathResolver.getRelativePath(moduleIndex)));
   }
 }
@@ -19,7 +19,14 @@ package com.facebook.buck.cxx;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.DefaultFieldInputs;
+import com.facebook.buck.core.rulekey.DefaultFieldSerialization;
+import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.HasCustomDepsLogic;
+import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.cxx.AbstractCxxSource.Type;
@@ -38,12 +45,20 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-/** A build rule which runs the opt phase of an incremental ThinLTO build */
+/**
+ * A build rule which runs the opt phase of an incremental ThinLTO build for a single module.
+ *
+ * <p>Its input-based rule key only covers the module's bitcode and the index written for it by
+ * {@link CxxThinLTOIndex}, so changing a module only reruns the opt phase of that module and of
+ * the modules importing from it, while the others are fetched from the cache.
+ */
 public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
-    implements CxxIntermediateBuildProduct {
+    implements CxxIntermediateBuildProduct, SupportsInputBasedRuleKey {
   private CxxThinLTOOpt(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -51,7 +66,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       CompilerDelegate compilerDelegate,
       String outputName,
       SourcePath input,
-      SourcePath thinIndicesRoot,
+      SourcePath moduleIndex,
+      ImmutableSortedSet<SourcePath> importableModules,
       Type inputType,
       DebugPathSanitizer sanitizer) {
     super(
@@ -63,7 +79,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
             compilerDelegate,
             outputName,
             input,
-            thinIndicesRoot,
+            moduleIndex,
+            importableModules,
             inputType,
             sanitizer));
     Preconditions.checkArgument(
@@ -85,7 +102,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       CompilerDelegate compilerDelegate,
       String outputName,
       SourcePath input,
-      SourcePath thinIndicesRoot,
+      SourcePath moduleIndex,
+      ImmutableSortedSet<SourcePath> importableModules,
       Type inputType,
       DebugPathSanitizer sanitizer) {
     return new CxxThinLTOOpt(
@@ -95,7 +113,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
         compilerDelegate,
         outputName,
         input,
-        thinIndicesRoot,
+        moduleIndex,
+        importableModules,
         inputType,
         sanitizer);
   }
@@ -128,15 +147,17 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
     @AddToRuleKey private final DebugPathSanitizer sanitizer;
     @AddToRuleKey private final OutputPath output;
     @AddToRuleKey private final SourcePath input;
-    @AddToRuleKey private final SourcePath thinIndicesRoot;
+    @AddToRuleKey private final SourcePath moduleIndex;
     @AddToRuleKey private final CxxSource.Type inputType;
+    @AddToRuleKey private final ImportableModules importableModules;
 
     public Impl(
         BuildTarget targetName,
         CompilerDelegate compilerDelegate,
         String outputName,
         SourcePath input,
-        SourcePath thinIndicesRoot,
+        SourcePath moduleIndex,
+        ImmutableSortedSet<SourcePath> importableModules,
         Type inputType,
         DebugPathSanitizer sanitizer) {
       this.targetName = targetName;
@@ -144,7 +165,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       this.sanitizer = sanitizer;
       this.output = new OutputPath(outputName);
       this.input = input;
-      this.thinIndicesRoot = thinIndicesRoot;
+      this.moduleIndex = moduleIndex;
+      this.importableModules = new ImportableModules(importableModules);
       this.inputType = inputType;
     }
 
@@ -184,7 +206,8 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
                   .setTarget(targetName)
                   .setSourcePath(relativeInputPath)
                   .setOutputPath(resolvedOutput)
-                  .build()));
+                  .build()),
+          Optional.empty());
     }
 
     @Override
@@ -206,4 +229,25 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
           .build();
     }
   }
+
+  /**
+   * The modules the opt phase may import from. They only need to be available when building, since
+   * the module index already has the hashes of those actually imported.
+   */
+  private static class ImportableModules implements AddsToRuleKey, HasCustomDepsLogic {
+    @ExcludeFromRuleKey(
+        reason = "The module index has the hashes of the modules which are actually imported.",
+        serialization = DefaultFieldSerialization.class,
+        inputs = DefaultFieldInputs.class)
+    private final ImmutableSortedSet<SourcePath> modules;
+
+    ImportableModules(ImmutableSortedSet<SourcePath> modules) {
+      this.modules = modules;
+    }
+
+    @Override
+    public Stream<BuildRule> getDeps(SourcePathRuleFinder ruleFinder) {
+      return ruleFinder.filterBuildRuleInputs(modules).stream();
+    }
+  }
 }
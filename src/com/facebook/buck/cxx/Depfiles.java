@@ -31,19 +31,25 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import java.io.BufferedReader;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
@@ -52,6 +58,16 @@ import java.util.stream.Collectors;
 // TODO(cjhopman): This should be better documented about the format it is expecting.
 class Depfiles {
 
+  private static final long MAX_RESOLVED_HEADERS = 200_000;
+
+  /**
+   * The normalized absolute paths of depfile entries, by project root. The same headers show up in
+   * the depfiles of many translation units, so this saves resolving them over and over, and lets
+   * all the rules including a header share one path object for it.
+   */
+  private static final ConcurrentMap<Path, Cache<String, Path>> RESOLVED_HEADERS =
+      new ConcurrentHashMap<>();
+
   private Depfiles() {}
 
   public static Predicate<SourcePath> getCoveredByDepFilePredicate(
@@ -83,9 +99,6 @@ class Depfiles {
     ADD_PREREQ
   }
 
-  private static final String WHITESPACE_CHARS = " \n\r\t";
-  private static final String ESCAPED_TARGET_CHARS = ": #";
-  private static final String ESCAPED_PREREQ_CHARS = " #";
   private static final String UNTRACKED_HEADER_ERROR_TIPS =
       "Untracked headers detected. Please reference these headers "
           + System.lineSeparator()
@@ -103,101 +116,109 @@ class Depfiles {
    * dep2, ...]) inside.
    */
   public static Depfile parseDepfile(Readable readable) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    CharBuffer buffer = CharBuffer.allocate(4096);
+    while (readable.read(buffer) != -1) {
+      buffer.flip();
+      contents.append(buffer);
+      buffer.clear();
+    }
+    return parseDepfile(ByteBuffer.wrap(contents.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Parses UTF-8 encoded {@code contents} as a .d Makefile as emitted by {@code gcc -MD} and
+   * returns the (target, [dep, dep2, ...]) inside.
+   *
+   * <p>Works on the raw bytes: every character with a special meaning is ASCII, and the bytes of a
+   * multi-byte UTF-8 sequence never are, so paths are only decoded once they're complete.
+   */
+  public static Depfile parseDepfile(ByteBuffer contents) throws IOException {
     String target = null;
     ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
     State state = State.LOOKING_FOR_TARGET;
-    StringBuilder identifierBuilder = new StringBuilder();
-
-    CharBuffer buffer = CharBuffer.allocate(4096);
+    IdentifierBuilder identifierBuilder = new IdentifierBuilder();
     int numBackslashes = 0;
 
-    while (readable.read(buffer) != -1) {
-      buffer.flip();
+    while (contents.hasRemaining()) {
+      byte c = contents.get();
+      Action action = Action.NONE;
+      boolean isBackslash = c == '\\';
+      boolean isCarriageReturn = c == '\r';
+      boolean isNewline = c == '\n';
+      boolean isWhitespace = c == ' ' || c == '\t' || isNewline || isCarriageReturn;
+      boolean inIdentifier = identifierBuilder.length > 0;
+      boolean isEscaped;
+      if (state == State.LOOKING_FOR_TARGET) {
+        isEscaped = c == ':' || c == ' ' || c == '#';
+      } else {
+        isEscaped = c == ' ' || c == '#';
+      }
 
-      while (buffer.hasRemaining()) {
-        char c = buffer.get();
-        Action action = Action.NONE;
-        boolean isBackslash = c == '\\';
-        boolean isCarriageReturn = c == '\r';
-        boolean isNewline = c == '\n';
-        boolean isWhitespace = WHITESPACE_CHARS.indexOf(c) != -1;
-        boolean inIdentifier = identifierBuilder.length() > 0;
-        boolean isEscaped;
-        if (state == State.LOOKING_FOR_TARGET) {
-          isEscaped = ESCAPED_TARGET_CHARS.indexOf(c) != -1;
-        } else {
-          isEscaped = ESCAPED_PREREQ_CHARS.indexOf(c) != -1;
+      if (isBackslash) {
+        // We need to count the number of backslashes in case the
+        // first non-backslash is an escaped character.
+        numBackslashes++;
+      } else if (numBackslashes > 0 && isEscaped) {
+        // Consume one backslash to escape the special char.
+        numBackslashes--;
+        if (inIdentifier) {
+          action = Action.APPEND_TO_IDENTIFIER;
         }
-
-        if (isBackslash) {
-          // We need to count the number of backslashes in case the
-          // first non-backslash is an escaped character.
-          numBackslashes++;
-        } else if (numBackslashes > 0 && isEscaped) {
-          // Consume one backslash to escape the special char.
-          numBackslashes--;
-          if (inIdentifier) {
-            action = Action.APPEND_TO_IDENTIFIER;
+      } else if (isWhitespace) {
+        if (numBackslashes == 0) {
+          if (state == State.FOUND_TARGET && inIdentifier) {
+            action = Action.ADD_PREREQ;
           }
-        } else if (isWhitespace) {
-          if (numBackslashes == 0) {
-            if (state == State.FOUND_TARGET && inIdentifier) {
-              action = Action.ADD_PREREQ;
-            }
-            if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
-              state = State.LOOKING_FOR_TARGET;
-            }
-          } else if (isNewline) {
-            // Consume one backslash to escape \n or \r\n.
-            numBackslashes--;
-          } else if (!isCarriageReturn) {
-            action = Action.APPEND_TO_IDENTIFIER;
+          if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
+            state = State.LOOKING_FOR_TARGET;
           }
-        } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
-          state = State.FOUND_TARGET;
-          action = Action.SET_TARGET;
-        } else {
+        } else if (isNewline) {
+          // Consume one backslash to escape \n or \r\n.
+          numBackslashes--;
+        } else if (!isCarriageReturn) {
           action = Action.APPEND_TO_IDENTIFIER;
         }
+      } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
+        state = State.FOUND_TARGET;
+        action = Action.SET_TARGET;
+      } else {
+        action = Action.APPEND_TO_IDENTIFIER;
+      }
 
-        if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
-          int numBackslashesToAppend;
-          if (isEscaped || isWhitespace) {
-            // Backslashes escape themselves before an escaped character or whitespace.
-            numBackslashesToAppend = numBackslashes / 2;
-          } else {
-            // Backslashes are literal before a non-escaped character.
-            numBackslashesToAppend = numBackslashes;
-          }
-
-          for (int i = 0; i < numBackslashesToAppend; i++) {
-            identifierBuilder.append('\\');
-          }
-          numBackslashes = 0;
+      if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
+        int numBackslashesToAppend;
+        if (isEscaped || isWhitespace) {
+          // Backslashes escape themselves before an escaped character or whitespace.
+          numBackslashesToAppend = numBackslashes / 2;
+        } else {
+          // Backslashes are literal before a non-escaped character.
+          numBackslashesToAppend = numBackslashes;
         }
 
-        switch (action) {
-          case NONE:
-            break;
-          case APPEND_TO_IDENTIFIER:
-            identifierBuilder.append(c);
-            break;
-          case SET_TARGET:
-            if (target != null) {
-              throw new HumanReadableException(
-                  "Depfile parser cannot handle .d file with multiple targets");
-            }
-            target = identifierBuilder.toString();
-            identifierBuilder.setLength(0);
-            break;
-          case ADD_PREREQ:
-            prereqsBuilder.add(identifierBuilder.toString());
-            identifierBuilder.setLength(0);
-            break;
+        for (int i = 0; i < numBackslashesToAppend; i++) {
+          identifierBuilder.append((byte) '\\');
         }
+        numBackslashes = 0;
       }
 
-      buffer.clear();
+      switch (action) {
+        case NONE:
+          break;
+        case APPEND_TO_IDENTIFIER:
+          identifierBuilder.append(c);
+          break;
+        case SET_TARGET:
+          if (target != null) {
+            throw new HumanReadableException(
+                "Depfile parser cannot handle .d file with multiple targets");
+          }
+          target = identifierBuilder.take();
+          break;
+        case ADD_PREREQ:
+          prereqsBuilder.add(identifierBuilder.take());
+          break;
+      }
     }
 
     ImmutableList<String> prereqs = prereqsBuilder.build();
@@ -208,6 +229,25 @@ class Depfiles {
     }
   }
 
+  /** Accumulates the bytes of a target or prerequisite, reusing its buffer for the next one. */
+  private static class IdentifierBuilder {
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    void append(byte b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[length++] = b;
+    }
+
+    String take() {
+      String identifier = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      length = 0;
+      return identifier;
+    }
+  }
+
   private static ImmutableList<String> getRawUsedHeadersFromDepfile(
       ProjectFilesystem filesystem,
       Path sourceDepFile,
@@ -217,9 +257,9 @@ class Depfiles {
       throws IOException {
     switch (dependencyTrackingMode) {
       case MAKEFILE:
-        try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-          ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
+        try (InputStream input = filesystem.newFileInputStream(sourceDepFile)) {
+          ImmutableList<String> prereqs =
+              Depfiles.parseDepfile(ByteBuffer.wrap(ByteStreams.toByteArray(input))).getPrereqs();
           // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
           // appear first in the dep file, followed by the input source file.  So, just skip over
           // everything until just after the input source which should position us at the headers.
@@ -336,17 +376,25 @@ class Depfiles {
         new UntrackedHeaderReporterWithFallback(
             dependencyTrackingMode, filesystem, headerPathNormalizer, sourceDepFile, inputPath);
     List<String> errors = new ArrayList<String>();
+    Cache<String, Path> resolvedHeaders =
+        RESOLVED_HEADERS.computeIfAbsent(
+            filesystem.getRootPath(),
+            root -> CacheBuilder.newBuilder().maximumSize(MAX_RESOLVED_HEADERS).build());
     for (String rawHeader : headers) {
-      Path header = filesystem.resolve(rawHeader).normalize();
+      Path header = resolvedHeaders.getIfPresent(rawHeader);
+      if (header == null) {
+        header = filesystem.resolve(rawHeader).normalize();
+        resolvedHeaders.put(rawHeader, header);
+      }
       Optional<Path> absolutePath =
           headerPathNormalizer.getAbsolutePathForUnnormalizedPath(pathResolver, header);
-      Optional<Path> repoRelativePath = filesystem.getPathRelativeToProjectRoot(header);
       if (absolutePath.isPresent()) {
         Preconditions.checkState(absolutePath.get().isAbsolute());
         resultBuilder.add(absolutePath.get());
       } else if ((headerVerification.getMode() != HeaderVerification.Mode.IGNORE)
           && (!(headerVerification.isWhitelisted(header.toString())
-              || repoRelativePath
+              || filesystem
+                  .getPathRelativeToProjectRoot(header)
                   .map(path -> headerVerification.isWhitelisted(path.toString()))
                   .orElse(false)))) {
         // Check again with the real path with all symbolic links resolved.
@@ -28,6 +28,8 @@ import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 class HeaderPathNormalizer {
@@ -47,6 +49,13 @@ class HeaderPathNormalizer {
   /** Minimal mappings to translate paths used during compilation to their real locations. */
   private final ImmutableMap<Path, Path> prefixMap;
 
+  /**
+   * The paths {@link #getAbsolutePathForUnnormalizedPath} found. Normalizers are shared by all the
+   * sources of a rule, and their depfiles mostly list the same headers. Misses aren't kept, as the
+   * include scanner probes many paths that don't exist.
+   */
+  private final ConcurrentMap<Path, Path> absolutePaths = new ConcurrentHashMap<>();
+
   protected HeaderPathNormalizer(
       ImmutableMap<Path, SourcePath> headers,
       ImmutableMap<Path, SourcePath> normalized,
@@ -74,14 +83,20 @@ class HeaderPathNormalizer {
   public Optional<Path> getAbsolutePathForUnnormalizedPath(
       SourcePathResolver pathResolver, Path unnormalizedPath) {
     Preconditions.checkArgument(unnormalizedPath.isAbsolute());
+    Path absolutePath = absolutePaths.get(unnormalizedPath);
+    if (absolutePath != null) {
+      return Optional.of(absolutePath);
+    }
     Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
     if (!result.isPresent()) {
       return Optional.empty();
     }
-    return Optional.of(
+    absolutePath =
         pathResolver
             .getAbsolutePath(result.get().getValue())
-            .resolve(result.get().getKey().relativize(unnormalizedPath)));
+            .resolve(result.get().getKey().relativize(unnormalizedPath));
+    absolutePaths.put(unnormalizedPath, absolutePath);
+    return Optional.of(absolutePath);
   }
 
   /** @return the {@link SourcePath} which corresponds to the given absolute path. */
@@ -25,7 +25,6 @@ import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRuleParams;
 import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
-import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.core.util.graph.TopologicalSort;
@@ -45,23 +44,23 @@ import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.util.RichStream;
-import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.function.IntConsumer;
 import org.immutables.value.Value;
 
 public class Omnibus {
@@ -95,22 +94,6 @@ public class Omnibus {
         nativeLinkable.getNativeLinkableExportedDeps(graphBuilder));
   }
 
-  // Returned the dependencies for the given node, which can either be a `NativeLinkable` or a
-  // `NativeLinkTarget`.
-  private static Iterable<? extends NativeLinkable> getDeps(
-      BuildTarget target,
-      Map<BuildTarget, ? extends NativeLinkTarget> nativeLinkTargets,
-      Map<BuildTarget, ? extends NativeLinkable> nativeLinkables,
-      ActionGraphBuilder graphBuilder) {
-    if (nativeLinkables.containsKey(target)) {
-      NativeLinkable nativeLinkable = Objects.requireNonNull(nativeLinkables.get(target));
-      return getDeps(nativeLinkable, graphBuilder);
-    } else {
-      NativeLinkTarget nativeLinkTarget = Objects.requireNonNull(nativeLinkTargets.get(target));
-      return nativeLinkTarget.getNativeLinkTargetDeps(graphBuilder);
-    }
-  }
-
   // Build the data structure containing bookkeeping which describing the omnibus link for the
   // given included and excluded roots.
   static OmnibusSpec buildSpec(
@@ -118,24 +101,27 @@ public class Omnibus {
       Iterable<? extends NativeLinkable> excludedRoots,
       ActionGraphBuilder actionGraphBuilder) {
 
-    // A map of targets to native linkable objects.  We maintain this, so that we index our
-    // bookkeeping around `BuildTarget` and avoid having to guarantee that all other types are
-    // hashable.
-    Map<BuildTarget, NativeLinkable> nativeLinkables = new LinkedHashMap<>();
+    // All the native linkables reachable from the roots.  The walks below index their bookkeeping
+    // by the IDs this assigns, and only look up the deps of each node once.
+    LinkableGraph nativeLinkables = new LinkableGraph(actionGraphBuilder);
 
     // The nodes which should *not* be included in the omnibus link.
-    Set<BuildTarget> excluded = new LinkedHashSet<>();
+    IdSet excluded = new IdSet();
 
     // Process all the roots included in the omnibus link.
     Map<BuildTarget, NativeLinkTarget> roots = new LinkedHashMap<>();
-    Map<BuildTarget, NativeLinkable> rootDeps = new LinkedHashMap<>();
+    Map<BuildTarget, ImmutableList<NativeLinkable>> rootLinkables = new LinkedHashMap<>();
+    IdSet rootDeps = new IdSet();
     for (NativeLinkTarget root : includedRoots) {
       roots.put(root.getBuildTarget(), root);
-      for (NativeLinkable dep :
-          NativeLinkables.getNativeLinkables(
-              actionGraphBuilder,
-              root.getNativeLinkTargetDeps(actionGraphBuilder),
-              Linker.LinkableDepType.SHARED)) {
+      ImmutableList<NativeLinkable> linkables =
+          ImmutableList.copyOf(
+              NativeLinkables.getNativeLinkables(
+                  actionGraphBuilder,
+                  root.getNativeLinkTargetDeps(actionGraphBuilder),
+                  Linker.LinkableDepType.SHARED));
+      rootLinkables.put(root.getBuildTarget(), linkables);
+      for (NativeLinkable dep : linkables) {
         Linker.LinkableDepType linkStyle =
             NativeLinkableGroups.getLinkStyle(
                 dep.getPreferredLinkage(), Linker.LinkableDepType.SHARED);
@@ -143,8 +129,7 @@ public class Omnibus {
 
         // We only consider deps which aren't *only* statically linked.
         if (linkStyle == Linker.LinkableDepType.SHARED) {
-          rootDeps.put(dep.getBuildTarget(), dep);
-          nativeLinkables.put(dep.getBuildTarget(), dep);
+          rootDeps.add(nativeLinkables.getId(dep));
         }
       }
     }
@@ -152,82 +137,78 @@ public class Omnibus {
     // Process all roots excluded from the omnibus link, and add them to our running list of
     // excluded nodes.
     for (NativeLinkable root : excludedRoots) {
-      nativeLinkables.put(root.getBuildTarget(), root);
-      excluded.add(root.getBuildTarget());
+      excluded.add(nativeLinkables.getId(root));
     }
 
     // Perform the first walk starting from the native linkable nodes immediately reachable via the
-    // included roots.  We'll accomplish two things here:
-    // 1. Build up the map of node names to their native linkable objects.
-    // 2. Perform an initial discovery of dependency nodes to exclude from the omnibus link.
-    new AbstractBreadthFirstTraversal<BuildTarget>(rootDeps.keySet()) {
-      @Override
-      public Iterable<BuildTarget> visit(BuildTarget target) {
-        NativeLinkable nativeLinkable = Objects.requireNonNull(nativeLinkables.get(target));
-        ImmutableMap<BuildTarget, NativeLinkable> deps =
-            Maps.uniqueIndex(
-                getDeps(nativeLinkable, actionGraphBuilder), NativeLinkable::getBuildTarget);
-        nativeLinkables.putAll(deps);
-        if (!nativeLinkable.supportsOmnibusLinking()) {
-          excluded.add(target);
-        }
-        return deps.keySet();
+    // included roots, for an initial discovery of dependency nodes to exclude from the omnibus
+    // link.  Each of these walks is breadth first, as the set of visited nodes also serves as the
+    // queue of nodes to visit.
+    IdSet visited = new IdSet();
+    rootDeps.forEach(visited::add);
+    for (int i = 0; i < visited.size(); i++) {
+      int node = visited.get(i);
+      if (!nativeLinkables.get(node).supportsOmnibusLinking()) {
+        excluded.add(node);
+      }
+      for (int dep : nativeLinkables.getDeps(node)) {
+        visited.add(dep);
       }
-    }.start();
+    }
 
     // Do another walk to flesh out the transitively excluded nodes.
-    new AbstractBreadthFirstTraversal<BuildTarget>(excluded) {
-      @Override
-      public Iterable<BuildTarget> visit(BuildTarget target) {
-        NativeLinkable nativeLinkable = Objects.requireNonNull(nativeLinkables.get(target));
-        ImmutableMap<BuildTarget, NativeLinkable> deps =
-            Maps.uniqueIndex(
-                getDeps(nativeLinkable, actionGraphBuilder), NativeLinkable::getBuildTarget);
-        nativeLinkables.putAll(deps);
-        excluded.add(target);
-        return deps.keySet();
+    for (int i = 0; i < excluded.size(); i++) {
+      for (int dep : nativeLinkables.getDeps(excluded.get(i))) {
+        excluded.add(dep);
       }
-    }.start();
+    }
 
     // And then we can do one last walk to create the actual graph which contain only root and body
     // nodes to include in the omnibus link.
     MutableDirectedGraph<BuildTarget> graphBuilder = new MutableDirectedGraph<>();
-    Set<BuildTarget> deps = new LinkedHashSet<>();
-    new AbstractBreadthFirstTraversal<BuildTarget>(Sets.difference(rootDeps.keySet(), excluded)) {
-      @Override
-      public Iterable<BuildTarget> visit(BuildTarget target) {
-        graphBuilder.addNode(target);
-        Set<BuildTarget> keep = new LinkedHashSet<>();
-        for (BuildTarget dep :
-            Iterables.transform(
-                getDeps(target, roots, nativeLinkables, actionGraphBuilder),
-                NativeLinkable::getBuildTarget)) {
-          if (excluded.contains(dep)) {
-            deps.add(dep);
-          } else {
-            keep.add(dep);
-            graphBuilder.addEdge(target, dep);
+    IdSet deps = new IdSet();
+    IdSet kept = new IdSet();
+    rootDeps.forEach(
+        node -> {
+          if (!excluded.contains(node)) {
+            kept.add(node);
           }
+        });
+    for (int i = 0; i < kept.size(); i++) {
+      int node = kept.get(i);
+      BuildTarget target = nativeLinkables.get(node).getBuildTarget();
+      graphBuilder.addNode(target);
+      for (int dep : nativeLinkables.getDeps(node)) {
+        if (excluded.contains(dep)) {
+          deps.add(dep);
+        } else {
+          kept.add(dep);
+          graphBuilder.addEdge(target, nativeLinkables.get(dep).getBuildTarget());
         }
-        return keep;
       }
-    }.start();
+    }
     DirectedAcyclicGraph<BuildTarget> graph = new DirectedAcyclicGraph<>(graphBuilder);
 
     // Since we add all undefined root symbols into the omnibus library, we also need to include
     // any excluded root deps as deps of omnibus, as they may fulfill these undefined symbols.
     // Also add any excluded nodes that are also root dependencies.
-    deps.addAll(Sets.intersection(rootDeps.keySet(), excluded));
+    rootDeps.forEach(
+        node -> {
+          if (excluded.contains(node)) {
+            deps.add(node);
+          }
+        });
 
     return ImmutableOmnibusSpec.builder()
         .graph(graph)
         .roots(roots)
+        .rootLinkables(rootLinkables)
         .body(
             graph.getNodes().stream()
                 .filter(n -> !roots.containsKey(n))
-                .collect(ImmutableMap.toImmutableMap(k -> k, Functions.forMap(nativeLinkables))))
-        .deps(Maps.asMap(deps, Functions.forMap(nativeLinkables)))
-        .excluded(Maps.asMap(excluded, Functions.forMap(nativeLinkables)))
+                .collect(ImmutableMap.toImmutableMap(k -> k, nativeLinkables::get)))
+        .deps(nativeLinkables.toMap(deps))
+        .excluded(nativeLinkables.toMap(excluded))
         .excludedRoots(
             RichStream.from(excludedRoots).map(NativeLinkable::getBuildTarget).toImmutableSet())
         .build();
@@ -303,11 +284,8 @@ public class Omnibus {
     argsBuilder.addAll(input.getArgs());
 
     // Grab a topologically sorted mapping of all the root's deps.
-    ImmutableList<? extends NativeLinkable> deps =
-        NativeLinkables.getNativeLinkables(
-            graphBuilder,
-            root.getNativeLinkTargetDeps(graphBuilder),
-            Linker.LinkableDepType.SHARED);
+    ImmutableList<NativeLinkable> deps =
+        Objects.requireNonNull(spec.getRootLinkables().get(root.getBuildTarget()));
 
     // Now process the dependencies in topological order, to assemble the link line.
     boolean alreadyAddedOmnibusToArgs = false;
@@ -729,6 +707,108 @@ public class Omnibus {
     return libs.build();
   }
 
+  /**
+   * The native linkables reachable from the omnibus roots, numbered in the order they're found, so
+   * that the walks over them can keep their bookkeeping in bitsets rather than in sets of {@link
+   * BuildTarget}s.
+   */
+  private static class LinkableGraph {
+
+    private final ActionGraphBuilder graphBuilder;
+    private final Map<BuildTarget, Integer> ids = new HashMap<>();
+    private final List<NativeLinkable> linkables = new ArrayList<>();
+    // The IDs of the deps of each node, or null if they haven't been looked up yet.
+    private final List<int[]> deps = new ArrayList<>();
+
+    LinkableGraph(ActionGraphBuilder graphBuilder) {
+      this.graphBuilder = graphBuilder;
+    }
+
+    /** @return the ID of the given node, numbering it if it wasn't seen before. */
+    int getId(NativeLinkable nativeLinkable) {
+      Integer id = ids.get(nativeLinkable.getBuildTarget());
+      if (id == null) {
+        id = linkables.size();
+        ids.put(nativeLinkable.getBuildTarget(), id);
+        linkables.add(nativeLinkable);
+        deps.add(null);
+      }
+      return id;
+    }
+
+    NativeLinkable get(int id) {
+      return linkables.get(id);
+    }
+
+    NativeLinkable get(BuildTarget target) {
+      return linkables.get(Objects.requireNonNull(ids.get(target)));
+    }
+
+    /** @return the IDs of the distinct deps of the given node, in the order they're declared. */
+    int[] getDeps(int id) {
+      int[] nodeDeps = deps.get(id);
+      if (nodeDeps == null) {
+        IdSet depIds = new IdSet();
+        for (NativeLinkable dep : Omnibus.getDeps(linkables.get(id), graphBuilder)) {
+          depIds.add(getId(dep));
+        }
+        nodeDeps = depIds.toArray();
+        deps.set(id, nodeDeps);
+      }
+      return nodeDeps;
+    }
+
+    ImmutableMap<BuildTarget, NativeLinkable> toMap(IdSet nodes) {
+      ImmutableMap.Builder<BuildTarget, NativeLinkable> map =
+          ImmutableMap.builderWithExpectedSize(nodes.size());
+      nodes.forEach(id -> map.put(linkables.get(id).getBuildTarget(), linkables.get(id)));
+      return map.build();
+    }
+  }
+
+  /** A set of node IDs, which iterates in the order they were added in. */
+  private static class IdSet {
+
+    private final BitSet members = new BitSet();
+    private int[] order = new int[16];
+    private int size = 0;
+
+    boolean add(int id) {
+      if (members.get(id)) {
+        return false;
+      }
+      members.set(id);
+      if (size == order.length) {
+        order = Arrays.copyOf(order, size * 2);
+      }
+      order[size++] = id;
+      return true;
+    }
+
+    boolean contains(int id) {
+      return members.get(id);
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** @return the {@code index}th ID added to the set. */
+    int get(int index) {
+      return order[index];
+    }
+
+    void forEach(IntConsumer consumer) {
+      for (int i = 0; i < size; i++) {
+        consumer.accept(order[i]);
+      }
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(order, size);
+    }
+  }
+
   @Value.Immutable
   abstract static class OmnibusSpec {
 
@@ -739,6 +819,10 @@ public class Omnibus {
     // libraries which depend on the giant statically linked omnibus body.
     public abstract ImmutableMap<BuildTarget, NativeLinkTarget> getRoots();
 
+    // The topologically sorted native linkables each root links against, which are needed again
+    // when linking the root.
+    public abstract ImmutableMap<BuildTarget, ImmutableList<NativeLinkable>> getRootLinkables();
+
     // All native nodes which are to be statically linked into the giant combined shared library.
     public abstract ImmutableMap<BuildTarget, NativeLinkable> getBody();
 
@@ -38,8 +38,12 @@ import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkableInfo;
 import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkableInput;
 import com.facebook.buck.cxx.toolchain.nativelink.PlatformMappedCache;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.rules.args.Arg;
+import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.rules.coercer.FrameworkPath;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.CacheStats;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -49,6 +53,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -64,6 +69,9 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
   private static final Flavor AGGREGATED_PREPROCESS_DEPS_FLAVOR =
       InternalFlavor.of("preprocessor-deps");
 
+  private static final AtomicLong precompiledHeadersCreated = new AtomicLong();
+  private static final AtomicLong precompiledHeadersShared = new AtomicLong();
+
   /**
    * The source path which was expressed as either: (1) the `prefix_header` attribute in a
    * `cxx_binary` or `cxx_library` (or similar) rule, or (2) the `src` in a `cxx_precompiled_header`
@@ -167,6 +175,13 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
     return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
   }
 
+  @Override
+  public NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+      getTransitiveCxxPreprocessorInputSet(
+          CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return transitiveCxxPreprocessorInputCache.getNestedSetUnchecked(cxxPlatform, graphBuilder);
+  }
+
   private ImmutableList<CxxPreprocessorInput> getCxxPreprocessorInputs(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
     ImmutableList.Builder<CxxPreprocessorInput> builder = ImmutableList.builder();
@@ -253,6 +268,86 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
         cxxPlatform.getConflictingHeaderBasenameWhitelist());
   }
 
+  /**
+   * @return {@code flags} without the ones that only affect the diagnostics the compiler reports.
+   *     A PCH built with or without those is compatible with any compilation otherwise using the
+   *     same flags, so leaving them out lets rules whose flags only differ in warnings share a PCH.
+   *     Warnings are still reported for the prefix header when it is precompiled, just under the
+   *     default warning settings. Flags that turn warnings into errors decide whether the prefix
+   *     header compiles at all, so when there are any, all the flags are kept.
+   */
+  static CxxToolFlags getPchCompatibilityFlags(CxxToolFlags flags) {
+    if (hasErrorPromotingFlag(flags.getPlatformFlags())
+        || hasErrorPromotingFlag(flags.getRuleFlags())) {
+      return flags;
+    }
+    return CxxToolFlags.copyOf(
+        withoutDiagnosticFlags(flags.getPlatformFlags()),
+        withoutDiagnosticFlags(flags.getRuleFlags()));
+  }
+
+  private static ImmutableList<Arg> withoutDiagnosticFlags(ImmutableList<Arg> flags) {
+    ImmutableList.Builder<Arg> result = ImmutableList.builder();
+    boolean forwarded = false;
+    for (Arg flag : flags) {
+      String value = getFlagValue(flag);
+      // Flags after e.g. `-Xclang` or `-mllvm` are handed to another tool as is.
+      if (forwarded || !isDiagnosticFlag(value)) {
+        result.add(flag);
+      }
+      forwarded = isForwardingFlag(forwarded, value);
+    }
+    return result.build();
+  }
+
+  private static boolean hasErrorPromotingFlag(ImmutableList<Arg> flags) {
+    boolean forwarded = false;
+    for (Arg flag : flags) {
+      String value = getFlagValue(flag);
+      if (!forwarded
+          && (value.equals("-Werror")
+              || value.startsWith("-Werror=")
+              || value.equals("-pedantic-errors"))) {
+        return true;
+      }
+      forwarded = isForwardingFlag(forwarded, value);
+    }
+    return false;
+  }
+
+  private static String getFlagValue(Arg flag) {
+    return flag instanceof StringArg ? ((StringArg) flag).getArg() : "";
+  }
+
+  private static boolean isForwardingFlag(boolean forwarded, String flag) {
+    return !forwarded && (flag.startsWith("-X") || flag.equals("-mllvm"));
+  }
+
+  private static boolean isDiagnosticFlag(String flag) {
+    if (flag.startsWith("-W")) {
+      // `-Wl,`, `-Wa,` and `-Wp,` pass flags on to the linker, assembler and preprocessor.
+      return flag.length() < 4 || flag.charAt(3) != ',';
+    }
+    return flag.equals("-w")
+        || flag.equals("-fcolor-diagnostics")
+        || flag.equals("-fno-color-diagnostics")
+        || flag.startsWith("-fdiagnostics-")
+        || flag.startsWith("-fno-diagnostics-")
+        || flag.startsWith("-ferror-limit=")
+        || flag.startsWith("-fmessage-length=");
+  }
+
+  /**
+   * @return how many PCH rules were created, as misses, and how many requests for a PCH were served
+   *     by one created for another rule, as hits, since the last call.
+   */
+  public static CacheStats takePrecompiledHeaderStats() {
+    return CacheStats.builder()
+        .setHitCount(precompiledHeadersShared.getAndSet(0))
+        .setMissCount(precompiledHeadersCreated.getAndSet(0))
+        .build();
+  }
+
   public abstract CxxPrecompiledHeader getPrecompiledHeader(
       boolean canPrecompile,
       PreprocessorDelegate preprocessorDelegateForCxxRule,
@@ -283,6 +378,11 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
       DepsBuilder depsBuilder,
       BuildTarget buildTarget,
       ActionGraphBuilder graphBuilder) {
+    // Racing requests for a new PCH may both count it as created, which is fine for reporting.
+    (graphBuilder.getRuleOptional(buildTarget).isPresent()
+            ? precompiledHeadersShared
+            : precompiledHeadersCreated)
+        .incrementAndGet();
     return (CxxPrecompiledHeader)
         graphBuilder.computeIfAbsent(
             buildTarget,
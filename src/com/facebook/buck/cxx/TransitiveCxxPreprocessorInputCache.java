@@ -19,12 +19,14 @@ package com.facebook.buck.cxx;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
+import com.facebook.buck.util.collect.NestedSet;
 import com.facebook.buck.util.concurrent.Parallelizer;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -32,9 +34,15 @@ import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 
-/** Transitive C++ preprocessor input cache */
+/**
+ * Transitive C++ preprocessor input cache.
+ *
+ * <p>Each rule's transitive inputs are kept as a {@link NestedSet} of its own input and of the sets
+ * of its deps, so building the cache for a whole graph takes time and memory proportional to its
+ * edges. Maps are only flattened out of the sets when asked for.
+ */
 public class TransitiveCxxPreprocessorInputCache {
-  private final Cache<CxxPlatform, ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>> cache =
+  private final Cache<CxxPlatform, NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>> cache =
       CacheBuilder.newBuilder().build();
   private final CxxPreprocessorDep preprocessorDep;
 
@@ -45,11 +53,17 @@ public class TransitiveCxxPreprocessorInputCache {
   /** Get a value from the cache */
   public ImmutableMap<BuildTarget, CxxPreprocessorInput> getUnchecked(
       CxxPlatform key, ActionGraphBuilder graphBuilder) {
+    return toSortedMap(getNestedSetUnchecked(key, graphBuilder));
+  }
+
+  /** Get a value from the cache, as a set nesting the sets of the rule's deps. */
+  public NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>> getNestedSetUnchecked(
+      CxxPlatform key, ActionGraphBuilder graphBuilder) {
     try {
       return cache.get(
           key,
           () ->
-              computeTransitiveCxxToPreprocessorInputMap(
+              computeTransitiveCxxPreprocessorInputSet(
                   key, preprocessorDep, true, graphBuilder, graphBuilder.getParallelizer()));
     } catch (ExecutionException e) {
       throw new UncheckedExecutionException(e.getCause());
@@ -62,29 +76,43 @@ public class TransitiveCxxPreprocessorInputCache {
           CxxPreprocessorDep preprocessorDep,
           boolean includeDep,
           ActionGraphBuilder graphBuilder) {
-    return computeTransitiveCxxToPreprocessorInputMap(
-        key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer());
+    return toSortedMap(
+        computeTransitiveCxxPreprocessorInputSet(
+            key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer()));
   }
 
-  private static ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>
-      computeTransitiveCxxToPreprocessorInputMap(
+  private static NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+      computeTransitiveCxxPreprocessorInputSet(
           @Nonnull CxxPlatform key,
           CxxPreprocessorDep preprocessorDep,
           boolean includeDep,
           ActionGraphBuilder graphBuilder,
           Parallelizer parallelizer) {
-    Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
+    // The map of the same inputs is ordered by target, so the set records that it is too.
+    NestedSet.Builder<Map.Entry<BuildTarget, CxxPreprocessorInput>> builder =
+        NestedSet.<Map.Entry<BuildTarget, CxxPreprocessorInput>>builder()
+            .setOrder(Map.Entry.comparingByKey());
     if (includeDep) {
-      builder.put(
-          preprocessorDep.getBuildTarget(),
-          preprocessorDep.getCxxPreprocessorInput(key, graphBuilder));
+      builder.add(
+          Maps.immutableEntry(
+              preprocessorDep.getBuildTarget(),
+              preprocessorDep.getCxxPreprocessorInput(key, graphBuilder)));
     }
 
-    Collection<ImmutableMap<BuildTarget, CxxPreprocessorInput>> transitiveDepInputs =
+    Collection<NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>> transitiveDepInputs =
         parallelizer.maybeParallelizeTransform(
             ImmutableList.copyOf(preprocessorDep.getCxxPreprocessorDeps(key, graphBuilder)),
-            dep -> dep.getTransitiveCxxPreprocessorInput(key, graphBuilder));
-    transitiveDepInputs.forEach(builder::putAll);
+            dep -> dep.getTransitiveCxxPreprocessorInputSet(key, graphBuilder));
+    transitiveDepInputs.forEach(builder::addTransitive);
+    return builder.build();
+  }
+
+  private static ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> toSortedMap(
+      NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>> inputs) {
+    Map<BuildTarget, CxxPreprocessorInput> map = new HashMap<>();
+    for (Map.Entry<BuildTarget, CxxPreprocessorInput> entry : inputs.toList()) {
+      map.put(entry.getKey(), entry.getValue());
+    }
 
     // Using an ImmutableSortedMap here:
     //
@@ -96,6 +124,6 @@ public class TransitiveCxxPreprocessorInputCache {
     //
     // 3. We mostly iterate over these maps rather than do lookups, so ImmutableSortedMap
     // binary-search based lookup is not an issue.
-    return ImmutableSortedMap.copyOf(builder);
+    return ImmutableSortedMap.copyOf(map);
   }
 }
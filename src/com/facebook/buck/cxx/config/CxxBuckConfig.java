@@ -51,6 +51,7 @@ import com.facebook.buck.cxx.toolchain.linker.LinkerProvider;
 import com.facebook.buck.cxx.toolchain.linker.impl.DefaultLinkerProvider;
 import com.facebook.buck.rules.tool.config.ToolConfig;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -94,7 +95,9 @@ public class CxxBuckConfig {
   private static final String CACHE_STRIPS = "cache_strips";
   private static final String CACHE_BINARIES = "cache_binaries";
   private static final String PCH_ENABLED = "pch_enabled";
+  private static final String OBJECT_CACHE_MAX_SIZE = "object_cache_max_size";
   private static final String ARCHIVE_CONTENTS = "archive_contents";
+  private static final String IN_PROCESS_ARCHIVING_ENABLED = "in_process_archiving_enabled";
   private static final String DEBUG_PATH_SANITIZER_LIMIT = "debug_path_sanitizer_limit";
   private static final String SHOULD_REMAP_HOST_PLATFORM = "should_remap_host_platform";
   private static final String UNIQUE_LIBRARY_NAME_ENABLED = "unique_library_name_enabled";
@@ -489,10 +492,23 @@ public class CxxBuckConfig {
     return delegate.getBooleanValue(cxxSection, PCH_ENABLED, true);
   }
 
+  /**
+   * @return the maximum size of the local cache of objects keyed by their preprocessed source, if
+   *     compilations should use one.
+   */
+  public Optional<Long> getObjectCacheMaxSize() {
+    return delegate.getValue(cxxSection, OBJECT_CACHE_MAX_SIZE).map(SizeUnit::parseBytes);
+  }
+
   public Optional<ArchiveContents> getArchiveContents() {
     return delegate.getEnum(cxxSection, ARCHIVE_CONTENTS, ArchiveContents.class);
   }
 
+  /** @return whether archives should be written by buck rather than by running ar and ranlib. */
+  public boolean getInProcessArchivingEnabled() {
+    return delegate.getBooleanValue(cxxSection, IN_PROCESS_ARCHIVING_ENABLED, false);
+  }
+
   public ImmutableMap<String, Flavor> getDefaultFlavorsForRuleType(RuleType type) {
     return ImmutableMap.copyOf(
         Maps.transformValues(
@@ -101,6 +101,15 @@ interface AbstractCxxPlatform extends FlavorConvertible {
 
   ArchiveContents getArchiveContents();
 
+  /**
+   * @return whether archives should be written in-process, when the archiver's format allows it,
+   *     rather than by running ar and ranlib.
+   */
+  @Value.Default
+  default boolean getInProcessArchivingEnabled() {
+    return false;
+  }
+
   List<String> getArflags();
 
   Optional<ToolProvider> getRanlib();
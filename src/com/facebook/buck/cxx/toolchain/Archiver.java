@@ -17,8 +17,10 @@
 package com.facebook.buck.cxx.toolchain;
 
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.io.file.FileScrubber;
 import com.google.common.collect.ImmutableList;
+import java.util.Optional;
 
 /** Interface for a c/c++ archiver. */
 public interface Archiver extends Tool {
@@ -42,4 +44,10 @@ public interface Archiver extends Tool {
    * @return whether @argfile is required for a long command line
    */
   boolean isArgfileRequired();
+
+  /**
+   * @return the format of the archives this archiver writes, if buck can write them in-process
+   *     instead, with their symbol table and without any scrubbing left to do.
+   */
+  Optional<ArchiveWriter.Format> getInProcessFormat();
 }
@@ -18,9 +18,11 @@ package com.facebook.buck.cxx.toolchain;
 
 import com.facebook.buck.core.toolchain.tool.DelegatingTool;
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
 import com.facebook.buck.io.file.FileScrubber;
 import com.google.common.collect.ImmutableList;
+import java.util.Optional;
 
 /** Archiver implementation for a BSD-based toolchain. */
 public class BsdArchiver extends DelegatingTool implements Archiver {
@@ -59,4 +61,9 @@ public class BsdArchiver extends DelegatingTool implements Archiver {
   public boolean isArgfileRequired() {
     return false;
   }
+
+  @Override
+  public Optional<ArchiveWriter.Format> getInProcessFormat() {
+    return Optional.of(ArchiveWriter.Format.BSD);
+  }
 }
@@ -18,8 +18,10 @@ package com.facebook.buck.cxx.toolchain;
 
 import com.facebook.buck.core.toolchain.tool.DelegatingTool;
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.io.file.FileScrubber;
 import com.google.common.collect.ImmutableList;
+import java.util.Optional;
 
 /**
  * Archiver implementation for the Clang for Windows toolchain.
@@ -66,4 +68,9 @@ public class ClangWindowsArchiver extends DelegatingTool implements Archiver {
   public boolean isArgfileRequired() {
     return true;
   }
+
+  @Override
+  public Optional<ArchiveWriter.Format> getInProcessFormat() {
+    return Optional.empty();
+  }
 }
@@ -18,8 +18,10 @@ package com.facebook.buck.cxx.toolchain;
 
 import com.facebook.buck.core.toolchain.tool.DelegatingTool;
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.io.file.FileScrubber;
 import com.google.common.collect.ImmutableList;
+import java.util.Optional;
 
 /** Archiver implementation for the Windows toolchain. */
 public class WindowsArchiver extends DelegatingTool implements Archiver {
@@ -56,4 +58,9 @@ public class WindowsArchiver extends DelegatingTool implements Archiver {
   public boolean isArgfileRequired() {
     return true;
   }
+
+  @Override
+  public Optional<ArchiveWriter.Format> getInProcessFormat() {
+    return Optional.empty();
+  }
 }
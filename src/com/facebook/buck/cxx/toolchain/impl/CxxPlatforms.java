@@ -182,6 +182,7 @@ public class CxxPlatforms {
         config.getNm().<SymbolNameTool>map(PosixNmSymbolNameTool::new).orElse(nm));
 
     builder.setArchiveContents(config.getArchiveContents().orElse(archiveContents));
+    builder.setInProcessArchivingEnabled(config.getInProcessArchivingEnabled());
 
     builder.setSharedLibraryInterfaceParams(getSharedLibraryInterfaceParams(config, platform));
 
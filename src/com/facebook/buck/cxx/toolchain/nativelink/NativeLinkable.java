@@ -22,6 +22,7 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.rules.args.Arg;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.util.Optional;
@@ -41,6 +42,17 @@ public interface NativeLinkable {
   /** @return All native linkable exported dependencies that might be required by this linkable. */
   Iterable<? extends NativeLinkable> getNativeLinkableExportedDeps(ActionGraphBuilder graphBuilder);
 
+  /**
+   * @return this linkable and everything it transitively depends on, through both its deps and its
+   *     exported deps. Implementations should memoize the set, building it with {@link
+   *     NativeLinkables#composeTransitiveNativeLinkables}, so dependents can nest it in theirs.
+   */
+  default NestedSet<NativeLinkable> getTransitiveNativeLinkables(ActionGraphBuilder graphBuilder) {
+    return NestedSet.<NativeLinkable>builder()
+        .addAll(NativeLinkables.walkTransitiveNativeLinkables(graphBuilder, this))
+        .build();
+  }
+
   /**
    * Return input that *dependents* should put on their link line when linking against this
    * linkable.
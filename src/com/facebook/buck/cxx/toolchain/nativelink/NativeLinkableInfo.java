@@ -23,6 +23,7 @@ import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.util.Memoizer;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -155,6 +156,8 @@ public final class NativeLinkableInfo implements NativeLinkable {
 
   private final Memoizer<ImmutableMap<String, SourcePath>> sharedLibrariesMemoizer =
       new Memoizer<>();
+  private final Memoizer<NestedSet<NativeLinkable>> transitiveNativeLinkablesMemoizer =
+      new Memoizer<>();
 
   public NativeLinkableInfo(
       BuildTarget buildTarget,
@@ -239,6 +242,12 @@ public final class NativeLinkableInfo implements NativeLinkable {
     return exportedDeps;
   }
 
+  @Override
+  public NestedSet<NativeLinkable> getTransitiveNativeLinkables(ActionGraphBuilder graphBuilder) {
+    return transitiveNativeLinkablesMemoizer.get(
+        () -> NativeLinkables.composeTransitiveNativeLinkables(this, graphBuilder));
+  }
+
   @Override
   public NativeLinkableInput getNativeLinkableInput(
       Linker.LinkableDepType type,
@@ -25,6 +25,7 @@ import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.core.util.graph.TopologicalSort;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -207,14 +208,48 @@ public class NativeLinkables {
    */
   public static ImmutableList<? extends NativeLinkable> getTransitiveNativeLinkables(
       ActionGraphBuilder graphBuilder, Iterable<? extends NativeLinkable> roots) {
+    NestedSet.Builder<NativeLinkable> transitive = NestedSet.builder();
+    for (NativeLinkable root : roots) {
+      transitive.addTransitive(root.getTransitiveNativeLinkables(graphBuilder));
+    }
 
+    // Breadth first, like walking the graph from the roots would.
     Map<BuildTarget, NativeLinkable> nativeLinkables = new LinkedHashMap<>();
-    for (NativeLinkable nativeLinkable : roots) {
+    for (NativeLinkable nativeLinkable : transitive.build().toBreadthFirstList()) {
       nativeLinkables.put(nativeLinkable.getBuildTarget(), nativeLinkable);
     }
+    return ImmutableList.copyOf(nativeLinkables.values());
+  }
+
+  /**
+   * Builds the set of {@code nativeLinkable} and of everything it transitively depends on by
+   * nesting the sets of its deps, so that implementations which memoize their set build it in time
+   * proportional to their number of deps.
+   */
+  public static NestedSet<NativeLinkable> composeTransitiveNativeLinkables(
+      NativeLinkable nativeLinkable, ActionGraphBuilder graphBuilder) {
+    NestedSet.Builder<NativeLinkable> builder = NestedSet.builder();
+    builder.add(nativeLinkable);
+    for (NativeLinkable dep :
+        Iterables.concat(
+            nativeLinkable.getNativeLinkableDeps(graphBuilder),
+            nativeLinkable.getNativeLinkableExportedDeps(graphBuilder))) {
+      builder.addTransitive(dep.getTransitiveNativeLinkables(graphBuilder));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Walks the deps of {@code root} without using the sets of its deps, for implementations that do
+   * not memoize theirs.
+   */
+  static ImmutableList<NativeLinkable> walkTransitiveNativeLinkables(
+      ActionGraphBuilder graphBuilder, NativeLinkable root) {
+    Map<BuildTarget, NativeLinkable> nativeLinkables = new LinkedHashMap<>();
+    nativeLinkables.put(root.getBuildTarget(), root);
 
     AbstractBreadthFirstTraversal<BuildTarget> visitor =
-        new AbstractBreadthFirstTraversal<BuildTarget>(nativeLinkables.keySet()) {
+        new AbstractBreadthFirstTraversal<BuildTarget>(root.getBuildTarget()) {
           @Override
           public Iterable<BuildTarget> visit(BuildTarget target) {
             NativeLinkable nativeLinkableGroup =
@@ -23,6 +23,8 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.rules.args.Arg;
+import com.facebook.buck.util.Memoizer;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import java.util.Map;
@@ -36,6 +38,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class PlatformLockedNativeLinkableGroup implements NativeLinkable {
   private final LegacyNativeLinkableGroup underlyingGroup;
   private final CxxPlatform cxxPlatform;
+  private final Memoizer<NestedSet<NativeLinkable>> transitiveNativeLinkables = new Memoizer<>();
 
   /**
    * A simple cache for a group's {@link NativeLinkable} objects so that we don't recreate them a
@@ -90,6 +93,12 @@ public class PlatformLockedNativeLinkableGroup implements NativeLinkable {
         g -> g.getNativeLinkable(cxxPlatform, graphBuilder));
   }
 
+  @Override
+  public NestedSet<NativeLinkable> getTransitiveNativeLinkables(ActionGraphBuilder graphBuilder) {
+    return transitiveNativeLinkables.get(
+        () -> NativeLinkables.composeTransitiveNativeLinkables(this, graphBuilder));
+  }
+
   @Override
   public NativeLinkableInput getNativeLinkableInput(
       Linker.LinkableDepType type,
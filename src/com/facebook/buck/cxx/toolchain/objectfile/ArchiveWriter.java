@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes "ar" archives, including their symbol table, without running ar or ranlib.
+ *
+ * <p>Entry headers are written the way {@link ObjectFileScrubbers#createDateUidGidScrubber} leaves
+ * them, so the output is deterministic and needs no scrubbing.
+ */
+public class ArchiveWriter {
+
+  /** The variants of the "ar" format that can be written. */
+  public enum Format {
+    /** The System V variant written by GNU ar, with "/" and "//" tables. */
+    GNU(ObjectFileScrubbers.PaddingStyle.LEFT),
+    /** The 4.4BSD variant written by Apple's ar, with a "__.SYMDEF" table. */
+    BSD(ObjectFileScrubbers.PaddingStyle.RIGHT),
+    ;
+
+    private final ObjectFileScrubbers.PaddingStyle paddingStyle;
+
+    Format(ObjectFileScrubbers.PaddingStyle paddingStyle) {
+      this.paddingStyle = paddingStyle;
+    }
+  }
+
+  /** A file to add to an archive, along with the symbols it defines. */
+  public static class Member {
+    private final String name;
+    private final Path path;
+    private final long size;
+    private final ImmutableList<String> symbols;
+
+    /**
+     * @param name the name to store the file under, which for thin archives is its path relative
+     *     to the archive's directory.
+     * @param path the absolute path of the file.
+     */
+    public Member(String name, Path path, long size, ImmutableList<String> symbols) {
+      this.name = name;
+      this.path = path;
+      this.size = size;
+      this.symbols = symbols;
+    }
+  }
+
+  private static final int HEADER_SIZE = 60;
+  private static final byte[] END_OF_HEADER = {'`', '\n'};
+
+  private final Format format;
+  private final boolean thin;
+  private final byte[] scrubbedFields;
+
+  public ArchiveWriter(Format format, boolean thin) {
+    Preconditions.checkArgument(
+        !thin || format == Format.GNU, "thin archives can only be written in the GNU format");
+    this.format = format;
+    this.thin = thin;
+    this.scrubbedFields = ObjectFileScrubbers.getScrubbedFields(format.paddingStyle);
+  }
+
+  /** Writes an archive holding {@code members}, in order, to {@code output}. */
+  public void write(Path output, List<Member> members) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(
+          ByteBuffer.wrap(
+              thin ? ObjectFileScrubbers.GLOBAL_THIN_HEADER : ObjectFileScrubbers.GLOBAL_HEADER));
+      if (members.isEmpty()) {
+        return;
+      }
+      if (format == Format.GNU) {
+        writeGnuMembers(channel, members);
+      } else {
+        writeBsdMembers(channel, members);
+      }
+    }
+  }
+
+  private void writeGnuMembers(FileChannel channel, List<Member> members) throws IOException {
+    // Thin archives keep every name in the name table, others just the names that don't fit in
+    // a header.
+    ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+    List<String> headerNames = new ArrayList<>(members.size());
+    for (Member member : members) {
+      if (!thin && member.name.length() < 16) {
+        headerNames.add(member.name + "/");
+      } else {
+        headerNames.add("/" + nameTable.size());
+        nameTable.write((member.name + "/\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    if (nameTable.size() % 2 != 0) {
+      nameTable.write('\n');
+    }
+
+    // Members follow the symbol table and the name table, whose sizes only depend on the width of
+    // the offsets in the symbol table. Use 64-bit offsets only if the archive needs them.
+    int symbolCount = 0;
+    ByteArrayOutputStream symbolNames = new ByteArrayOutputStream();
+    for (Member member : members) {
+      symbolCount += member.symbols.size();
+      for (String symbol : member.symbols) {
+        symbolNames.write(symbol.getBytes(StandardCharsets.ISO_8859_1));
+        symbolNames.write(0);
+      }
+    }
+    long[] offsets = new long[members.size()];
+    int wordSize = 4;
+    while (true) {
+      long symbolTableSize = wordSize * (1L + symbolCount) + symbolNames.size();
+      long offset =
+          ObjectFileScrubbers.GLOBAL_HEADER.length
+              + HEADER_SIZE
+              + symbolTableSize
+              + symbolTableSize % 2
+              + (nameTable.size() > 0 ? HEADER_SIZE + nameTable.size() : 0);
+      for (int i = 0; i < members.size(); i++) {
+        offsets[i] = offset;
+        offset += HEADER_SIZE + (thin ? 0 : members.get(i).size + members.get(i).size % 2);
+      }
+      if (wordSize == 8 || offsets[offsets.length - 1] <= 0xffffffffL) {
+        break;
+      }
+      wordSize = 8;
+    }
+
+    // The symbol table holds big-endian offsets to the headers of the members defining each
+    // symbol, followed by the symbols' names.
+    ByteBuffer symbolTable =
+        ByteBuffer.allocate(wordSize * (1 + symbolCount) + symbolNames.size() + 1);
+    putWord(symbolTable, wordSize, symbolCount);
+    for (int i = 0; i < members.size(); i++) {
+      for (int j = 0; j < members.get(i).symbols.size(); j++) {
+        putWord(symbolTable, wordSize, offsets[i]);
+      }
+    }
+    symbolTable.put(symbolNames.toByteArray());
+    if (symbolTable.position() % 2 != 0) {
+      symbolTable.put((byte) 0);
+    }
+    symbolTable.flip();
+    writeHeader(channel, wordSize == 4 ? "/" : "/SYM64/", symbolTable.remaining());
+    channel.write(symbolTable);
+
+    if (nameTable.size() > 0) {
+      writeHeader(channel, "//", nameTable.size());
+      channel.write(ByteBuffer.wrap(nameTable.toByteArray()));
+    }
+
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get(i);
+      writeHeader(channel, headerNames.get(i), member.size);
+      if (!thin) {
+        writeContents(channel, member);
+      }
+    }
+  }
+
+  private void writeBsdMembers(FileChannel channel, List<Member> members) throws IOException {
+    // The symbol table comes first, so lay it out before the members. Ranlib entries are sorted
+    // by name for faster lookups, unless names are ambiguous.
+    int symbolCount = members.stream().mapToInt(member -> member.symbols.size()).sum();
+    List<String> symbols = new ArrayList<>(symbolCount);
+    List<Integer> symbolMembers = new ArrayList<>(symbolCount);
+    for (int i = 0; i < members.size(); i++) {
+      for (String symbol : members.get(i).symbols) {
+        symbols.add(symbol);
+        symbolMembers.add(i);
+      }
+    }
+    List<Integer> order = new ArrayList<>(symbolCount);
+    for (int i = 0; i < symbolCount; i++) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparing(symbols::get));
+    boolean sorted = true;
+    for (int i = 1; i < symbolCount; i++) {
+      if (symbols.get(order.get(i)).equals(symbols.get(order.get(i - 1)))) {
+        sorted = false;
+        break;
+      }
+    }
+    if (!sorted) {
+      order.sort(Comparator.naturalOrder());
+    }
+
+    ByteArrayOutputStream symbolNames = new ByteArrayOutputStream();
+    int[] symbolNameOffsets = new int[symbolCount];
+    for (int index : order) {
+      symbolNameOffsets[index] = symbolNames.size();
+      symbolNames.write(symbols.get(index).getBytes(StandardCharsets.ISO_8859_1));
+      symbolNames.write(0);
+    }
+    while (symbolNames.size() % 8 != 0) {
+      symbolNames.write(0);
+    }
+    long offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    byte[] symbolTableName = getPaddedBsdName(sorted ? "__.SYMDEF SORTED" : "__.SYMDEF", offset);
+    int symbolTableSize = symbolTableName.length + 4 + 8 * symbolCount + 4 + symbolNames.size();
+
+    // Names are stored in front of the data, padded so that the data is 8-byte aligned for the
+    // linker to map.
+    offset += HEADER_SIZE + symbolTableSize + symbolTableSize % 2;
+    long[] offsets = new long[members.size()];
+    List<byte[]> names = new ArrayList<>(members.size());
+    for (int i = 0; i < members.size(); i++) {
+      offsets[i] = offset;
+      names.add(getPaddedBsdName(members.get(i).name, offset));
+      long size = names.get(i).length + members.get(i).size;
+      offset += HEADER_SIZE + size + size % 2;
+    }
+    Preconditions.checkState(
+        offsets[offsets.length - 1] <= 0xffffffffL, "archive is too large for a symbol table");
+
+    // Ranlib structs hold the offsets of symbol names and of the headers of their members in the
+    // byte order of the objects, which is little-endian for all of Apple's current targets.
+    ByteBuffer symbolTable = ByteBuffer.allocate(symbolTableSize).order(ByteOrder.LITTLE_ENDIAN);
+    symbolTable.put(symbolTableName);
+    symbolTable.putInt(8 * symbolCount);
+    for (int index : order) {
+      symbolTable.putInt(symbolNameOffsets[index]);
+      symbolTable.putInt((int) offsets[symbolMembers.get(index)]);
+    }
+    symbolTable.putInt(symbolNames.size());
+    symbolTable.put(symbolNames.toByteArray());
+    symbolTable.flip();
+    writeHeader(channel, "#1/" + symbolTableName.length, symbolTableSize);
+    channel.write(symbolTable);
+    writePadding(channel, symbolTableSize);
+
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get(i);
+      byte[] name = names.get(i);
+      writeHeader(channel, "#1/" + name.length, name.length + member.size);
+      channel.write(ByteBuffer.wrap(name));
+      writeContents(channel, member);
+    }
+  }
+
+  /**
+   * @return the name of a BSD member whose header starts at {@code offset}, padded with NULs so
+   *     that its data starts at a multiple of 8.
+   */
+  private static byte[] getPaddedBsdName(String name, long offset) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    long dataStart = offset + HEADER_SIZE + bytes.length;
+    byte[] padded = new byte[bytes.length + (int) ((8 - dataStart % 8) % 8)];
+    System.arraycopy(bytes, 0, padded, 0, bytes.length);
+    return padded;
+  }
+
+  private static void putWord(ByteBuffer buffer, int wordSize, long value) {
+    if (wordSize == 4) {
+      buffer.putInt((int) value);
+    } else {
+      buffer.putLong(value);
+    }
+  }
+
+  private void writeHeader(FileChannel channel, String name, long size) throws IOException {
+    String sizeField = Long.toString(size);
+    Preconditions.checkState(name.length() <= 16 && sizeField.length() <= 10);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.put(Strings.padEnd(name, 16, ' ').getBytes(StandardCharsets.US_ASCII));
+    header.put(scrubbedFields);
+    header.put(Strings.padEnd(sizeField, 10, ' ').getBytes(StandardCharsets.US_ASCII));
+    header.put(END_OF_HEADER);
+    header.flip();
+    channel.write(header);
+  }
+
+  private static void writeContents(FileChannel channel, Member member) throws IOException {
+    try (FileChannel input = FileChannel.open(member.path, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < member.size) {
+        long transferred = input.transferTo(position, member.size - position, channel);
+        if (transferred <= 0) {
+          throw new IOException(
+              String.format("%s changed while being archived", member.path));
+        }
+        position += transferred;
+      }
+    }
+    writePadding(channel, member.size);
+  }
+
+  private static void writePadding(FileChannel channel, long size) throws IOException {
+    if (size % 2 != 0) {
+      channel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+    }
+  }
+}
@@ -28,6 +28,7 @@ import com.google.common.primitives.Shorts;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ReadOnlyBufferException;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
@@ -35,6 +36,17 @@ import java.util.Arrays;
 public class ObjectFileScrubbers {
 
   private static final int GLOBAL_HEADER_SIZE = 8;
+  private static final int ENTRY_SIZE =
+      16 /* fileName */
+          + 12 /* file modification time */
+          + 6 /* owner ID */
+          + 6 /* group ID */
+          + 8 /* file mode */
+          + 10 /* file size */
+          + 2 /* file magic */;
+  private static final int ENTRY_SCRUBBED_FIELDS_OFFSET = 16;
+  private static final int ENTRY_SCRUBBED_FIELDS_SIZE = 12 + 6 + 6 + 8;
+  private static final long MAX_WINDOW_SIZE = 1L << 30;
   private static final ImmutableSet<String> SPECIAL_ENTRIES = ImmutableSet.of("/", "//");
   public static final byte[] GLOBAL_HEADER = "!<arch>\n".getBytes(Charsets.US_ASCII);
   public static final byte[] GLOBAL_THIN_HEADER = "!<thin>\n".getBytes(Charsets.US_ASCII);
@@ -54,73 +66,74 @@ public class ObjectFileScrubbers {
     return Arrays.equals(GLOBAL_THIN_HEADER, header);
   }
 
+  /**
+   * @return the timestamp, owner, group and mode fields of a scrubbed entry header, which are the
+   *     same for every entry.
+   */
+  @SuppressWarnings("PMD.AvoidUsingOctalValues")
+  static byte[] getScrubbedFields(PaddingStyle paddingStyle) {
+    ByteBuffer scrubbedFields = ByteBuffer.allocate(ENTRY_SCRUBBED_FIELDS_SIZE);
+    /* File modification timestamp */ putIntAsDecimalString(
+        scrubbedFields,
+        12,
+        ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP,
+        paddingStyle);
+    /* Owner ID */ putIntAsDecimalString(scrubbedFields, 6, 0, paddingStyle);
+    /* Group ID */ putIntAsDecimalString(scrubbedFields, 6, 0, paddingStyle);
+    /* File mode */ putIntAsOctalString(scrubbedFields, 8, 0100644, paddingStyle);
+    return scrubbedFields.array();
+  }
+
   public static FileContentsScrubber createDateUidGidScrubber(PaddingStyle paddingStyle) {
+    byte[] scrubbedFieldsBytes = getScrubbedFields(paddingStyle);
+
     return new FileContentsScrubber() {
 
       /**
-       * Efficiently modifies the archive backed by the given buffer to remove any non-deterministic
+       * Efficiently modifies the archive backed by the given file to remove any non-deterministic
        * meta-data such as timestamps, UIDs, and GIDs.
+       *
+       * <p>The archive is mapped rather than read, so an archive with thousands of entries is
+       * patched in place without a read and a write call for every entry header.
        */
-      @SuppressWarnings("PMD.AvoidUsingOctalValues")
       @Override
       public void scrubFile(FileChannel file) throws IOException, ScrubException {
         try {
-          ByteBuffer header = ByteBuffer.allocate(GLOBAL_HEADER_SIZE);
-          file.read(header);
+          long size = file.size();
+          checkArchive(size >= GLOBAL_HEADER_SIZE, "invalid global header");
+          ArchiveWindow window = new ArchiveWindow(file, size);
+
           // Grab the global header chunk and verify it's accurate.
-          header.position(0);
-          byte[] globalHeader = getBytes(header, GLOBAL_HEADER_SIZE);
-          boolean thin = checkHeader(globalHeader);
+          ByteBuffer header = window.at(0, GLOBAL_HEADER_SIZE);
+          boolean thin = checkHeader(getBytes(header, GLOBAL_HEADER_SIZE));
 
           // Iterate over all the file meta-data entries, injecting zero's for timestamp,
           // UID, and GID.
-          int entrySize =
-              16 /* fileName */
-                  + 12 /* file modification time */
-                  + 6 /* owner ID */
-                  + 6 /* group ID */
-                  + 8 /* file mode */
-                  + 10 /* file size */
-                  + 2 /* file magic */;
-
           long start = GLOBAL_HEADER_SIZE;
-          ByteBuffer buffer = ByteBuffer.allocate(entrySize);
-          while (start < file.size()) {
-            checkArchive(file.size() - start >= entrySize, "Invalid entry metadata format");
-
-            buffer.clear();
-            file.position(start);
-            int read = file.read(buffer);
-            checkArchive(read == entrySize, "Not all bytes have been read");
-
-            buffer.position(0); // position points just past the last byte read, so need to reset
-            String fileName = new String(getBytes(buffer, 16), Charsets.US_ASCII).trim();
+          while (start < size) {
+            checkArchive(size - start >= ENTRY_SIZE, "Invalid entry metadata format");
+            ByteBuffer entry = window.at(start, ENTRY_SIZE);
+            int entryStart = entry.position();
+
+            // Only thin archives need the name, to tell the entries stored in them apart.
+            boolean special = thin && isSpecialEntry(entry, entryStart);
+
+            // Grab the file size and the file magic entry, and verify the magic is accurate before
+            // writing anything to the entry.
+            entry.position(entryStart + ENTRY_SCRUBBED_FIELDS_OFFSET + ENTRY_SCRUBBED_FIELDS_SIZE);
+            long fileSize = getDecimalStringAsLong(entry, 10);
+            checkArchive(
+                entry.get() == END_OF_FILE_HEADER_MARKER[0]
+                    && entry.get() == END_OF_FILE_HEADER_MARKER[1],
+                "invalid file magic");
 
             // Inject 0's for the non-deterministic meta-data entries.
-            /* File modification timestamp */ putIntAsDecimalString(
-                buffer,
-                12,
-                ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP,
-                paddingStyle);
-            /* Owner ID */ putIntAsDecimalString(buffer, 6, 0, paddingStyle);
-            /* Group ID */ putIntAsDecimalString(buffer, 6, 0, paddingStyle);
-
-            /* File mode */ putIntAsOctalString(buffer, 8, 0100644, paddingStyle);
-            long fileSize = getDecimalStringAsLong(buffer, 10);
-
-            // Lastly, grab the file magic entry and verify it's accurate.
-            byte[] fileMagic = getBytes(buffer, 2);
-            checkArchive(Arrays.equals(END_OF_FILE_HEADER_MARKER, fileMagic), "invalid file magic");
-
-            // write the changes
-            buffer.position(0); // position points just past the last byte accessed, need to reset
-            file.position(start);
-            int written = file.write(buffer);
-            checkArchive(written == entrySize, "Not all bytes have been written");
+            entry.position(entryStart + ENTRY_SCRUBBED_FIELDS_OFFSET);
+            entry.put(scrubbedFieldsBytes);
 
             // Skip the file data.
-            start += entrySize;
-            if (!thin || SPECIAL_ENTRIES.contains(fileName)) {
+            start += ENTRY_SIZE;
+            if (!thin || special) {
               start += fileSize + fileSize % 2;
             }
           }
@@ -133,6 +146,42 @@ public class ObjectFileScrubbers {
     };
   }
 
+  private static boolean isSpecialEntry(ByteBuffer entry, int entryStart) {
+    entry.position(entryStart);
+    String fileName = new String(getBytes(entry, 16), Charsets.US_ASCII).trim();
+    return SPECIAL_ENTRIES.contains(fileName);
+  }
+
+  /**
+   * Maps an archive a window at a time. Windows are far larger than entry headers, so most of an
+   * archive's headers are patched through the same mapping, while archives over 2GB, which can't
+   * be mapped in one go, still work.
+   */
+  private static class ArchiveWindow {
+    private final FileChannel file;
+    private final long size;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    ArchiveWindow(FileChannel file, long size) {
+      this.file = file;
+      this.size = size;
+    }
+
+    /** @return the mapped window, positioned at {@code start} and holding {@code length} bytes. */
+    ByteBuffer at(long start, int length) throws IOException {
+      if (window == null
+          || start < windowStart
+          || start + length > windowStart + window.capacity()) {
+        windowStart = start;
+        long windowSize = Math.min(size - start, MAX_WINDOW_SIZE);
+        window = file.map(FileChannel.MapMode.READ_WRITE, start, windowSize);
+      }
+      window.position((int) (start - windowStart));
+      return window;
+    }
+  }
+
   public static byte[] getBytes(ByteBuffer buffer, int len) {
     byte[] bytes = new byte[len];
     buffer.get(bytes);
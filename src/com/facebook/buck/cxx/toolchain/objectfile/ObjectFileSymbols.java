@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.elf.ElfHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSection;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionHeader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+/** Reads the symbols an object file contributes to the symbol table of an archive. */
+public class ObjectFileSymbols {
+
+  // ELF symbol bindings and section indices which make a symbol visible to archive lookups.
+  private static final int STB_GLOBAL = 1;
+  private static final int STB_WEAK = 2;
+  private static final int STB_GNU_UNIQUE = 10;
+  private static final int SHN_UNDEF = 0;
+
+  // GCC LTO objects keep their real symbols in IR sections, which only ar's LTO plugin can read.
+  private static final String GNU_LTO_SECTION_PREFIX = ".gnu.lto_";
+  private static final ImmutableSet<String> GNU_LTO_SYMBOLS =
+      ImmutableSet.of("__gnu_lto_slim", "__gnu_lto_v1");
+
+  // http://www.opensource.apple.com/source/xnu/xnu-1699.32.7/EXTERNAL_HEADERS/mach-o/nlist.h
+  private static final int N_STAB = 0xe0;
+  private static final int N_TYPE = 0x0e;
+  private static final int N_EXT = 0x01;
+  private static final int N_UNDF = 0x0;
+
+  private ObjectFileSymbols() {}
+
+  /**
+   * @return the names of the global symbols defined by the ELF or Mach-O object in {@code buffer},
+   *     in symbol table order, or empty if it's in a format whose symbols can't be read here (e.g.
+   *     LLVM bitcode or GCC LTO objects), in which case only the archiver knows which symbols to
+   *     index.
+   */
+  public static Optional<ImmutableList<String>> read(ByteBuffer buffer) {
+    try {
+      if (Elf.isElf(buffer)) {
+        return readElf(buffer);
+      }
+      if (isMacho(buffer)) {
+        return readMacho(buffer);
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      // Let the archiver make sense of anything that looks malformed to us.
+    }
+    return Optional.empty();
+  }
+
+  private static Optional<ImmutableList<String>> readElf(ByteBuffer buffer) {
+    Elf elf = new Elf(buffer);
+    // Objects with too many sections to count in the header aren't supported by the parser.
+    if (elf.header.e_shnum == 0 && elf.header.e_shoff != 0) {
+      return Optional.empty();
+    }
+
+    ImmutableList.Builder<String> symbols = ImmutableList.builder();
+    for (int index = 0; index < elf.getNumberOfSections(); index++) {
+      ElfSection symtab = elf.getSectionByIndex(index);
+      if (elf.getSectionName(symtab.header).startsWith(GNU_LTO_SECTION_PREFIX)) {
+        return Optional.empty();
+      }
+      if (symtab.header.sh_type != ElfSectionHeader.SHType.SHT_SYMTAB) {
+        continue;
+      }
+      ByteBuffer strtab = elf.getSectionByIndex((int) symtab.header.sh_link).body;
+      boolean is32 = elf.header.ei_class == ElfHeader.EIClass.ELFCLASS32;
+      int entrySize = is32 ? 16 : 24;
+      int infoOffset = is32 ? 12 : 4;
+      int shndxOffset = is32 ? 14 : 6;
+      ByteBuffer body = symtab.body;
+      // The first symbol is the reserved undefined symbol.
+      for (int entry = entrySize; entry + entrySize <= body.limit(); entry += entrySize) {
+        int bind = (body.get(entry + infoOffset) & 0xff) >>> 4;
+        int shndx = body.getShort(entry + shndxOffset) & 0xffff;
+        if ((bind == STB_GLOBAL || bind == STB_WEAK || bind == STB_GNU_UNIQUE)
+            && shndx != SHN_UNDEF) {
+          String name = getString(strtab, Integer.toUnsignedLong(body.getInt(entry)));
+          if (GNU_LTO_SYMBOLS.contains(name)) {
+            return Optional.empty();
+          }
+          symbols.add(name);
+        }
+      }
+    }
+    return Optional.of(symbols.build());
+  }
+
+  private static boolean isMacho(ByteBuffer buffer) {
+    if (buffer.remaining() < Machos.MH_MAGIC.length) {
+      return false;
+    }
+    byte[] magic = new byte[Machos.MH_MAGIC.length];
+    buffer.slice().get(magic);
+    return Arrays.equals(Machos.MH_MAGIC, magic)
+        || Arrays.equals(Machos.MH_CIGAM, magic)
+        || Arrays.equals(Machos.MH_MAGIC_64, magic)
+        || Arrays.equals(Machos.MH_CIGAM_64, magic);
+  }
+
+  private static Optional<ImmutableList<String>> readMacho(ByteBuffer buffer) {
+    ByteBuffer macho = buffer.slice();
+    byte[] magic = new byte[Machos.MH_MAGIC.length];
+    macho.get(magic);
+    boolean is64 =
+        Arrays.equals(Machos.MH_MAGIC_64, magic) || Arrays.equals(Machos.MH_CIGAM_64, magic);
+    macho.order(
+        Arrays.equals(Machos.MH_MAGIC, magic) || Arrays.equals(Machos.MH_MAGIC_64, magic)
+            ? ByteOrder.BIG_ENDIAN
+            : ByteOrder.LITTLE_ENDIAN);
+
+    // Find the symbol table among the load commands, which follow the header.
+    int commandsCount = macho.getInt(16);
+    int command = is64 ? 32 : 28;
+    for (int i = 0; i < commandsCount; i++) {
+      if (macho.getInt(command) == Machos.LC_SYMTAB) {
+        int symbolTableOffset = macho.getInt(command + 8);
+        int symbolCount = macho.getInt(command + 12);
+        ByteBuffer strtab = macho.duplicate();
+        strtab.position(macho.getInt(command + 16));
+        strtab = strtab.slice();
+        strtab.limit(macho.getInt(command + 20));
+
+        ImmutableList.Builder<String> symbols = ImmutableList.builder();
+        int entrySize = is64 ? 16 : 12;
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+          int entry = symbolTableOffset + symbol * entrySize;
+          int type = macho.get(entry + 4) & 0xff;
+          // Common symbols, which are undefined symbols with a size, are left out like Apple's
+          // ranlib does unless it's passed -c.
+          if ((type & N_STAB) == 0 && (type & N_EXT) != 0 && (type & N_TYPE) != N_UNDF) {
+            symbols.add(getString(strtab, Integer.toUnsignedLong(macho.getInt(entry))));
+          }
+        }
+        return Optional.of(symbols.build());
+      }
+      command += macho.getInt(command + 4);
+    }
+    return Optional.of(ImmutableList.of());
+  }
+
+  private static String getString(ByteBuffer table, long offset) {
+    int start = Math.toIntExact(offset);
+    int end = start;
+    while (table.get(end) != 0) {
+      end++;
+    }
+    byte[] bytes = new byte[end - start];
+    ByteBuffer slice = table.duplicate();
+    slice.position(start);
+    slice.get(bytes);
+    // Symbol names are arbitrary bytes, which Latin-1 maps to chars and back one to one.
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
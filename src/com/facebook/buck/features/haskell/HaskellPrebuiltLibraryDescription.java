@@ -44,11 +44,13 @@ import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.collect.NestedSet;
 import com.facebook.buck.versions.VersionPropagator;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import java.util.Map;
 import java.util.Optional;
 import org.immutables.value.Value;
 
@@ -218,6 +220,13 @@ public class HaskellPrebuiltLibraryDescription
           CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
         return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
       }
+
+      @Override
+      public NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+          getTransitiveCxxPreprocessorInputSet(
+              CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+        return transitiveCxxPreprocessorInputCache.getNestedSetUnchecked(cxxPlatform, graphBuilder);
+      }
     };
   }
 
@@ -28,6 +28,7 @@ import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -131,6 +132,89 @@ abstract class AbstractJUnitJvmArgs {
   /** @return Test selectors with which to filter the tests to run. */
   abstract Optional<TestSelectorList> getTestSelectorList();
 
+  /**
+   * @return If positive, the tests may run in a pooled, already warm test runner JVM that is
+   *     replaced after running this many test targets. Defaults to 0, which always forks a new JVM.
+   */
+  @Value.Default
+  int getJvmPoolMaxUses() {
+    return 0;
+  }
+
+  /**
+   * Whether the tests can run in a pooled JVM. Agents and debuggers have to be attached when the
+   * JVM starts, so they always get a JVM of their own.
+   */
+  public boolean canRunInJvmPool() {
+    return getJvmPoolMaxUses() > 0
+        && getTestType() == TestType.JUNIT
+        && !isDebugEnabled()
+        && !isCodeCoverageEnabled()
+        && !getPathToJavaAgent().isPresent();
+  }
+
+  /**
+   * @return The arguments a pooled JVM has to be started with, i.e. all the JVM arguments that are
+   *     not system properties. JVMs are only shared by tests that need the same arguments.
+   */
+  public ImmutableList<String> getJvmPoolJvmArgs(Verbosity verbosity) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    for (String arg : getExtraJvmArgs().orElse(ImmutableList.of())) {
+      if (!arg.startsWith("-D")) {
+        args.add(arg);
+      }
+    }
+    if (verbosity.shouldUseVerbosityFlagIfAvailable()) {
+      args.add("-verbose");
+    }
+    if (getTargetJavaVersion() >= 9) {
+      // Lets the pooled JVM set the environment variables of each test.
+      args.add("--add-opens=java.base/java.util=ALL-UNNAMED");
+      args.add("--add-opens=java.base/java.lang=ALL-UNNAMED");
+    }
+    return args.build();
+  }
+
+  /**
+   * @return The system properties {@link #formatCommandLineArgsToList} would have passed on the
+   *     command line, for a pooled JVM to set while it runs these tests.
+   */
+  public ImmutableMap<String, String> getJvmPoolSystemProperties(ProjectFilesystem filesystem) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put(
+        FileClassPathRunner.TESTRUNNER_CLASSES_PROPERTY, getTestRunnerClasspath().toString());
+    properties.put(
+        FileClassPathRunner.CLASSPATH_FILE_PROPERTY,
+        filesystem.resolve(getClasspathFile()).toString());
+    properties.put(BUILD_ID_PROPERTY, getBuildId().toString());
+    properties.put(MODULE_BASE_PATH_PROPERTY, getBuckModuleBaseSourceCodePath().toString());
+    properties.put("apple.awt.UIElement", "true");
+    getStdOutLogLevel()
+        .ifPresent(level -> properties.put(STD_OUT_LOG_LEVEL_PROPERTY, level.toString()));
+    getStdErrLogLevel()
+        .ifPresent(level -> properties.put(STD_ERR_LOG_LEVEL_PROPERTY, level.toString()));
+    getRobolectricLogPath()
+        .ifPresent(path -> properties.put("robolectric.logging", path.toString()));
+    for (String arg : getExtraJvmArgs().orElse(ImmutableList.of())) {
+      if (arg.startsWith("-D")) {
+        int separator = arg.indexOf('=');
+        if (separator == -1) {
+          properties.put(arg.substring(2), "");
+        } else {
+          properties.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+      }
+    }
+    return ImmutableMap.copyOf(properties);
+  }
+
+  /** @return The test runner main class followed by its arguments. */
+  public ImmutableList<String> getTestRunnerArgs(long defaultTestTimeoutMillis) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    addTestRunnerArgs(args, defaultTestTimeoutMillis);
+    return args.build();
+  }
+
   /** Formats the JVM arguments in this object suitable to pass on the command line. */
   public void formatCommandLineArgsToList(
       ImmutableList.Builder<String> args,
@@ -213,6 +297,11 @@ abstract class AbstractJUnitJvmArgs {
 
     args.add(FileClassPathRunner.class.getName());
 
+    addTestRunnerArgs(args, defaultTestTimeoutMillis);
+  }
+
+  private void addTestRunnerArgs(
+      ImmutableList.Builder<String> args, long defaultTestTimeoutMillis) {
     // Specify the Java class whose main() method should be run. This is the class that is
     // responsible for running the tests.
     args.add(getTestType().getDefaultTestRunner());
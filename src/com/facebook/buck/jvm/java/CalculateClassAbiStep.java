@@ -23,6 +23,7 @@ import com.facebook.buck.jvm.java.abi.StubJar;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.concurrent.ExecutorPool;
 import java.io.IOException;
 import java.nio.file.Path;
 
@@ -48,7 +49,11 @@ public class CalculateClassAbiStep implements Step {
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
     try {
       Path binJar = filesystem.resolve(binaryJar);
-      new StubJar(binJar).setCompatibilityMode(compatibilityMode).writeTo(filesystem, abiJar);
+      StubJar stubJar = new StubJar(binJar).setCompatibilityMode(compatibilityMode);
+      stubJar.setParallelism(
+          context.getExecutors().get(ExecutorPool.CPU),
+          context.getConcurrencyLimit().threadLimit);
+      stubJar.writeTo(filesystem, abiJar);
     } catch (IllegalArgumentException e) {
       context.logError(e, "Failed to calculate ABI for %s.", binaryJar);
       return StepExecutionResults.ERROR;
@@ -18,13 +18,16 @@ package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
+import com.facebook.buck.step.ImmutableStepExecutionResult;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -33,6 +36,7 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -122,10 +126,103 @@ public class JUnitStep extends ShellStep {
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws InterruptedException, IOException {
+    if (canRunInJvmPool()) {
+      return executeInJvmPool(context);
+    }
     ensureClasspathArgfile();
     return super.execute(context);
   }
 
+  /**
+   * Native libraries are looked up in paths the JVM reads once at startup, so tests that depend on
+   * them always get a JVM of their own.
+   */
+  private boolean canRunInJvmPool() {
+    return junitJvmArgs.canRunInJvmPool() && nativeLibsEnvironment.isEmpty();
+  }
+
+  /** @return the environment shared by all tests running in the same pooled JVM. */
+  private ImmutableMap<String, String> getJvmPoolEnvironment(ExecutionContext context) {
+    Map<String, String> environment = new HashMap<>(context.getEnvironment());
+    environment.put("PWD", context.getBuildCellRootPath().resolve(workingDirectory).toString());
+    return ImmutableMap.copyOf(environment);
+  }
+
+  /** @return the variables that a pooled JVM sets on top of its own environment for this test. */
+  private ImmutableMap<String, String> getJvmPoolTestEnvironment() {
+    ImmutableMap.Builder<String, String> environment = ImmutableMap.builder();
+    environment.putAll(env);
+    environment.putAll(junitJvmArgs.getEnvironment());
+    return environment.build();
+  }
+
+  private StepExecutionResult executeInJvmPool(ExecutionContext context)
+      throws InterruptedException, IOException {
+    Path logDir = filesystem.getBuckPaths().getLogDir();
+    filesystem.mkdirs(logDir);
+    TestJvmPool pool =
+        TestJvmPool.get(
+            javaRuntimeLauncher,
+            junitJvmArgs.getJvmPoolJvmArgs(context.getVerbosity()),
+            junitJvmArgs.getTestRunnerClasspath(),
+            junitJvmArgs.getJvmPoolMaxUses(),
+            context.getBuildCellRootPath().resolve(workingDirectory),
+            getJvmPoolEnvironment(context),
+            filesystem.resolve(logDir.resolve("test-jvm-pool.log")));
+
+    Path stdOutFile = filesystem.createTempFile("junit-stdout", "");
+    Path stdErrFile = filesystem.createTempFile("junit-stderr", "");
+    Optional<TestJvmPool.Result> pooledResult;
+    String stdOut;
+    String stdErr;
+    try {
+      pooledResult =
+          pool.run(
+              context.getProcessExecutor(),
+              junitJvmArgs.getJvmPoolSystemProperties(filesystem),
+              getJvmPoolTestEnvironment(),
+              filesystem.resolve(stdOutFile),
+              filesystem.resolve(stdErrFile),
+              junitJvmArgs.getTestRunnerArgs(
+                  testCaseTimeoutMs.orElse(context.getDefaultTestTimeoutMillis())),
+              testRuleTimeoutMs);
+      stdOut = filesystem.readFileIfItExists(stdOutFile).orElse("");
+      stdErr = filesystem.readFileIfItExists(stdErrFile).orElse("");
+    } finally {
+      filesystem.deleteFileAtPathIfExists(stdOutFile);
+      filesystem.deleteFileAtPathIfExists(stdErrFile);
+    }
+    if (!pooledResult.isPresent()) {
+      LOG.debug("Pooled JVM can't set the test's environment, forking instead.");
+      ensureClasspathArgfile();
+      return super.execute(context);
+    }
+    TestJvmPool.Result result = pooledResult.get();
+
+    // As when forking, a timeout must not fail the step so that the results of the tests that did
+    // finish can still be interpreted.
+    int exitCode = result.getExitCode();
+    if (result.isTimedOut()) {
+      context.getStdErr().println("Test has timed out!");
+      exitCode = 0;
+      hasTimedOut = true;
+    }
+
+    Verbosity verbosity = context.getVerbosity();
+    if (!stdOut.isEmpty() && (exitCode != 0 || shouldPrintStdout(verbosity))) {
+      context.postEvent(ConsoleEvent.info("%s", stdOut));
+    }
+    if (!stdErr.isEmpty() && (exitCode != 0 || shouldPrintStderr(verbosity))) {
+      context.postEvent(ConsoleEvent.warning("%s", stdErr));
+    }
+
+    return ImmutableStepExecutionResult.builder()
+        .setExitCode(exitCode)
+        .setExecutedCommand(pool.getCommand())
+        .setStderr(stdErr)
+        .build();
+  }
+
   @Override
   public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
     ImmutableMap.Builder<String, String> env = ImmutableMap.builder();
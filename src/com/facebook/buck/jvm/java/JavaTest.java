@@ -20,6 +20,7 @@ import com.facebook.buck.android.device.TargetDevice;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.Flavor;
@@ -38,6 +39,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerRule;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerTestSpec;
 import com.facebook.buck.core.test.rule.ExternalTestSpec;
+import com.facebook.buck.core.test.rule.ShardedTestRule;
 import com.facebook.buck.core.test.rule.TestRule;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.util.log.Logger;
@@ -93,7 +95,8 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         HasRuntimeDeps,
         HasPostBuildSteps,
         ExternalTestRunnerRule,
-        ExportDependencies {
+        ExportDependencies,
+        ShardedTestRule {
 
   public static final Flavor COMPILED_TESTS_LIBRARY_FLAVOR = InternalFlavor.of("testsjar");
 
@@ -143,10 +146,18 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
 
   @Nullable private JUnitStep externalJunitStep;
 
+  private ImmutableList<Step> shardSteps = ImmutableList.of();
+
+  private ImmutableMap<String, JUnitStep> shardJunitsByTestClass = ImmutableMap.of();
+
+  private ImmutableList<Path> testLogPaths;
+
   private final boolean runTestSeparately;
 
   private final ForkMode forkMode;
 
+  private final int testShards;
+
   private final Optional<SourcePath> unbundledResourcesRoot;
 
   public JavaTest(
@@ -167,10 +178,15 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       ImmutableMap<String, Arg> env,
       boolean runTestSeparately,
       ForkMode forkMode,
+      int testShards,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
       Optional<SourcePath> unbundledResourcesRoot) {
     super(buildTarget, projectFilesystem, params);
+    if (testShards < 1) {
+      throw new HumanReadableException(
+          "%s: test_shards must be at least 1, got %d", buildTarget, testShards);
+    }
     this.compiledTestsLibrary = compiledTestsLibrary;
     this.additionalClasspathEntriesProvider = additionalClasspathEntriesProvider;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
@@ -185,10 +201,12 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
     this.env = env;
     this.runTestSeparately = runTestSeparately;
     this.forkMode = forkMode;
+    this.testShards = testShards;
     this.stdOutLogLevel = stdOutLogLevel;
     this.stdErrLogLevel = stdErrLogLevel;
     this.unbundledResourcesRoot = unbundledResourcesRoot;
     this.pathToTestLogs = getPathToTestOutputDirectory().resolve("logs.txt");
+    this.testLogPaths = ImmutableList.of(pathToTestLogs);
   }
 
   @Override
@@ -211,6 +229,12 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         getProjectFilesystem(), getBuildTarget(), "%s/classpath-file");
   }
 
+  /** Lives outside the test output directory, which is cleaned before every run. */
+  private Path getTestClassTimingsFile() {
+    return BuildTargetPaths.getGenPath(
+        getProjectFilesystem(), getBuildTarget(), "%s/test-class-timings");
+  }
+
   private JUnitStep getJUnitStep(
       ExecutionContext executionContext,
       SourcePathResolver pathResolver,
@@ -252,6 +276,7 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             .addAllTestClasses(reorderedTestClasses)
             .setShouldExplainTestSelectorList(options.shouldExplainTestSelectorList())
             .setTestSelectorList(testSelectorList)
+            .setJvmPoolMaxUses(options.getJavaTestJvmPoolMaxUses())
             .build();
 
     return new JUnitStep(
@@ -301,7 +326,42 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             BuildCellRelativePath.fromCellRelativePath(
                 buildContext.getBuildCellRootPath(), getProjectFilesystem(), pathToTestOutput)));
     addPreTestSteps(buildContext, steps);
-    if (forkMode() == ForkMode.PER_TEST) {
+    shardSteps = ImmutableList.of();
+    shardJunitsByTestClass = ImmutableMap.of();
+    testLogPaths = ImmutableList.of(pathToTestLogs);
+    if (shouldShardTests(executionContext, testClassNames)) {
+      ImmutableList<ImmutableSortedSet<String>> shards =
+          JavaTestShards.partition(
+              testClassNames,
+              JavaTestShards.readTimings(getProjectFilesystem(), getTestClassTimingsFile()),
+              testShards);
+      ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
+      ImmutableMap.Builder<String, JUnitStep> junitsByTestClassBuilder = ImmutableMap.builder();
+      ImmutableList.Builder<Path> logPathsBuilder = ImmutableList.builder();
+      for (int i = 0; i < shards.size(); i++) {
+        // Shards run concurrently, so each needs a log file of its own.
+        Path shardLogs = pathToTestOutput.resolve(String.format("logs-shard-%d.txt", i));
+        logPathsBuilder.add(shardLogs);
+        JUnitStep junit =
+            getJUnitStep(
+                executionContext,
+                buildContext.getSourcePathResolver(),
+                options,
+                Optional.of(pathToTestOutput),
+                Optional.of(shardLogs),
+                shards.get(i));
+        junitsBuilder.add(junit);
+        for (String testClass : shards.get(i)) {
+          junitsByTestClassBuilder.put(testClass, junit);
+        }
+      }
+      junits = junitsBuilder.build();
+      shardJunitsByTestClass = junitsByTestClassBuilder.build();
+      testLogPaths = logPathsBuilder.build();
+      shardSteps = ImmutableList.copyOf(junits);
+      LOG.debug("Split %s into %d test shards", getBuildTarget(), shards.size());
+      return steps.build();
+    } else if (forkMode() == ForkMode.PER_TEST) {
       ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
       for (String testClass : testClassNames) {
         junitsBuilder.add(
@@ -329,6 +389,22 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
     return steps.build();
   }
 
+  /**
+   * Sharding only applies to the default fork mode, and is skipped when a debugger is expected to
+   * attach, since every JVM would try to listen on the same port.
+   */
+  private boolean shouldShardTests(ExecutionContext executionContext, Set<String> testClassNames) {
+    return testShards > 1
+        && testClassNames.size() > 1
+        && forkMode() == ForkMode.NONE
+        && !executionContext.isDebugEnabled();
+  }
+
+  @Override
+  public ImmutableList<Step> getTestShardSteps() {
+    return shardSteps;
+  }
+
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
     Random rng;
     if (shuffle) {
@@ -423,7 +499,7 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
                 .getPathForRelativePath(getPathToTestOutputDirectory().resolve(path));
         if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
           String message;
-          for (JUnitStep junit : Objects.requireNonNull(junits)) {
+          for (JUnitStep junit : getJUnitStepsRunning(testClass)) {
             if (junit.hasTimedOut()) {
               message = "test timed out before generating results file";
             } else {
@@ -442,16 +518,33 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         }
       }
 
+      if (testShards > 1 && !isUsingTestSelectors) {
+        try {
+          JavaTestShards.writeTimings(
+              getProjectFilesystem(), getTestClassTimingsFile(), testClassNames, summaries);
+        } catch (IOException e) {
+          LOG.warn(e, "Unable to record test class timings for %s", getBuildTarget());
+        }
+      }
+
       return TestResults.builder()
           .setBuildTarget(getBuildTarget())
           .setTestCases(summaries)
           .setContacts(contacts)
           .setLabels(labels.stream().map(Object::toString).collect(ImmutableSet.toImmutableSet()))
-          .addTestLogPaths(getProjectFilesystem().resolve(pathToTestLogs))
+          .addAllTestLogPaths(
+              testLogPaths.stream()
+                  .map(getProjectFilesystem()::resolve)
+                  .collect(ImmutableList.toImmutableList()))
           .build();
     };
   }
 
+  private ImmutableList<JUnitStep> getJUnitStepsRunning(String testClass) {
+    JUnitStep shard = shardJunitsByTestClass.get(testClass);
+    return shard != null ? ImmutableList.of(shard) : Objects.requireNonNull(junits);
+  }
+
   private Set<String> getClassNamesForSources(SourcePathResolver pathResolver) {
     if (compiledClassFileFinder == null) {
       compiledClassFileFinder = new CompiledClassFileFinder(compiledTestsLibrary, pathResolver);
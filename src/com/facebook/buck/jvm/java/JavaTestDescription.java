@@ -253,6 +253,7 @@ public class JavaTestDescription
         ImmutableMap.copyOf(Maps.transformValues(args.getEnv(), macrosConverter::convert)),
         args.getRunTestSeparately(),
         args.getForkMode(),
+        args.getTestShards(),
         args.getStdOutLogLevel(),
         args.getStdErrLogLevel(),
         args.getUnbundledResourcesRoot());
@@ -291,6 +292,12 @@ public class JavaTestDescription
       return ForkMode.NONE;
     }
 
+    /** Number of JVMs the test classes are split across, balanced by past run times. */
+    @Value.Default
+    default int getTestShards() {
+      return 1;
+    }
+
     Optional<Level> getStdErrLogLevel();
 
     Optional<Level> getStdOutLogLevel();
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.test.TestCaseSummary;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Splits the test classes of a {@code java_test} into shards that run in separate JVMs, balanced
+ * by how long each class took the last time it ran.
+ */
+class JavaTestShards {
+  private static final Logger LOG = Logger.get(JavaTestShards.class);
+
+  private JavaTestShards() {}
+
+  /**
+   * Distributes {@code testClassNames} over at most {@code shardCount} shards, longest class first,
+   * always onto the shard with the least accumulated time. Classes without a recorded duration are
+   * assumed to take as long as the average recorded class.
+   *
+   * <p>The result is deterministic for a given set of classes and timings.
+   */
+  static ImmutableList<ImmutableSortedSet<String>> partition(
+      Collection<String> testClassNames, Map<String, Long> timingsMs, int shardCount) {
+    Preconditions.checkArgument(shardCount > 0, "shard count must be positive");
+    int shards = Math.min(shardCount, testClassNames.size());
+    if (shards <= 1) {
+      return ImmutableList.of(ImmutableSortedSet.copyOf(testClassNames));
+    }
+
+    long knownTotal = 0;
+    int knownCount = 0;
+    for (String testClass : testClassNames) {
+      Long time = timingsMs.get(testClass);
+      if (time != null) {
+        knownTotal += time;
+        knownCount++;
+      }
+    }
+    long defaultTime = knownCount == 0 ? 1 : Math.max(1, knownTotal / knownCount);
+
+    List<String> byDescendingTime = new ArrayList<>(testClassNames);
+    byDescendingTime.sort(
+        Comparator.<String>comparingLong(c -> timingsMs.getOrDefault(c, defaultTime))
+            .reversed()
+            .thenComparing(Comparator.naturalOrder()));
+
+    PriorityQueue<Shard> queue =
+        new PriorityQueue<>(
+            shards, Comparator.<Shard>comparingLong(s -> s.load).thenComparingInt(s -> s.index));
+    List<Shard> all = new ArrayList<>(shards);
+    for (int i = 0; i < shards; i++) {
+      Shard shard = new Shard(i);
+      all.add(shard);
+      queue.add(shard);
+    }
+    for (String testClass : byDescendingTime) {
+      Shard lightest = queue.remove();
+      lightest.classes.add(testClass);
+      lightest.load += Math.max(1, timingsMs.getOrDefault(testClass, defaultTime));
+      queue.add(lightest);
+    }
+
+    return all.stream()
+        .map(shard -> shard.classes.build())
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Reads the per-class durations recorded by {@link #writeTimings}. Missing or unreadable files
+   * yield no timings, which simply makes the next split less balanced.
+   */
+  static ImmutableMap<String, Long> readTimings(ProjectFilesystem filesystem, Path timingsFile) {
+    if (!filesystem.isFile(timingsFile)) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<String, Long> timings = ImmutableMap.builder();
+    try {
+      for (String line : filesystem.readLines(timingsFile)) {
+        int separator = line.indexOf(' ');
+        if (separator == -1) {
+          continue;
+        }
+        timings.put(line.substring(separator + 1), Long.parseLong(line.substring(0, separator)));
+      }
+      return timings.build();
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.debug(e, "Ignoring unreadable test timings in %s", timingsFile);
+      return ImmutableMap.of();
+    }
+  }
+
+  /**
+   * Records how long each test class took, keeping previous timings for classes that still exist
+   * but did not produce results this time.
+   */
+  static void writeTimings(
+      ProjectFilesystem filesystem,
+      Path timingsFile,
+      Collection<String> testClassNames,
+      Collection<TestCaseSummary> summaries)
+      throws IOException {
+    Map<String, Long> timings = new TreeMap<>(readTimings(filesystem, timingsFile));
+    timings.keySet().retainAll(testClassNames);
+    for (TestCaseSummary summary : summaries) {
+      timings.put(summary.getTestCaseName(), summary.getTotalTime());
+    }
+    filesystem.mkdirs(timingsFile.getParent());
+    filesystem.writeLinesToPath(
+        () ->
+            timings.entrySet().stream()
+                .map(entry -> entry.getValue() + " " + entry.getKey())
+                .iterator(),
+        timingsFile);
+  }
+
+  private static class Shard {
+    private final int index;
+    private final ImmutableSortedSet.Builder<String> classes = ImmutableSortedSet.naturalOrder();
+    private long load;
+
+    private Shard(int index) {
+      this.index = index;
+    }
+  }
+}
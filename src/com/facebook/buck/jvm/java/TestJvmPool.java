@@ -0,0 +1,318 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
+import com.facebook.buck.jvm.java.runner.PooledClassPathRunner;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A daemon-resident pool of warm test runner JVMs, each running {@link PooledClassPathRunner}.
+ *
+ * <p>Running a test target in a pooled JVM skips JVM startup, JDK class loading and JIT warmup,
+ * which dominate the run time of small test targets. Every target still gets a class loader of its
+ * own, and {@link PooledClassPathRunner} exits after a fixed number of targets, or as soon as a
+ * target leaves behind state that class loader isolation can't contain, in which case the next
+ * target simply gets a new JVM. Each concurrently running target leases its own JVM.
+ */
+class TestJvmPool {
+  private static final Logger LOG = Logger.get(TestJvmPool.class);
+
+  /** Pools live for the lifetime of the buckd process, one per distinct JVM configuration. */
+  private static final Map<Object, TestJvmPool> POOLS = new ConcurrentHashMap<>();
+
+  /**
+   * The idle JVMs of all pools. Tests with different JVM arguments need pools of their own, so
+   * without a global limit every such configuration run by buckd could leave an idle JVM behind.
+   */
+  private static final IdleJvms IDLE_JVMS =
+      new IdleJvms(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+  private static final ScheduledExecutorService TIMEOUTS =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("test-jvm-pool-%d").build());
+
+  private final ImmutableList<String> command;
+  private final Path workingDirectory;
+  private final ImmutableMap<String, String> environment;
+  private final Path logFile;
+  private final IdleJvms idleJvms;
+
+  @VisibleForTesting
+  TestJvmPool(
+      ImmutableList<String> javaRuntimeLauncher,
+      ImmutableList<String> jvmArgs,
+      Path testRunnerClasspath,
+      int maxUses,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      Path logFile,
+      IdleJvms idleJvms) {
+    Preconditions.checkArgument(maxUses > 0, "pooled JVMs must be usable at least once");
+    this.command =
+        ImmutableList.<String>builder()
+            .addAll(javaRuntimeLauncher)
+            .addAll(jvmArgs)
+            .add("-classpath", testRunnerClasspath.toString())
+            .add(PooledClassPathRunner.class.getName())
+            .add(String.valueOf(maxUses))
+            .build();
+    this.workingDirectory = workingDirectory;
+    this.environment = environment;
+    this.logFile = logFile;
+    this.idleJvms = idleJvms;
+  }
+
+  /**
+   * Returns the pool of JVMs started with the given arguments, creating it on first use. JVMs are
+   * shared by all tests that need the same command line, working directory and base environment;
+   * the environment variables of a test itself are passed to {@link #run}.
+   */
+  static TestJvmPool get(
+      ImmutableList<String> javaRuntimeLauncher,
+      ImmutableList<String> jvmArgs,
+      Path testRunnerClasspath,
+      int maxUses,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      Path logFile) {
+    return POOLS.computeIfAbsent(
+        ImmutableList.of(
+            javaRuntimeLauncher,
+            jvmArgs,
+            testRunnerClasspath,
+            maxUses,
+            workingDirectory,
+            environment),
+        key ->
+            new TestJvmPool(
+                javaRuntimeLauncher,
+                jvmArgs,
+                testRunnerClasspath,
+                maxUses,
+                workingDirectory,
+                environment,
+                logFile,
+                IDLE_JVMS));
+  }
+
+  ImmutableList<String> getCommand() {
+    return command;
+  }
+
+  @VisibleForTesting
+  int getIdleJvmCount() {
+    return idleJvms.count(this);
+  }
+
+  /**
+   * Runs {@code mainClass} in a pooled JVM, as {@link FileClassPathRunner} would have run it in a
+   * JVM of its own, sending its stdout and stderr to the given files.
+   *
+   * @param environment variables set on top of the pool's environment while the tests run.
+   * @param timeoutMs if present, the JVM is killed if the tests take longer than this.
+   * @return nothing if the tests need environment variables that the pooled JVM can't set, in which
+   *     case they have to run in a JVM of their own.
+   */
+  Optional<Result> run(
+      ProcessExecutor processExecutor,
+      ImmutableMap<String, String> systemProperties,
+      ImmutableMap<String, String> environment,
+      Path stdOut,
+      Path stdErr,
+      ImmutableList<String> mainClassAndArgs,
+      Optional<Long> timeoutMs)
+      throws IOException, InterruptedException {
+    Jvm jvm = acquire(processExecutor);
+    if (!environment.isEmpty() && !jvm.canSetEnvironment) {
+      release(processExecutor, jvm);
+      return Optional.empty();
+    }
+    AtomicBoolean timedOut = new AtomicBoolean();
+    Optional<ScheduledFuture<?>> timeout =
+        timeoutMs.map(
+            ms ->
+                TIMEOUTS.schedule(
+                    () -> {
+                      timedOut.set(true);
+                      processExecutor.destroyLaunchedProcess(jvm.process);
+                    },
+                    ms,
+                    TimeUnit.MILLISECONDS));
+    try {
+      PooledClassPathRunner.writeRequest(
+          jvm.stdin,
+          systemProperties,
+          environment,
+          stdOut.toString(),
+          stdErr.toString(),
+          mainClassAndArgs.get(0),
+          mainClassAndArgs.subList(1, mainClassAndArgs.size()));
+      int exitCode = jvm.stdout.readInt();
+      boolean exiting = jvm.stdout.readBoolean();
+      timeout.ifPresent(future -> future.cancel(false));
+      if (exiting) {
+        processExecutor.waitForLaunchedProcess(jvm.process);
+      } else {
+        release(processExecutor, jvm);
+      }
+      return Optional.of(new Result(exitCode, false));
+    } catch (IOException e) {
+      timeout.ifPresent(future -> future.cancel(false));
+      if (e instanceof EOFException || timedOut.get()) {
+        // The JVM died while running the tests: either a test exited the JVM, or we killed it.
+        ProcessExecutor.Result result = processExecutor.waitForLaunchedProcess(jvm.process);
+        return Optional.of(new Result(result.getExitCode(), timedOut.get()));
+      }
+      processExecutor.destroyLaunchedProcess(jvm.process);
+      throw e;
+    } catch (RuntimeException e) {
+      timeout.ifPresent(future -> future.cancel(false));
+      processExecutor.destroyLaunchedProcess(jvm.process);
+      throw e;
+    }
+  }
+
+  private Jvm acquire(ProcessExecutor processExecutor) throws IOException {
+    Optional<Jvm> idleJvm;
+    while ((idleJvm = idleJvms.acquire(this)).isPresent()) {
+      if (idleJvm.get().process.isAlive()) {
+        return idleJvm.get();
+      }
+    }
+    LOG.debug("Starting pooled test JVM: %s", command);
+    ProcessExecutor.LaunchedProcess process =
+        processExecutor.launchProcess(
+            ProcessExecutorParams.builder()
+                .setCommand(command)
+                .setDirectory(workingDirectory)
+                .setEnvironment(environment)
+                .setRedirectError(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+                .build());
+    Jvm jvm = new Jvm(this, process);
+    try {
+      jvm.canSetEnvironment = jvm.stdout.readBoolean();
+    } catch (IOException e) {
+      processExecutor.destroyLaunchedProcess(process);
+      throw e;
+    }
+    return jvm;
+  }
+
+  private void release(ProcessExecutor processExecutor, Jvm jvm) {
+    idleJvms
+        .release(jvm)
+        .ifPresent(evicted -> processExecutor.destroyLaunchedProcess(evicted.process));
+  }
+
+  /** The outcome of running tests in a pooled JVM. */
+  static class Result {
+    private final int exitCode;
+    private final boolean timedOut;
+
+    private Result(int exitCode, boolean timedOut) {
+      this.exitCode = exitCode;
+      this.timedOut = timedOut;
+    }
+
+    /** The exit code the test runner would have exited a JVM of its own with. */
+    int getExitCode() {
+      return exitCode;
+    }
+
+    boolean isTimedOut() {
+      return timedOut;
+    }
+  }
+
+  /**
+   * Idle JVMs of any number of pools, most recently used first. Once there are more than the limit,
+   * the least recently used one is evicted.
+   */
+  @VisibleForTesting
+  static class IdleJvms {
+    private final int limit;
+    private final Deque<Jvm> jvms = new ArrayDeque<>();
+
+    IdleJvms(int limit) {
+      this.limit = limit;
+    }
+
+    /** Takes the most recently used idle JVM of {@code pool}. */
+    synchronized Optional<Jvm> acquire(TestJvmPool pool) {
+      for (Iterator<Jvm> iterator = jvms.iterator(); iterator.hasNext(); ) {
+        Jvm jvm = iterator.next();
+        if (jvm.pool == pool) {
+          iterator.remove();
+          return Optional.of(jvm);
+        }
+      }
+      return Optional.empty();
+    }
+
+    /** @return the JVM evicted to make room for {@code jvm}, which has to be shut down. */
+    synchronized Optional<Jvm> release(Jvm jvm) {
+      jvms.addFirst(jvm);
+      return jvms.size() > limit ? Optional.of(jvms.removeLast()) : Optional.empty();
+    }
+
+    synchronized int count(TestJvmPool pool) {
+      return (int) jvms.stream().filter(jvm -> jvm.pool == pool).count();
+    }
+  }
+
+  private static class Jvm {
+    private final TestJvmPool pool;
+    private final ProcessExecutor.LaunchedProcess process;
+    private final DataOutputStream stdin;
+    private final DataInputStream stdout;
+    /** Whether the JVM can run tests that need environment variables of their own. */
+    private boolean canSetEnvironment;
+
+    private Jvm(TestJvmPool pool, ProcessExecutor.LaunchedProcess process) {
+      this.pool = pool;
+      this.process = process;
+      this.stdin = new DataOutputStream(new BufferedOutputStream(process.getStdin()));
+      this.stdout = new DataInputStream(new BufferedInputStream(process.getStdout()));
+    }
+  }
+}
@@ -67,6 +67,11 @@ class DirectoryReader implements LibraryReader {
     }
   }
 
+  @Override
+  public boolean supportsConcurrentReads() {
+    return true;
+  }
+
   @Override
   public void close() {
     // Nothing in particular needed
@@ -53,6 +53,12 @@ class JarReader implements LibraryReader {
     getInner().visitClass(relativePath, cv, skipCode);
   }
 
+  @Override
+  public boolean supportsConcurrentReads() {
+    // The zip file system handles concurrent reads; it is opened by the first call to getInner.
+    return true;
+  }
+
   @Override
   public void close() throws IOException {
     if (fileSystem != null) {
@@ -58,6 +58,11 @@ interface LibraryReader extends AutoCloseable {
   @Override
   void close() throws IOException;
 
+  /** Whether classes and resources may be read from several threads at once. */
+  default boolean supportsConcurrentReads() {
+    return false;
+  }
+
   default boolean isResource(Path path) {
     return !isClass(path);
   }
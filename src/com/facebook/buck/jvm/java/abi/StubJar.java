@@ -18,13 +18,16 @@ package com.facebook.buck.jvm.java.abi;
 
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.lang.model.ElementsExtended;
+import com.facebook.buck.util.concurrent.ParallelLoops;
 import com.facebook.buck.util.zip.JarBuilder;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -34,8 +37,13 @@ import javax.lang.model.element.Element;
 import javax.lang.model.util.Types;
 
 public class StubJar {
+  /** Jars with fewer classes per available thread than this are not worth stubbing in parallel. */
+  private static final int MIN_CLASSES_PER_THREAD = 64;
+
   private final Supplier<LibraryReader> libraryReaderSupplier;
   @Nullable private AbiGenerationMode compatibilityMode = null;
+  @Nullable private Executor executor = null;
+  private int parallelism = 1;
 
   public StubJar(Path toMirror) {
     libraryReaderSupplier = () -> LibraryReader.of(toMirror);
@@ -76,6 +84,19 @@ public class StubJar {
     return this;
   }
 
+  /**
+   * Allows classes to be stubbed on up to {@code parallelism} threads, borrowing helper threads
+   * from {@code executor}, if any. The output is identical to that of a sequential run.
+   *
+   * <p>Only jars and directories are stubbed in parallel; Kotlin modules and stubs generated from
+   * source elements are always processed sequentially.
+   */
+  public StubJar setParallelism(@Nullable Executor executor, int parallelism) {
+    this.executor = executor;
+    this.parallelism = parallelism;
+    return this;
+  }
+
   public void writeTo(ProjectFilesystem filesystem, Path path) throws IOException {
     // The order of these declarations is important -- FilesystemStubJarWriter actually uses
     // the LibraryReader in its close method, and try-with-resources closes the items in the
@@ -99,9 +120,16 @@ public class StubJar {
     List<Path> paths =
         relativePaths.stream().sorted(visitOuterClassesFirst).collect(Collectors.toList());
 
-    Map<String, List<String>> inlineFunctions = new HashMap<>();
-
     boolean isKotlinModule = isKotlinModule(relativePaths);
+    int threads = Math.min(parallelism, paths.size() / MIN_CLASSES_PER_THREAD);
+    // Stubs of Kotlin classes depend on the inline functions of their outer classes, which is why
+    // outer classes are visited first. Those have to stay sequential.
+    if (executor != null && threads > 1 && !isKotlinModule && input.supportsConcurrentReads()) {
+      writeConcurrently(input, paths, writer, executor, threads);
+      return;
+    }
+
+    Map<String, List<String>> inlineFunctions = new HashMap<>();
     for (Path path : paths) {
       StubJarEntry entry =
           StubJarEntry.of(input, path, compatibilityMode, isKotlinModule, inlineFunctions);
@@ -113,6 +141,40 @@ public class StubJar {
     }
   }
 
+  /**
+   * Stubs and serializes every class on {@code threads} threads, then hands the stubs to the writer
+   * in the same order as a sequential run would.
+   */
+  private void writeConcurrently(
+      LibraryReader input,
+      List<Path> paths,
+      StubJarWriter writer,
+      Executor executor,
+      int threads)
+      throws IOException {
+    StubJarEntry[] entries = new StubJarEntry[paths.size()];
+    ParallelLoops.forEachIndex(
+        executor,
+        threads,
+        entries.length,
+        index -> {
+          StubJarEntry entry =
+              StubJarEntry.of(
+                  input,
+                  paths.get(index),
+                  compatibilityMode,
+                  /* isKotlinModule */ false,
+                  ImmutableMap.of());
+          entries[index] = entry == null ? null : entry.render();
+        });
+
+    for (StubJarEntry entry : entries) {
+      if (entry != null) {
+        entry.write(writer);
+      }
+    }
+  }
+
   private boolean isKotlinModule(List<Path> relativePaths) {
     return relativePaths.stream().anyMatch(path -> path.toString().endsWith(".kotlin_module"));
   }
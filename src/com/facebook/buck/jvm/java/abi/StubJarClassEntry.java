@@ -139,7 +139,16 @@ class StubJarClassEntry extends StubJarEntry {
     return methodBodiesToRetain;
   }
 
+  @Override
+  StubJarEntry render() {
+    return new RenderedClassEntry(path, toByteArray(), methodBodiesToRetain);
+  }
+
   private InputStream openInputStream() {
+    return new ByteArrayInputStream(toByteArray());
+  }
+
+  private byte[] toByteArray() {
     ClassWriter writer = new ClassWriter(0);
     ClassVisitor visitor = writer;
     if (!retainEverything) {
@@ -149,7 +158,7 @@ class StubJarClassEntry extends StubJarEntry {
 
     stub.accept(visitor);
 
-    return new ByteArrayInputStream(writer.toByteArray());
+    return writer.toByteArray();
   }
 
   private static boolean isAnonymousOrLocalOrSyntheticClass(ClassNode node) {
@@ -237,6 +246,29 @@ class StubJarClassEntry extends StubJarEntry {
     return null;
   }
 
+  /** A class stub that has already been serialized, so that the {@link ClassNode} can be freed. */
+  private static class RenderedClassEntry extends StubJarEntry {
+    private final Path path;
+    private final byte[] contents;
+    private final List<String> inlineMethods;
+
+    private RenderedClassEntry(Path path, byte[] contents, List<String> inlineMethods) {
+      this.path = path;
+      this.contents = contents;
+      this.inlineMethods = inlineMethods;
+    }
+
+    @Override
+    public void write(StubJarWriter writer) {
+      writer.writeEntry(path, () -> new ByteArrayInputStream(contents));
+    }
+
+    @Override
+    public List<String> getInlineMethods() {
+      return inlineMethods;
+    }
+  }
+
   private static class InnerClassSortingClassVisitor extends ClassVisitor {
     private final String className;
     private final List<InnerClassNode> innerClasses = new ArrayList<>();
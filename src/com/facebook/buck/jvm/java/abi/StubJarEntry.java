@@ -44,6 +44,14 @@ public abstract class StubJarEntry {
 
   public abstract List<String> getInlineMethods();
 
+  /**
+   * Does any expensive work needed to write this entry up front, so that it can happen on the
+   * current thread rather than when the jar is written.
+   */
+  StubJarEntry render() {
+    return this;
+  }
+
   private static boolean isStubbableResource(LibraryReader input, Path path) {
     return input.isResource(path);
   }
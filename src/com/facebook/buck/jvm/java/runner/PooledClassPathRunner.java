@@ -0,0 +1,393 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.runner;
+
+import com.facebook.buck.jvm.java.version.JavaVersion;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * A long-lived test runner JVM that runs one test target after another, so that JVM startup, JDK
+ * class loading and JIT warmup are paid once per JVM instead of once per target.
+ *
+ * <p>Requests are read from stdin and answered on stdout. Each request names the system properties
+ * the forked JVM would have been started with (including the {@code buck.classpath_file} and
+ * {@code buck.testrunner_classes} properties understood by {@link FileClassPathRunner}), the
+ * environment variables it would have had on top of the pooled JVM's own, files to send the test's
+ * stdout and stderr to, a main class and its arguments. The main class must have a {@code public
+ * static int runInProcess(String[])} method returning the exit code the forked JVM would have
+ * exited with.
+ *
+ * <p>Each request runs in a fresh class loader whose parent is the platform class loader, so no
+ * classes or static state of one target are visible to the next. System properties and
+ * environment variables are restored after every request. The JVM exits instead of serving another
+ * request once it has served the maximum number of requests passed as its only argument, or when a
+ * request leaves behind state that a new class loader cannot isolate: running threads, or a
+ * changed default locale, time zone or security manager.
+ *
+ * <p>Note: like {@link FileClassPathRunner}, this class only depends on classes present in the JRE.
+ */
+public class PooledClassPathRunner {
+  /** How long to wait for threads started by a test to finish before counting them as leaked. */
+  private static final long THREAD_GRACE_PERIOD_MS = 200;
+
+  private final int maxUses;
+  /** The maps {@link System#getenv} reads, or none if this JVM doesn't let us change them. */
+  private final List<Map<String, String>> environments;
+
+  private int uses;
+
+  // VisibleForTesting (can not use guava as dependency)
+  PooledClassPathRunner(int maxUses) {
+    if (maxUses < 1) {
+      throw new IllegalArgumentException("maxUses must be positive, got " + maxUses);
+    }
+    this.maxUses = maxUses;
+    this.environments = findMutableEnvironments();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.exit(-1);
+    }
+    OutputStream protocolOut = new FileOutputStream(FileDescriptor.out);
+    // Anything written to stdout outside of a request must not corrupt the protocol.
+    System.setOut(System.err);
+    new PooledClassPathRunner(Integer.parseInt(args[0])).serve(System.in, protocolOut);
+
+    // Explicitly exit so that non-daemon threads left behind by tests can't keep us alive.
+    System.exit(0);
+  }
+
+  /**
+   * Serves requests until the input is closed or this JVM should be recycled. Before reading the
+   * first request, writes a {@code boolean} that is true if requests may set environment variables.
+   */
+  void serve(InputStream input, OutputStream output) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+    out.writeBoolean(!environments.isEmpty());
+    out.flush();
+    while (true) {
+      Request request;
+      try {
+        request = readRequest(in);
+      } catch (EOFException e) {
+        return;
+      }
+      GlobalState originalState = GlobalState.capture();
+      int exitCode = run(request);
+      boolean recycle = ++uses >= maxUses || originalState.hasChanged();
+      out.writeInt(exitCode);
+      out.writeBoolean(recycle);
+      out.flush();
+      if (recycle) {
+        return;
+      }
+    }
+  }
+
+  private int run(Request request) throws IOException {
+    Properties originalProperties = new Properties();
+    originalProperties.putAll(System.getProperties());
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    Map<String, String> originalEnvironment = new HashMap<>(System.getenv());
+    Thread currentThread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = currentThread.getContextClassLoader();
+
+    int exitCode;
+    try (PrintStream stdOut = new PrintStream(new FileOutputStream(request.stdOutPath), true);
+        PrintStream stdErr = new PrintStream(new FileOutputStream(request.stdErrPath), true)) {
+      if (!request.environment.isEmpty() && environments.isEmpty()) {
+        stdErr.println("This JVM can't set the environment variables of the tests.");
+        return 1;
+      }
+      System.setOut(stdOut);
+      System.setErr(stdErr);
+      for (Map.Entry<String, String> property : request.systemProperties.entrySet()) {
+        System.setProperty(property.getKey(), property.getValue());
+      }
+      StringBuilder classPathProperty = new StringBuilder();
+      URL[] classpath = FileClassPathRunner.getClassPath(classPathProperty);
+      System.setProperty("java.class.path", classPathProperty.toString());
+      for (Map<String, String> environment : environments) {
+        environment.putAll(request.environment);
+      }
+
+      try (URLClassLoader classLoader = new URLClassLoader(classpath, getParentClassLoader())) {
+        currentThread.setContextClassLoader(classLoader);
+        exitCode = invoke(classLoader, request.mainClass, request.args);
+      } finally {
+        currentThread.setContextClassLoader(originalContextClassLoader);
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        System.setProperties(originalProperties);
+        restoreEnvironment(request.environment.keySet(), originalEnvironment);
+      }
+    }
+    return exitCode;
+  }
+
+  private void restoreEnvironment(Set<String> names, Map<String, String> originalEnvironment) {
+    for (Map<String, String> environment : environments) {
+      for (String name : names) {
+        String value = originalEnvironment.get(name);
+        if (value == null) {
+          environment.remove(name);
+        } else {
+          environment.put(name, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the maps behind {@link System#getenv}, which is the only way to give a test the
+   * environment variables a forked JVM would have been started with. JDK 9 and later only allow
+   * this if java.base opens java.util (and java.lang on Windows) to us.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, String>> findMutableEnvironments() {
+    List<Map<String, String>> environments = new ArrayList<>();
+    try {
+      Map<String, String> environment = System.getenv();
+      Field field = environment.getClass().getDeclaredField("m");
+      field.setAccessible(true);
+      environments.add((Map<String, String>) field.get(environment));
+      Field caseInsensitiveField;
+      try {
+        // On Windows, System.getenv(String) reads a case insensitive copy of the environment.
+        caseInsensitiveField =
+            Class.forName("java.lang.ProcessEnvironment")
+                .getDeclaredField("theCaseInsensitiveEnvironment");
+      } catch (NoSuchFieldException e) {
+        return environments;
+      }
+      caseInsensitiveField.setAccessible(true);
+      environments.add((Map<String, String>) caseInsensitiveField.get(null));
+      return environments;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /** The class loader of the JDK classes that are not on the boot class path. */
+  private static ClassLoader getParentClassLoader() {
+    if (JavaVersion.getMajorVersion() <= 8) {
+      return ClassLoader.getSystemClassLoader().getParent();
+    }
+    return FileClassPathRunner.findPlatformClassLoader();
+  }
+
+  private static int invoke(ClassLoader classLoader, String mainClass, String[] args) {
+    try {
+      Method runInProcess =
+          classLoader.loadClass(mainClass).getMethod("runInProcess", String[].class);
+      return (Integer) runInProcess.invoke(null, new Object[] {args});
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+      return 1;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  /**
+   * Writes a request in the format read by {@link #serve}. Each request is answered with the exit
+   * code as an {@code int}, followed by a {@code boolean} that is true if the JVM exits instead of
+   * serving further requests.
+   */
+  public static void writeRequest(
+      DataOutputStream out,
+      Map<String, String> systemProperties,
+      Map<String, String> environment,
+      String stdOutPath,
+      String stdErrPath,
+      String mainClass,
+      List<String> args)
+      throws IOException {
+    writeMap(out, systemProperties);
+    writeMap(out, environment);
+    writeString(out, stdOutPath);
+    writeString(out, stdErrPath);
+    writeString(out, mainClass);
+    out.writeInt(args.size());
+    for (String arg : args) {
+      writeString(out, arg);
+    }
+    out.flush();
+  }
+
+  private static Request readRequest(DataInputStream in) throws IOException {
+    Map<String, String> systemProperties = readMap(in);
+    Map<String, String> environment = readMap(in);
+    String stdOutPath = readString(in);
+    String stdErrPath = readString(in);
+    String mainClass = readString(in);
+    int argCount = in.readInt();
+    List<String> args = new ArrayList<>(argCount);
+    for (int i = 0; i < argCount; i++) {
+      args.add(readString(in));
+    }
+    return new Request(
+        systemProperties,
+        environment,
+        stdOutPath,
+        stdErrPath,
+        mainClass,
+        args.toArray(new String[0]));
+  }
+
+  private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  private static Map<String, String> readMap(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    Map<String, String> map = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put(readString(in), readString(in));
+    }
+    return map;
+  }
+
+  // DataOutputStream.writeUTF is limited to 64k, which long test selector lists can exceed.
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Request {
+    private final Map<String, String> systemProperties;
+    private final Map<String, String> environment;
+    private final String stdOutPath;
+    private final String stdErrPath;
+    private final String mainClass;
+    private final String[] args;
+
+    private Request(
+        Map<String, String> systemProperties,
+        Map<String, String> environment,
+        String stdOutPath,
+        String stdErrPath,
+        String mainClass,
+        String[] args) {
+      this.systemProperties = systemProperties;
+      this.environment = environment;
+      this.stdOutPath = stdOutPath;
+      this.stdErrPath = stdErrPath;
+      this.mainClass = mainClass;
+      this.args = args;
+    }
+  }
+
+  /** The JVM-wide state that a fresh class loader does not isolate from the previous request. */
+  private static class GlobalState {
+    private final Set<Thread> threads;
+    private final Locale locale;
+    private final TimeZone timeZone;
+    private final SecurityManager securityManager;
+
+    private GlobalState() {
+      this.threads = getLiveThreads();
+      this.locale = Locale.getDefault();
+      this.timeZone = TimeZone.getDefault();
+      this.securityManager = System.getSecurityManager();
+    }
+
+    static GlobalState capture() {
+      return new GlobalState();
+    }
+
+    boolean hasChanged() {
+      return hasNewThreads()
+          || !locale.equals(Locale.getDefault())
+          || !timeZone.equals(TimeZone.getDefault())
+          || securityManager != System.getSecurityManager();
+    }
+
+    /** Threads started by a test get a short grace period to finish before counting as leaked. */
+    private boolean hasNewThreads() {
+      long deadline = System.currentTimeMillis() + THREAD_GRACE_PERIOD_MS;
+      while (true) {
+        Set<Thread> newThreads = getLiveThreads();
+        newThreads.removeAll(threads);
+        if (newThreads.isEmpty()) {
+          return false;
+        }
+        if (System.currentTimeMillis() >= deadline) {
+          return true;
+        }
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return true;
+        }
+      }
+    }
+
+    private static Set<Thread> getLiveThreads() {
+      Set<Thread> threads = new HashSet<>();
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (thread.isAlive()) {
+          threads.add(thread);
+        }
+      }
+      return threads;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/** A kotlin compiler that supports incremental compilation. */
+public interface IncrementalKotlinc extends Kotlinc {
+
+  /**
+   * Compiles the given sources, allowing the compiler to reuse the incremental compilation caches
+   * kept in {@code incrementalCachesDirectory} from a previous invocation so that only changed
+   * sources (and their dependents) are recompiled.
+   */
+  int buildIncrementally(
+      ExecutionContext context,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> kotlinSourceFilePaths,
+      Path pathToSrcsList,
+      Optional<Path> workingDirectory,
+      ProjectFilesystem fileSystem,
+      Path incrementalCachesDirectory)
+      throws InterruptedException;
+}
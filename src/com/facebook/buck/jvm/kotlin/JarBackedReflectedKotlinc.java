@@ -25,9 +25,11 @@ import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.javax.SynchronizedToolProvider;
 import com.facebook.buck.util.ClassLoaderCache;
+import com.google.common.base.Defaults;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -37,17 +39,15 @@ import java.io.File;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
-public class JarBackedReflectedKotlinc implements Kotlinc {
+public class JarBackedReflectedKotlinc implements IncrementalKotlinc {
 
   private static final String COMPILER_CLASS = "org.jetbrains.kotlin.cli.jvm.K2JVMCompiler";
   private static final String EXIT_CODE_CLASS = "org.jetbrains.kotlin.cli.common.ExitCode";
@@ -62,20 +62,32 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
         }
       };
 
-  // Used to hang onto the KotlinDaemonShim for the life of the buckd process
-  private static final Map<Set<String>, Object> kotlinShims = new ConcurrentHashMap<>();
+  private static final Logger LOG = Logger.get(JarBackedReflectedKotlinc.class);
+
+  private static final String PARSE_ARGUMENTS_CLASS =
+      "org.jetbrains.kotlin.cli.common.arguments.ParseCommandLineArgumentsKt";
+  private static final String MESSAGE_RENDERER_CLASS =
+      "org.jetbrains.kotlin.cli.common.messages.MessageRenderer";
+  private static final String MESSAGE_COLLECTOR_CLASS =
+      "org.jetbrains.kotlin.cli.common.messages.PrintingMessageCollector";
+  private static final String INCREMENTAL_RUNNER_CLASS =
+      "org.jetbrains.kotlin.incremental.IncrementalJvmCompilerRunnerKt";
+  private static final String IC_REPORTER_CLASS = "org.jetbrains.kotlin.incremental.ICReporter";
 
   @AddToRuleKey private final ImmutableSet<SourcePath> compilerClassPath;
   private final Path annotationProcessingClassPath;
   private final Path standardLibraryClasspath;
+  private final int compilerPoolSize;
 
   JarBackedReflectedKotlinc(
       ImmutableSet<SourcePath> compilerClassPath,
       Path annotationProcessingClassPath,
-      Path standardLibraryClasspath) {
+      Path standardLibraryClasspath,
+      int compilerPoolSize) {
     this.compilerClassPath = compilerClassPath;
     this.annotationProcessingClassPath = annotationProcessingClassPath;
     this.standardLibraryClasspath = standardLibraryClasspath;
+    this.compilerPoolSize = compilerPoolSize;
   }
 
   @Override
@@ -131,19 +143,9 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
       Optional<Path> workingDirectory,
       ProjectFilesystem projectFilesystem) {
 
-    ImmutableList<Path> expandedSources;
-    try {
-      expandedSources =
-          getExpandedSourcePaths(
-              projectFilesystem,
-              context.getProjectFilesystemFactory(),
-              kotlinSourceFilePaths,
-              workingDirectory);
-    } catch (Throwable throwable) {
-      throwable.printStackTrace();
-      throw new HumanReadableException(
-          "Unable to expand sources for %s into %s", invokingRule, workingDirectory);
-    }
+    ImmutableList<Path> expandedSources =
+        expandSources(
+            context, invokingRule, kotlinSourceFilePaths, workingDirectory, projectFilesystem);
 
     ImmutableList<String> args =
         ImmutableList.<String>builder()
@@ -154,21 +156,12 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
                     path -> projectFilesystem.resolve(path).toAbsolutePath().toString()))
             .build();
 
-    Set<File> compilerIdPaths =
-        compilerClassPath.stream()
-            .map(p -> ((PathSourcePath) p).getRelativePath())
-            .map(Path::toFile)
-            .collect(Collectors.toSet());
-
-    try {
-      Object compilerShim =
-          kotlinShims.computeIfAbsent(
-              compilerIdPaths.stream().map(File::getAbsolutePath).collect(Collectors.toSet()),
-              k -> loadCompilerShim(context));
+    try (KotlincSessionPool.Session session = getSessionPool(context).acquire()) {
+      Object compilerShim = session.getCompiler();
 
       Method compile = compilerShim.getClass().getMethod("exec", PrintStream.class, String[].class);
 
-      Class<?> exitCodeClass = compilerShim.getClass().getClassLoader().loadClass(EXIT_CODE_CLASS);
+      Class<?> exitCodeClass = session.getClassLoader().loadClass(EXIT_CODE_CLASS);
 
       Method getCode = exitCodeClass.getMethod("getCode");
 
@@ -186,24 +179,168 @@ public class JarBackedReflectedKotlinc implements Kotlinc {
     }
   }
 
-  private Object loadCompilerShim(ExecutionContext context) {
-    try {
-      ClassLoaderCache classLoaderCache = context.getClassLoaderCache();
-      classLoaderCache.addRef();
-
-      ClassLoader classLoader =
-          classLoaderCache.getClassLoaderForClassPath(
-              SynchronizedToolProvider.getSystemToolClassLoader(),
-              ImmutableList.copyOf(
-                  compilerClassPath.stream()
-                      .map(p -> ((PathSourcePath) p).getRelativePath())
-                      .map(PATH_TO_URL)
-                      .iterator()));
-
-      return classLoader.loadClass(COMPILER_CLASS).newInstance();
-    } catch (Exception ex) {
+  @Override
+  public int buildIncrementally(
+      ExecutionContext context,
+      BuildTarget invokingRule,
+      ImmutableList<String> options,
+      ImmutableSortedSet<Path> kotlinSourceFilePaths,
+      Path pathToSrcsList,
+      Optional<Path> workingDirectory,
+      ProjectFilesystem projectFilesystem,
+      Path incrementalCachesDirectory)
+      throws InterruptedException {
+
+    ImmutableList<File> expandedSources =
+        ImmutableList.copyOf(
+            transform(
+                expandSources(
+                    context,
+                    invokingRule,
+                    kotlinSourceFilePaths,
+                    workingDirectory,
+                    projectFilesystem),
+                path -> projectFilesystem.resolve(path).toAbsolutePath().toFile()));
+
+    try (KotlincSessionPool.Session session = getSessionPool(context).acquire()) {
+      ClassLoader classLoader = session.getClassLoader();
+      Object compilerShim = session.getCompiler();
+
+      // Incremental compilation is driven through the same entry point the Kotlin Maven plugin
+      // uses. It diffs the sources against the snapshots stored in the caches directory and only
+      // hands changed files (and the files that depend on them) to the compiler.
+      Object arguments = compilerShim.getClass().getMethod("createArguments").invoke(compilerShim);
+      findStaticMethod(classLoader.loadClass(PARSE_ARGUMENTS_CLASS), "parseCommandLineArguments", 2)
+          .invoke(null, options, arguments);
+
+      Class<?> rendererClass = classLoader.loadClass(MESSAGE_RENDERER_CLASS);
+      Class<?> collectorClass = classLoader.loadClass(MESSAGE_COLLECTOR_CLASS);
+      Class<?> reporterClass = classLoader.loadClass(IC_REPORTER_CLASS);
+      Method makeIncrementally =
+          findStaticMethod(
+              classLoader.loadClass(INCREMENTAL_RUNNER_CLASS), "makeIncrementally", 5);
+
+      try (UncloseablePrintStream stdErr = new UncloseablePrintStream(context.getStdErr())) {
+        Object messageCollector =
+            collectorClass
+                .getConstructor(PrintStream.class, rendererClass, boolean.class)
+                .newInstance(
+                    stdErr,
+                    rendererClass.getField("PLAIN_RELATIVE_PATHS").get(null),
+                    context.getVerbosity().shouldPrintCommand());
+        Object reporter =
+            Proxy.newProxyInstance(
+                classLoader,
+                new Class<?>[] {reporterClass},
+                JarBackedReflectedKotlinc::invokeSilentReporter);
+
+        makeIncrementally.invoke(
+            null,
+            projectFilesystem.resolve(incrementalCachesDirectory).toFile(),
+            expandedSources,
+            arguments,
+            messageCollector,
+            reporter);
+
+        boolean hasErrors =
+            (Boolean) collectorClass.getMethod("hasErrors").invoke(messageCollector);
+        return hasErrors ? 1 : 0;
+      }
+    } catch (ClassNotFoundException | NoSuchMethodException | NoSuchFieldException ex) {
+      LOG.warn(
+          ex,
+          "Kotlin compiler does not support incremental compilation, compiling %s from scratch.",
+          invokingRule);
+    } catch (IllegalAccessException | InvocationTargetException | InstantiationException ex) {
       throw new RuntimeException(ex);
     }
+
+    return buildWithClasspath(
+        context,
+        invokingRule,
+        options,
+        kotlinSourceFilePaths,
+        pathToSrcsList,
+        workingDirectory,
+        projectFilesystem);
+  }
+
+  private ImmutableList<Path> expandSources(
+      ExecutionContext context,
+      BuildTarget invokingRule,
+      ImmutableSortedSet<Path> kotlinSourceFilePaths,
+      Optional<Path> workingDirectory,
+      ProjectFilesystem projectFilesystem) {
+    try {
+      return getExpandedSourcePaths(
+          projectFilesystem,
+          context.getProjectFilesystemFactory(),
+          kotlinSourceFilePaths,
+          workingDirectory);
+    } catch (Throwable throwable) {
+      throwable.printStackTrace();
+      throw new HumanReadableException(
+          "Unable to expand sources for %s into %s", invokingRule, workingDirectory);
+    }
+  }
+
+  /**
+   * Implements every method of an ICReporter by reporting nothing, returning empty strings and the
+   * default values of primitives, and treats the proxy like a plain {@link Object}.
+   */
+  @Nullable
+  private static Object invokeSilentReporter(Object proxy, Method method, Object[] args) {
+    if (method.getDeclaringClass().equals(Object.class)) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "ICReporter@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+          throw new UnsupportedOperationException(method.toString());
+      }
+    }
+    Class<?> returnType = method.getReturnType();
+    return returnType.equals(String.class) ? "" : Defaults.defaultValue(returnType);
+  }
+
+  private static Method findStaticMethod(Class<?> clazz, String name, int parameterCount)
+      throws NoSuchMethodException {
+    for (Method method : clazz.getMethods()) {
+      if (method.getName().equals(name) && method.getParameterCount() == parameterCount) {
+        return method;
+      }
+    }
+    throw new NoSuchMethodException(clazz.getName() + "." + name);
+  }
+
+  private KotlincSessionPool getSessionPool(ExecutionContext context) {
+    ImmutableSet<String> compilerIdPaths =
+        compilerClassPath.stream()
+            .map(p -> ((PathSourcePath) p).getRelativePath())
+            .map(Path::toFile)
+            .map(File::getAbsolutePath)
+            .collect(ImmutableSet.toImmutableSet());
+
+    return KotlincSessionPool.get(
+        compilerIdPaths, () -> loadCompilerClassLoader(context), COMPILER_CLASS, compilerPoolSize);
+  }
+
+  private ClassLoader loadCompilerClassLoader(ExecutionContext context) {
+    // Hold on to the class loader for the lifetime of the buckd process, so that pooled compiler
+    // sessions stay warm between builds.
+    ClassLoaderCache classLoaderCache = context.getClassLoaderCache();
+    classLoaderCache.addRef();
+
+    return classLoaderCache.getClassLoaderForClassPath(
+        SynchronizedToolProvider.getSystemToolClassLoader(),
+        ImmutableList.copyOf(
+            compilerClassPath.stream()
+                .map(p -> ((PathSourcePath) p).getRelativePath())
+                .map(PATH_TO_URL)
+                .iterator()));
   }
 
   @Override
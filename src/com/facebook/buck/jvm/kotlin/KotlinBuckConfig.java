@@ -30,6 +30,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.OptionalInt;
 import javax.annotation.Nullable;
 
 /** A kotlin-specific "view" of BuckConfig. */
@@ -39,6 +40,8 @@ public class KotlinBuckConfig implements ConfigView<BuckConfig> {
   private static final String SECTION = "kotlin";
   public static final String PROPERTY_COMPILE_AGAINST_ABIS = "compile_against_abis";
   public static final String PROPERTY_ABI_GENERATION_MODE = "abi_generation_mode";
+  public static final String PROPERTY_INCREMENTAL = "incremental";
+  public static final String PROPERTY_COMPILER_POOL_SIZE = "compiler_pool_size";
 
   private static final Path DEFAULT_KOTLIN_COMPILER = Paths.get("kotlinc");
 
@@ -62,7 +65,10 @@ public class KotlinBuckConfig implements ConfigView<BuckConfig> {
               delegate.getPathSourcePath(getPathToCompilerJar()));
 
       return new JarBackedReflectedKotlinc(
-          classpathEntries, getPathToAnnotationProcessingJar(), getPathToStdlibJar());
+          classpathEntries,
+          getPathToAnnotationProcessingJar(),
+          getPathToStdlibJar(),
+          getCompilerPoolSize());
     }
   }
 
@@ -87,6 +93,27 @@ public class KotlinBuckConfig implements ConfigView<BuckConfig> {
         .orElse(AbiGenerationMode.CLASS);
   }
 
+  /**
+   * Whether in-process compilations should keep Kotlin's incremental compilation caches in buck-out
+   * between builds, so that only changed sources are recompiled. Has no effect on external
+   * compilation or on libraries that generate source ABIs.
+   */
+  public boolean shouldCompileIncrementally() {
+    return delegate.getBooleanValue(SECTION, PROPERTY_INCREMENTAL, false);
+  }
+
+  /**
+   * The maximum number of idle in-process compiler instances kept warm in the daemon. Defaults to
+   * the number of available processors.
+   */
+  public int getCompilerPoolSize() {
+    OptionalInt poolSize = delegate.getInteger(SECTION, PROPERTY_COMPILER_POOL_SIZE);
+    if (poolSize.isPresent() && poolSize.getAsInt() > 0) {
+      return poolSize.getAsInt();
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
   Path getPathToCompilerBinary() {
     Path compilerPath = getKotlinHome().resolve("kotlinc");
     if (!Files.isExecutable(compilerPath)) {
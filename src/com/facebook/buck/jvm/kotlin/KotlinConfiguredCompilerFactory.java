@@ -83,7 +83,8 @@ public class KotlinConfiguredCompilerFactory extends ConfiguredCompilerFactory {
         kotlinArgs.getKaptApOptions(),
         extraClasspathProviderSupplier.apply(toolchainProvider),
         getJavac(buildRuleResolver, args),
-        javacOptions);
+        javacOptions,
+        kotlinBuckConfig.shouldCompileIncrementally());
   }
 
   @Override
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A daemon-resident pool of in-process Kotlin compiler instances that share a single class loader.
+ *
+ * <p>Keeping compiler instances alive across builds means subsequent {@code kotlin_library}
+ * compilations run on already loaded and JIT-compiled compiler code. Each concurrent compilation
+ * leases its own compiler instance, so sessions never share mutable compiler state. Idle instances
+ * are handed out most-recently-used first to favour the warmest ones.
+ */
+class KotlincSessionPool {
+
+  /** Pools live for the lifetime of the buckd process, one per distinct compiler classpath. */
+  private static final Map<Object, KotlincSessionPool> POOLS = new ConcurrentHashMap<>();
+
+  private final Supplier<ClassLoader> classLoaderSupplier;
+  private final String compilerClassName;
+  private volatile int maxIdleSessions;
+  private final ConcurrentLinkedDeque<Object> idleCompilers = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private volatile ClassLoader classLoader;
+
+  @VisibleForTesting
+  KotlincSessionPool(
+      Supplier<ClassLoader> classLoaderSupplier, String compilerClassName, int maxIdleSessions) {
+    Preconditions.checkArgument(maxIdleSessions > 0, "pool must retain at least one session");
+    this.classLoaderSupplier = classLoaderSupplier;
+    this.compilerClassName = compilerClassName;
+    this.maxIdleSessions = maxIdleSessions;
+  }
+
+  /**
+   * Returns the pool for the compiler identified by {@code key}, creating it on first use. The
+   * class loader supplier is only invoked once per pool. The pool retains up to {@code
+   * maxIdleSessions} from then on, even if it was created with another size, e.g. before the
+   * configuration changed.
+   */
+  static KotlincSessionPool get(
+      Object key,
+      Supplier<ClassLoader> classLoaderSupplier,
+      String compilerClassName,
+      int maxIdleSessions) {
+    KotlincSessionPool pool =
+        POOLS.computeIfAbsent(
+            key,
+            k -> new KotlincSessionPool(classLoaderSupplier, compilerClassName, maxIdleSessions));
+    pool.setMaxIdleSessions(maxIdleSessions);
+    return pool;
+  }
+
+  /** Sets how many idle sessions the pool retains, discarding the least recently used extras. */
+  @VisibleForTesting
+  void setMaxIdleSessions(int maxIdleSessions) {
+    Preconditions.checkArgument(maxIdleSessions > 0, "pool must retain at least one session");
+    this.maxIdleSessions = maxIdleSessions;
+    while (idleCount.get() > maxIdleSessions && idleCompilers.pollLast() != null) {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  /** Leases a compiler instance, creating a new one if none are idle. */
+  Session acquire() {
+    Object compiler = idleCompilers.pollFirst();
+    if (compiler != null) {
+      idleCount.decrementAndGet();
+    } else {
+      compiler = newCompiler();
+    }
+    return new Session(compiler);
+  }
+
+  ClassLoader getClassLoader() {
+    ClassLoader loader = classLoader;
+    if (loader == null) {
+      synchronized (this) {
+        loader = classLoader;
+        if (loader == null) {
+          loader = Preconditions.checkNotNull(classLoaderSupplier.get());
+          classLoader = loader;
+        }
+      }
+    }
+    return loader;
+  }
+
+  @VisibleForTesting
+  int getIdleSessionCount() {
+    return idleCount.get();
+  }
+
+  private Object newCompiler() {
+    try {
+      return getClassLoader().loadClass(compilerClassName).newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void release(Object compiler) {
+    if (idleCount.incrementAndGet() <= maxIdleSessions) {
+      idleCompilers.offerFirst(compiler);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  /** A leased compiler instance, returned to the pool on {@link #close()}. */
+  class Session implements AutoCloseable {
+    private final Object compiler;
+    private boolean closed;
+
+    private Session(Object compiler) {
+      this.compiler = compiler;
+    }
+
+    Object getCompiler() {
+      Preconditions.checkState(!closed, "session already returned to the pool");
+      return compiler;
+    }
+
+    ClassLoader getClassLoader() {
+      return KotlincSessionPool.this.getClassLoader();
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        release(compiler);
+      }
+    }
+  }
+}
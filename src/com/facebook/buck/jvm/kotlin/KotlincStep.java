@@ -29,6 +29,7 @@ import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.File;
@@ -54,6 +55,7 @@ public class KotlincStep implements Step {
   private final Path pathToSrcsList;
   private final BuildTarget invokingRule;
   private final Optional<Path> workingDirectory;
+  private final Optional<Path> incrementalCachesDirectory;
 
   KotlincStep(
       BuildTarget invokingRule,
@@ -66,6 +68,42 @@ public class KotlincStep implements Step {
       ImmutableList<String> verboseModeOnlyExtraArguments,
       ProjectFilesystem filesystem,
       Optional<Path> workingDirectory) {
+    this(
+        invokingRule,
+        outputDirectory,
+        sourceFilePaths,
+        pathToSrcsList,
+        combinedClassPathEntries,
+        kotlinc,
+        extraArguments,
+        verboseModeOnlyExtraArguments,
+        filesystem,
+        workingDirectory,
+        Optional.empty());
+  }
+
+  /**
+   * @param incrementalCachesDirectory when present, kotlinc keeps its incremental compilation
+   *     caches here and only recompiles what changed since the previous invocation. The output
+   *     directory must then persist between invocations too, and kotlinc must be an {@link
+   *     IncrementalKotlinc}.
+   */
+  KotlincStep(
+      BuildTarget invokingRule,
+      Path outputDirectory,
+      ImmutableSortedSet<Path> sourceFilePaths,
+      Path pathToSrcsList,
+      ImmutableSortedSet<Path> combinedClassPathEntries,
+      Kotlinc kotlinc,
+      ImmutableList<String> extraArguments,
+      ImmutableList<String> verboseModeOnlyExtraArguments,
+      ProjectFilesystem filesystem,
+      Optional<Path> workingDirectory,
+      Optional<Path> incrementalCachesDirectory) {
+    Preconditions.checkArgument(
+        !incrementalCachesDirectory.isPresent() || kotlinc instanceof IncrementalKotlinc,
+        "%s does not support incremental compilation",
+        kotlinc);
     this.invokingRule = invokingRule;
     this.outputDirectory = outputDirectory;
     this.sourceFilePaths = sourceFilePaths;
@@ -76,6 +114,7 @@ public class KotlincStep implements Step {
     this.verboseModeOnlyExtraArguments = verboseModeOnlyExtraArguments;
     this.filesystem = filesystem;
     this.workingDirectory = workingDirectory;
+    this.incrementalCachesDirectory = incrementalCachesDirectory;
   }
 
   @Override
@@ -94,15 +133,30 @@ public class KotlincStep implements Step {
         ExecutionContext firstOrderContext =
             context.createSubContext(stdout, stderr, Optional.of(verbosity))) {
 
-      int declaredDepsBuildResult =
-          kotlinc.buildWithClasspath(
-              firstOrderContext,
-              invokingRule,
-              getOptions(context, combinedClassPathEntries),
-              sourceFilePaths,
-              pathToSrcsList,
-              workingDirectory,
-              filesystem);
+      int declaredDepsBuildResult;
+      if (incrementalCachesDirectory.isPresent()) {
+        declaredDepsBuildResult =
+            ((IncrementalKotlinc) kotlinc)
+                .buildIncrementally(
+                    firstOrderContext,
+                    invokingRule,
+                    getOptions(context, combinedClassPathEntries),
+                    sourceFilePaths,
+                    pathToSrcsList,
+                    workingDirectory,
+                    filesystem,
+                    incrementalCachesDirectory.get());
+      } else {
+        declaredDepsBuildResult =
+            kotlinc.buildWithClasspath(
+                firstOrderContext,
+                invokingRule,
+                getOptions(context, combinedClassPathEntries),
+                sourceFilePaths,
+                pathToSrcsList,
+                workingDirectory,
+                filesystem);
+      }
 
       String firstOrderStderr = stderr.getContentsAsString(Charsets.UTF_8);
       Optional<String> returnedStderr;
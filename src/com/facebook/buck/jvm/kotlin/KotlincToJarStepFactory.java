@@ -45,6 +45,7 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.CopyStep;
 import com.facebook.buck.step.fs.CopyStep.DirectoryMode;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.util.zip.ZipCompressionLevel;
 import com.facebook.buck.zip.ZipStep;
 import com.google.common.base.Joiner;
@@ -85,6 +86,7 @@ public class KotlincToJarStepFactory extends CompileToJarStepFactory implements
   @AddToRuleKey private final JavacOptions javacOptions;
   private final ImmutableSortedSet<Path> kotlinHomeLibraries;
   @Nullable private final Path abiGenerationPlugin;
+  @AddToRuleKey private final boolean compileIncrementally;
 
   private static final String PLUGIN = "-P";
   private static final String APT_MODE = "aptMode=";
@@ -122,7 +124,8 @@ public class KotlincToJarStepFactory extends CompileToJarStepFactory implements
       ImmutableMap<String, String> kaptApOptions,
       ExtraClasspathProvider extraClassPath,
       Javac javac,
-      JavacOptions javacOptions) {
+      JavacOptions javacOptions,
+      boolean compileIncrementally) {
     this.kotlinc = kotlinc;
     this.kotlinHomeLibraries = kotlinHomeLibraries;
     this.abiGenerationPlugin = abiGenerationPlugin;
@@ -134,6 +137,7 @@ public class KotlincToJarStepFactory extends CompileToJarStepFactory implements
     this.extraClassPath = extraClassPath;
     this.javac = javac;
     this.javacOptions = Objects.requireNonNull(javacOptions);
+    this.compileIncrementally = compileIncrementally;
   }
 
   @Override
@@ -264,18 +268,55 @@ public class KotlincToJarStepFactory extends CompileToJarStepFactory implements
             "-P", "plugin:org.jetbrains.kotlin.jvm.abi:outputDir=" + tmpSourceAbiFolder);
       }
 
-      steps.add(
-          new KotlincStep(
-              invokingRule,
-              outputDirectory,
-              sourcePaths,
-              pathToSrcsList,
-              allClasspaths,
-              kotlinc,
-              extraArguments.build(),
-              ImmutableList.of(VERBOSE),
-              projectFilesystem,
-              Optional.of(parameters.getOutputPaths().getWorkingDirectory())));
+      // The source ABI plugin needs to see every source on each invocation, so incremental
+      // compilation is only used for libraries that do not generate source ABIs.
+      if (compileIncrementally
+          && abiGenerationPlugin == null
+          && kotlinc instanceof IncrementalKotlinc) {
+        // Kotlin's incremental compiler needs both its caches and its previous output to survive
+        // between builds, so neither directory is cleaned. Classes are copied into the regular
+        // output directory once compilation succeeds.
+        Path incrementalStateRoot =
+            BuildTargetPaths.getScratchPath(
+                projectFilesystem, invokingRule, "__%s_kotlinc_incremental__");
+        Path incrementalClassesOutput = incrementalStateRoot.resolve("classes");
+        Path incrementalCaches = incrementalStateRoot.resolve("caches");
+        addMkdirStep(steps, projectFilesystem, buildContext, incrementalClassesOutput);
+        addMkdirStep(steps, projectFilesystem, buildContext, incrementalCaches);
+
+        steps.add(
+            new KotlincStep(
+                invokingRule,
+                incrementalClassesOutput,
+                sourcePaths,
+                pathToSrcsList,
+                allClasspaths,
+                kotlinc,
+                extraArguments.build(),
+                ImmutableList.of(VERBOSE),
+                projectFilesystem,
+                Optional.of(parameters.getOutputPaths().getWorkingDirectory()),
+                Optional.of(incrementalCaches)));
+        steps.add(
+            CopyStep.forDirectory(
+                projectFilesystem,
+                incrementalClassesOutput,
+                outputDirectory,
+                DirectoryMode.CONTENTS_ONLY));
+      } else {
+        steps.add(
+            new KotlincStep(
+                invokingRule,
+                outputDirectory,
+                sourcePaths,
+                pathToSrcsList,
+                allClasspaths,
+                kotlinc,
+                extraArguments.build(),
+                ImmutableList.of(VERBOSE),
+                projectFilesystem,
+                Optional.of(parameters.getOutputPaths().getWorkingDirectory())));
+      }
 
       // Generated classes should be part of the output. This way generated files
       // such as META-INF dirs will also be added to the final jar.
@@ -478,6 +519,17 @@ public class KotlincToJarStepFactory extends CompileToJarStepFactory implements
                 buildContext.getBuildCellRootPath(), filesystem, location)));
   }
 
+  private void addMkdirStep(
+      ImmutableList.Builder<Step> steps,
+      ProjectFilesystem filesystem,
+      BuildContext buildContext,
+      Path location) {
+    steps.add(
+        MkdirStep.of(
+            BuildCellRelativePath.fromCellRelativePath(
+                buildContext.getBuildCellRootPath(), filesystem, location)));
+  }
+
   private String encodeOptions(Map<String, String> options) {
     try (ByteArrayOutputStream os = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(os)) {
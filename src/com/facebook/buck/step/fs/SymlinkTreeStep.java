@@ -17,29 +17,63 @@
 package com.facebook.buck.step.fs;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.concurrent.ExecutorPool;
+import com.facebook.buck.util.concurrent.ParallelLoops;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SymlinkTreeStep implements Step {
 
+  /** Links are created and removed in batches of this many, spread over the CPU pool. */
+  private static final int BATCH_SIZE = 256;
+
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path root;
   private final ImmutableMap<Path, Path> links;
+  private final boolean ownsRoot;
 
   public SymlinkTreeStep(
       String category, ProjectFilesystem filesystem, Path root, ImmutableMap<Path, Path> links) {
+    this(category, filesystem, root, links, false);
+  }
+
+  /**
+   * @param ownsRoot whether {@code root} holds nothing but the links of this step. If so, the tree
+   *     left behind by a previous run is updated in place rather than having to be cleaned first:
+   *     entries that aren't in {@code links} are removed and links that already point to the right
+   *     target are kept.
+   */
+  public SymlinkTreeStep(
+      String category,
+      ProjectFilesystem filesystem,
+      Path root,
+      ImmutableMap<Path, Path> links,
+      boolean ownsRoot) {
     this.name = category + "_link_tree";
     this.filesystem = filesystem;
     this.root = root;
     this.links = links;
+    this.ownsRoot = ownsRoot;
   }
 
   @Override
@@ -54,22 +88,119 @@ public class SymlinkTreeStep implements Step {
 
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    Set<Path> upToDate = new HashSet<>();
+    if (ownsRoot) {
+      List<Path> stale = new ArrayList<>();
+      readExistingTree(upToDate, stale);
+      forEachInParallel(context, stale, MostFiles::deleteRecursivelyIfExists);
+      filesystem.mkdirs(root);
+    }
+
+    List<Map.Entry<Path, Path>> missing = new ArrayList<>(links.size() - upToDate.size());
+    for (Map.Entry<Path, Path> ent : links.entrySet()) {
+      if (!upToDate.contains(ent.getKey())) {
+        missing.add(ent);
+      }
+    }
     for (Path dir :
-        RichStream.from(links.keySet())
+        RichStream.from(missing)
+            .map(Map.Entry::getKey)
             .map(root::resolve)
             .map(Path::getParent)
             .distinct()
             .toOnceIterable()) {
       filesystem.mkdirs(dir);
     }
-    for (ImmutableMap.Entry<Path, Path> ent : links.entrySet()) {
-      Path target = filesystem.resolve(ent.getValue());
-      Path link = filesystem.resolve(root.resolve(ent.getKey()));
-      filesystem.createSymLink(link, target, true /* force */);
-    }
+    forEachInParallel(
+        context,
+        missing,
+        ent -> {
+          Path target = filesystem.resolve(ent.getValue());
+          Path link = filesystem.resolve(root.resolve(ent.getKey()));
+          // Everything in a tree we own that's not up to date has been removed already.
+          filesystem.createSymLink(link, target, !ownsRoot /* force */);
+        });
     return StepExecutionResults.SUCCESS;
   }
 
+  /**
+   * Sorts the entries of the existing tree into links that already point where they should, and
+   * anything else, which needs to be removed before the tree can be completed.
+   */
+  private void readExistingTree(Set<Path> upToDate, List<Path> stale) throws IOException {
+    Path absoluteRoot = filesystem.resolve(root);
+    if (!Files.exists(absoluteRoot, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+    if (!Files.isDirectory(absoluteRoot, LinkOption.NOFOLLOW_LINKS)) {
+      stale.add(absoluteRoot);
+      return;
+    }
+
+    Set<Path> dirs = new HashSet<>();
+    for (Path link : links.keySet()) {
+      Path dir = link.getParent();
+      while (dir != null && dirs.add(dir)) {
+        dir = dir.getParent();
+      }
+    }
+
+    Files.walkFileTree(
+        absoluteRoot,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (dir.equals(absoluteRoot) || dirs.contains(absoluteRoot.relativize(dir))) {
+              return FileVisitResult.CONTINUE;
+            }
+            // No link lives under this directory, so all of it goes.
+            stale.add(dir);
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Path relativePath = absoluteRoot.relativize(file);
+            Path target = links.get(relativePath);
+            if (target != null
+                && attrs.isSymbolicLink()
+                && Files.readSymbolicLink(file).equals(filesystem.resolve(target))) {
+              upToDate.add(relativePath);
+            } else {
+              stale.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private interface Action<T> {
+    void apply(T item) throws IOException;
+  }
+
+  /** Applies {@code action} to every item, in batches on the CPU pool. */
+  private static <T> void forEachInParallel(
+      ExecutionContext context, List<T> items, Action<T> action) throws IOException {
+    if (items.size() <= BATCH_SIZE) {
+      for (T item : items) {
+        action.apply(item);
+      }
+      return;
+    }
+
+    List<List<T>> batches = Lists.partition(items, BATCH_SIZE);
+    ParallelLoops.forEachIndex(
+        context.getExecutors().get(ExecutorPool.CPU),
+        context.getConcurrencyLimit().threadLimit,
+        batches.size(),
+        batchIndex -> {
+          for (T item : batches.get(batchIndex)) {
+            action.apply(item);
+          }
+        });
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof SymlinkTreeStep)) {
@@ -78,7 +209,8 @@ public class SymlinkTreeStep implements Step {
     SymlinkTreeStep that = (SymlinkTreeStep) obj;
     return Objects.equal(this.name, that.name)
         && Objects.equal(this.root, that.root)
-        && Objects.equal(this.links, that.links);
+        && Objects.equal(this.links, that.links)
+        && this.ownsRoot == that.ownsRoot;
   }
 
   @Override
@@ -74,4 +74,13 @@ abstract class AbstractTestRunningOptions {
   public abstract Optional<String> getCoverageIncludes();
 
   public abstract Optional<String> getJavaTempDir();
+
+  /**
+   * If positive, JUnit tests run in a pool of warm test runner JVMs, each of which is replaced
+   * after running this many test targets. 0 launches a new JVM for every test target.
+   */
+  @Value.Default
+  public int getJavaTestJvmPoolMaxUses() {
+    return 0;
+  }
 }
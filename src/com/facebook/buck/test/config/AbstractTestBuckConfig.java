@@ -112,6 +112,19 @@ public abstract class AbstractTestBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getOptionalListWithoutComments("test", "coverageExcludes", ',');
   }
 
+  /**
+   * @return how many test targets a pooled test runner JVM runs before it is replaced, or 0 if
+   *     every {@code java_test} should run in a JVM of its own.
+   */
+  public int getJavaTestJvmPoolMaxUses() {
+    int maxUses = getDelegate().getInteger(TEST_SECTION_HEADER, "java_jvm_pool_max_uses").orElse(0);
+    if (maxUses < 0) {
+      throw new HumanReadableException(
+          "test.java_jvm_pool_max_uses must not be negative (was " + maxUses + ")");
+    }
+    return maxUses;
+  }
+
   public boolean isBuildingFilteredTestsEnabled() {
     return getDelegate().getBooleanValue("test", "build_filtered_tests", false);
   }
@@ -294,6 +294,14 @@ public abstract class BaseRunner {
   }
 
   protected void runAndExit() {
+    // Explicitly exit to force the test runner to complete even if tests have sloppily left
+    // behind non-daemon threads that would have otherwise forced the process to wait and
+    // eventually timeout.
+    System.exit(runAndGetExitCode());
+  }
+
+  /** Runs the tests and returns the exit code the test runner process should exit with. */
+  protected int runAndGetExitCode() {
     int exitCode;
 
     // Run the tests.
@@ -310,10 +318,6 @@ public abstract class BaseRunner {
       // tell whether there were still tests left to be run, so it's safest if we fail.
       exitCode = 1;
     }
-
-    // Explicitly exit to force the test runner to complete even if tests have sloppily left
-    // behind non-daemon threads that would have otherwise forced the process to wait and
-    // eventually timeout.
-    System.exit(exitCode);
+    return exitCode;
   }
 }
@@ -24,6 +24,7 @@ import java.util.concurrent.Future;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkField;
 import org.junit.runners.model.FrameworkMethod;
@@ -64,6 +65,20 @@ public class BuckBlockJUnit4ClassRunner extends BlockJUnit4ClassRunner {
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
   }
 
+  /**
+   * Stops the thread created for this runner once its tests are done, so that a JVM running many
+   * test targets in turn does not accumulate idle threads.
+   */
+  @Override
+  public void run(RunNotifier notifier) {
+    try {
+      super.run(notifier);
+    } finally {
+      executor.get().shutdown();
+      executor.remove();
+    }
+  }
+
   @Override
   protected Object createTest() throws Exception {
     // Pushing tests onto threads because the test timeout has been set is Unexpected Behaviour. It
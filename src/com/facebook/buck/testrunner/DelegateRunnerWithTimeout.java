@@ -174,4 +174,10 @@ class DelegateRunnerWithTimeout extends Runner {
   private void shutdown() {
     executor.get().shutdownNow();
   }
+
+  /** Stops the thread that runners created on the calling thread run their tests on, if any. */
+  static void shutdownExecutorForCurrentThread() {
+    executor.get().shutdown();
+    executor.remove();
+  }
 }
@@ -47,4 +47,19 @@ public class JUnitMain {
     runner.parseArgs(args);
     runner.runAndExit();
   }
+
+  /**
+   * Entry point used by {@link com.facebook.buck.jvm.java.runner.PooledClassPathRunner}, which runs
+   * many test targets in one JVM and therefore must not be exited.
+   *
+   * @return the exit code {@link #main} would have exited with.
+   */
+  public static int runInProcess(String[] args) {
+    CheckDependency.isPresent("junit", "org.junit.Test");
+    CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
+
+    JUnitRunner runner = new JUnitRunner();
+    runner.parseArgs(args);
+    return runner.runAndGetExitCode();
+  }
 }
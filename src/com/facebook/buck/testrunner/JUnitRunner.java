@@ -84,22 +84,27 @@ public final class JUnitRunner extends BaseRunner {
       stdErrLogLevel = Level.parse(unparsedStdErrLogLevel);
     }
 
-    for (String className : testClassNames) {
-      Class<?> testClass = Class.forName(className);
-
-      List<TestResult> results = new ArrayList<>();
-      RecordingFilter filter = new RecordingFilter();
-      if (mightBeATestClass(testClass)) {
-        JUnitCore jUnitCore = new JUnitCore();
-        Runner suite = new Computer().getSuite(createRunnerBuilder(), new Class<?>[] {testClass});
-        Request request = Request.runner(suite);
-        request = request.filterWith(filter);
-        jUnitCore.addListener(new TestListener(results, stdOutLogLevel, stdErrLogLevel));
-        jUnitCore.run(request);
+    try {
+      for (String className : testClassNames) {
+        Class<?> testClass = Class.forName(className);
+
+        List<TestResult> results = new ArrayList<>();
+        RecordingFilter filter = new RecordingFilter();
+        if (mightBeATestClass(testClass)) {
+          JUnitCore jUnitCore = new JUnitCore();
+          Runner suite = new Computer().getSuite(createRunnerBuilder(), new Class<?>[] {testClass});
+          Request request = Request.runner(suite);
+          request = request.filterWith(filter);
+          jUnitCore.addListener(new TestListener(results, stdOutLogLevel, stdErrLogLevel));
+          jUnitCore.run(request);
+        }
+        // Combine the results with the tests we filtered out
+        List<TestResult> actualResults = combineResults(results, filter.filteredOut);
+        writeResult(className, actualResults);
       }
-      // Combine the results with the tests we filtered out
-      List<TestResult> actualResults = combineResults(results, filter.filteredOut);
-      writeResult(className, actualResults);
+    } finally {
+      // Pooled test runner JVMs run many targets, so don't leave the runner threads behind.
+      DelegateRunnerWithTimeout.shutdownExecutorForCurrentThread();
     }
   }
 
@@ -45,17 +45,24 @@ class DefaultJarContentHasher implements JarContentHasher {
     return jarRelativePath;
   }
 
+  /**
+   * Returns the hashes of the jar's members, preferring the digests that {@link
+   * CustomJarOutputStream} records in the manifest. Jars without them (e.g. prebuilt jars) are
+   * hashed member by member instead, via a sidecar index persisted in buck-out.
+   */
   @Override
   public ImmutableMap<Path, HashCodeAndFileType> getContentHashes() throws IOException {
     Manifest manifest = filesystem.getJarManifest(jarRelativePath);
-    if (manifest == null) {
-      throw new UnsupportedOperationException(
-          "Cache does not know how to return hash codes for archive members except "
-              + "when the archive contains a META-INF/MANIFEST.MF with "
-              + CustomJarOutputStream.DIGEST_ATTRIBUTE_NAME
-              + " attributes for each file.");
+    if (manifest != null) {
+      ImmutableMap<Path, HashCodeAndFileType> manifestHashes = getManifestHashes(manifest);
+      if (!manifestHashes.isEmpty()) {
+        return manifestHashes;
+      }
     }
+    return new JarMemberHashIndex(filesystem).getMemberHashes(jarRelativePath);
+  }
 
+  private static ImmutableMap<Path, HashCodeAndFileType> getManifestHashes(Manifest manifest) {
     ImmutableMap.Builder<Path, HashCodeAndFileType> builder = ImmutableMap.builder();
     for (Map.Entry<String, Attributes> nameAttributesEntry : manifest.getEntries().entrySet()) {
       Path memberPath = Paths.get(nameAttributesEntry.getKey());
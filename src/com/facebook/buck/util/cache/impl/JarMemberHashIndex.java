@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Per-member hashes for jars whose manifest does not carry digest attributes (e.g. prebuilt jars),
+ * persisted in buck-out as a sidecar file keyed by the SHA-1 of the jar's contents.
+ *
+ * <p>Members are hashed with the same function {@link
+ * com.facebook.buck.util.zip.CustomJarOutputStream} uses for its manifest digests, so a member
+ * hashes the same whether it came from a jar Buck built or from a prebuilt one.
+ */
+class JarMemberHashIndex {
+  private static final Logger LOG = Logger.get(JarMemberHashIndex.class);
+
+  private static final HashFunction MEMBER_HASH_FUNCTION = Hashing.murmur3_128();
+
+  /** Bump whenever the sidecar format or the member hash function changes. */
+  private static final String INDEX_VERSION = "v1";
+
+  private static final String INDEX_DIR_NAME = "jar_member_hashes";
+
+  private final ProjectFilesystem filesystem;
+
+  JarMemberHashIndex(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+  }
+
+  /**
+   * Returns the hashes of all file members of the given jar, reading them from the sidecar if one
+   * exists for the jar's current contents and computing (and persisting) them otherwise.
+   */
+  ImmutableMap<Path, HashCodeAndFileType> getMemberHashes(Path jarRelativePath)
+      throws IOException {
+    if (!canPersist()) {
+      return computeMemberHashes(jarRelativePath);
+    }
+
+    HashCode jarHash = filesystem.computeSha1(jarRelativePath).asHashCode();
+    Path indexPath = getIndexPath(jarHash);
+    if (filesystem.isFile(indexPath)) {
+      try {
+        return readIndex(indexPath);
+      } catch (IllegalArgumentException e) {
+        LOG.warn(e, "Ignoring corrupt jar member hash index %s", indexPath);
+      }
+    }
+
+    ImmutableMap<Path, HashCodeAndFileType> memberHashes = computeMemberHashes(jarRelativePath);
+    try {
+      writeIndex(indexPath, memberHashes);
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to persist jar member hash index for %s", jarRelativePath);
+    }
+    return memberHashes;
+  }
+
+  @VisibleForTesting
+  Path getIndexPath(HashCode jarHash) {
+    String hash = jarHash.toString();
+    return filesystem
+        .getBuckPaths()
+        .getBuckOut()
+        .resolve(INDEX_DIR_NAME)
+        .resolve(INDEX_VERSION)
+        .resolve(hash.substring(0, 2))
+        .resolve(hash);
+  }
+
+  /**
+   * Filesystems without a buck-out (such as those rooted at an OS root directory, used to hash
+   * absolute paths) only get in-memory caching.
+   */
+  private boolean canPersist() {
+    return filesystem.isDirectory(filesystem.getBuckPaths().getBuckOut());
+  }
+
+  /**
+   * Hashes every file member in a single streaming pass over the jar. Some jars have several
+   * members with the same name, of which only the first is hashed, like {@link
+   * java.util.jar.JarFile} only reads the first.
+   */
+  private ImmutableMap<Path, HashCodeAndFileType> computeMemberHashes(Path jarRelativePath)
+      throws IOException {
+    Map<Path, HashCodeAndFileType> memberHashes = new HashMap<>();
+    byte[] buffer = new byte[64 * 1024];
+    try (ZipInputStream zip =
+        new ZipInputStream(filesystem.newFileInputStream(jarRelativePath))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        Path member = Paths.get(entry.getName());
+        if (entry.isDirectory() || memberHashes.containsKey(member)) {
+          continue;
+        }
+        memberHashes.put(member, HashCodeAndFileType.ofFile(hash(zip, buffer)));
+      }
+    }
+    return ImmutableSortedMap.copyOf(memberHashes);
+  }
+
+  private static HashCode hash(InputStream stream, byte[] buffer) throws IOException {
+    Hasher hasher = MEMBER_HASH_FUNCTION.newHasher();
+    for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+      hasher.putBytes(buffer, 0, read);
+    }
+    return hasher.hash();
+  }
+
+  private ImmutableMap<Path, HashCodeAndFileType> readIndex(Path indexPath) throws IOException {
+    List<String> lines = filesystem.readLines(indexPath);
+    ImmutableMap.Builder<Path, HashCodeAndFileType> builder =
+        ImmutableMap.builderWithExpectedSize(lines.size());
+    for (String line : lines) {
+      int separator = line.indexOf(' ');
+      if (separator == -1) {
+        throw new IllegalArgumentException("Malformed line: " + line);
+      }
+      builder.put(
+          Paths.get(line.substring(separator + 1)),
+          HashCodeAndFileType.ofFile(HashCode.fromString(line.substring(0, separator))));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Writes to a temporary file next to the index and moves it into place, so that concurrent
+   * readers (and other buck processes sharing the buck-out) never observe a partial index.
+   */
+  private void writeIndex(Path indexPath, ImmutableMap<Path, HashCodeAndFileType> memberHashes)
+      throws IOException {
+    filesystem.mkdirs(indexPath.getParent());
+    Path tempPath = filesystem.createTempFile(indexPath.getParent(), "index", ".tmp");
+    try {
+      filesystem.writeLinesToPath(
+          () -> memberHashes.entrySet().stream().map(JarMemberHashIndex::formatLine).iterator(),
+          tempPath);
+      filesystem.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tempPath);
+    }
+  }
+
+  private static String formatLine(Map.Entry<Path, HashCodeAndFileType> entry) {
+    return entry.getValue().getHashCode() + " " + entry.getKey();
+  }
+}
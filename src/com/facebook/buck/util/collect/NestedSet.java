@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.collect;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * An immutable set made of its own elements and of other nested sets, which are shared rather than
+ * copied. Building a set that includes the sets of all of a node's dependencies costs as much as
+ * the number of dependencies, not as much as the number of transitive elements, so a graph of sets
+ * takes space proportional to its edges.
+ *
+ * <p>The elements are only collected when the set is flattened. Flattening visits the set's own
+ * elements first, then each nested set in the order it was added, depth first. Nested sets are
+ * visited once, however many times they are reachable, and equal elements are only returned the
+ * first time they are found, so the result is deterministic.
+ *
+ * <p>A set can also record an {@link #getOrder() order} in which its elements are listed when the
+ * set is used on its own, e.g. as a sorted map. Flattening ignores it, since sets nested in others
+ * are flattened as part of them.
+ */
+public final class NestedSet<T> {
+  private static final NestedSet<Object> EMPTY =
+      new NestedSet<>(ImmutableList.of(), ImmutableList.of(), Optional.empty());
+
+  private final ImmutableList<T> direct;
+  private final ImmutableList<NestedSet<T>> transitive;
+  private final Optional<Comparator<? super T>> order;
+
+  private NestedSet(
+      ImmutableList<T> direct,
+      ImmutableList<NestedSet<T>> transitive,
+      Optional<Comparator<? super T>> order) {
+    this.direct = direct;
+    this.transitive = transitive;
+    this.order = order;
+  }
+
+  /** @return the empty set. */
+  @SuppressWarnings("unchecked")
+  public static <T> NestedSet<T> of() {
+    return (NestedSet<T>) EMPTY;
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  public boolean isEmpty() {
+    return this == EMPTY;
+  }
+
+  /**
+   * @return the order in which this set's elements are listed when it's used on its own, or empty
+   *     if they are listed in the order the set is flattened in.
+   */
+  public Optional<Comparator<? super T>> getOrder() {
+    return order;
+  }
+
+  /** @return the elements of this set and of all the sets nested in it, without duplicates. */
+  public ImmutableList<T> toList() {
+    return new Flattener<T>().flatten(this);
+  }
+
+  /**
+   * @return the elements of this set and of all the sets nested in it, without duplicates, level by
+   *     level: this set's own elements, then those of the sets nested in it, then those of the sets
+   *     nested in those, and so on. When every node of a graph has a set made of itself and of the
+   *     sets of its children, this is the order in which a breadth first traversal finds the nodes.
+   */
+  public ImmutableList<T> toBreadthFirstList() {
+    ImmutableList.Builder<T> elements = ImmutableList.builder();
+    Set<T> seen = new HashSet<>();
+    Set<NestedSet<T>> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+    Queue<NestedSet<T>> queue = new ArrayDeque<>();
+    queue.add(this);
+    while (!queue.isEmpty()) {
+      NestedSet<T> current = queue.remove();
+      for (T element : current.direct) {
+        if (seen.add(element)) {
+          elements.add(element);
+        }
+      }
+      for (NestedSet<T> nested : current.transitive) {
+        if (queued.add(nested)) {
+          queue.add(nested);
+        }
+      }
+    }
+    return elements.build();
+  }
+
+  /** Builds a {@link NestedSet}. */
+  public static final class Builder<T> {
+    private final ImmutableSet.Builder<T> direct = ImmutableSet.builder();
+    private final Set<NestedSet<T>> transitive = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ImmutableList.Builder<NestedSet<T>> transitiveInOrder = ImmutableList.builder();
+    private Optional<Comparator<? super T>> order = Optional.empty();
+    private boolean hasDirect = false;
+
+    private Builder() {}
+
+    /** Records the order in which the set's elements are listed when it's used on its own. */
+    public Builder<T> setOrder(Comparator<? super T> order) {
+      this.order = Optional.of(order);
+      return this;
+    }
+
+    public Builder<T> add(T element) {
+      direct.add(element);
+      hasDirect = true;
+      return this;
+    }
+
+    public Builder<T> addAll(Iterable<? extends T> elements) {
+      for (T element : elements) {
+        add(element);
+      }
+      return this;
+    }
+
+    /** Adds all the elements of {@code set}, without copying them. */
+    public Builder<T> addTransitive(NestedSet<T> set) {
+      if (!set.isEmpty() && transitive.add(set)) {
+        transitiveInOrder.add(set);
+      }
+      return this;
+    }
+
+    public NestedSet<T> build() {
+      ImmutableList<NestedSet<T>> nested = transitiveInOrder.build();
+      if (!hasDirect) {
+        if (nested.isEmpty()) {
+          return of();
+        }
+        if (nested.size() == 1 && nested.get(0).order.equals(order)) {
+          // Reuse the only nested set rather than wrapping it.
+          return nested.get(0);
+        }
+      }
+      return new NestedSet<>(direct.build().asList(), nested, order);
+    }
+  }
+
+  /**
+   * Flattens several sets in turn, returning only the elements that no earlier call returned.
+   * Subsets shared between the sets are only visited once overall.
+   */
+  public static final class Flattener<T> {
+    private final Set<NestedSet<T>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<T> seen = new HashSet<>();
+
+    /** @return the elements of {@code set} that no earlier call returned. */
+    public ImmutableList<T> flatten(NestedSet<T> set) {
+      ImmutableList.Builder<T> elements = ImmutableList.builder();
+      // Iterative, since sets nest as deeply as the dependency graphs they are built from.
+      Deque<NestedSet<T>> stack = new ArrayDeque<>();
+      stack.push(set);
+      while (!stack.isEmpty()) {
+        NestedSet<T> current = stack.pop();
+        if (!visited.add(current)) {
+          continue;
+        }
+        for (T element : current.direct) {
+          if (seen.add(element)) {
+            elements.add(element);
+          }
+        }
+        for (int i = current.transitive.size() - 1; i >= 0; i--) {
+          stack.push(current.transitive.get(i));
+        }
+      }
+      return elements.build();
+    }
+  }
+}
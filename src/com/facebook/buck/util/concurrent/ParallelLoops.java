@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/** Runs the iterations of a loop in parallel, with the calling thread taking part. */
+public class ParallelLoops {
+
+  /** The body of a loop over indices, which may throw up to two kinds of checked exceptions. */
+  @FunctionalInterface
+  public interface Body<E1 extends Exception, E2 extends Exception> {
+    void run(int index) throws E1, E2;
+  }
+
+  private ParallelLoops() {}
+
+  /**
+   * Runs {@code body} for every index from 0 to {@code count} on up to {@code threads} threads.
+   *
+   * <p>Indices are handed out one at a time from a shared counter. The calling thread keeps taking
+   * them until all have been taken, so a busy {@code executor} only reduces parallelism and never
+   * blocks the caller. Without an {@code executor}, e.g. when a step runs without a CPU pool, the
+   * calling thread runs every index. Once an index fails, higher indices which haven't started are
+   * skipped.
+   *
+   * @throws E1 if the body throws it for some index. Whatever the body throws for the lowest index
+   *     that fails is rethrown, as a sequential loop would have, be it checked or not.
+   */
+  public static <E1 extends Exception, E2 extends Exception> void forEachIndex(
+      @Nullable Executor executor, int threads, int count, Body<E1, E2> body) throws E1, E2 {
+    Preconditions.checkArgument(threads > 0, "threads must be positive");
+    Failure failure = new Failure();
+    AtomicInteger nextIndex = new AtomicInteger();
+    CountDownLatch remainingIndices = new CountDownLatch(count);
+    Runnable worker =
+        () -> {
+          int index;
+          while ((index = nextIndex.getAndIncrement()) < count) {
+            try {
+              if (!failure.isBefore(index)) {
+                body.run(index);
+              }
+            } catch (Throwable t) {
+              failure.record(index, t);
+            } finally {
+              remainingIndices.countDown();
+            }
+          }
+        };
+
+    if (executor != null) {
+      try {
+        for (int i = 1; i < Math.min(threads, count); i++) {
+          executor.execute(worker);
+        }
+      } catch (RejectedExecutionException e) {
+        // The calling thread takes whatever the others don't.
+      }
+    }
+    worker.run();
+    // Every index has been taken at this point; wait for the others to finish theirs.
+    Uninterruptibles.awaitUninterruptibly(remainingIndices);
+
+    Throwable t = failure.get();
+    if (t != null) {
+      Throwables.throwIfUnchecked(t);
+      // Anything else was thrown by the body, so is an E1 or an E2, which erase alike.
+      @SuppressWarnings("unchecked")
+      E1 checked = (E1) t;
+      throw checked;
+    }
+  }
+
+  /** The failure of the lowest index that failed so far. */
+  private static class Failure {
+    private int index = Integer.MAX_VALUE;
+    @Nullable private Throwable throwable;
+
+    synchronized boolean isBefore(int other) {
+      return index < other;
+    }
+
+    synchronized void record(int index, Throwable throwable) {
+      if (index < this.index) {
+        this.index = index;
+        this.throwable = throwable;
+      }
+    }
+
+    @Nullable
+    synchronized Throwable get() {
+      return throwable;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ApkZipWriterTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutorService executor;
+  private Path resources;
+  private List<ApkZipWriter.Entry> entries;
+
+  @Before
+  public void setUp() throws IOException {
+    executor = Executors.newFixedThreadPool(4);
+
+    resources = tmp.getRoot().resolve("resources.ap_");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(resources))) {
+      out.setLevel(Deflater.BEST_COMPRESSION);
+      out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      out.write(Strings.repeat("<manifest/>", 100).getBytes(StandardCharsets.UTF_8));
+      putStoredEntry(out, "resources.arsc", "arsc");
+      putStoredEntry(out, "res/drawable/image.png", "png");
+      out.putNextEntry(new ZipEntry("res/"));
+    }
+
+    entries = new ArrayList<>();
+    for (ApkZipWriter.Entry entry : ApkZipWriter.readZipEntries(resources)) {
+      if (!entry.getName().endsWith("/")) {
+        entries.add(entry);
+      }
+    }
+    entries.add(ApkZipWriter.ofFile("classes.dex", writeFile("classes.dex", "dex")));
+    for (int i = 0; i < 20; i++) {
+      String name = String.format("assets/asset_%d", i);
+      entries.add(ApkZipWriter.ofFile(name, writeFile(name, Strings.repeat("asset", i))));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void writesAllEntriesInOrder() throws IOException {
+    Path apk = tmp.getRoot().resolve("app.apk");
+    ApkZipWriter.write(apk, entries, executor, 4);
+
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("AndroidManifest.xml", Strings.repeat("<manifest/>", 100));
+    expected.put("resources.arsc", "arsc");
+    expected.put("res/drawable/image.png", "png");
+    expected.put("classes.dex", "dex");
+    for (int i = 0; i < 20; i++) {
+      expected.put(String.format("assets/asset_%d", i), Strings.repeat("asset", i));
+    }
+    ImmutableMap<String, String> contents = readContents(apk);
+    assertEquals(expected, contents);
+    assertEquals(ImmutableList.copyOf(expected.keySet()), contents.keySet().asList());
+  }
+
+  @Test
+  public void copiesZipEntriesWithoutRecompressingThem() throws IOException {
+    Path apk = tmp.getRoot().resolve("app.apk");
+    ApkZipWriter.write(apk, entries, executor, 4);
+
+    try (ZipFile input = new ZipFile(resources.toFile());
+        ZipFile output = new ZipFile(apk.toFile())) {
+      for (String name : ImmutableList.of("AndroidManifest.xml", "resources.arsc")) {
+        ZipEntry inputEntry = input.getEntry(name);
+        ZipEntry outputEntry = output.getEntry(name);
+        assertEquals(name, inputEntry.getMethod(), outputEntry.getMethod());
+        assertEquals(name, inputEntry.getCompressedSize(), outputEntry.getCompressedSize());
+        assertEquals(name, inputEntry.getCrc(), outputEntry.getCrc());
+      }
+      assertEquals(ZipEntry.DEFLATED, output.getEntry("classes.dex").getMethod());
+    }
+  }
+
+  @Test
+  public void alignsUncompressedEntries() throws IOException {
+    Path apk = tmp.getRoot().resolve("app.apk");
+    ApkZipWriter.write(apk, entries, executor, 4);
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(apk)).order(ByteOrder.LITTLE_ENDIAN);
+    int storedEntries = 0;
+    int offset = 0;
+    while (buffer.getInt(offset) == ZipEntry.LOCSIG) {
+      int dataOffset =
+          offset
+              + ZipEntry.LOCHDR
+              + buffer.getShort(offset + ZipEntry.LOCNAM)
+              + buffer.getShort(offset + ZipEntry.LOCEXT);
+      if (buffer.getShort(offset + ZipEntry.LOCHOW) == ZipEntry.STORED) {
+        storedEntries++;
+        assertEquals(0, dataOffset % 4);
+      }
+      offset = dataOffset + buffer.getInt(offset + ZipEntry.LOCSIZ);
+    }
+    assertEquals(2, storedEntries);
+  }
+
+  @Test
+  public void outputDoesNotDependOnParallelism() throws IOException {
+    Path sequential = tmp.getRoot().resolve("sequential.apk");
+    ApkZipWriter.write(sequential, entries, executor, 1);
+    Path parallel = tmp.getRoot().resolve("parallel.apk");
+    ApkZipWriter.write(parallel, entries, executor, 4);
+
+    assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+  }
+
+  @Test(expected = IOException.class)
+  public void failsWhenAFileIsMissing() throws IOException {
+    ApkZipWriter.write(
+        tmp.getRoot().resolve("app.apk"),
+        Collections.singletonList(
+            ApkZipWriter.ofFile("classes.dex", tmp.getRoot().resolve("missing.dex"))),
+        executor,
+        4);
+  }
+
+  private Path writeFile(String name, String contents) throws IOException {
+    Path file = tmp.getRoot().resolve("files").resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static void putStoredEntry(ZipOutputStream out, String name, String contents)
+      throws IOException {
+    byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(bytes.length);
+    entry.setCompressedSize(bytes.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(bytes);
+  }
+
+  private static ImmutableMap<String, String> readContents(Path zip) throws IOException {
+    ImmutableMap.Builder<String, String> contents = ImmutableMap.builder();
+    try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        try (InputStream stream = zipFile.getInputStream(entry)) {
+          contents.put(
+              entry.getName(), new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return contents.build();
+  }
+}
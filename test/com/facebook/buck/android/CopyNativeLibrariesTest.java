@@ -143,6 +143,31 @@ public class CopyNativeLibrariesTest {
         Matchers.greaterThan(Iterables.indexOf(descriptions, Predicates.containsPattern("lib2"))));
   }
 
+  @Test
+  public void testMetadataStepHashesLibrariesOfEveryAbi() throws Exception {
+    Path allLibsDir = filesystem.getPath("native");
+    ImmutableList<String> libs =
+        ImmutableList.of(
+            "libs/armeabi-v7a/liba.so",
+            "libs/armeabi-v7a/libb.so",
+            "libs/x86/liba.so",
+            "assetLibs/x86/libc.so");
+    for (String lib : libs) {
+      filesystem.mkdirs(allLibsDir.resolve(lib).getParent());
+      filesystem.writeContentsToPath(lib, allLibsDir.resolve(lib));
+    }
+    Path metadataTxt = filesystem.getPath("metadata.txt");
+
+    CopyNativeLibraries.createMetadataStep(filesystem, metadataTxt, allLibsDir)
+        .execute(TestExecutionContext.newInstance());
+
+    ImmutableSet.Builder<String> expected = ImmutableSet.builder();
+    for (String lib : libs) {
+      expected.add(lib + " " + filesystem.computeSha1(allLibsDir.resolve(lib)));
+    }
+    assertEquals(expected.build(), ImmutableSet.copyOf(filesystem.readLines(metadataTxt)));
+  }
+
   private void createAndroidBinaryRuleAndTestCopyNativeLibraryCommand(
       BuildContext context,
       ImmutableSet<TargetCpuType> cpuFilters,
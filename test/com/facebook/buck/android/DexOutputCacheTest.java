@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DexOutputCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void noCacheWithoutBuckOut() {
+    assertFalse(DexOutputCache.of(filesystem).isPresent());
+  }
+
+  @Test
+  public void restoresStoredOutputs() throws IOException {
+    filesystem.mkdirs(filesystem.getBuckPaths().getBuckOut());
+    DexOutputCache cache = DexOutputCache.of(filesystem).get();
+    Path dexJar = Paths.get("secondary-1.dex.jar");
+    Path meta = Paths.get("secondary-1.dex.jar.meta");
+    filesystem.writeContentsToPath("dex", dexJar);
+    filesystem.writeContentsToPath("jar:3 dex:3", meta);
+
+    String key = Strings.repeat("a", 40);
+    assertFalse(cache.restore(key, dexJar, Optional.of(meta)));
+    cache.store(key, dexJar, Optional.of(meta));
+
+    Path otherDexJar = Paths.get("secondary-2.dex.jar");
+    Path otherMeta = Paths.get("secondary-2.dex.jar.meta");
+    assertTrue(cache.restore(key, otherDexJar, Optional.of(otherMeta)));
+    assertEquals(Optional.of("dex"), filesystem.readFileIfItExists(otherDexJar));
+    assertEquals(Optional.of("jar:3 dex:3"), filesystem.readFileIfItExists(otherMeta));
+  }
+
+  @Test
+  public void trimEvictsLeastRecentlyUsedEntries() throws IOException, InterruptedException {
+    filesystem.mkdirs(filesystem.getBuckPaths().getBuckOut());
+    DexOutputCache cache = new DexOutputCache(filesystem, 8);
+    Path dex = Paths.get("classes.dex");
+    filesystem.writeContentsToPath("dex!", dex);
+
+    String first = Strings.repeat("a", 40);
+    String second = Strings.repeat("b", 40);
+    String third = Strings.repeat("c", 40);
+    cache.store(first, dex, Optional.empty());
+    cache.store(second, dex, Optional.empty());
+    // Make sure the entries are distinguishable even with coarse file times.
+    Thread.sleep(1100);
+    cache.restore(first, dex, Optional.empty());
+    cache.store(third, dex, Optional.empty());
+    cache.trim();
+
+    assertTrue(cache.restore(first, dex, Optional.empty()));
+    assertFalse(cache.restore(second, dex, Optional.empty()));
+    assertTrue(cache.restore(third, dex, Optional.empty()));
+  }
+}
@@ -96,7 +96,7 @@ public class DummyRDotJavaTest {
 
     FakeBuildableContext buildableContext = new FakeBuildableContext();
     List<Step> steps = dummyRDotJava.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, buildableContext);
-    assertEquals("DummyRDotJava returns an incorrect number of Steps.", 14, steps.size());
+    assertEquals("DummyRDotJava returns an incorrect number of Steps.", 13, steps.size());
 
     Path rDotJavaSrcFolder =
         DummyRDotJava.getRDotJavaSrcFolder(dummyRDotJava.getBuildTarget(), filesystem);
@@ -124,7 +124,7 @@ public class DummyRDotJavaTest {
 
     List<String> expectedStepDescriptions =
         new ImmutableList.Builder<String>()
-            .addAll(makeCleanDirDescription(rDotJavaSrcFolder))
+            .add(String.format("mkdir -p %s", rDotJavaSrcFolder))
             .add("android-res-merge " + Joiner.on(' ').join(sortedSymbolsFiles))
             .add("android-res-merge " + Joiner.on(' ').join(sortedSymbolsFiles))
             .addAll(makeCleanDirDescription(rDotJavaBinFolder))
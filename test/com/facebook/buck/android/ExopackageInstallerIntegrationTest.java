@@ -222,6 +222,18 @@ public class ExopackageInstallerIntegrationTest {
     checkExoInstall(0, 0, 0, 0, 0);
   }
 
+  @Test
+  public void testExoInstallSendsFilesOfAllTypesInOneTransfer() throws Exception {
+    setDefaultFullBuildState();
+
+    checkExoInstall(1, 2, 2, 3, 2);
+    // One transfer for the dexes, libs, resources and modules, and one for their metadata.
+    assertEquals(2, device.getFileTransfers());
+
+    checkExoInstall(0, 0, 0, 0, 0);
+    assertEquals(1, device.getFileTransfers());
+  }
+
   private void setDefaultFullBuildState() {
     currentBuildState =
         new ExoState(
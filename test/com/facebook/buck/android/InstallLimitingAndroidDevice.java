@@ -47,6 +47,7 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
   private List<Path> installedLibs;
   private List<Path> installedResources;
   private List<Path> installedModules;
+  private int fileTransfers;
 
   private final Path apkPath;
   private final Path agentApkPath;
@@ -139,6 +140,7 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
 
   @Override
   public void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception {
+    fileTransfers++;
     for (Map.Entry<Path, Path> entry : installPaths.entrySet()) {
       validateInstallFile(entry.getKey(), entry.getValue());
     }
@@ -162,6 +164,12 @@ class InstallLimitingAndroidDevice extends DelegatingAndroidDevice {
     installedLibs.clear();
     installedResources.clear();
     installedModules.clear();
+    fileTransfers = 0;
+  }
+
+  /** Returns the number of times files were sent to the device since the counts were last set. */
+  public int getFileTransfers() {
+    return fileTransfers;
   }
 
   public void assertExpectedInstallsAreConsumed() {
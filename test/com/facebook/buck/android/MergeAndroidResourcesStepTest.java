@@ -25,6 +25,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.MergeAndroidResourcesStep.DuplicateResourceException;
 import com.facebook.buck.android.aapt.RDotTxtEntry;
@@ -52,6 +53,7 @@ import com.google.common.collect.SortedSetMultimap;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -833,6 +835,132 @@ public class MergeAndroidResourcesStepTest {
     assertThat(resR2Java, StringContains.containsString("static final int id2=0x07f01002;"));
   }
 
+  @Test
+  public void testUnchangedRDotJavaIsNotRewritten() throws Exception {
+    BuildTarget res1Target = BuildTargetFactory.newInstance("//:res1");
+    RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
+    entriesBuilder.add(
+        new RDotTxtFile(
+            "com.res1",
+            BuildTargetPaths.getGenPath(
+                    entriesBuilder.getProjectFilesystem(), res1Target, "__%s_text_symbols__/R.txt")
+                .toString(),
+            ImmutableList.of("int id id1 0x7f020000")));
+    FakeProjectFilesystem filesystem = entriesBuilder.getProjectFilesystem();
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+
+    AndroidResource res1 =
+        AndroidResourceRuleBuilder.newBuilder()
+            .setRuleFinder(graphBuilder)
+            .setBuildTarget(res1Target)
+            .setRes(FakeSourcePath.of("res1"))
+            .setRDotJavaPackage("res1")
+            .build();
+    graphBuilder.addToIndex(res1);
+
+    MergeAndroidResourcesStep mergeStep =
+        MergeAndroidResourcesStep.createStepForDummyRDotJava(
+            filesystem,
+            graphBuilder.getSourcePathResolver(),
+            ImmutableList.of(res1),
+            Paths.get("output"),
+            /* forceFinalResourceIds */ false,
+            /* unionPackage */ Optional.empty(),
+            /* rName */ Optional.empty(),
+            /* useOldStyleableFormat */ false,
+            /* skipNonUnionRDotJava */ false);
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    Path rDotJava = Paths.get("output/res1/R.java");
+    FileTime modifiedTime = FileTime.fromMillis(1000);
+    filesystem.setLastModifiedTime(rDotJava, modifiedTime);
+
+    assertEquals(0, mergeStep.execute(executionContext).getExitCode());
+    assertEquals(modifiedTime, filesystem.getLastModifiedTime(rDotJava));
+  }
+
+  @Test
+  public void testRDotJavaForRemovedPackageIsDeleted() throws Exception {
+    BuildTarget res1Target = BuildTargetFactory.newInstance("//:res1");
+    RDotTxtEntryBuilder entriesBuilder = new RDotTxtEntryBuilder();
+    entriesBuilder.add(
+        new RDotTxtFile(
+            "com.res1",
+            BuildTargetPaths.getGenPath(
+                    entriesBuilder.getProjectFilesystem(), res1Target, "__%s_text_symbols__/R.txt")
+                .toString(),
+            ImmutableList.of("int id id1 0x7f020000")));
+    FakeProjectFilesystem filesystem = entriesBuilder.getProjectFilesystem();
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+
+    AndroidResource res1 =
+        AndroidResourceRuleBuilder.newBuilder()
+            .setRuleFinder(graphBuilder)
+            .setBuildTarget(res1Target)
+            .setRes(FakeSourcePath.of("res1"))
+            .setRDotJavaPackage("res1")
+            .build();
+    graphBuilder.addToIndex(res1);
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+
+    assertEquals(
+        0,
+        MergeAndroidResourcesStep.createStepForDummyRDotJava(
+                filesystem,
+                graphBuilder.getSourcePathResolver(),
+                ImmutableList.of(res1),
+                Paths.get("output"),
+                /* forceFinalResourceIds */ false,
+                Optional.of("com.union"),
+                /* rName */ Optional.empty(),
+                /* useOldStyleableFormat */ false,
+                /* skipNonUnionRDotJava */ false)
+            .execute(executionContext)
+            .getExitCode());
+    assertTrue(filesystem.isFile(Paths.get("output/com/union/R.java")));
+    filesystem.writeContentsToPath("", Paths.get("output/com/union/R2.java"));
+
+    assertEquals(
+        0,
+        MergeAndroidResourcesStep.createStepForDummyRDotJava(
+                filesystem,
+                graphBuilder.getSourcePathResolver(),
+                ImmutableList.of(res1),
+                Paths.get("output"),
+                /* forceFinalResourceIds */ false,
+                /* unionPackage */ Optional.empty(),
+                /* rName */ Optional.empty(),
+                /* useOldStyleableFormat */ false,
+                /* skipNonUnionRDotJava */ false)
+            .execute(executionContext)
+            .getExitCode());
+    assertTrue(filesystem.isFile(Paths.get("output/res1/R.java")));
+    assertFalse(filesystem.exists(Paths.get("output/com/union/R.java")));
+    assertTrue(
+        "files generated by other merge steps are kept",
+        filesystem.isFile(Paths.get("output/com/union/R2.java")));
+
+    filesystem.deleteFileAtPath(Paths.get("output/com/union/R2.java"));
+    assertEquals(
+        0,
+        MergeAndroidResourcesStep.createStepForDummyRDotJava(
+                filesystem,
+                graphBuilder.getSourcePathResolver(),
+                ImmutableList.of(),
+                Paths.get("output"),
+                /* forceFinalResourceIds */ false,
+                /* unionPackage */ Optional.empty(),
+                /* rName */ Optional.empty(),
+                /* useOldStyleableFormat */ false,
+                /* skipNonUnionRDotJava */ false)
+            .execute(executionContext)
+            .getExitCode());
+    assertFalse(filesystem.exists(Paths.get("output/res1/R.java")));
+  }
+
   @Test
   public void testDuplicateBanning() throws Exception {
     BuildTarget res1Target = BuildTargetFactory.newInstance("//:res1");
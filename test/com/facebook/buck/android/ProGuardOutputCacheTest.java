@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ProGuardOutputCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final ImmutableList<String> COMMAND =
+      ImmutableList.of("java", "-jar", "proguard.jar", "@command-line.txt");
+
+  private ProjectFilesystem filesystem;
+  private ProGuardOutputCache cache;
+  private Path proguardJar;
+  private Path commandLine;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(filesystem.getBuckPaths().getBuckOut());
+    cache = ProGuardOutputCache.of(filesystem).get();
+
+    proguardJar = filesystem.resolve("proguard.jar");
+    filesystem.writeContentsToPath("proguard", proguardJar);
+    filesystem.writeContentsToPath("classes", Paths.get("in.jar"));
+    filesystem.writeContentsToPath("android", Paths.get("android.jar"));
+    filesystem.writeContentsToPath("library", Paths.get("library.jar"));
+    filesystem.writeContentsToPath("-include included.pro\n", Paths.get("app.pro"));
+    filesystem.writeContentsToPath(
+        "# Names\n-obfuscationdictionary 'dictionary.txt'\n", Paths.get("included.pro"));
+    filesystem.writeContentsToPath("a\nb\n", Paths.get("dictionary.txt"));
+
+    commandLine = Paths.get("command-line.txt");
+    filesystem.writeContentsToPath(
+        String.join(
+            "\n",
+            "-include",
+            "\"app.pro\"",
+            "-injars",
+            "in.jar",
+            "-outjars",
+            "out.jar",
+            "-libraryjars",
+            "android.jar" + File.pathSeparatorChar + "library.jar",
+            "-printmapping",
+            "mapping.txt"),
+        commandLine);
+  }
+
+  @Test
+  public void noCacheWithoutBuckOut() throws IOException {
+    ProjectFilesystem other = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder());
+    assertFalse(ProGuardOutputCache.of(other).isPresent());
+  }
+
+  @Test
+  public void keyIsStableForTheSameInputs() throws IOException {
+    assertEquals(computeKey(), computeKey());
+  }
+
+  @Test
+  public void keyDependsOnEveryFileProguardReads() throws IOException {
+    for (String file :
+        ImmutableList.of(
+            "proguard.jar",
+            "command-line.txt",
+            "in.jar",
+            "library.jar",
+            "app.pro",
+            "included.pro",
+            "dictionary.txt")) {
+      String key = computeKey();
+      filesystem.writeContentsToPath(
+          filesystem.readFileIfItExists(Paths.get(file)).get() + " ", Paths.get(file));
+      assertNotEquals(file, key, computeKey());
+    }
+  }
+
+  @Test
+  public void keyDoesNotDependOnOutputs() throws IOException {
+    String key = computeKey();
+    filesystem.writeContentsToPath("obfuscated", Paths.get("out.jar"));
+    filesystem.writeContentsToPath("mapping", Paths.get("mapping.txt"));
+    assertEquals(key, computeKey());
+  }
+
+  @Test
+  public void restoresStoredOutputs() throws IOException {
+    ImmutableList<Path> outputJars =
+        ImmutableList.of(Paths.get("out-a.jar"), Paths.get("out-b.jar"));
+    ImmutableList<Path> metaOutputs = ImmutableList.of(Paths.get("proguard/mapping.txt"));
+    filesystem.writeContentsToPath("a", outputJars.get(0));
+    filesystem.writeContentsToPath("b", outputJars.get(1));
+    filesystem.mkdirs(Paths.get("proguard"));
+    filesystem.writeContentsToPath("mapping", metaOutputs.get(0));
+
+    String key = computeKey();
+    assertFalse(cache.restore(key, outputJars, metaOutputs));
+    cache.store(key, outputJars, metaOutputs);
+
+    ImmutableList<Path> otherOutputJars =
+        ImmutableList.of(Paths.get("other/out-a.jar"), Paths.get("other/out-b.jar"));
+    ImmutableList<Path> otherMetaOutputs = ImmutableList.of(Paths.get("other/mapping.txt"));
+    assertTrue(cache.restore(key, otherOutputJars, otherMetaOutputs));
+    assertEquals(Optional.of("a"), filesystem.readFileIfItExists(otherOutputJars.get(0)));
+    assertEquals(Optional.of("b"), filesystem.readFileIfItExists(otherOutputJars.get(1)));
+    assertEquals(Optional.of("mapping"), filesystem.readFileIfItExists(otherMetaOutputs.get(0)));
+  }
+
+  @Test
+  public void metaOutputsProguardDidNotWriteAreRestoredAsAbsent() throws IOException {
+    ImmutableList<Path> outputJars = ImmutableList.of(Paths.get("out.jar"));
+    ImmutableList<Path> metaOutputs =
+        ImmutableList.of(Paths.get("proguard/mapping.txt"), Paths.get("proguard/usage.txt"));
+    filesystem.writeContentsToPath("a", outputJars.get(0));
+    filesystem.mkdirs(Paths.get("proguard"));
+    filesystem.writeContentsToPath("usage", metaOutputs.get(1));
+
+    String key = computeKey();
+    cache.store(key, outputJars, metaOutputs);
+    assertFalse(filesystem.exists(metaOutputs.get(0)));
+
+    ImmutableList<Path> otherOutputJars = ImmutableList.of(Paths.get("other/out.jar"));
+    ImmutableList<Path> otherMetaOutputs =
+        ImmutableList.of(Paths.get("other/mapping.txt"), Paths.get("other/usage.txt"));
+    filesystem.mkdirs(Paths.get("other"));
+    filesystem.writeContentsToPath("stale mapping", otherMetaOutputs.get(0));
+    assertTrue(cache.restore(key, otherOutputJars, otherMetaOutputs));
+    assertEquals(Optional.of("a"), filesystem.readFileIfItExists(otherOutputJars.get(0)));
+    assertFalse(filesystem.exists(otherMetaOutputs.get(0)));
+    assertEquals(Optional.of("usage"), filesystem.readFileIfItExists(otherMetaOutputs.get(1)));
+  }
+
+  @Test
+  public void includesAreRelativeToTheIncludingFile() throws IOException {
+    filesystem.mkdirs(Paths.get("config"));
+    filesystem.writeContentsToPath("-include rules.pro\n", Paths.get("config/app.pro"));
+    filesystem.writeContentsToPath("-keep class Foo\n", Paths.get("config/rules.pro"));
+    filesystem.writeContentsToPath("-keep class Bar\n", Paths.get("rules.pro"));
+    writeCommandLine("-include", "config/app.pro");
+
+    String key = computeKey();
+    filesystem.writeContentsToPath("-keep class Baz\n", Paths.get("rules.pro"));
+    assertEquals(key, computeKey());
+    filesystem.writeContentsToPath("-keep class Baz\n", Paths.get("config/rules.pro"));
+    assertNotEquals(key, computeKey());
+  }
+
+  @Test
+  public void baseDirectoryAppliesToTheRestOfItsFile() throws IOException {
+    filesystem.mkdirs(Paths.get("config"));
+    filesystem.mkdirs(Paths.get("libs"));
+    filesystem.writeContentsToPath(
+        "-basedirectory ../libs\n-libraryjars extra.jar\n", Paths.get("config/app.pro"));
+    filesystem.writeContentsToPath("extra", Paths.get("libs/extra.jar"));
+    writeCommandLine("-include", "config/app.pro", "-libraryjars", "library.jar");
+
+    String key = computeKey();
+    filesystem.writeContentsToPath("other extra", Paths.get("libs/extra.jar"));
+    assertNotEquals(key, computeKey());
+  }
+
+  @Test
+  public void expandsSystemPropertiesSetOnTheCommand() throws IOException {
+    filesystem.mkdirs(Paths.get("libs"));
+    filesystem.writeContentsToPath("extra", Paths.get("libs/extra.jar"));
+    writeCommandLine("-libraryjars", "<libs.dir>/extra.jar");
+    ImmutableList<String> command =
+        ImmutableList.<String>builder()
+            .add("java", "-Dlibs.dir=" + filesystem.resolve("libs"))
+            .addAll(COMMAND.subList(1, COMMAND.size()))
+            .build();
+
+    String key = cache.computeKey(command, proguardJar, commandLine).get();
+    filesystem.writeContentsToPath("other extra", Paths.get("libs/extra.jar"));
+    assertNotEquals(key, cache.computeKey(command, proguardJar, commandLine).get());
+  }
+
+  @Test
+  public void noKeyWhenAFileCantBeResolved() throws IOException {
+    writeCommandLine("-include", "missing.pro");
+    assertFalse(cache.computeKey(COMMAND, proguardJar, commandLine).isPresent());
+    writeCommandLine("-libraryjars", "<java.home>/lib/rt.jar");
+    assertFalse(cache.computeKey(COMMAND, proguardJar, commandLine).isPresent());
+  }
+
+  @Test
+  public void tokenizeHandlesQuotesAndComments() {
+    assertEquals(
+        ImmutableList.of("-include", "my config.pro", "-keep", "class", "Foo"),
+        ProGuardOutputCache.tokenize(
+            "-include \"my config.pro\" # Comment\n-keep class Foo # Another comment"));
+  }
+
+  private String computeKey() throws IOException {
+    return cache.computeKey(COMMAND, proguardJar, commandLine).get();
+  }
+
+  private void writeCommandLine(String... lines) throws IOException {
+    filesystem.writeContentsToPath(String.join("\n", lines), commandLine);
+  }
+}
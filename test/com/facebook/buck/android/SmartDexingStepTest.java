@@ -18,6 +18,7 @@ package com.facebook.buck.android;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.SmartDexingStep.DxPseudoRule;
@@ -44,6 +45,7 @@ import com.google.common.io.Files;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
@@ -105,6 +107,95 @@ public class SmartDexingStepTest {
     assertTrue("Matching input hash should be considered cached", rule.checkIsCached());
   }
 
+  @Test
+  public void testDxPseudoRuleCacheKeyDependsOnInputsAndDexerConfiguration() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path input = Paths.get("input.jar");
+    Path output = Paths.get("out/secondary-1.dex.jar");
+    EnumSet<DxStep.Option> options = EnumSet.noneOf(DxStep.Option.class);
+    String key = createPseudoRule(filesystem, input, "a", output, options).hashCacheKey();
+
+    assertEquals(
+        "a shard moved to another output path is still cached",
+        key,
+        createPseudoRule(filesystem, input, "a", Paths.get("out/secondary-2.dex.jar"), options)
+            .hashCacheKey());
+    assertNotEquals(key, createPseudoRule(filesystem, input, "b", output, options).hashCacheKey());
+    assertNotEquals(
+        key,
+        createPseudoRule(filesystem, input, "a", output, EnumSet.of(DxStep.Option.NO_OPTIMIZE))
+            .hashCacheKey());
+    assertNotEquals(
+        key,
+        createPseudoRule(filesystem, input, "a", Paths.get("out/secondary-1.dex.jar.xz"), options)
+            .hashCacheKey());
+  }
+
+  @Test
+  public void testDxPseudoRuleCacheKeyDependsOnAndroidJarContents() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path input = Paths.get("input.jar");
+    Path output = Paths.get("out/secondary-1.dex.jar");
+    EnumSet<DxStep.Option> options = EnumSet.noneOf(DxStep.Option.class);
+    File androidJar = tmpDir.newFile("android.jar");
+    Files.write("platform 28", androidJar, Charsets.UTF_8);
+    String key =
+        createPseudoRule(
+                createAndroidPlatformTarget(androidJar.toPath()),
+                filesystem,
+                input,
+                "a",
+                output,
+                options)
+            .hashCacheKey();
+
+    Files.write("platform 28, updated", androidJar, Charsets.UTF_8);
+    assertNotEquals(
+        key,
+        createPseudoRule(
+                createAndroidPlatformTarget(androidJar.toPath()),
+                filesystem,
+                input,
+                "a",
+                output,
+                options)
+            .hashCacheKey());
+  }
+
+  private DxPseudoRule createPseudoRule(
+      ProjectFilesystem filesystem,
+      Path input,
+      String inputHash,
+      Path outputPath,
+      EnumSet<DxStep.Option> options) {
+    return createPseudoRule(
+        createAndroidPlatformTarget(), filesystem, input, inputHash, outputPath, options);
+  }
+
+  private DxPseudoRule createPseudoRule(
+      AndroidPlatformTarget androidPlatformTarget,
+      ProjectFilesystem filesystem,
+      Path input,
+      String inputHash,
+      Path outputPath,
+      EnumSet<DxStep.Option> options) {
+    return new DxPseudoRule(
+        androidPlatformTarget,
+        FakeBuildContext.NOOP_CONTEXT,
+        filesystem,
+        ImmutableMap.of(input, Sha1HashCode.of(Strings.repeat(inputHash, 40))),
+        ImmutableSet.of(input),
+        outputPath,
+        Paths.get(outputPath + ".hash"),
+        options,
+        XzStep.DEFAULT_COMPRESSION_LEVEL,
+        Optional.empty(),
+        DxStep.D8,
+        null,
+        false,
+        Optional.empty());
+  }
+
   @Test
   public void testCreateDxStepForDxPseudoRuleWithXzOutput() {
     ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
@@ -374,9 +465,13 @@ public class SmartDexingStepTest {
   }
 
   private AndroidPlatformTarget createAndroidPlatformTarget() {
+    return createAndroidPlatformTarget(Paths.get(""));
+  }
+
+  private AndroidPlatformTarget createAndroidPlatformTarget(Path androidJar) {
     return AndroidPlatformTarget.of(
         "android",
-        Paths.get(""),
+        androidJar,
         Collections.emptyList(),
         () -> new SimpleTool(""),
         new ConstantToolProvider(new SimpleTool("")),
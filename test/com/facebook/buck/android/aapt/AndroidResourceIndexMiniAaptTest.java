@@ -42,7 +42,6 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Set;
-import javax.xml.xpath.XPathExpressionException;
 import org.hamcrest.core.IsEqual;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Before;
@@ -78,8 +77,7 @@ public class AndroidResourceIndexMiniAaptTest {
   }
 
   @Test
-  public void testFindingResourceIdsInXml()
-      throws IOException, XPathExpressionException, MiniAapt.ResourceParseException {
+  public void testFindingResourceIdsInXml() throws IOException, MiniAapt.ResourceParseException {
     aapt.processXmlFile(filesystem, Paths.get("sample_resources_1.xml"), ImmutableSet.builder());
 
     Set<AndroidResourceIndexEntry> definitions =
@@ -216,7 +214,7 @@ public class AndroidResourceIndexMiniAaptTest {
   }
 
   @Test
-  public void testInvalidDefinition() throws XPathExpressionException, IOException {
+  public void testInvalidDefinition() throws IOException {
     try {
       aapt.processXmlFile(
           filesystem, Paths.get("sample_resources_invalid_definition.xml"), ImmutableSet.builder());
@@ -227,7 +225,7 @@ public class AndroidResourceIndexMiniAaptTest {
   }
 
   @Test
-  public void testInvalidReference() throws IOException, XPathExpressionException {
+  public void testInvalidReference() throws IOException {
     try {
       aapt.processXmlFile(
           filesystem, Paths.get("sample_resources_invalid_reference.xml"), ImmutableSet.builder());
@@ -246,8 +244,7 @@ public class AndroidResourceIndexMiniAaptTest {
   }
 
   @Test
-  public void testInvalidNodeId()
-      throws IOException, XPathExpressionException, ResourceParseException {
+  public void testInvalidNodeId() throws IOException, ResourceParseException {
     thrown.expect(ResourceParseException.class);
     thrown.expectMessage("Invalid definition of a resource: '@button2'");
 
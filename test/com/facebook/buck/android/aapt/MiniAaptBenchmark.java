@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.aapt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.android.aapt.MiniAapt.ResourceCollectionType;
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ConcurrencyLimit;
+import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Measures R.txt generation over a large, generated resource directory with thousands of layouts
+ * that define and reference ids.
+ */
+public class MiniAaptBenchmark {
+  private static final String[] LAYOUT_ATTRIBUTES = {
+    "android:id",
+    "android:layout_below",
+    "android:layout_toLeftOf",
+    "android:labelFor",
+    "android:text",
+    "android:background",
+    "app:layout_constraintTop_toTopOf",
+    "tools:text",
+  };
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Param({"500", "3000"})
+  private int layouts = 500;
+
+  @Param({"1", "2", "4", "8"})
+  private int threads = 4;
+
+  private ProjectFilesystem filesystem;
+  private int iteration;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    writeResources(filesystem.resolve("res"), layouts);
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    filesystem =
+        TestProjectFilesystems.createProjectFilesystem(Files.createTempDirectory("mini-aapt"));
+    writeResources(filesystem.resolve("res"), layouts);
+  }
+
+  @Test
+  public void parallelScanMatchesSequentialScan() throws IOException {
+    for (ResourceCollectionType type : ResourceCollectionType.values()) {
+      Path sequential = Paths.get(type + "-sequential");
+      generate(type, sequential, 1);
+
+      Path parallel = Paths.get(type + "-parallel");
+      generate(type, parallel, threads);
+
+      assertArrayEquals(type.toString(), readFile(sequential), readFile(parallel));
+    }
+  }
+
+  @Benchmark
+  public void generateRDotTxt() throws IOException {
+    Path output = Paths.get(String.format("R-%d.txt", iteration++));
+    generate(ResourceCollectionType.R_DOT_TXT, output, threads);
+    filesystem.deleteFileAtPath(output);
+  }
+
+  private void generate(ResourceCollectionType type, Path output, int threadLimit)
+      throws IOException {
+    MiniAapt miniAapt =
+        new MiniAapt(
+            new TestActionGraphBuilder().getSourcePathResolver(),
+            filesystem,
+            FakeSourcePath.of(filesystem, "res"),
+            output,
+            ImmutableSet.of(),
+            /* isGrayscaleImageProcessingEnabled */ false,
+            type);
+    ExecutionContext context =
+        TestExecutionContext.newBuilder()
+            .setConcurrencyLimit(
+                new ConcurrencyLimit(
+                    threadLimit,
+                    ResourceAllocationFairness.FAIR,
+                    Math.max(threadLimit, ResourceAmountsEstimator.DEFAULT_MANAGED_THREAD_COUNT),
+                    ResourceAmountsEstimator.DEFAULT_AMOUNTS,
+                    ResourceAmountsEstimator.DEFAULT_MAXIMUM_AMOUNTS))
+            .build();
+    assertEquals(0, miniAapt.execute(context).getExitCode());
+  }
+
+  private byte[] readFile(Path path) throws IOException {
+    return Files.readAllBytes(filesystem.resolve(path));
+  }
+
+  /**
+   * Writes a values file with strings and styleables, some drawables and {@code layoutCount}
+   * layouts whose elements define and reference ids with attributes in arbitrary order.
+   */
+  private static void writeResources(Path res, int layoutCount) throws IOException {
+    Random random = new Random(layoutCount);
+    Files.createDirectories(res.resolve("values"));
+    Files.createDirectories(res.resolve("drawable"));
+    Files.createDirectories(res.resolve("layout"));
+
+    StringBuilder values = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+    values.append("<resources>\n");
+    for (int i = 0; i < 2000; i++) {
+      values.append(String.format("  <string name=\"string_%d\">Text</string>\n", i));
+    }
+    for (int i = 0; i < 100; i++) {
+      values.append(String.format("  <item type=\"id\" name=\"shared_%d\" />\n", i));
+    }
+    for (int i = 0; i < 100; i++) {
+      values.append(String.format("  <declare-styleable name=\"View%d\">\n", i));
+      for (int j = 0; j < 5; j++) {
+        values.append(String.format("    <attr name=\"attr_%d\" />\n", random.nextInt(300)));
+      }
+      values.append("  </declare-styleable>\n");
+    }
+    values.append("</resources>\n");
+    write(res.resolve("values/values.xml"), values);
+
+    for (int i = 0; i < 200; i++) {
+      Files.write(res.resolve(String.format("drawable/image_%d.png", i)), new byte[] {0});
+    }
+
+    for (int i = 0; i < layoutCount; i++) {
+      StringBuilder layout = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+      layout.append("<LinearLayout\n");
+      layout.append("    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n");
+      layout.append("    xmlns:tools=\"http://schemas.android.com/tools\">\n");
+      for (int j = 0; j < 50; j++) {
+        layout.append("  <View");
+        List<String> attributes = new ArrayList<>(Arrays.asList(LAYOUT_ATTRIBUTES));
+        Collections.shuffle(attributes, random);
+        for (String attribute : attributes.subList(0, 1 + random.nextInt(5))) {
+          layout.append(String.format("\n      %s=\"%s\"", attribute, randomValue(random)));
+        }
+        layout.append(" />\n");
+      }
+      layout.append("</LinearLayout>\n");
+      write(res.resolve(String.format("layout/layout_%d.xml", i)), layout);
+    }
+  }
+
+  private static String randomValue(Random random) {
+    switch (random.nextInt(7)) {
+      case 0:
+      case 1:
+      case 2:
+        return "@+id/id_" + random.nextInt(10000);
+      case 3:
+        return "@id/shared_" + random.nextInt(100);
+      case 4:
+        return "@string/string_" + random.nextInt(2000);
+      case 5:
+        return "@drawable/image_" + random.nextInt(200);
+      default:
+        return random.nextBoolean() ? "@android:color/white" : "@null";
+    }
+  }
+
+  private static void write(Path path, StringBuilder contents) throws IOException {
+    Files.write(path, contents.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
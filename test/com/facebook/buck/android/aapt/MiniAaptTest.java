@@ -36,6 +36,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystemView;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.util.timing.FakeClock;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -43,7 +44,6 @@ import java.nio.file.Paths;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import javax.xml.xpath.XPathExpressionException;
 import org.hamcrest.core.IsEqual;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
@@ -90,8 +90,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testFindingResourceIdsInXml()
-      throws IOException, XPathExpressionException, ResourceParseException {
+  public void testFindingResourceIdsInXml() throws IOException, ResourceParseException {
     filesystem.writeLinesToPath(RESOURCES, Paths.get("resource.xml"));
 
     MiniAapt aapt =
@@ -453,7 +452,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testInvalidDefinition() throws XPathExpressionException, IOException {
+  public void testInvalidDefinition() throws IOException {
     ImmutableList<String> lines =
         ImmutableList.<String>builder()
             .add(
@@ -484,7 +483,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testInvalidReference() throws IOException, XPathExpressionException {
+  public void testInvalidReference() throws IOException {
     ImmutableList<String> lines =
         ImmutableList.<String>builder()
             .add(
@@ -541,8 +540,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testVerifyReferences()
-      throws IOException, XPathExpressionException, ResourceParseException {
+  public void testVerifyReferences() throws IOException, ResourceParseException {
     filesystem.writeLinesToPath(RESOURCES, Paths.get("resource.xml"));
 
     ImmutableList<String> rDotTxt =
@@ -572,8 +570,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testInvalidNodeId()
-      throws IOException, XPathExpressionException, ResourceParseException {
+  public void testInvalidNodeId() throws IOException, ResourceParseException {
     thrown.expect(ResourceParseException.class);
     thrown.expectMessage("Invalid definition of a resource: '@button2'");
 
@@ -600,6 +597,39 @@ public class MiniAaptTest {
     aapt.processXmlFile(filesystem, resource, ImmutableSet.builder());
   }
 
+  @Test
+  public void testIdsAreAssignedInDocumentAndAttributeNameOrder()
+      throws IOException, ResourceParseException {
+    ImmutableList<String> lines =
+        ImmutableList.<String>builder()
+            .add(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                "<RelativeLayout>",
+                "<Button android:layout_below=\"@+id/second\" android:id=\"@+id/first\" />",
+                "<Button android:id=\"@+id/third\" />",
+                "</RelativeLayout>")
+            .build();
+
+    Path resource = Paths.get("resource.xml");
+    filesystem.writeLinesToPath(lines, resource);
+
+    MiniAapt aapt =
+        new MiniAapt(
+            resolver,
+            filesystem,
+            FakeSourcePath.of(filesystem, "res"),
+            Paths.get("R.txt"),
+            ImmutableSet.of());
+    aapt.processXmlFile(filesystem, resource, ImmutableSet.builder());
+
+    Set<RDotTxtEntry> definitions =
+        ((RDotTxtResourceCollector) aapt.getResourceCollector()).getResources();
+    assertEquals(
+        ImmutableMap.of("first", "0x7f010001", "second", "0x7f010002", "third", "0x7f010003"),
+        definitions.stream()
+            .collect(ImmutableMap.toImmutableMap(entry -> entry.name, entry -> entry.idValue)));
+  }
+
   @Test
   public void testProcessFileNamesInDirectory() throws IOException, ResourceParseException {
     ProjectFilesystemView filesystemView = filesystem.asView();
@@ -641,8 +671,7 @@ public class MiniAaptTest {
   }
 
   @Test
-  public void testDotSeparatedResourceNames()
-      throws IOException, XPathExpressionException, ResourceParseException {
+  public void testDotSeparatedResourceNames() throws IOException, ResourceParseException {
     ImmutableList<String> lines =
         ImmutableList.<String>builder()
             .add(
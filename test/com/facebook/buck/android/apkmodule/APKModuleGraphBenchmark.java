@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.apkmodule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures building the module graph of a synthetic app whose modules share many of their
+ * libraries, and whose declared module dependencies form a tree.
+ */
+public class APKModuleGraphBenchmark {
+  private static final int ROOT_LIBRARY_PERCENTAGE = 10;
+  private static final int MAX_LIBRARY_DEPS = 3;
+  private static final int SEED_DEPS = 20;
+
+  @Param({"10", "50", "200"})
+  private int moduleCount = 20;
+
+  @Param({"20000"})
+  private int libraryCount = 1000;
+
+  private TargetGraph targetGraph;
+  private BuildTarget appTarget;
+  private Map<String, List<BuildTarget>> seedConfigMap;
+  private Map<String, List<String>> appModuleDependencies;
+  private List<BuildTarget> seedTargets;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() {
+    Random random = new Random(0);
+    ImmutableSet.Builder<TargetNode<?>> nodes = ImmutableSet.builder();
+
+    List<BuildTarget> libraryTargets = new ArrayList<>();
+    for (int i = 0; i < libraryCount; i++) {
+      BuildTarget target = BuildTargetFactory.newInstance(String.format("//lib:lib%d", i));
+      JavaLibraryBuilder builder = JavaLibraryBuilder.createBuilder(target);
+      for (int j = 0; i > 0 && j < MAX_LIBRARY_DEPS; j++) {
+        builder.addDep(libraryTargets.get(random.nextInt(i)));
+      }
+      nodes.add(builder.build());
+      libraryTargets.add(target);
+    }
+
+    int rootLibraryCount = libraryCount * ROOT_LIBRARY_PERCENTAGE / 100;
+    seedConfigMap = new HashMap<>();
+    appModuleDependencies = new HashMap<>();
+    seedTargets = new ArrayList<>();
+    for (int i = 0; i < moduleCount; i++) {
+      BuildTarget target = BuildTargetFactory.newInstance(String.format("//module%d:seed", i));
+      JavaLibraryBuilder builder = JavaLibraryBuilder.createBuilder(target);
+      for (int j = 0; j < SEED_DEPS; j++) {
+        builder.addDep(
+            libraryTargets.get(
+                rootLibraryCount + random.nextInt(libraryCount - rootLibraryCount)));
+      }
+      nodes.add(builder.build());
+      seedTargets.add(target);
+
+      String moduleName = String.format("module%d", i);
+      seedConfigMap.put(moduleName, ImmutableList.of(target));
+      if (i > 0) {
+        appModuleDependencies.put(moduleName, ImmutableList.of(String.format("module%d", i / 2)));
+      }
+    }
+
+    appTarget = BuildTargetFactory.newInstance("//app:app");
+    JavaLibraryBuilder app = JavaLibraryBuilder.createBuilder(appTarget);
+    libraryTargets.subList(0, rootLibraryCount).forEach(app::addDep);
+    seedTargets.forEach(app::addDep);
+    nodes.add(app.build());
+
+    targetGraph = TargetGraphFactory.newInstance(nodes.build());
+  }
+
+  @Test
+  public void everyTargetIsInExactlyOneModule() {
+    APKModuleGraph graph = createGraph();
+    Set<BuildTarget> assignedTargets = new HashSet<>();
+    int assignments = 0;
+    for (APKModule module : graph.getAPKModules()) {
+      assignedTargets.addAll(graph.getBuildTargets(module));
+      assignments += graph.getBuildTargets(module).size();
+    }
+    assertEquals(assignedTargets.size(), assignments);
+    for (int i = 0; i < moduleCount; i++) {
+      assertEquals(
+          String.format("module%d", i), graph.findModuleForTarget(seedTargets.get(i)).getName());
+    }
+  }
+
+  @Test
+  public void benchmarksRun() {
+    assertTrue(computeModuleGraph() > moduleCount);
+  }
+
+  @Benchmark
+  public int computeModuleGraph() {
+    return createGraph().getAPKModules().size();
+  }
+
+  private APKModuleGraph createGraph() {
+    return new APKModuleGraph(
+        Optional.of(seedConfigMap),
+        Optional.of(appModuleDependencies),
+        Optional.empty(),
+        ImmutableSet.of(),
+        targetGraph,
+        appTarget);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
+import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DalvikStatsCacheTest {
+  private static final ImmutableList<Class<?>> CLASSES =
+      ImmutableList.of(
+          DalvikStatsTool.class,
+          DalvikStatsCache.class,
+          DalvikAwareZipSplitter.class,
+          DalvikAwareOutputStreamHelper.class,
+          DalvikStatsCacheTest.class);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void classesWithTheSameContentsShareStats() throws IOException {
+    Cache<HashCode, DalvikStatsTool.Stats> sharedStats = DalvikStatsCache.newSharedStats(1 << 20);
+    byte[] bytes = readClass(DalvikStatsTool.class);
+
+    DalvikStatsTool.Stats first =
+        new DalvikStatsCache(sharedStats).getStats(new BytesFileLike("a/Foo.class", bytes));
+    DalvikStatsTool.Stats second =
+        new DalvikStatsCache(sharedStats).getStats(new BytesFileLike("b/Foo.class", bytes));
+
+    assertSame(first, second);
+    assertEquals(1, sharedStats.size());
+    assertStatsEqual(DalvikStatsTool.getEstimate(new ByteArrayInputStream(bytes)), first);
+  }
+
+  @Test
+  public void nonClassFilesHaveNoStats() {
+    Cache<HashCode, DalvikStatsTool.Stats> sharedStats = DalvikStatsCache.newSharedStats(1 << 20);
+    DalvikStatsTool.Stats stats =
+        new DalvikStatsCache(sharedStats)
+            .getStats(new BytesFileLike("META-INF/MANIFEST.MF", new byte[] {1, 2, 3}));
+
+    assertSame(DalvikStatsTool.Stats.ZERO, stats);
+    assertEquals(0, sharedStats.size());
+  }
+
+  @Test
+  public void parallelPrecomputeMatchesSequentialStats() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path classes = Paths.get("classes");
+    for (Class<?> clazz : CLASSES) {
+      Path path = classes.resolve(clazz.getName().replace('.', '/') + ".class");
+      filesystem.mkdirs(path.getParent());
+      Files.write(filesystem.resolve(path), readClass(clazz));
+    }
+
+    Cache<HashCode, DalvikStatsTool.Stats> sharedStats = DalvikStatsCache.newSharedStats(1 << 20);
+    DalvikStatsCache cache = new DalvikStatsCache(sharedStats);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      cache.precompute(filesystem, ImmutableSet.of(classes), executor, 4);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(CLASSES.size(), sharedStats.size());
+
+    // Already computed classes are not visited again.
+    cache.precompute(
+        filesystem, ImmutableSet.of(classes), MoreExecutors.directExecutor(), /* parallelism */ 1);
+    assertEquals(CLASSES.size(), sharedStats.size());
+
+    for (Class<?> clazz : CLASSES) {
+      byte[] bytes = readClass(clazz);
+      assertStatsEqual(
+          DalvikStatsTool.getEstimate(new ByteArrayInputStream(bytes)),
+          cache.getStats(new BytesFileLike(clazz.getSimpleName() + ".class", bytes)));
+    }
+  }
+
+  @Test
+  public void precomputedClassesAreNotReadAgain() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path classes = Paths.get("classes");
+    Path path = classes.resolve("Foo.class");
+    filesystem.mkdirs(classes);
+    Files.write(filesystem.resolve(path), readClass(DalvikStatsTool.class));
+
+    DalvikStatsCache cache = new DalvikStatsCache(DalvikStatsCache.newSharedStats(1 << 20));
+    cache.precompute(
+        filesystem, ImmutableSet.of(classes), MoreExecutors.directExecutor(), /* parallelism */ 1);
+
+    // Like the splitter, visit the classes again, but don't let their contents be read.
+    List<DalvikStatsTool.Stats> stats = new ArrayList<>();
+    new DefaultClasspathTraverser()
+        .traverse(
+            new ClasspathTraversal(ImmutableSet.of(classes), filesystem) {
+              @Override
+              public void visit(FileLike entry) {
+                stats.add(cache.getStats(new UnreadableFileLike(entry)));
+              }
+            });
+    assertEquals(1, stats.size());
+    assertStatsEqual(
+        DalvikStatsTool.getEstimate(new ByteArrayInputStream(readClass(DalvikStatsTool.class))),
+        stats.get(0));
+  }
+
+  @Test
+  public void malformedClassesNameTheClass() {
+    try {
+      new DalvikStatsCache(DalvikStatsCache.newSharedStats(1 << 20))
+          .getStats(new BytesFileLike("Foo.class", new byte[] {1, 2, 3}));
+      fail("expected a RuntimeException");
+    } catch (RuntimeException e) {
+      assertEquals("Error calculating size for Foo.class.", e.getMessage());
+    }
+  }
+
+  private static void assertStatsEqual(
+      DalvikStatsTool.Stats expected, DalvikStatsTool.Stats actual) {
+    assertEquals(expected.estimatedLinearAllocSize, actual.estimatedLinearAllocSize);
+    assertEquals(expected.methodReferences, actual.methodReferences);
+    assertEquals(expected.fieldReferences, actual.fieldReferences);
+  }
+
+  private static byte[] readClass(Class<?> clazz) throws IOException {
+    try (InputStream is = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+      return ByteStreams.toByteArray(is);
+    }
+  }
+
+  private static class UnreadableFileLike extends AbstractFileLike {
+    private final FileLike original;
+
+    private UnreadableFileLike(FileLike original) {
+      this.original = original;
+    }
+
+    @Override
+    public Path getContainer() {
+      return original.getContainer();
+    }
+
+    @Override
+    public String getRelativePath() {
+      return original.getRelativePath();
+    }
+
+    @Override
+    public long getSize() throws IOException {
+      return original.getSize();
+    }
+
+    @Override
+    public InputStream getInput() throws IOException {
+      throw new IOException("not expected to be read");
+    }
+  }
+
+  private static class BytesFileLike extends AbstractFileLike {
+    private final String relativePath;
+    private final byte[] bytes;
+
+    private BytesFileLike(String relativePath, byte[] bytes) {
+      this.relativePath = relativePath;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public Path getContainer() {
+      return Paths.get("classes.jar");
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return bytes.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(bytes);
+    }
+  }
+}
@@ -20,11 +20,23 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class SymbolsTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
   @Test
   public void testSymbolExtraction() {
     Symbols.SymbolInfo si;
@@ -78,4 +90,60 @@ public class SymbolsTest {
     assertFalse(si.isUndefined);
     assertEquals(si.symbol, "_ZN5folly6detail27annotate_rwlock_create_implEPVKvPKci");
   }
+
+  @Test
+  public void testReadDynamicSymbols32() throws IOException {
+    Symbols symbols = readDynamicSymbols("libprebuilt.so");
+    assertEquals(
+        ImmutableSet.of("__cxa_finalize", "__cxa_atexit", "__stack_chk_fail"), symbols.undefined);
+    assertEquals(
+        ImmutableSet.of("prebuilt_func_C", "_edata", "__bss_start", "_end"), symbols.global);
+    assertEquals(
+        ImmutableSet.builder().addAll(symbols.undefined).addAll(symbols.global).build(),
+        symbols.all);
+  }
+
+  @Test
+  public void testReadDynamicSymbols64() throws IOException {
+    Symbols symbols = readDynamicSymbols("libfoo.so");
+    // Weak symbols are neither undefined nor global, like in objdump's output.
+    assertEquals(
+        ImmutableSet.of("__gmon_start__", "_Jv_RegisterClasses", "__cxa_finalize"),
+        symbols.undefined);
+    assertEquals(
+        ImmutableSet.of("foo", "_end", "_edata", "__bss_start", "VERS_1.0", "_init", "_fini"),
+        symbols.global);
+    assertEquals(
+        ImmutableSet.builder()
+            .add(".init")
+            .addAll(symbols.undefined)
+            .addAll(symbols.global)
+            .build(),
+        symbols.all);
+  }
+
+  @Test
+  public void testReadDynamicSymbolsOfNonElfFile() {
+    assertFalse(
+        Symbols.readDynamicSymbols(ByteBuffer.wrap("not elf".getBytes(StandardCharsets.UTF_8)))
+            .isPresent());
+  }
+
+  @Test
+  public void testDynamicSymbolsAreCachedByContent() throws IOException, InterruptedException {
+    Path lib = TestDataHelper.getTestDataDirectory(this).resolve("libfoo.so");
+    Path copy = tmp.getRoot().resolve("libfoo.so");
+    Files.copy(lib, copy);
+    assertSame(
+        Symbols.getDynamicSymbols(null, null, null, lib),
+        Symbols.getDynamicSymbols(null, null, null, copy));
+  }
+
+  private Symbols readDynamicSymbols(String name) throws IOException {
+    Path lib = TestDataHelper.getTestDataDirectory(this).resolve(name);
+    Optional<Symbols> symbols =
+        Symbols.readDynamicSymbols(ByteBuffer.wrap(Files.readAllBytes(lib)));
+    assertTrue(symbols.isPresent());
+    return symbols.get();
+  }
 }
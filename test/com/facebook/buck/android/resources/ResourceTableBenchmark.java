@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.resources;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.ZipFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Measures parsing, slicing and rewriting of the resource table of a real apk, and of the apk as a
+ * whole, as done for exo-for-resources. Pass {@code -Dapk=<path>} to measure a different apk.
+ */
+public class ResourceTableBenchmark {
+  private static final String EXAMPLE_APK = "aapt_dump/example.apk";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  /** The fraction of each type's resources that is sliced out, as for the primary apk. */
+  @Param({"0.1", "1.0"})
+  private double sliceFraction = 0.1;
+
+  private Path apkPath;
+  private Path outputDir;
+  private byte[] arsc;
+  private ImmutableMap<Integer, Integer> countsToSlice;
+  private int iteration;
+
+  @Before
+  public void setUp() throws IOException {
+    setUp(TestDataHelper.getTestDataDirectory(this).resolve(EXAMPLE_APK), tmp.getRoot());
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    String apk = System.getProperty("apk");
+    setUp(
+        apk != null
+            ? Paths.get(apk)
+            : TestDataHelper.getTestDataDirectory(getClass()).resolve(EXAMPLE_APK),
+        Files.createTempDirectory("resource-table"));
+  }
+
+  private void setUp(Path apkPath, Path outputDir) throws IOException {
+    this.apkPath = apkPath;
+    this.outputDir = outputDir;
+    try (ZipFile zipFile = new ZipFile(apkPath.toFile());
+        InputStream stream = zipFile.getInputStream(zipFile.getEntry("resources.arsc"))) {
+      arsc = ByteStreams.toByteArray(stream);
+    }
+    ImmutableMap.Builder<Integer, Integer> counts = ImmutableMap.builder();
+    for (ResTableTypeSpec spec : parse().getPackage().getTypeSpecs()) {
+      counts.put(spec.getResourceType(), (int) Math.ceil(spec.getEntryCount() * sliceFraction));
+    }
+    countsToSlice = counts.build();
+  }
+
+  @Test
+  public void slicingEverythingKeepsAllResources() {
+    ResourceTable table = parse();
+    ImmutableMap.Builder<Integer, Integer> counts = ImmutableMap.builder();
+    for (ResTableTypeSpec spec : table.getPackage().getTypeSpecs()) {
+      counts.put(spec.getResourceType(), spec.getEntryCount());
+    }
+    ResourceTable sliced = ResourceTable.slice(table, counts.build());
+
+    assertEquals(dump(table), dump(ResourceTable.get(ResChunk.wrap(sliced.serialize()))));
+  }
+
+  @Test
+  public void benchmarksRun() throws IOException {
+    parseResourceTable();
+    reassignIds();
+    sliceResourceTable();
+    rewriteResources();
+  }
+
+  @Benchmark
+  public int parseResourceTable() {
+    return parse().getPackage().getTypeSpecs().size();
+  }
+
+  @Benchmark
+  public void reassignIds() {
+    ResourceTable table = parse();
+    table.reassignIds(ReversingMapper.construct(table));
+  }
+
+  @Benchmark
+  public int sliceResourceTable() {
+    return ResourceTable.slice(parse(), countsToSlice).serialize().length;
+  }
+
+  @Benchmark
+  public void rewriteResources() throws IOException {
+    int i = iteration++;
+    Path primary = outputDir.resolve(String.format("primary-%d.apk", i));
+    Path exo = outputDir.resolve(String.format("exo-%d.apk", i));
+    ExoResourcesRewriter.rewriteResources(apkPath, primary, exo);
+    Files.delete(primary);
+    Files.delete(exo);
+  }
+
+  /** Parses a fresh copy, since rewriting ids changes the table in place. */
+  private ResourceTable parse() {
+    return ResourceTable.get(ResChunk.wrap(arsc.clone()));
+  }
+
+  /** Dumps the table without raw values, as slicing renumbers the strings they point into. */
+  private static String dump(ResourceTable table) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    table.dump(new PrintStream(output));
+    return new String(output.toByteArray(), Charsets.UTF_8).replaceAll(" d=0x[0-9a-f]+", "");
+  }
+}
@@ -38,6 +38,7 @@ import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.TestBuildRuleParams;
 import com.facebook.buck.core.rules.impl.FakeTestRule;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.test.rule.ShardedTestRule;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.jvm.core.JavaLibrary;
@@ -48,6 +49,7 @@ import com.facebook.buck.jvm.java.JavaLibraryDescriptionArg;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.shell.GenruleDescriptionArg;
 import com.facebook.buck.step.ExecutionOrderAwareFakeStep;
+import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.test.FakeTestResults;
 import com.facebook.buck.test.TestCaseSummary;
@@ -70,6 +72,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.parsers.DocumentBuilder;
@@ -681,6 +684,63 @@ public class TestRunningTest {
         actualSeparateStepExecutionOrderList, equalTo(expectedSeparateStepExecutionOrderList));
   }
 
+  @Test
+  public void shardStepsRunAfterTestStepsWithoutHoldingATestThread() throws Exception {
+    CommandRunnerParams commandRunnerParams = CommandRunnerParamsForTesting.builder().build();
+
+    AtomicInteger atomicExecutionOrder = new AtomicInteger(0);
+    ExecutionOrderAwareFakeStep setupStep =
+        new ExecutionOrderAwareFakeStep("setup", "setup", 0, atomicExecutionOrder);
+    ExecutionOrderAwareFakeStep shardStep1 =
+        new ExecutionOrderAwareFakeStep("shard1", "shard1", 0, atomicExecutionOrder);
+    ExecutionOrderAwareFakeStep shardStep2 =
+        new ExecutionOrderAwareFakeStep("shard2", "shard2", 0, atomicExecutionOrder);
+    TestResults fakeTestResults = FakeTestResults.of(ImmutableList.of());
+
+    BuildTarget shardedTestTarget = BuildTargetFactory.newInstance("//:sharded");
+    ShardedFakeTestRule shardedTest =
+        new ShardedFakeTestRule(
+            shardedTestTarget,
+            ImmutableList.of(setupStep),
+            ImmutableList.of(shardStep1, shardStep2),
+            () -> fakeTestResults);
+
+    // A single test thread: if the rule waited for its shards while holding the thread, the shards
+    // could never be scheduled.
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    FakeBuildEngine fakeBuildEngine =
+        new FakeBuildEngine(
+            ImmutableMap.of(
+                shardedTestTarget,
+                BuildResult.success(shardedTest, BUILT_LOCALLY, CacheResult.miss())));
+    SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
+    int ret =
+        TestRunning.runTests(
+            commandRunnerParams,
+            new TestActionGraphBuilder(),
+            ImmutableList.of(shardedTest),
+            TestExecutionContext.newInstance(),
+            DEFAULT_OPTIONS,
+            service,
+            fakeBuildEngine,
+            FakeBuildContext.withSourcePathResolver(ruleFinder.getSourcePathResolver()),
+            ruleFinder);
+
+    assertThat(ret, equalTo(0));
+    assertThat(setupStep.getExecutionBeginOrder(), equalTo(OptionalInt.of(0)));
+    assertThat(setupStep.getExecutionEndOrder(), equalTo(OptionalInt.of(1)));
+    assertThat(
+        ImmutableSet.of(
+            shardStep1.getExecutionBeginOrder(),
+            shardStep1.getExecutionEndOrder(),
+            shardStep2.getExecutionBeginOrder(),
+            shardStep2.getExecutionEndOrder()),
+        equalTo(
+            ImmutableSet.of(
+                OptionalInt.of(2), OptionalInt.of(3), OptionalInt.of(4), OptionalInt.of(5))));
+  }
+
   @Test
   public void whenSeparateTestFailsThenBuildFails() throws Exception {
     CommandRunnerParams commandRunnerParams = CommandRunnerParamsForTesting.builder().build();
@@ -734,4 +794,30 @@ public class TestRunningTest {
 
     assertThat(ret, equalTo(ExitCode.TEST_ERROR.getCode()));
   }
+
+  private static class ShardedFakeTestRule extends FakeTestRule implements ShardedTestRule {
+    private final ImmutableList<Step> shardSteps;
+
+    ShardedFakeTestRule(
+        BuildTarget buildTarget,
+        ImmutableList<Step> testSteps,
+        ImmutableList<Step> shardSteps,
+        Callable<TestResults> interpretedTestResults) {
+      super(
+          buildTarget,
+          new FakeProjectFilesystem(),
+          TestBuildRuleParams.create(),
+          ImmutableSet.of(),
+          Optional.of(Paths.get("shardedTestOutputDir")),
+          false, // runTestSeparately
+          testSteps,
+          interpretedTestResults);
+      this.shardSteps = shardSteps;
+    }
+
+    @Override
+    public ImmutableList<Step> getTestShardSteps() {
+      return shardSteps;
+    }
+  }
 }
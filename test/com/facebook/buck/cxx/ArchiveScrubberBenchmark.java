@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
+import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.FileScrubber;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Measures scrubbing the entry headers of a large static archive. */
+public class ArchiveScrubberBenchmark {
+  @Param({"10000"})
+  private int memberCount = 1000;
+
+  @Param({"4096"})
+  private int memberSize = 4096;
+
+  private Path archive;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() throws IOException {
+    archive = Files.createTempFile("scrub", ".a");
+    byte[] contents = new byte[memberSize];
+    try (OutputStream output = Files.newOutputStream(archive)) {
+      output.write(ObjectFileScrubbers.GLOBAL_HEADER);
+      for (int i = 0; i < memberCount; i++) {
+        String header =
+            Strings.padEnd("member" + i + ".o/", 16, ' ')
+                + Strings.padEnd("1546300800", 12, ' ')
+                + Strings.padEnd("1000", 6, ' ')
+                + Strings.padEnd("1000", 6, ' ')
+                + Strings.padEnd("100664", 8, ' ')
+                + Strings.padEnd(Integer.toString(memberSize), 10, ' ');
+        output.write(header.getBytes(Charsets.US_ASCII));
+        output.write(ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER);
+        output.write(contents);
+      }
+    }
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(archive);
+  }
+
+  @Test
+  public void scrubsEveryMember() throws IOException, FileScrubber.ScrubException {
+    scrubArchive();
+    String contents = new String(Files.readAllBytes(archive), Charsets.US_ASCII);
+    assertEquals(-1, contents.indexOf("1546300800"));
+  }
+
+  @Benchmark
+  public void scrubArchive() throws IOException, FileScrubber.ScrubException {
+    FileContentsScrubber scrubber =
+        ObjectFileScrubbers.createDateUidGidScrubber(ObjectFileScrubbers.PaddingStyle.LEFT);
+    try (FileChannel channel =
+        FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      scrubber.scrubFile(channel);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.cxx;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeTrue;
 
@@ -25,24 +26,36 @@ import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.cxx.config.CxxBuckConfig;
 import com.facebook.buck.cxx.toolchain.Archiver;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
 import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileSymbols;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.step.fs.FileScrubberStep;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.testutil.integration.ProjectWorkspace;
+import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.ObjectFileCommonModificationDate;
 import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -276,6 +289,236 @@ public class ArchiveStepIntegrationTest {
     }
   }
 
+  @Test
+  public void inProcessArchivesMatchArchiverOutput() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    assertThat(writeArchives(false), Matchers.equalTo(writeArchives(true)));
+  }
+
+  @Test
+  public void inProcessThinArchivesMatchArchiverOutput() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    assertThat(writeArchives(false, true), Matchers.equalTo(writeArchives(true, true)));
+  }
+
+  @Test
+  public void gccLtoObjectsAreLeftToTheArchiver() throws IOException, InterruptedException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "archive_writer", tmp);
+    workspace.setUp();
+    // The ELF symbol table of a GCC LTO object only has __gnu_lto_slim, not the symbols that ar
+    // indexes through its LTO plugin.
+    assertFalse(
+        ObjectFileSymbols.read(
+                ByteBuffer.wrap(Files.readAllBytes(workspace.getDestPath().resolve("lto.o"))))
+            .isPresent());
+
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    ImmutableList<String> objects = ImmutableList.of("a.o", "lto.o");
+    assertThat(
+        writeArchives(true, false, objects),
+        Matchers.equalTo(writeArchives(false, false, objects)));
+  }
+
+  @Test
+  public void inProcessBsdArchives() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "archive_writer", tmp);
+    workspace.setUp();
+    Path root = workspace.getDestPath();
+    Path output = root.resolve("libbsd.a");
+    ImmutableList<String> objects = ImmutableList.of("a_long_object_name.o", "b.o", "macho.o");
+    ImmutableList.Builder<ArchiveWriter.Member> members = ImmutableList.builder();
+    for (String object : objects) {
+      Path path = root.resolve(object);
+      members.add(
+          new ArchiveWriter.Member(
+              object,
+              path,
+              Files.size(path),
+              ObjectFileSymbols.read(ByteBuffer.wrap(Files.readAllBytes(path))).get()));
+    }
+    new ArchiveWriter(ArchiveWriter.Format.BSD, false).write(output, members.build());
+
+    try (ArArchiveInputStream stream = new ArArchiveInputStream(Files.newInputStream(output))) {
+      ArArchiveEntry entry = stream.getNextArEntry();
+      assertThat(entry.getName(), Matchers.startsWith("__.SYMDEF SORTED"));
+      for (String object : objects) {
+        entry = stream.getNextArEntry();
+        assertEquals(
+            ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP,
+            entry.getLastModified());
+        // Names are padded with NULs to align the data that follows them.
+        assertThat(
+            CharMatcher.is('\0').trimTrailingFrom(entry.getName()), Matchers.equalTo(object));
+        assertThat(
+            ByteStreams.toByteArray(stream),
+            Matchers.equalTo(Files.readAllBytes(root.resolve(object))));
+      }
+      assertThat(stream.getNextArEntry(), Matchers.nullValue());
+    }
+
+    // Every ranlib entry points at the header of the member defining its symbol. ELF common
+    // symbols are indexed like ar does, but Mach-O ones aren't, like ranlib without -c.
+    ByteBuffer archive = ByteBuffer.wrap(Files.readAllBytes(output));
+    ImmutableMap<String, Integer> offsets = readBsdMemberOffsets(archive);
+    assertThat(
+        readBsdSymbolTable(archive),
+        Matchers.equalTo(
+            ImmutableMap.<String, Integer>builder()
+                .put("_macho_fn", offsets.get("macho.o"))
+                .put("b_common", offsets.get("b.o"))
+                .put("b_fn", offsets.get("b.o"))
+                .put("b_weak", offsets.get("b.o"))
+                .put("long_name_fn", offsets.get("a_long_object_name.o"))
+                .build()));
+  }
+
+  @Test
+  public void inProcessArchivesFallBackToTheArchiverForUnknownInputs()
+      throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path input = filesystem.getPath("input.dat");
+    filesystem.writeContentsToPath("blah", input);
+    Path output = filesystem.getPath("output.a");
+    ExecutionContext executionContext = TestExecutionContext.newInstanceWithRealProcessExecutor();
+
+    ArchiveWriterStep step =
+        new ArchiveWriterStep(
+            filesystem,
+            output,
+            ImmutableList.of(input),
+            ArchiveWriter.Format.GNU,
+            false,
+            getArchiverSteps(executionContext, filesystem, output, ImmutableList.of(input), false));
+    assertEquals(0, step.execute(executionContext).getExitCode());
+
+    try (ArArchiveInputStream stream =
+        new ArArchiveInputStream(Files.newInputStream(filesystem.resolve(output)))) {
+      assertThat(stream.getNextArEntry().getName(), Matchers.equalTo("input.dat"));
+    }
+  }
+
+  /** @return the offsets of the headers of the members of a BSD archive, by name. */
+  private static ImmutableMap<String, Integer> readBsdMemberOffsets(ByteBuffer archive) {
+    ImmutableMap.Builder<String, Integer> offsets = ImmutableMap.builder();
+    int offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    while (offset < archive.limit()) {
+      String name = readBsdString(archive, offset, 16).trim();
+      int size = Integer.parseInt(readBsdString(archive, offset + 48, 10).trim());
+      // All the names are long and stored in front of the data, as "#1/<length>".
+      int nameLength = Integer.parseInt(name.substring("#1/".length()));
+      offsets.put(
+          CharMatcher.is('\0').trimTrailingFrom(readBsdString(archive, offset + 60, nameLength)),
+          offset);
+      offset += 60 + size + size % 2;
+    }
+    return offsets.build();
+  }
+
+  /** @return the member header offsets in the ranlib entries of the first member, by symbol. */
+  private static ImmutableMap<String, Integer> readBsdSymbolTable(ByteBuffer archive) {
+    archive = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    int nameLength =
+        Integer.parseInt(readBsdString(archive, offset, 16).trim().substring("#1/".length()));
+    int ranlibs = offset + 60 + nameLength + 4;
+    int ranlibsSize = archive.getInt(ranlibs - 4);
+    int strings = ranlibs + ranlibsSize + 4;
+    ImmutableMap.Builder<String, Integer> symbols = ImmutableMap.builder();
+    for (int ranlib = ranlibs; ranlib < ranlibs + ranlibsSize; ranlib += 8) {
+      int start = strings + archive.getInt(ranlib);
+      int end = start;
+      while (archive.get(end) != 0) {
+        end++;
+      }
+      symbols.put(readBsdString(archive, start, end - start), archive.getInt(ranlib + 4));
+    }
+    return symbols.build();
+  }
+
+  private static String readBsdString(ByteBuffer archive, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer slice = archive.duplicate();
+    slice.position(offset);
+    slice.get(bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  /** @return the bytes of an archive of the objects in the archive_writer scenario. */
+  private byte[] writeArchives(boolean inProcess) throws IOException, InterruptedException {
+    return writeArchives(inProcess, false);
+  }
+
+  private byte[] writeArchives(boolean inProcess, boolean thin)
+      throws IOException, InterruptedException {
+    return writeArchives(
+        inProcess, thin, ImmutableList.of("a.o", "b.o", "a_long_object_name.o"));
+  }
+
+  private byte[] writeArchives(boolean inProcess, boolean thin, ImmutableList<String> objects)
+      throws IOException, InterruptedException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "archive_writer", tmp);
+    workspace.setUp();
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(workspace.getDestPath());
+    Path output = filesystem.getPath(inProcess ? "out/in_process.a" : "out/archiver.a");
+    filesystem.mkdirs(output.getParent());
+    ImmutableList<Path> inputs =
+        objects.stream().map(filesystem::getPath).collect(ImmutableList.toImmutableList());
+    ExecutionContext executionContext = TestExecutionContext.newInstanceWithRealProcessExecutor();
+
+    ImmutableList<Step> steps =
+        getArchiverSteps(executionContext, filesystem, output, inputs, thin);
+    if (inProcess) {
+      steps =
+          ImmutableList.of(
+              new ArchiveWriterStep(
+                  filesystem, output, inputs, ArchiveWriter.Format.GNU, thin, steps));
+    }
+    for (Step step : steps) {
+      assertEquals(step.getShortName(), 0, step.execute(executionContext).getExitCode());
+    }
+    return Files.readAllBytes(filesystem.resolve(output));
+  }
+
+  /** @return the steps running ar, ranlib and scrubbing an archive, as the archive rule would. */
+  private ImmutableList<Step> getArchiverSteps(
+      ExecutionContext executionContext,
+      ProjectFilesystem filesystem,
+      Path output,
+      ImmutableList<Path> inputs,
+      boolean thin) {
+    CxxPlatform platform =
+        CxxPlatformUtils.build(new CxxBuckConfig(FakeBuckConfig.builder().build()));
+    BuildRuleResolver ruleResolver = new TestActionGraphBuilder();
+    Archiver archiver =
+        platform.getAr().resolve(ruleResolver, UnconfiguredTargetConfiguration.INSTANCE);
+    Tool ranlib =
+        platform.getRanlib().get().resolve(ruleResolver, UnconfiguredTargetConfiguration.INSTANCE);
+    SourcePathResolver resolver = ruleResolver.getSourcePathResolver();
+    return ImmutableList.of(
+        new ArchiveStep(
+            filesystem,
+            archiver.getEnvironment(resolver),
+            archiver.getCommandPrefix(resolver),
+            ImmutableList.of(),
+            getArchiveOptions(thin),
+            output,
+            inputs,
+            archiver,
+            filesystem.getPath("scratchDir")),
+        new RanlibStep(
+            filesystem,
+            ranlib.getEnvironment(resolver),
+            ranlib.getCommandPrefix(resolver),
+            ImmutableList.of(),
+            output),
+        new FileScrubberStep(filesystem, output, archiver.getScrubbers()));
+  }
+
   private static ImmutableList<String> getArchiveOptions(boolean isThinArchive) {
     String options = isThinArchive ? "qcT" : "qc";
     return ImmutableList.of(options);
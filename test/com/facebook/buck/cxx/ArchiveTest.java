@@ -20,6 +20,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.build.buildable.context.FakeBuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
@@ -101,6 +102,7 @@ public class ArchiveTest {
                     DEFAULT_RANLIB,
                     ImmutableList.of(),
                     ArchiveContents.NORMAL,
+                    /* inProcess */ false,
                     DEFAULT_OUTPUT_FILE_NAME,
                     DEFAULT_INPUTS,
                     /* cacheable */ true));
@@ -120,6 +122,7 @@ public class ArchiveTest {
                     DEFAULT_RANLIB,
                     ImmutableList.of(),
                     ArchiveContents.NORMAL,
+                    /* inProcess */ false,
                     DEFAULT_OUTPUT_FILE_NAME,
                     DEFAULT_INPUTS,
                     /* cacheable */ true));
@@ -138,6 +141,7 @@ public class ArchiveTest {
                     DEFAULT_RANLIB,
                     ImmutableList.of(),
                     ArchiveContents.NORMAL,
+                    /* inProcess */ false,
                     "different",
                     DEFAULT_INPUTS,
                     /* cacheable */ true));
@@ -156,6 +160,7 @@ public class ArchiveTest {
                     DEFAULT_RANLIB,
                     ImmutableList.of(),
                     ArchiveContents.NORMAL,
+                    /* inProcess */ false,
                     DEFAULT_OUTPUT_FILE_NAME,
                     ImmutableList.of(FakeSourcePath.of("different")),
                     /* cacheable */ true));
@@ -174,10 +179,30 @@ public class ArchiveTest {
                     DEFAULT_RANLIB,
                     ImmutableList.of(),
                     ArchiveContents.NORMAL,
+                    /* inProcess */ false,
                     DEFAULT_OUTPUT_FILE_NAME,
                     DEFAULT_INPUTS,
                     /* cacheable */ true));
     assertNotEquals(defaultRuleKey, archiverTypeChange);
+
+    // Verify that writing the archive in-process causes a rulekey change.
+    RuleKey inProcessChange =
+        new TestDefaultRuleKeyFactory(hashCache, ruleFinder)
+            .build(
+                new Archive(
+                    target,
+                    projectFilesystem,
+                    ruleFinder,
+                    DEFAULT_ARCHIVER,
+                    ImmutableList.of(),
+                    DEFAULT_RANLIB,
+                    ImmutableList.of(),
+                    ArchiveContents.NORMAL,
+                    /* inProcess */ true,
+                    DEFAULT_OUTPUT_FILE_NAME,
+                    DEFAULT_INPUTS,
+                    /* cacheable */ true));
+    assertNotEquals(defaultRuleKey, inProcessChange);
   }
 
   @Test
@@ -195,6 +220,7 @@ public class ArchiveTest {
             DEFAULT_RANLIB,
             ImmutableList.of("-bar"),
             ArchiveContents.NORMAL,
+            /* inProcess */ false,
             DEFAULT_OUTPUT_FILE_NAME,
             ImmutableList.of(FakeSourcePath.of("simple.o")),
             /* cacheable */ true);
@@ -215,6 +241,38 @@ public class ArchiveTest {
         ranlibStep.getDescription(TestExecutionContext.newInstance()), containsString("-bar"));
   }
 
+  @Test
+  public void inProcessArchivesOnlyRunTheArchiverAsAFallback() {
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    Archive archive =
+        new Archive(
+            target,
+            projectFilesystem,
+            resolver,
+            DEFAULT_ARCHIVER,
+            ImmutableList.of(),
+            DEFAULT_RANLIB,
+            ImmutableList.of(),
+            ArchiveContents.NORMAL,
+            /* inProcess */ true,
+            DEFAULT_OUTPUT_FILE_NAME,
+            ImmutableList.of(FakeSourcePath.of("simple.o")),
+            /* cacheable */ true);
+
+    BuildContext buildContext =
+        BuildContext.builder()
+            .from(FakeBuildContext.NOOP_CONTEXT)
+            .setSourcePathResolver(resolver.getSourcePathResolver())
+            .build();
+
+    ImmutableList<Step> steps = archive.getBuildSteps(buildContext, new FakeBuildableContext());
+    assertTrue(FluentIterable.from(steps).filter(ArchiveStep.class).isEmpty());
+    assertTrue(FluentIterable.from(steps).filter(RanlibStep.class).isEmpty());
+    assertEquals(1, FluentIterable.from(steps).filter(ArchiveWriterStep.class).size());
+  }
+
   @Test
   public void testThatBuildTargetSourcePathDepsAndPathsArePropagated() {
     ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
@@ -242,6 +300,7 @@ public class ArchiveTest {
             DEFAULT_RANLIB,
             ImmutableList.of(),
             ArchiveContents.NORMAL,
+            /* inProcess */ false,
             DEFAULT_OUTPUT_FILE_NAME,
             ImmutableList.of(
                 FakeSourcePath.of("simple.o"),
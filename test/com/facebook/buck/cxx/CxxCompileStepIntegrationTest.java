@@ -17,6 +17,7 @@
 package com.facebook.buck.cxx;
 
 import static com.facebook.buck.file.ProjectFilesystemMatchers.pathExists;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertEquals;
@@ -36,9 +37,11 @@ import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.PrefixMapDebugPathSanitizer;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.cache.CacheStats;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -46,6 +49,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -97,6 +102,7 @@ public class CxxCompileStepIntegrationTest {
             true,
             ImmutableList.of(),
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
@@ -167,6 +173,7 @@ public class CxxCompileStepIntegrationTest {
             true,
             ImmutableList.of(),
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
@@ -183,4 +190,120 @@ public class CxxCompileStepIntegrationTest {
     Files.delete(input);
     Files.deleteIfExists(output);
   }
+
+  @Test
+  public void reusesObjectsCompiledFromTheSamePreprocessedSource() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    CxxObjectCache objectCache = CxxObjectCache.of(filesystem, 1024 * 1024);
+    CxxObjectCache.takeStats();
+
+    // Neither the comment nor the unused macro change what's compiled.
+    for (String version : ImmutableList.of("1", "2")) {
+      compileWithObjectCache(
+          filesystem,
+          objectCache,
+          "int main() { return 0; } /* version " + version + " */",
+          ImmutableList.of("-DUNUSED=" + version, "-I", "include" + version, "-O1"));
+    }
+
+    CacheStats stats = CxxObjectCache.takeStats();
+    assertEquals(Optional.of(1L), stats.getHitCount());
+    assertEquals(Optional.of(1L), stats.getMissCount());
+  }
+
+  @Test
+  public void codeGenerationOptionsAmongThePreprocessorFlagsAreInTheObjectKey() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    CxxObjectCache objectCache = CxxObjectCache.of(filesystem, 1024 * 1024);
+    CxxObjectCache.takeStats();
+
+    // Preprocessor flags come first, and platform cppflags often carry options like -fPIC, which
+    // change the object but not the preprocessed source.
+    for (String cppflag : ImmutableList.of("-fno-PIC", "-fPIC")) {
+      compileWithObjectCache(
+          filesystem,
+          objectCache,
+          "int main() { return 0; }",
+          ImmutableList.of(cppflag, "-DUNUSED", "-O1"));
+    }
+
+    CacheStats stats = CxxObjectCache.takeStats();
+    assertEquals(Optional.of(0L), stats.getHitCount());
+    assertEquals(Optional.of(2L), stats.getMissCount());
+  }
+
+  @Test
+  public void objectCacheHitsReplayCompilerWarnings() throws Exception {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    CxxObjectCache objectCache = CxxObjectCache.of(filesystem, 1024 * 1024);
+    CxxObjectCache.takeStats();
+
+    List<String> stderrs = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      stderrs.add(
+          compileWithObjectCache(
+              filesystem,
+              objectCache,
+              "int main() { int unused; return 0; }",
+              ImmutableList.of("-Wunused-variable", "-O1")));
+    }
+
+    assertEquals(Optional.of(1L), CxxObjectCache.takeStats().getHitCount());
+    assertThat(stderrs.get(0), containsString("unused"));
+    assertEquals(stderrs.get(0), stderrs.get(1));
+  }
+
+  /** @return what the step reported the compiler wrote to stderr. */
+  private String compileWithObjectCache(
+      ProjectFilesystem filesystem,
+      CxxObjectCache objectCache,
+      String source,
+      ImmutableList<String> arguments)
+      throws Exception {
+    CxxPlatform platform =
+        CxxPlatformUtils.build(new CxxBuckConfig(FakeBuckConfig.builder().build()));
+
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    Compiler compiler =
+        platform.getCc().resolve(resolver, UnconfiguredTargetConfiguration.INSTANCE);
+    ImmutableList<String> compilerCommandPrefix =
+        compiler.getCommandPrefix(resolver.getSourcePathResolver());
+    Path output = filesystem.resolve(Paths.get("output.o"));
+    Path depFile = filesystem.resolve(Paths.get("output.dep"));
+    Path relativeInput = Paths.get("input.c");
+    Path scratchDir = filesystem.getPath("scratchDir");
+    filesystem.mkdirs(scratchDir);
+    filesystem.writeContentsToPath(source, relativeInput);
+    Files.deleteIfExists(output);
+    Files.deleteIfExists(depFile);
+
+    CxxPreprocessAndCompileStep step =
+        new CxxPreprocessAndCompileStep(
+            filesystem,
+            CxxPreprocessAndCompileStep.Operation.PREPROCESS_AND_COMPILE,
+            output,
+            Optional.of(depFile),
+            relativeInput,
+            CxxSource.Type.C,
+            new CxxPreprocessAndCompileStep.ToolCommand(
+                compilerCommandPrefix, arguments, ImmutableMap.of()),
+            resolver.getSourcePathResolver(),
+            HeaderPathNormalizer.empty(),
+            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+            scratchDir,
+            true,
+            ImmutableList.of(),
+            compiler,
+            Optional.empty(),
+            Optional.of(objectCache));
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+    TestConsole console = (TestConsole) executionContext.getConsole();
+    StepExecutionResult result = step.execute(executionContext);
+    assertEquals(
+        "compile step failed: " + console.getTextWrittenToStdErr(), 0, result.getExitCode());
+    assertThat(filesystem, pathExists(output));
+    assertThat(filesystem, pathExists(depFile));
+    return result.getStderr().orElse("");
+  }
 }
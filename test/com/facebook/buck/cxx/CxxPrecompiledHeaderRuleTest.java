@@ -19,6 +19,7 @@ package com.facebook.buck.cxx;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
@@ -74,6 +75,7 @@ import com.facebook.buck.testutil.integration.BuckBuildLog;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.cache.CacheStats;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
@@ -315,6 +317,73 @@ public class CxxPrecompiledHeaderRuleTest {
     assertNotEquals(pchFlag2, pchFlag3);
   }
 
+  @Test
+  public void samePchForFlagsOnlyDifferingInDiagnostics() {
+    BuildTarget pchTarget = newTarget("//test:pch");
+    CxxPrecompiledHeaderTemplate pch = newPCH(pchTarget);
+    graphBuilder.addToIndex(pch);
+    PreInclude.takePrecompiledHeaderStats();
+
+    List<CxxPrecompiledHeader> pchInstances = new ArrayList<>();
+    for (String flag : ImmutableList.of("-Wall", "-Wno-unused-variable", "-Wp,-DFOO")) {
+      BuildTarget libTarget = newTarget("//test:lib" + pchInstances.size());
+      CxxSourceRuleFactory factory =
+          newFactoryBuilder(libTarget, new FakeProjectFilesystem(), flag)
+              .setPrecompiledHeader(DefaultBuildTargetSourcePath.of(pchTarget))
+              .build();
+      CxxPreprocessAndCompile lib =
+          factory.requirePreprocessAndCompileBuildRule("lib.cpp", newSource("lib.cpp"));
+      graphBuilder.addToIndex(lib);
+      assertTrue(seek(lib.makeMainStep(context, false).getCommand(), flag).size() > 0);
+      pchInstances.add(
+          (CxxPrecompiledHeader)
+              Iterables.find(lib.getBuildDeps(), CxxPrecompiledHeader.class::isInstance));
+    }
+
+    // Warnings don't make a PCH incompatible, but preprocessor flags passed with `-Wp,` do.
+    assertSame(pchInstances.get(0), pchInstances.get(1));
+    assertNotSame(pchInstances.get(1), pchInstances.get(2));
+    ImmutableList<String> pchCmd =
+        pchInstances.get(0).makeMainStep(context, Paths.get("/tmp/x")).getCommand();
+    assertFalse(seek(pchCmd, "-Wall").size() > 0);
+
+    CacheStats stats = PreInclude.takePrecompiledHeaderStats();
+    assertEquals(Optional.of(2L), stats.getMissCount());
+    assertEquals(Optional.of(1L), stats.getHitCount());
+  }
+
+  @Test
+  public void differentPchForFlagsPromotingWarningsToErrors() {
+    BuildTarget pchTarget = newTarget("//test:pch");
+    CxxPrecompiledHeaderTemplate pch = newPCH(pchTarget);
+    graphBuilder.addToIndex(pch);
+
+    ImmutableList<String> flags =
+        ImmutableList.of("-Wall", "-Werror", "-Werror=shadow", "-pedantic-errors");
+    List<CxxPrecompiledHeader> pchInstances = new ArrayList<>();
+    for (String flag : flags) {
+      BuildTarget libTarget = newTarget("//test:lib" + pchInstances.size());
+      CxxSourceRuleFactory factory =
+          newFactoryBuilder(libTarget, new FakeProjectFilesystem(), flag)
+              .setPrecompiledHeader(DefaultBuildTargetSourcePath.of(pchTarget))
+              .build();
+      CxxPreprocessAndCompile lib =
+          factory.requirePreprocessAndCompileBuildRule("lib.cpp", newSource("lib.cpp"));
+      graphBuilder.addToIndex(lib);
+      pchInstances.add(
+          (CxxPrecompiledHeader)
+              Iterables.find(lib.getBuildDeps(), CxxPrecompiledHeader.class::isInstance));
+    }
+
+    // Warnings turned into errors could fail the prefix header, so they're built into the PCH.
+    assertEquals(4, ImmutableSet.copyOf(pchInstances).size());
+    for (int i = 1; i < pchInstances.size(); i++) {
+      ImmutableList<String> pchCmd =
+          pchInstances.get(i).makeMainStep(context, Paths.get("/tmp/x")).getCommand();
+      assertTrue(seek(pchCmd, flags.get(i)).size() > 0);
+    }
+  }
+
   @Test
   public void userRuleChangesDependencyPCHRuleFlags() {
     BuildTarget pchTarget = newTarget("//test:pch");
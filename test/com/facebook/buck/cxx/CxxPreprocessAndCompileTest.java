@@ -256,7 +256,8 @@ public class CxxPreprocessAndCompileTest {
                     DEFAULT_INPUT,
                     DEFAULT_INPUT_TYPE,
                     Optional.empty(),
-                    CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER));
+                    CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+                    Optional.empty()));
     assertNotEquals(defaultRuleKey, operationChange);
 
     // Verify that changing the platform flags causes a rulekey change.
@@ -390,7 +391,8 @@ public class CxxPreprocessAndCompileTest {
                     DEFAULT_INPUT,
                     DEFAULT_INPUT_TYPE,
                     Optional.empty(),
-                    CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER));
+                    CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+                    Optional.empty()));
       }
     }
     TestData testData = new TestData();
@@ -494,7 +496,8 @@ public class CxxPreprocessAndCompileTest {
             fakeInput,
             DEFAULT_INPUT_TYPE,
             Optional.empty(),
-            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER);
+            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+            Optional.empty());
     assertThat(
         cxxPreprocess.getInputsAfterBuildingLocally(context, cellPathResolver),
         not(hasItem(preprocessor)));
@@ -588,7 +591,8 @@ public class CxxPreprocessAndCompileTest {
             FakeSourcePath.of(input.toString()),
             DEFAULT_INPUT_TYPE,
             Optional.empty(),
-            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER);
+            CxxPlatformUtils.DEFAULT_COMPILER_DEBUG_PATH_SANITIZER,
+            Optional.empty());
 
     ImmutableList<String> command =
         buildRule.makeMainStep(context, false).getArguments(/* allowColorsInDiagnostics */ false);
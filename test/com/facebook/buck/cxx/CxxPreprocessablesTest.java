@@ -42,12 +42,14 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
+import com.facebook.buck.util.collect.NestedSet;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Objects;
 import org.junit.Rule;
 import org.junit.Test;
@@ -96,6 +98,34 @@ public class CxxPreprocessablesTest {
     }
   }
 
+  /** Caches its transitive inputs like most real rules do, so they're ordered by target. */
+  private static class CachedFakeCxxPreprocessorDep extends FakeCxxPreprocessorDep {
+    private final TransitiveCxxPreprocessorInputCache transitiveInputCache =
+        new TransitiveCxxPreprocessorInputCache(this);
+
+    public CachedFakeCxxPreprocessorDep(
+        BuildTarget buildTarget, CxxPreprocessorInput input, BuildRule... deps) {
+      super(
+          buildTarget,
+          new FakeProjectFilesystem(),
+          TestBuildRuleParams.create().withDeclaredDeps(ImmutableSortedSet.copyOf(deps)),
+          input);
+    }
+
+    @Override
+    public ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
+        CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return transitiveInputCache.getUnchecked(cxxPlatform, graphBuilder);
+    }
+
+    @Override
+    public NestedSet<Map.Entry<BuildTarget, CxxPreprocessorInput>>
+        getTransitiveCxxPreprocessorInputSet(
+            CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return transitiveInputCache.getNestedSetUnchecked(cxxPlatform, graphBuilder);
+    }
+  }
+
   private static FakeCxxPreprocessorDep createFakeCxxPreprocessorDep(
       BuildTarget target, CxxPreprocessorInput input, BuildRule... deps) {
     return new FakeCxxPreprocessorDep(
@@ -174,6 +204,65 @@ public class CxxPreprocessablesTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void getTransitiveCxxPreprocessorInputKeepsTheOrderOfEachInput() {
+    CxxPreprocessorInput input1 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DONE"))
+            .build();
+    CxxPreprocessorInput input2 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DTWO"))
+            .build();
+    CxxPreprocessorInput input3 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DTHREE"))
+            .build();
+    FakeCxxPreprocessorDep shared = createFakeCxxPreprocessorDep("//:b", input2);
+    FakeCxxPreprocessorDep first = createFakeCxxPreprocessorDep("//:c", input3, shared);
+    FakeCxxPreprocessorDep second = createFakeCxxPreprocessorDep("//:a", input1, shared);
+
+    // Each input's own inputs keep the order of its map, and inputs already found through an
+    // earlier input are not repeated.
+    assertEquals(
+        ImmutableList.of(input3, input2, input1),
+        ImmutableList.copyOf(
+            CxxPreprocessables.getTransitiveCxxPreprocessorInput(
+                CxxPlatformUtils.DEFAULT_PLATFORM,
+                new TestActionGraphBuilder(),
+                ImmutableList.of(first, second))));
+  }
+
+  @Test
+  public void getTransitiveCxxPreprocessorInputOrdersCachedInputsByTarget() {
+    CxxPreprocessorInput input1 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DONE"))
+            .build();
+    CxxPreprocessorInput input2 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DTWO"))
+            .build();
+    CxxPreprocessorInput input3 =
+        CxxPreprocessorInput.builder()
+            .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-DTHREE"))
+            .build();
+    FakeCxxPreprocessorDep shared = createFakeCxxPreprocessorDep("//:b", input2);
+    FakeCxxPreprocessorDep first =
+        new CachedFakeCxxPreprocessorDep(BuildTargetFactory.newInstance("//:c"), input3, shared);
+    FakeCxxPreprocessorDep second = createFakeCxxPreprocessorDep("//:a", input1, shared);
+
+    // The cached map of the first input is ordered by target, even though its own input comes
+    // first in its set.
+    assertEquals(
+        ImmutableList.of(input2, input3, input1),
+        ImmutableList.copyOf(
+            CxxPreprocessables.getTransitiveCxxPreprocessorInput(
+                CxxPlatformUtils.DEFAULT_PLATFORM,
+                new TestActionGraphBuilder(),
+                ImmutableList.of(first, second))));
+  }
+
   @Test
   public void createHeaderSymlinkTreeBuildRuleHasNoDeps() {
     ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
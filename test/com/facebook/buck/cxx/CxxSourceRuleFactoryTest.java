@@ -344,6 +344,53 @@ public class CxxSourceRuleFactoryTest {
       assertContains(step.getCommand(), explicitPrefixHeaderRelatedFlags);
     }
 
+    @Test
+    public void thinOptRulesUseTheirModuleIndexAndDependOnAllModules() {
+      BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+      ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+      SourcePathResolver pathResolver = graphBuilder.getSourcePathResolver();
+
+      FakeBuildRule a = createFakeBuildRule("//foo:a").setOutputFile("a.o");
+      FakeBuildRule b = createFakeBuildRule("//foo:b").setOutputFile("b.o");
+      graphBuilder.addToIndex(a);
+      graphBuilder.addToIndex(b);
+      FakeBuildRule index =
+          graphBuilder.addToIndex(createFakeBuildRule("//foo:index").setOutputFile("indices"));
+
+      CxxSourceRuleFactory cxxSourceRuleFactory =
+          CxxSourceRuleFactory.builder()
+              .setProjectFilesystem(PROJECT_FILESYSTEM)
+              .setBaseBuildTarget(target)
+              .setActionGraphBuilder(graphBuilder)
+              .setPathResolver(pathResolver)
+              .setCxxBuckConfig(CxxPlatformUtils.DEFAULT_CONFIG)
+              .setCxxPlatform(CXX_PLATFORM)
+              .setPicType(PicType.PDC)
+              .build();
+
+      ImmutableMap<CxxThinLTOOpt, SourcePath> optRules =
+          cxxSourceRuleFactory.requireThinOptRules(
+              ImmutableMap.of(
+                  "a.o",
+                  CxxSource.of(
+                      CxxSource.Type.CXX_THINLINK, a.getSourcePathToOutput(), ImmutableList.of()),
+                  "b.o",
+                  CxxSource.of(
+                      CxxSource.Type.CXX_THINLINK, b.getSourcePathToOutput(), ImmutableList.of())),
+              index.getSourcePathToOutput());
+
+      assertEquals(2, optRules.size());
+      BuildContext context = FakeBuildContext.withSourcePathResolver(pathResolver);
+      for (CxxThinLTOOpt rule : optRules.keySet()) {
+        assertEquals(ImmutableSortedSet.<BuildRule>of(a, b, index), rule.getBuildDeps());
+        String module = pathResolver.getRelativePath(rule.getInput()).toString();
+        assertThat(
+            rule.getCommand(context),
+            Matchers.hasItem(
+                "-fthinlto-index=" + Paths.get("indices", module + ".thinlto.bc").toString()));
+      }
+    }
+
     @Test
     public void duplicateRuleFetchedFromResolverShouldCreateTheSameTarget() {
       ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures parsing the depfile of a translation unit with many headers, laid out the way clang
+ * writes them: one prerequisite per line, with escaped spaces and line continuations.
+ */
+public class DepfilesBenchmark {
+  @Param({"5000"})
+  private int headerCount = 5000;
+
+  private byte[] depfile;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() {
+    Random random = new Random(0);
+    StringBuilder builder = new StringBuilder("buck-out/gen/lib/lib#compile/main.cpp.o: \\\n");
+    builder.append("  lib/main.cpp \\\n");
+    for (int i = 0; i < headerCount; i++) {
+      builder.append("  buck-out/gen/lib");
+      builder.append(random.nextInt(500));
+      builder.append("/headers#header-mode-symlink-tree-only/lib/");
+      builder.append(i % 100 == 0 ? "with\\ space/" : "");
+      builder.append("header");
+      builder.append(i);
+      builder.append(".h");
+      builder.append(i == headerCount - 1 ? "\n" : " \\\n");
+    }
+    depfile = builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void parsesEveryHeader() throws IOException {
+    assertEquals(headerCount + 1, parseDepfile());
+  }
+
+  @Benchmark
+  public int parseDepfile() throws IOException {
+    return Depfiles.parseDepfile(ByteBuffer.wrap(depfile)).getPrereqs().size();
+  }
+}
@@ -16,162 +16,115 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
 import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
 import com.facebook.buck.io.file.FileContentsScrubber;
 import com.facebook.buck.io.file.FileScrubber;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class FileContentsScrubberOverflowTest {
 
-  private static class FakeFileChannel extends FileChannel {
-
-    private final AtomicBoolean unread = new AtomicBoolean(true);
-
-    // Ten digits to match size metadata.  Doesn't fit in 32-bits.
-    public static final long FILE_SIZE = 6000000000L;
-
-    // From ObjectFileScrubbers.
-    public static final int ENTRY_SIZE = 16 + 12 + 6 + 6 + 8 + 10 + 2;
-
-    // Pretend to read out an object file's metadata.
-    @Override
-    public int read(ByteBuffer buf) {
-
-      // Scrubber is trying to read the global header, do nothing.
-      if (unread.getAndSet(false)) {
-        buf.put(ObjectFileScrubbers.GLOBAL_HEADER);
-        return buf.capacity();
-      }
-
-      // None of these values matter except for size and magic.
-      byte[] filename =
-          new byte[] {
-            '0', '1', '2', '3', '4', '5', '6', '7',
-            '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
-          };
-
-      byte[] mtime = Arrays.copyOf(filename, 12);
-      byte[] owner = Arrays.copyOf(filename, 6);
-      byte[] group = Arrays.copyOf(filename, 6);
-      byte[] mode = Arrays.copyOf(filename, 8);
-
-      // Half so scrubber thinks there are two entries.  That way it'll have to do math to update
-      // its position (and we want to see if it overflows).
-      byte[] size =
-          new byte[] {
-            '3', '0', '0', '0', '0',
-            '0', '0', '0', '0', '0',
-          };
-
-      byte[] magic = ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER;
-
-      buf.put(filename);
-      buf.put(mtime);
-      buf.put(owner);
-      buf.put(group);
-      buf.put(mode);
-      buf.put(size);
-      buf.put(magic);
-
-      return ENTRY_SIZE;
-    }
-
-    @Override
-    public int write(ByteBuffer buf) {
-      return ENTRY_SIZE;
-    }
-
-    @Override
-    public FileChannel position(long newPosition) {
-      return this;
-    }
-
-    @Override
-    public long size() {
-      return FILE_SIZE;
-    }
-
-    /* Unused. */
-
-    @Override
-    public void force(boolean metaData) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    protected void implCloseChannel() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public FileLock lock(long position, long size, boolean shared) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public MappedByteBuffer map(FileChannel.MapMode mode, long position, long size) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long read(ByteBuffer[] dsts, int offset, int length) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public int read(ByteBuffer dst, long position) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long position() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long transferFrom(ReadableByteChannel src, long position, long count) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long transferTo(long position, long count, WritableByteChannel target) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public FileLock tryLock(long position, long size, boolean shared) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long write(ByteBuffer[] srcs, int offset, int length) {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public int write(ByteBuffer src, long position) {
-      throw new UnsupportedOperationException();
-    }
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  // Ten digits to match size metadata.  Doesn't fit in 32-bits.
+  private static final long FILE_SIZE = 6000000000L;
+
+  // Half so scrubber thinks there are two entries.  That way it'll have to do math to update
+  // its position (and we want to see if it overflows).
+  private static final long ENTRY_FILE_SIZE = 3000000000L;
+
+  // File systems that allocate nothing for the unwritten parts of a file.
+  private static final ImmutableSet<String> SPARSE_FILE_SYSTEMS =
+      ImmutableSet.of("apfs", "btrfs", "ext3", "ext4", "ntfs", "tmpfs", "xfs", "zfs");
+
+  // From ObjectFileScrubbers.
+  private static final int ENTRY_SIZE = 16 + 12 + 6 + 6 + 8 + 10 + 2;
+
+  private static ByteBuffer entryHeader() {
+    // None of these values matter except for size and magic.
+    ByteBuffer header = ByteBuffer.allocate(ENTRY_SIZE);
+    header.put("0123456789abcdef".getBytes(Charsets.US_ASCII));
+    header.put("0123456789ab".getBytes(Charsets.US_ASCII));
+    header.put("012345".getBytes(Charsets.US_ASCII));
+    header.put("012345".getBytes(Charsets.US_ASCII));
+    header.put("01234567".getBytes(Charsets.US_ASCII));
+    header.put(Long.toString(ENTRY_FILE_SIZE).getBytes(Charsets.US_ASCII));
+    header.put(ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER);
+    header.flip();
+    return header;
+  }
 
-    @Override
-    public FileChannel truncate(long size) {
-      throw new UnsupportedOperationException();
+  @Test
+  public void thatFileSizesOver32BitsIsOkay() throws IOException, FileScrubber.ScrubException {
+    // A sparse file, so only the pages holding the headers take up space. Elsewhere, the test
+    // would write out the whole file, so it's skipped.
+    assumeTrue(
+        SPARSE_FILE_SYSTEMS.contains(
+            Files.getFileStore(tmp.getRoot()).type().toLowerCase(Locale.ROOT)));
+    Path archive = tmp.getRoot().resolve("big.a");
+    long secondEntry = ObjectFileScrubbers.GLOBAL_HEADER.length + ENTRY_SIZE + ENTRY_FILE_SIZE;
+    try (FileChannel channel =
+        FileChannel.open(
+            archive,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.SPARSE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(ObjectFileScrubbers.GLOBAL_HEADER), 0);
+      channel.write(entryHeader(), ObjectFileScrubbers.GLOBAL_HEADER.length);
+      channel.write(entryHeader(), secondEntry);
+      channel.write(ByteBuffer.allocate(1), FILE_SIZE - 1);
+
+      FileContentsScrubber scrubber =
+          ObjectFileScrubbers.createDateUidGidScrubber(ObjectFileScrubbers.PaddingStyle.LEFT);
+      scrubber.scrubFile(channel);
+
+      // The timestamp of the entry past the first 2GB.
+      ByteBuffer scrubbed = ByteBuffer.allocate(12);
+      channel.read(scrubbed, secondEntry + 16);
+      assertArrayEquals("   476064000".getBytes(Charsets.US_ASCII), scrubbed.array());
     }
   }
 
   @Test
-  public void thatFileSizesOver32BitsIsOkay() throws IOException, FileScrubber.ScrubException {
-    FileContentsScrubber scrubber =
-        ObjectFileScrubbers.createDateUidGidScrubber(ObjectFileScrubbers.PaddingStyle.LEFT);
-    scrubber.scrubFile(new FakeFileChannel());
+  public void entryWithInvalidMagicIsNotModified() throws IOException {
+    Path archive = tmp.getRoot().resolve("bad.a");
+    ByteBuffer entry = entryHeader();
+    entry.put(ENTRY_SIZE - 1, (byte) 'x');
+    byte[] before;
+    try (FileChannel channel =
+        FileChannel.open(
+            archive,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(ObjectFileScrubbers.GLOBAL_HEADER), 0);
+      channel.write(entry, ObjectFileScrubbers.GLOBAL_HEADER.length);
+      before = Files.readAllBytes(archive);
+
+      FileContentsScrubber scrubber =
+          ObjectFileScrubbers.createDateUidGidScrubber(ObjectFileScrubbers.PaddingStyle.LEFT);
+      try {
+        scrubber.scrubFile(channel);
+        fail("Expected the invalid file magic to be rejected.");
+      } catch (FileScrubber.ScrubException e) {
+        // Expected.
+      }
+    }
+    assertArrayEquals(before, Files.readAllBytes(archive));
   }
 }
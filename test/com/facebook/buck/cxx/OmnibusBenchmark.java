@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkTarget;
+import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkable;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures computing the omnibus spec for a binary with many native extensions (the roots) sharing
+ * a large graph of native libraries.
+ */
+public class OmnibusBenchmark {
+  @Param({"10000"})
+  private int nodeCount = 10000;
+
+  @Param({"1000"})
+  private int rootCount = 1000;
+
+  private ImmutableList<NativeLinkTarget> roots;
+  private ActionGraphBuilder graphBuilder;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() {
+    Random random = new Random(0);
+
+    // Nodes only depend on nodes with higher indices, so create them in reverse.
+    NativeLinkable[] nodes = new NativeLinkable[nodeCount];
+    for (int i = nodeCount - 1; i >= 0; i--) {
+      Set<NativeLinkable> deps = new LinkedHashSet<>();
+      for (int j = 0; j < 4 && i + 1 < nodeCount; j++) {
+        deps.add(nodes[i + 1 + random.nextInt(Math.min(nodeCount - i - 1, 200))]);
+      }
+      // A few of the libraries at the bottom of the graph, e.g. prebuilt ones, can't be linked
+      // into omnibus.
+      String target = "//lib" + i + ":lib" + i;
+      nodes[i] =
+          i >= nodeCount - 100 && i % 10 == 0
+              ? new OmnibusExcludedNode(target, deps)
+              : new OmnibusNode(target, deps);
+    }
+
+    ImmutableList.Builder<NativeLinkTarget> rootsBuilder = ImmutableList.builder();
+    for (int i = 0; i < rootCount; i++) {
+      rootsBuilder.add(
+          new OmnibusRootNode(
+              "//ext" + i + ":ext" + i,
+              ImmutableList.of(
+                  nodes[random.nextInt(nodeCount)], nodes[random.nextInt(nodeCount)])));
+    }
+    roots = rootsBuilder.build();
+    graphBuilder = new TestActionGraphBuilder();
+  }
+
+  @Test
+  public void everyReachableNodeIsInTheBodyOrExcluded() {
+    Set<NativeLinkable> reachable = new HashSet<>();
+    Deque<NativeLinkable> pending = new ArrayDeque<>();
+    roots.forEach(root -> root.getNativeLinkTargetDeps(graphBuilder).forEach(pending::add));
+    while (!pending.isEmpty()) {
+      NativeLinkable node = pending.pop();
+      if (reachable.add(node)) {
+        node.getNativeLinkableDeps(graphBuilder).forEach(pending::add);
+      }
+    }
+
+    Omnibus.OmnibusSpec spec = Omnibus.buildSpec(roots, ImmutableList.of(), graphBuilder);
+    assertEquals(reachable.size(), spec.getBody().size() + spec.getExcluded().size());
+  }
+
+  @Benchmark
+  public int buildSpec() {
+    return Omnibus.buildSpec(roots, ImmutableList.of(), graphBuilder).getBody().size();
+  }
+}
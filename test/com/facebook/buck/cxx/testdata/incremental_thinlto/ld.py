@@ -2,8 +2,11 @@
 """A fake ld that can emit extra output."""
 
 import argparse
+import os
 import sys
 
+INDICES = "buck-out/gen/bin#incremental-thinlto,thinindex/thinlto.indices"
+
 
 def main():
     # expand argfiles.
@@ -17,18 +20,22 @@ def main():
             expanded_args.append(arg)
 
     # write the args to the expected files manually
-    with open(
-        "buck-out/gen/bin#incremental-thinlto,thinindex/thinlto.indices/main.cpp.o.thinlto.bc",
-        "w",
-    ) as f:
+    with open(os.path.join(INDICES, "main.cpp.o.thinlto.bc"), "w") as f:
         f.writelines(expanded_args)
 
-    with open(
-        "buck-out/gen/bin#incremental-thinlto,thinindex/thinlto.indices/main.cpp.o.imports",
-        "w",
-    ) as f:
+    with open(os.path.join(INDICES, "main.cpp.o.imports"), "w") as f:
         f.writelines(expanded_args)
 
+    # and write an index for each object where the opt rules look for it.
+    for arg in " ".join(expanded_args).split():
+        obj = arg.strip("'\"")
+        if obj.endswith(".o") and os.path.isfile(obj):
+            index = os.path.join(INDICES, obj + ".thinlto.bc")
+            if not os.path.isdir(os.path.dirname(index)):
+                os.makedirs(os.path.dirname(index))
+            with open(index, "w") as f:
+                f.write(obj)
+
 
 if __name__ == "__main__":
     main()
@@ -19,6 +19,8 @@ package com.facebook.buck.jvm.java;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildId;
@@ -316,4 +318,82 @@ public class JUnitStepTest {
         "Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void jvmPoolArgsSplitSystemPropertiesFromOtherJvmArgs() {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    Path classpathFile = Paths.get("classpath-file");
+    Path testRunnerClasspath = Paths.get("ant-out/classes/junit");
+    JUnitJvmArgs args =
+        JUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(8)
+            .setClasspathFile(classpathFile)
+            .setTestRunnerClasspath(testRunnerClasspath)
+            .setExtraJvmArgs(ImmutableList.of("-Xmx1g", "-Dname=value", "-Dflag"))
+            .setTestType(TestType.JUNIT)
+            .setJvmPoolMaxUses(10)
+            .addTestClasses("com.example.FooTest")
+            .build();
+
+    assertTrue(args.canRunInJvmPool());
+    assertEquals(
+        ImmutableList.of("-Xmx1g"), args.getJvmPoolJvmArgs(Verbosity.STANDARD_INFORMATION));
+    assertEquals(
+        ImmutableMap.builder()
+            .put("buck.testrunner_classes", testRunnerClasspath.toString())
+            .put("buck.classpath_file", filesystem.resolve(classpathFile).toString())
+            .put("com.facebook.buck.buildId", "pretend-build-id")
+            .put("com.facebook.buck.moduleBasePath", "module")
+            .put("apple.awt.UIElement", "true")
+            .put("name", "value")
+            .put("flag", "")
+            .build(),
+        args.getJvmPoolSystemProperties(filesystem));
+    assertEquals(
+        ImmutableList.of(
+            "com.facebook.buck.testrunner.JUnitMain",
+            "--default-test-timeout",
+            "500",
+            "com.example.FooTest"),
+        args.getTestRunnerArgs(500));
+  }
+
+  @Test
+  public void jvmPoolOpensTheEnvironmentOnJava9AndLater() {
+    JUnitJvmArgs args =
+        JUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(11)
+            .setClasspathFile(Paths.get("classpath-file"))
+            .setTestRunnerClasspath(Paths.get("ant-out/classes/junit"))
+            .setTestType(TestType.JUNIT)
+            .setJvmPoolMaxUses(10)
+            .build();
+
+    assertEquals(
+        ImmutableList.of(
+            "--add-opens=java.base/java.util=ALL-UNNAMED",
+            "--add-opens=java.base/java.lang=ALL-UNNAMED"),
+        args.getJvmPoolJvmArgs(Verbosity.STANDARD_INFORMATION));
+  }
+
+  @Test
+  public void debuggingNeverRunsInJvmPool() {
+    JUnitJvmArgs args =
+        JUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(8)
+            .setClasspathFile(Paths.get("classpath-file"))
+            .setTestRunnerClasspath(Paths.get("ant-out/classes/junit"))
+            .setTestType(TestType.JUNIT)
+            .setJvmPoolMaxUses(10)
+            .setDebugEnabled(true)
+            .build();
+
+    assertFalse(args.canRunInJvmPool());
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.result.type.ResultType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class JavaTestShardsTest {
+
+  @Test
+  public void slowClassesAreSpreadAcrossShards() {
+    ImmutableList<ImmutableSortedSet<String>> shards =
+        JavaTestShards.partition(
+            ImmutableSet.of("A", "B", "C", "D", "E"),
+            ImmutableMap.of("A", 100L, "B", 70L, "C", 10L, "D", 10L, "E", 10L),
+            2);
+
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B", "C", "D", "E")),
+        shards);
+  }
+
+  @Test
+  public void classesWithoutTimingsAreAssumedAverage() {
+    ImmutableList<ImmutableSortedSet<String>> shards =
+        JavaTestShards.partition(
+            ImmutableSet.of("A", "B", "New"), ImmutableMap.of("A", 50L, "B", 10L), 2);
+
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B", "New")), shards);
+  }
+
+  @Test
+  public void neverCreatesEmptyShards() {
+    ImmutableList<ImmutableSortedSet<String>> shards =
+        JavaTestShards.partition(ImmutableSet.of("A", "B"), ImmutableMap.of(), 8);
+
+    assertEquals(ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B")), shards);
+  }
+
+  @Test
+  public void timingsRoundTripAndForgetRemovedClasses() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path timingsFile = Paths.get("buck-out/gen/test-class-timings");
+
+    JavaTestShards.writeTimings(
+        filesystem,
+        timingsFile,
+        ImmutableSet.of("A", "B"),
+        ImmutableList.of(summary("A", 30), summary("B", 40)));
+    JavaTestShards.writeTimings(
+        filesystem,
+        timingsFile,
+        ImmutableSet.of("A", "C"),
+        ImmutableList.of(summary("C", 50)));
+
+    assertEquals(
+        ImmutableMap.of("A", 30L, "C", 50L),
+        JavaTestShards.readTimings(filesystem, timingsFile));
+  }
+
+  private static TestCaseSummary summary(String testClass, long time) {
+    return new TestCaseSummary(
+        testClass,
+        ImmutableList.of(
+            new TestResultSummary(
+                testClass, "test", ResultType.SUCCESS, time, null, null, null, null)));
+  }
+}
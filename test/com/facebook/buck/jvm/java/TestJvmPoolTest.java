@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static com.facebook.buck.util.environment.Platform.WINDOWS;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestJvmPoolTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProcessExecutor processExecutor;
+  private ImmutableMap<String, String> properties;
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    // The pooled JVM is started with this JVM's class path, which is passed as a single path.
+    Assume.assumeThat(Platform.detect(), is(not(WINDOWS)));
+    processExecutor = new DefaultProcessExecutor(new TestConsole());
+    Path testClasses =
+        Paths.get(FakeTestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    properties =
+        ImmutableMap.of(
+            FileClassPathRunner.TESTRUNNER_CLASSES_PROPERTY,
+            testClasses.toString(),
+            FileClassPathRunner.CLASSPATH_FILE_PROPERTY,
+            tmp.newFile("classpath").toString());
+  }
+
+  @Test
+  public void jvmIsReusedUntilMaxUses() throws Exception {
+    TestJvmPool pool = newPool(2);
+
+    assertEquals(3, run(pool, "3", Optional.empty()).getExitCode());
+    String firstJvm = readStdOut();
+    assertEquals(1, pool.getIdleJvmCount());
+
+    assertEquals(0, run(pool, "0", Optional.empty()).getExitCode());
+    assertEquals(firstJvm, readStdOut());
+    assertEquals("recycled after two uses", 0, pool.getIdleJvmCount());
+
+    assertEquals(0, run(pool, "0", Optional.empty()).getExitCode());
+    assertNotEquals(firstJvm, readStdOut());
+  }
+
+  @Test
+  public void exitFromTestIsReportedAsExitCode() throws Exception {
+    TestJvmPool pool = newPool(10);
+
+    assertEquals(42, run(pool, "exit", Optional.empty()).getExitCode());
+    assertEquals(0, pool.getIdleJvmCount());
+  }
+
+  @Test
+  public void timeoutKillsTheJvm() throws Exception {
+    TestJvmPool pool = newPool(10);
+
+    TestJvmPool.Result result = run(pool, "hang", Optional.of(500L));
+
+    assertTrue(result.isTimedOut());
+    assertEquals(0, pool.getIdleJvmCount());
+  }
+
+  @Test
+  public void testsWithDifferentEnvironmentsShareAJvm() throws Exception {
+    TestJvmPool pool = newPool(10);
+
+    assertEquals(
+        0, run(pool, "env", ImmutableMap.of("POOLED_TEST_VAR", "first")).get().getExitCode());
+    String[] first = readStdOut().split(" ");
+    assertEquals(
+        0, run(pool, "env", ImmutableMap.of("POOLED_TEST_VAR", "second")).get().getExitCode());
+    String[] second = readStdOut().split(" ");
+    assertEquals(0, run(pool, "env", ImmutableMap.of()).get().getExitCode());
+    String[] third = readStdOut().split(" ");
+
+    assertEquals(first[0], second[0]);
+    assertEquals(first[0], third[0]);
+    assertEquals("first\n", first[1]);
+    assertEquals("second\n", second[1]);
+    assertEquals("null\n", third[1]);
+  }
+
+  @Test
+  public void leastRecentlyUsedIdleJvmOfAnyPoolIsEvicted() throws Exception {
+    TestJvmPool.IdleJvms idleJvms = new TestJvmPool.IdleJvms(1);
+    TestJvmPool first = newPool(10, idleJvms);
+    TestJvmPool second = newPool(10, idleJvms);
+
+    assertEquals(0, run(first, "0", Optional.empty()).getExitCode());
+    String firstJvm = readStdOut();
+    assertEquals(0, run(second, "0", Optional.empty()).getExitCode());
+    assertEquals(0, first.getIdleJvmCount());
+    assertEquals(1, second.getIdleJvmCount());
+
+    assertEquals(0, run(first, "0", Optional.empty()).getExitCode());
+    assertNotEquals(firstJvm, readStdOut());
+  }
+
+  private TestJvmPool newPool(int maxUses) {
+    return newPool(maxUses, new TestJvmPool.IdleJvms(10));
+  }
+
+  private TestJvmPool newPool(int maxUses, TestJvmPool.IdleJvms idleJvms) {
+    return new TestJvmPool(
+        ImmutableList.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString()),
+        ImmutableList.of(),
+        Paths.get(getAbsoluteClassPath()),
+        maxUses,
+        tmp.getRoot(),
+        ImmutableMap.copyOf(System.getenv()),
+        tmp.getRoot().resolve("pool.log"),
+        idleJvms);
+  }
+
+  /** The pooled JVM runs in a different working directory, so relative entries won't do. */
+  private static String getAbsoluteClassPath() {
+    return Splitter.on(File.pathSeparatorChar).splitToList(System.getProperty("java.class.path"))
+        .stream()
+        .map(entry -> Paths.get(entry).toAbsolutePath().toString())
+        .collect(Collectors.joining(File.pathSeparator));
+  }
+
+  private TestJvmPool.Result run(TestJvmPool pool, String arg, Optional<Long> timeoutMs)
+      throws IOException, InterruptedException {
+    return pool.run(
+            processExecutor,
+            properties,
+            ImmutableMap.of(),
+            tmp.getRoot().resolve("stdout"),
+            tmp.getRoot().resolve("stderr"),
+            ImmutableList.of(FakeTestRunner.class.getName(), arg),
+            timeoutMs)
+        .get();
+  }
+
+  private Optional<TestJvmPool.Result> run(
+      TestJvmPool pool, String arg, ImmutableMap<String, String> environment)
+      throws IOException, InterruptedException {
+    return pool.run(
+        processExecutor,
+        properties,
+        environment,
+        tmp.getRoot().resolve("stdout"),
+        tmp.getRoot().resolve("stderr"),
+        ImmutableList.of(FakeTestRunner.class.getName(), arg),
+        Optional.empty());
+  }
+
+  private String readStdOut() throws IOException {
+    return new String(Files.readAllBytes(tmp.getRoot().resolve("stdout")), StandardCharsets.UTF_8);
+  }
+
+  /** Prints the name of the JVM it runs in, which identifies the process. */
+  public static class FakeTestRunner {
+    public static int runInProcess(String[] args) throws InterruptedException {
+      System.out.print(ManagementFactory.getRuntimeMXBean().getName());
+      System.out.println(args[0].equals("env") ? " " + System.getenv("POOLED_TEST_VAR") : "");
+      switch (args[0]) {
+        case "env":
+          return 0;
+        case "exit":
+          System.exit(42);
+          return 1;
+        case "hang":
+          Thread.sleep(60_000);
+          return 1;
+        default:
+          return Integer.parseInt(args[0]);
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.Message;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassVisitor;
+
+/** Measures class ABI generation over real-world jars that Buck itself depends on. */
+public class StubJarBenchmark {
+  private static final ImmutableMap<String, Class<?>> CORPUS =
+      ImmutableMap.of(
+          "guava", ImmutableList.class,
+          "protobuf", Message.class,
+          "asm", ClassVisitor.class);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Param({"guava", "protobuf", "asm"})
+  private String jar = "guava";
+
+  @Param({"1", "2", "4", "8"})
+  private int threads = 4;
+
+  private ProjectFilesystem filesystem;
+  private ExecutorService executor;
+  private Path libraryJar;
+  private int iteration;
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException, URISyntaxException {
+    if (filesystem == null) {
+      filesystem =
+          TestProjectFilesystems.createProjectFilesystem(Files.createTempDirectory("stub-jar"));
+    }
+    executor = Executors.newFixedThreadPool(threads);
+    libraryJar = getCorpusJar(jar);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void parallelStubsMatchSequentialStubs() throws IOException, URISyntaxException {
+    for (String corpusJar : CORPUS.keySet()) {
+      Path library = getCorpusJar(corpusJar);
+
+      Path sequential = Paths.get(corpusJar + "-sequential-abi.jar");
+      new StubJar(library).writeTo(filesystem, sequential);
+
+      Path parallel = Paths.get(corpusJar + "-parallel-abi.jar");
+      new StubJar(library).setParallelism(executor, threads).writeTo(filesystem, parallel);
+
+      assertArrayEquals(corpusJar, readFile(sequential), readFile(parallel));
+    }
+  }
+
+  @Benchmark
+  public void generateClassAbi() throws IOException {
+    Path output = Paths.get(String.format("%s-%d-abi.jar", jar, iteration++));
+    new StubJar(libraryJar).setParallelism(executor, threads).writeTo(filesystem, output);
+    filesystem.deleteFileAtPath(output);
+  }
+
+  private byte[] readFile(Path path) throws IOException {
+    return Files.readAllBytes(filesystem.resolve(path));
+  }
+
+  private static Path getCorpusJar(String name) throws URISyntaxException {
+    return Paths.get(
+        CORPUS.get(name).getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+}
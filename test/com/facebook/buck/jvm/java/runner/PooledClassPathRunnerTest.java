@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PooledClassPathRunnerTest {
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  private ImmutableMap<String, String> properties;
+  private Path stdOut;
+  private Path stdErr;
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    Path classpathFile = temporaryPaths.newFile("classpath");
+    Path testClasses =
+        Paths.get(FakeTestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    properties =
+        ImmutableMap.of(
+            FileClassPathRunner.TESTRUNNER_CLASSES_PROPERTY, testClasses.toString(),
+            FileClassPathRunner.CLASSPATH_FILE_PROPERTY, classpathFile.toString(),
+            "pooled.test.property", "set");
+    stdOut = temporaryPaths.getRoot().resolve("stdout");
+    stdErr = temporaryPaths.getRoot().resolve("stderr");
+  }
+
+  @Test
+  public void eachRequestGetsFreshStaticState() throws IOException {
+    DataInputStream responses = serve(10, request("7"), request("0"));
+
+    assertEquals(7, responses.readInt());
+    assertFalse(responses.readBoolean());
+    assertEquals(0, responses.readInt());
+    assertFalse(responses.readBoolean());
+    // The second request ran FakeTestRunner in a class loader of its own, so its counter restarted.
+    assertEquals("1 set\n", new String(Files.readAllBytes(stdOut), StandardCharsets.UTF_8));
+    assertNull(System.getProperty("pooled.test.property"));
+  }
+
+  @Test
+  public void exitsAfterMaxUses() throws IOException {
+    DataInputStream responses = serve(2, request("0"), request("0"), request("0"));
+
+    responses.readInt();
+    assertFalse(responses.readBoolean());
+    responses.readInt();
+    assertTrue(responses.readBoolean());
+    assertEquals("third request must not be served", 0, responses.available());
+  }
+
+  @Test
+  public void exitsWhenATestLeaksAThread() throws IOException {
+    DataInputStream responses = serve(10, request("leak-thread"), request("0"));
+
+    assertEquals(0, responses.readInt());
+    assertTrue(responses.readBoolean());
+    assertEquals(0, responses.available());
+  }
+
+  @Test
+  public void missingEntryPointFailsTheRequest() throws IOException {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    PooledClassPathRunner.writeRequest(
+        new DataOutputStream(requests),
+        properties,
+        ImmutableMap.of(),
+        stdOut.toString(),
+        stdErr.toString(),
+        "com.example.DoesNotExist",
+        ImmutableList.of());
+    DataInputStream responses = serve(10, requests.toByteArray());
+
+    assertEquals(1, responses.readInt());
+    assertFalse(responses.readBoolean());
+    assertTrue(
+        new String(Files.readAllBytes(stdErr), StandardCharsets.UTF_8).contains("DoesNotExist"));
+  }
+
+  @Test
+  public void environmentIsSetForOneRequestOnly() throws IOException {
+    Path firstStdOut = temporaryPaths.getRoot().resolve("first-stdout");
+    DataInputStream responses =
+        serve(
+            10,
+            request(
+                "env",
+                ImmutableMap.of("POOLED_TEST_VAR", "set", "PATH", "overridden"),
+                firstStdOut),
+            request("env", ImmutableMap.of(), stdOut));
+
+    assertEquals(0, responses.readInt());
+    assertFalse(responses.readBoolean());
+    assertEquals(0, responses.readInt());
+    assertFalse(responses.readBoolean());
+    assertEquals(
+        "1 set overridden\n", new String(Files.readAllBytes(firstStdOut), StandardCharsets.UTF_8));
+    assertEquals(
+        "1 null " + System.getenv("PATH") + "\n",
+        new String(Files.readAllBytes(stdOut), StandardCharsets.UTF_8));
+    assertNull(System.getenv("POOLED_TEST_VAR"));
+  }
+
+  private byte[] request(String arg) throws IOException {
+    return request(arg, ImmutableMap.of(), stdOut);
+  }
+
+  private byte[] request(String arg, ImmutableMap<String, String> environment, Path stdOutPath)
+      throws IOException {
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    PooledClassPathRunner.writeRequest(
+        new DataOutputStream(request),
+        properties,
+        environment,
+        stdOutPath.toString(),
+        stdErr.toString(),
+        FakeTestRunner.class.getName(),
+        ImmutableList.of(arg));
+    return request.toByteArray();
+  }
+
+  private DataInputStream serve(int maxUses, byte[]... requests) throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    for (byte[] request : requests) {
+      input.write(request);
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new PooledClassPathRunner(maxUses)
+        .serve(new ByteArrayInputStream(input.toByteArray()), output);
+    DataInputStream responses =
+        new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+    assertTrue("environment can be set on JDK 8", responses.readBoolean());
+    return responses;
+  }
+
+  /** Loaded afresh by every request, so {@link #runs} must always start at zero. */
+  public static class FakeTestRunner {
+    private static int runs;
+
+    public static int runInProcess(String[] args) {
+      runs++;
+      if (args[0].equals("env")) {
+        System.out.println(
+            runs + " " + System.getenv("POOLED_TEST_VAR") + " " + System.getenv("PATH"));
+        return 0;
+      }
+      System.out.println(runs + " " + System.getProperty("pooled.test.property"));
+      if (args[0].equals("leak-thread")) {
+        Thread sleeper =
+            new Thread(
+                () -> {
+                  try {
+                    Thread.sleep(5000);
+                  } catch (InterruptedException e) {
+                    // Done.
+                  }
+                });
+        sleeper.setDaemon(true);
+        sleeper.start();
+        return 0;
+      }
+      return Integer.parseInt(args[0]);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.facebook.buck.jvm.kotlin;
 
 import static java.io.File.pathSeparator;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -361,4 +362,28 @@ public class KotlinBuckConfigTest {
 
     assertEquals(AbiGenerationMode.SOURCE, config.getAbiGenerationMode());
   }
+
+  @Test
+  public void incrementalCompilationIsOptIn() {
+    KotlinBuckConfig config = FakeBuckConfig.builder().build().getView(KotlinBuckConfig.class);
+    assertFalse(config.shouldCompileIncrementally());
+
+    config =
+        FakeBuckConfig.builder()
+            .setSections(ImmutableMap.of("kotlin", ImmutableMap.of("incremental", "true")))
+            .build()
+            .getView(KotlinBuckConfig.class);
+    assertTrue(config.shouldCompileIncrementally());
+  }
+
+  @Test
+  public void compilerPoolSizeCanBeConfigured() {
+    KotlinBuckConfig config =
+        FakeBuckConfig.builder()
+            .setSections(ImmutableMap.of("kotlin", ImmutableMap.of("compiler_pool_size", "3")))
+            .build()
+            .getView(KotlinBuckConfig.class);
+
+    assertEquals(3, config.getCompilerPoolSize());
+  }
 }
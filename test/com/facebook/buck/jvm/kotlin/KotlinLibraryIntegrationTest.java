@@ -174,6 +174,30 @@ public class KotlinLibraryIntegrationTest {
     buildResult.assertSuccess("Build should have succeeded.");
   }
 
+  @Test
+  public void shouldRecompileIncrementallyAfterEditingOneFile() throws IOException {
+    Path jarFile =
+        workspace.buildAndReturnOutput(
+            "-c", "kotlin.incremental=true", "//com/example/incremental:incremental");
+    try (JarFile jf = new JarFile(jarFile.toString())) {
+      assertNotNull(jf.getEntry("com/example/incremental/Greeter.class"));
+      assertNotNull(jf.getEntry("com/example/incremental/MainKt.class"));
+    }
+
+    workspace.replaceFileContents(
+        "com/example/incremental/Greeter.kt",
+        "class Greeter {",
+        "class Greeter {\n    class Inner\n");
+    jarFile =
+        workspace.buildAndReturnOutput(
+            "-c", "kotlin.incremental=true", "//com/example/incremental:incremental");
+    try (JarFile jf = new JarFile(jarFile.toString())) {
+      assertNotNull(jf.getEntry("com/example/incremental/Greeter.class"));
+      assertNotNull(jf.getEntry("com/example/incremental/Greeter$Inner.class"));
+      assertNotNull(jf.getEntry("com/example/incremental/MainKt.class"));
+    }
+  }
+
   @Test
   public void shouldFailToCompileInvalidKotlinCode() {
     ProcessResult buildResult = workspace.runBuckCommand("build", "//com/example/bad:fail");
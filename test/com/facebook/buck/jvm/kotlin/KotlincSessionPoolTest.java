@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class KotlincSessionPoolTest {
+
+  private static final String COMPILER_CLASS = StringBuilder.class.getName();
+
+  @Test
+  public void reusesReleasedCompilerInstances() {
+    KotlincSessionPool pool =
+        new KotlincSessionPool(() -> getClass().getClassLoader(), COMPILER_CLASS, 2);
+
+    Object first;
+    try (KotlincSessionPool.Session session = pool.acquire()) {
+      first = session.getCompiler();
+    }
+    assertEquals(1, pool.getIdleSessionCount());
+
+    try (KotlincSessionPool.Session session = pool.acquire()) {
+      assertSame(first, session.getCompiler());
+      assertEquals(0, pool.getIdleSessionCount());
+    }
+  }
+
+  @Test
+  public void concurrentSessionsGetDistinctCompilers() {
+    KotlincSessionPool pool =
+        new KotlincSessionPool(() -> getClass().getClassLoader(), COMPILER_CLASS, 2);
+
+    try (KotlincSessionPool.Session first = pool.acquire();
+        KotlincSessionPool.Session second = pool.acquire()) {
+      assertNotSame(first.getCompiler(), second.getCompiler());
+    }
+    assertEquals(2, pool.getIdleSessionCount());
+  }
+
+  @Test
+  public void retainsAtMostMaxIdleSessions() {
+    KotlincSessionPool pool =
+        new KotlincSessionPool(() -> getClass().getClassLoader(), COMPILER_CLASS, 1);
+
+    try (KotlincSessionPool.Session first = pool.acquire();
+        KotlincSessionPool.Session second = pool.acquire();
+        KotlincSessionPool.Session third = pool.acquire()) {
+      first.getCompiler();
+      second.getCompiler();
+      third.getCompiler();
+    }
+    assertEquals(1, pool.getIdleSessionCount());
+  }
+
+  @Test
+  public void loadsClassLoaderOnlyOnce() {
+    AtomicInteger loads = new AtomicInteger();
+    KotlincSessionPool pool =
+        new KotlincSessionPool(
+            () -> {
+              loads.incrementAndGet();
+              return getClass().getClassLoader();
+            },
+            COMPILER_CLASS,
+            4);
+
+    try (KotlincSessionPool.Session first = pool.acquire();
+        KotlincSessionPool.Session second = pool.acquire()) {
+      assertSame(first.getClassLoader(), second.getClassLoader());
+    }
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void closingASessionTwiceReleasesItOnce() {
+    KotlincSessionPool pool =
+        new KotlincSessionPool(() -> getClass().getClassLoader(), COMPILER_CLASS, 4);
+
+    KotlincSessionPool.Session session = pool.acquire();
+    session.close();
+    session.close();
+    assertEquals(1, pool.getIdleSessionCount());
+  }
+
+  @Test
+  public void lookupsUpdateTheNumberOfRetainedSessions() {
+    Object key = new Object();
+    KotlincSessionPool pool =
+        KotlincSessionPool.get(key, () -> getClass().getClassLoader(), COMPILER_CLASS, 1);
+    try (KotlincSessionPool.Session first = pool.acquire();
+        KotlincSessionPool.Session second = pool.acquire();
+        KotlincSessionPool.Session third = pool.acquire()) {
+      assertSame(
+          pool, KotlincSessionPool.get(key, () -> getClass().getClassLoader(), COMPILER_CLASS, 3));
+    }
+    assertEquals(3, pool.getIdleSessionCount());
+
+    KotlincSessionPool.get(key, () -> getClass().getClassLoader(), COMPILER_CLASS, 2);
+    assertEquals(2, pool.getIdleSessionCount());
+  }
+}
@@ -0,0 +1,7 @@
+package com.example.incremental
+
+class Greeter {
+    fun greet(name: String): String {
+        return "Hello, " + name
+    }
+}
@@ -0,0 +1,5 @@
+package com.example.incremental
+
+fun main(args: Array<String>) {
+    println(Greeter().greet("world"))
+}
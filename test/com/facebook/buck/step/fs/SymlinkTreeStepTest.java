@@ -17,6 +17,7 @@
 package com.facebook.buck.step.fs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
@@ -75,4 +76,73 @@ public class SymlinkTreeStepTest {
     projectFilesystem.writeContentsToPath("new", source1);
     assertEquals(Optional.of("new"), projectFilesystem.readFirstLine(root.resolve(link1)));
   }
+
+  @Test
+  public void testOwnedTreeIsUpdatedInPlace() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newInstance();
+    Path root = Paths.get("symlink-tree-root");
+
+    Path source1 = Paths.get("source1");
+    projectFilesystem.writeContentsToPath("foo", source1);
+    Path source2 = Paths.get("source2");
+    projectFilesystem.writeContentsToPath("bar", source2);
+
+    Path kept = Paths.get("kept");
+    Path retargeted = Paths.get("dir", "retargeted");
+    Path removed = Paths.get("removed", "link");
+    new SymlinkTreeStep(
+            "link_tree",
+            projectFilesystem,
+            root,
+            ImmutableMap.of(kept, source1, retargeted, source1, removed, source2),
+            true)
+        .execute(context);
+    projectFilesystem.writeContentsToPath("junk", root.resolve("dir/junk"));
+
+    Path added = Paths.get("added");
+    new SymlinkTreeStep(
+            "link_tree",
+            projectFilesystem,
+            root,
+            ImmutableMap.of(kept, source1, retargeted, source2, added, source2),
+            true)
+        .execute(context);
+
+    assertEquals(Optional.of("foo"), projectFilesystem.readFirstLine(root.resolve(kept)));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(retargeted)));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(added)));
+    assertFalse(projectFilesystem.exists(root.resolve("removed")));
+    assertFalse(projectFilesystem.exists(root.resolve("dir/junk")));
+  }
+
+  @Test
+  public void testLargeTreesAreLinkedInParallel() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newInstance();
+    Path root = Paths.get("symlink-tree-root");
+    Path source = Paths.get("source");
+    projectFilesystem.writeContentsToPath("foo", source);
+
+    ImmutableMap.Builder<Path, Path> links = ImmutableMap.builder();
+    for (int i = 0; i < 1000; i++) {
+      links.put(Paths.get("dir" + i % 10, "link" + i), source);
+    }
+    new SymlinkTreeStep("link_tree", projectFilesystem, root, links.build(), true)
+        .execute(context);
+    // Shrinking the tree removes the rest.
+    new SymlinkTreeStep(
+            "link_tree",
+            projectFilesystem,
+            root,
+            ImmutableMap.of(Paths.get("dir0", "link0"), source),
+            true)
+        .execute(context);
+
+    assertEquals(Optional.of("foo"), projectFilesystem.readFirstLine(root.resolve("dir0/link0")));
+    assertFalse(projectFilesystem.exists(root.resolve("dir0/link10")));
+    assertFalse(projectFilesystem.exists(root.resolve("dir1")));
+  }
 }
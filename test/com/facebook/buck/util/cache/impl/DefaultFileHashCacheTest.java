@@ -233,8 +233,8 @@ public class DefaultFileHashCacheTest {
     cache.getForArchiveMember(abiJarPath, memberPath);
   }
 
-  @Test(expected = UnsupportedOperationException.class)
-  public void whenJarMemberWithoutManifestIsQueriedThenThrow() throws IOException {
+  @Test
+  public void whenJarMemberWithoutManifestIsQueriedThenCacheHashesMember() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
     DefaultFileHashCache cache =
         DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
@@ -248,13 +248,13 @@ public class DefaultFileHashCacheTest {
       jar.closeEntry();
     }
 
-    cache.getForArchiveMember(abiJarPath, memberPath);
+    assertEquals(
+        Hashing.murmur3_128().hashString("Contents", StandardCharsets.UTF_8),
+        cache.getForArchiveMember(abiJarPath, memberPath));
   }
 
-  @Test(expected = NoSuchFileException.class)
-  public void whenJarMemberWithEmptyManifestIsQueriedThenThrow() throws IOException {
-    Assume.assumeFalse(fileHashCacheMode == FileHashCacheMode.PARALLEL_COMPARISON);
-    Assume.assumeFalse(fileHashCacheMode == FileHashCacheMode.LIMITED_PREFIX_TREE_PARALLEL);
+  @Test
+  public void whenJarMemberWithEmptyManifestIsQueriedThenCacheHashesMember() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
     DefaultFileHashCache cache =
         DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
@@ -270,7 +270,9 @@ public class DefaultFileHashCacheTest {
           new ByteArrayInputStream("Contents".getBytes(StandardCharsets.UTF_8)));
     }
 
-    cache.getForArchiveMember(abiJarPath, memberPath);
+    assertEquals(
+        Hashing.murmur3_128().hashString("Contents", StandardCharsets.UTF_8),
+        cache.getForArchiveMember(abiJarPath, memberPath));
   }
 
   @Test
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JarMemberHashIndexTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path jarPath;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(filesystem.getBuckPaths().getBuckOut());
+    jarPath = Paths.get("prebuilt.jar");
+    try (JarOutputStream jar = new JarOutputStream(filesystem.newFileOutputStream(jarPath))) {
+      jar.putNextEntry(new JarEntry("com/example/"));
+      jar.closeEntry();
+      jar.putNextEntry(new JarEntry("com/example/A.class"));
+      jar.write("A".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+      jar.putNextEntry(new JarEntry("com/example/B.class"));
+      jar.write("B".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+    }
+  }
+
+  @Test
+  public void hashesEveryFileMember() throws IOException {
+    ImmutableMap<Path, HashCodeAndFileType> hashes =
+        new JarMemberHashIndex(filesystem).getMemberHashes(jarPath);
+
+    assertEquals(
+        ImmutableMap.of(
+            Paths.get("com/example/A.class"), HashCodeAndFileType.ofFile(murmur("A")),
+            Paths.get("com/example/B.class"), HashCodeAndFileType.ofFile(murmur("B"))),
+        hashes);
+  }
+
+  @Test
+  public void indexIsPersistedAndReused() throws IOException {
+    JarMemberHashIndex index = new JarMemberHashIndex(filesystem);
+    index.getMemberHashes(jarPath);
+
+    Path indexPath = index.getIndexPath(filesystem.computeSha1(jarPath).asHashCode());
+    assertTrue(filesystem.isFile(indexPath));
+
+    // Rewrite the sidecar so that we can tell whether it was read instead of the jar.
+    filesystem.writeLinesToPath(ImmutableList.of(murmur("C") + " com/example/C.class"), indexPath);
+    assertEquals(
+        ImmutableMap.of(Paths.get("com/example/C.class"), HashCodeAndFileType.ofFile(murmur("C"))),
+        new JarMemberHashIndex(filesystem).getMemberHashes(jarPath));
+  }
+
+  @Test
+  public void corruptIndexIsRecomputed() throws IOException {
+    JarMemberHashIndex index = new JarMemberHashIndex(filesystem);
+    Path indexPath = index.getIndexPath(filesystem.computeSha1(jarPath).asHashCode());
+    filesystem.mkdirs(indexPath.getParent());
+    filesystem.writeContentsToPath("not an index\n", indexPath);
+
+    assertEquals(2, index.getMemberHashes(jarPath).size());
+    assertEquals(2, filesystem.readLines(indexPath).size());
+  }
+
+  @Test
+  public void indexIsNotPersistedWithoutBuckOut() throws IOException {
+    filesystem.deleteRecursivelyIfExists(filesystem.getBuckPaths().getBuckOut());
+    JarMemberHashIndex index = new JarMemberHashIndex(filesystem);
+
+    assertEquals(2, index.getMemberHashes(jarPath).size());
+    assertFalse(filesystem.exists(filesystem.getBuckPaths().getBuckOut()));
+  }
+
+  @Test
+  public void onlyTheFirstOfDuplicateMembersIsHashed() throws IOException {
+    Path duplicatesPath = Paths.get("duplicates.jar");
+    try (JarOutputStream jar =
+        new JarOutputStream(filesystem.newFileOutputStream(duplicatesPath))) {
+      jar.putNextEntry(new JarEntry("com/example/A.class"));
+      jar.write("A".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+      jar.putNextEntry(new JarEntry("com/example/X.class"));
+      jar.write("X".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+    }
+    // Jar writers refuse to write duplicate names, so rename the second member in its local and
+    // central directory headers.
+    byte[] bytes = Files.readAllBytes(filesystem.resolve(duplicatesPath));
+    String contents = new String(bytes, StandardCharsets.ISO_8859_1);
+    Files.write(
+        filesystem.resolve(duplicatesPath),
+        contents
+            .replace("com/example/X.class", "com/example/A.class")
+            .getBytes(StandardCharsets.ISO_8859_1));
+
+    assertEquals(
+        ImmutableMap.of(Paths.get("com/example/A.class"), HashCodeAndFileType.ofFile(murmur("A"))),
+        new JarMemberHashIndex(filesystem).getMemberHashes(duplicatesPath));
+  }
+
+  private static HashCode murmur(String contents) {
+    return Hashing.murmur3_128().hashString(contents, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.collect;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures collecting the transitive inputs of every library of a synthetic graph, the way C++
+ * rules collect their preprocessor inputs and native linkables: each library nests the sets of its
+ * deps, and only the binary at the top flattens its set.
+ */
+public class NestedSetBenchmark {
+  private static final int MAX_DEPS = 5;
+  private static final int DEP_WINDOW = 500;
+  private static final int BINARY_DEPS = 100;
+
+  @Param({"50000"})
+  private int libraryCount = 2000;
+
+  private List<int[]> deps;
+
+  @Before
+  @BeforeExperiment
+  public void setUp() {
+    Random random = new Random(0);
+    deps = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      int[] libraryDeps = new int[i == 0 ? 0 : 1 + random.nextInt(MAX_DEPS)];
+      for (int j = 0; j < libraryDeps.length; j++) {
+        // Libraries mostly depend on others from their neighbourhood.
+        libraryDeps[j] = Math.max(0, i - 1 - random.nextInt(DEP_WINDOW));
+      }
+      deps.add(libraryDeps);
+    }
+  }
+
+  @Test
+  public void collectsEveryLibraryReachableFromTheBinary() {
+    boolean[] reachable = new boolean[libraryCount];
+    for (int i = libraryCount - 1; i >= 0; i--) {
+      if (reachable[i] || i >= libraryCount - BINARY_DEPS) {
+        reachable[i] = true;
+        for (int dep : deps.get(i)) {
+          reachable[dep] = true;
+        }
+      }
+    }
+    int reachableCount = 0;
+    for (boolean isReachable : reachable) {
+      reachableCount += isReachable ? 1 : 0;
+    }
+    assertEquals(reachableCount, collectTransitiveInputs());
+  }
+
+  @Benchmark
+  public int collectTransitiveInputs() {
+    List<NestedSet<Integer>> sets = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      NestedSet.Builder<Integer> builder = NestedSet.<Integer>builder().add(i);
+      for (int dep : deps.get(i)) {
+        builder.addTransitive(sets.get(dep));
+      }
+      sets.add(builder.build());
+    }
+
+    NestedSet.Builder<Integer> binary = NestedSet.builder();
+    for (int i = Math.max(0, libraryCount - BINARY_DEPS); i < libraryCount; i++) {
+      binary.addTransitive(sets.get(i));
+    }
+    return binary.build().toList().size();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Comparator;
+import java.util.Optional;
+import org.junit.Test;
+
+public class NestedSetTest {
+
+  @Test
+  public void emptySet() {
+    NestedSet<String> set = NestedSet.<String>builder().build();
+    assertTrue(set.isEmpty());
+    assertSame(NestedSet.of(), set);
+    assertEquals(ImmutableList.of(), set.toList());
+  }
+
+  @Test
+  public void directElementsComeFirstThenNestedSetsInOrder() {
+    NestedSet<String> left = NestedSet.<String>builder().add("b").add("c").build();
+    NestedSet<String> right = NestedSet.<String>builder().add("d").build();
+    NestedSet<String> set =
+        NestedSet.<String>builder().addTransitive(left).add("a").addTransitive(right).build();
+    assertFalse(set.isEmpty());
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), set.toList());
+  }
+
+  @Test
+  public void nestedSetsAreFlattenedDepthFirst() {
+    NestedSet<String> leaf = NestedSet.<String>builder().add("c").build();
+    NestedSet<String> inner = NestedSet.<String>builder().add("b").addTransitive(leaf).build();
+    NestedSet<String> other = NestedSet.<String>builder().add("d").build();
+    NestedSet<String> set =
+        NestedSet.<String>builder().add("a").addTransitive(inner).addTransitive(other).build();
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), set.toList());
+  }
+
+  @Test
+  public void nestedSetsCanBeFlattenedBreadthFirst() {
+    NestedSet<String> d = NestedSet.<String>builder().add("d").build();
+    NestedSet<String> b = NestedSet.<String>builder().add("b").addTransitive(d).build();
+    NestedSet<String> c = NestedSet.<String>builder().add("c").addTransitive(d).build();
+    NestedSet<String> e = NestedSet.<String>builder().add("e").build();
+    NestedSet<String> set =
+        NestedSet.<String>builder().add("a").addTransitive(b).addTransitive(c).build();
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), set.toBreadthFirstList());
+    assertEquals(
+        ImmutableList.of("b", "e", "d"),
+        NestedSet.<String>builder().addTransitive(b).addTransitive(e).build().toBreadthFirstList());
+  }
+
+  @Test
+  public void sharedSetsAndEqualElementsAppearOnce() {
+    NestedSet<String> shared = NestedSet.<String>builder().add("x").add("y").build();
+    NestedSet<String> left = NestedSet.<String>builder().add("l").addTransitive(shared).build();
+    NestedSet<String> right =
+        NestedSet.<String>builder().add("r").add("l").addTransitive(shared).build();
+    NestedSet<String> set =
+        NestedSet.<String>builder().addTransitive(left).addTransitive(right).add("y").build();
+    assertEquals(ImmutableList.of("y", "l", "x", "r"), set.toList());
+  }
+
+  @Test
+  public void singleNestedSetIsReused() {
+    NestedSet<String> inner = NestedSet.<String>builder().add("a").build();
+    assertSame(
+        inner,
+        NestedSet.<String>builder()
+            .addTransitive(inner)
+            .addTransitive(NestedSet.of())
+            .addTransitive(inner)
+            .build());
+  }
+
+  @Test
+  public void orderIsRecordedButNotUsedWhenFlattening() {
+    NestedSet<String> inner = NestedSet.<String>builder().add("b").add("a").build();
+    NestedSet<String> set =
+        NestedSet.<String>builder()
+            .setOrder(Comparator.reverseOrder())
+            .addTransitive(inner)
+            .build();
+    assertNotSame(inner, set);
+    assertEquals(Optional.empty(), inner.getOrder());
+    assertEquals(Optional.of(Comparator.reverseOrder()), set.getOrder());
+    assertEquals(ImmutableList.of("b", "a"), set.toList());
+  }
+
+  @Test
+  public void flattenerOnlyReturnsNewElements() {
+    NestedSet<String> shared = NestedSet.<String>builder().add("s").build();
+    NestedSet<String> first = NestedSet.<String>builder().add("a").addTransitive(shared).build();
+    NestedSet<String> second =
+        NestedSet.<String>builder().add("b").add("a").addTransitive(shared).build();
+    NestedSet.Flattener<String> flattener = new NestedSet.Flattener<>();
+    assertEquals(ImmutableList.of("a", "s"), flattener.flatten(first));
+    assertEquals(ImmutableList.of("b"), flattener.flatten(second));
+    assertEquals(ImmutableList.of(), flattener.flatten(first));
+  }
+
+  @Test
+  public void deeplyNestedSetsDoNotOverflowTheStack() {
+    NestedSet<Integer> set = NestedSet.of();
+    for (int i = 0; i < 100000; i++) {
+      set = NestedSet.<Integer>builder().add(i).addTransitive(set).build();
+    }
+    ImmutableList<Integer> elements = set.toList();
+    assertEquals(100000, elements.size());
+    assertEquals(Integer.valueOf(99999), elements.get(0));
+    assertEquals(Integer.valueOf(0), elements.get(99999));
+  }
+}
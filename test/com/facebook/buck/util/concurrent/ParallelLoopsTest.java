@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelLoopsTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void runsEveryIndexOnce() {
+    AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+    ParallelLoops.forEachIndex(executor, 4, runs.length(), runs::incrementAndGet);
+    for (int i = 0; i < runs.length(); i++) {
+      assertEquals(1, runs.get(i));
+    }
+  }
+
+  @Test
+  public void callerRunsEverythingWhenTheExecutorRunsNothing() {
+    AtomicIntegerArray runs = new AtomicIntegerArray(10);
+    ParallelLoops.forEachIndex(command -> {}, 4, runs.length(), runs::incrementAndGet);
+    for (int i = 0; i < runs.length(); i++) {
+      assertEquals(1, runs.get(i));
+    }
+  }
+
+  @Test
+  public void callerRunsEverythingInOrderWithoutAnExecutor() {
+    List<Integer> indices = new ArrayList<>();
+    ParallelLoops.forEachIndex(null, 4, 10, indices::add);
+    assertEquals(ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), indices);
+  }
+
+  @Test
+  public void rethrowsTheCheckedExceptionOfTheLowestFailingIndex() {
+    try {
+      ParallelLoops.forEachIndex(
+          executor,
+          4,
+          100,
+          index -> {
+            if (index % 10 == 7) {
+              throw new IOException(String.valueOf(index));
+            }
+          });
+      fail("expected an IOException");
+    } catch (IOException e) {
+      assertEquals("7", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rethrowsErrorsFromOtherThreads() {
+    AssertionError error = new AssertionError();
+    // Runs the worker to completion on another thread before the caller gets to take any index.
+    ParallelLoops.Body<RuntimeException, RuntimeException> body =
+        index -> {
+          if (index == 3) {
+            throw error;
+          }
+        };
+    try {
+      ParallelLoops.forEachIndex(
+          command -> {
+            Thread thread = new Thread(command);
+            thread.start();
+            try {
+              thread.join();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          },
+          2,
+          10,
+          body);
+      fail("expected an AssertionError");
+    } catch (AssertionError e) {
+      assertSame(error, e);
+    }
+  }
+}